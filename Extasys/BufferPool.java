@@ -0,0 +1,190 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recycles byte arrays for received data.
+ * 
+ * Arrays come in power of two sizes from MIN_BUFFER_SIZE up to the pool's
+ * largest size, and Take() hands out the smallest one that fits. Received
+ * data can be copied out of a read buffer into an array about its own size,
+ * so a small datagram doesn't pin a whole read buffer while it waits to be
+ * handled, and the array goes back to the pool once it has been.
+ * Any thread can take and recycle arrays without taking a lock.
+ */
+public class BufferPool
+{
+
+    /**
+     * The smallest array the pool hands out.
+     */
+    public static final int MIN_BUFFER_SIZE = 64;
+    /**
+     * The largest array the pool hands out by default, enough for any UDP datagram.
+     */
+    public static final int DEFAULT_MAX_BUFFER_SIZE = 65536;
+    /**
+     * The number of free arrays of each size the pool keeps by default.
+     */
+    public static final int DEFAULT_BUFFERS_PER_SIZE = 256;
+    private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private final FreeList[] fFree;
+    private final int fMaxBufferSize;
+    private final int fBuffersPerSize;
+    private final AtomicLong fAllocated = new AtomicLong(0);
+
+    /**
+     * Constructs a new buffer pool with the default sizes.
+     */
+    public BufferPool()
+    {
+        this(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_BUFFERS_PER_SIZE);
+    }
+
+    /**
+     * Constructs a new buffer pool.
+     * @param maxBufferSize is the largest array the pool hands out, rounded up to a power of two.
+     * @param buffersPerSize is the number of free arrays of each size the pool keeps.
+     */
+    public BufferPool(int maxBufferSize, int buffersPerSize)
+    {
+        int sizes = SizeClass(Math.max(maxBufferSize, MIN_BUFFER_SIZE)) + 1;
+        fMaxBufferSize = MIN_BUFFER_SIZE << (sizes - 1);
+        fBuffersPerSize = buffersPerSize;
+        fFree = new FreeList[sizes];
+        for (int i = 0; i < sizes; i++)
+        {
+            fFree[i] = new FreeList();
+        }
+    }
+
+    /**
+     * Take an array at least as long as asked for.
+     * @param length is the number of bytes needed.
+     * @return a recycled or new array of at least length bytes. Arrays longer than the pool's largest size are never recycled.
+     */
+    public byte[] Take(int length)
+    {
+        if (length > fMaxBufferSize)
+        {
+            fAllocated.incrementAndGet();
+            return new byte[length];
+        }
+
+        int sizeClass = SizeClass(length);
+        byte[] buffer = fFree[sizeClass].fBuffers.poll();
+        if (buffer != null)
+        {
+            fFree[sizeClass].fCount.decrementAndGet();
+            return buffer;
+        }
+
+        fAllocated.incrementAndGet();
+        return new byte[MIN_BUFFER_SIZE << sizeClass];
+    }
+
+    /**
+     * Give an array back to the pool, to be handed out again by Take().
+     * The pool doesn't remember which arrays it handed out, so it takes any array
+     * whose length is one of its sizes, and ignores arrays of any other length.
+     * Only recycle an array that nothing, including whoever created it, will use
+     * again: usually one that came from Take() and whose data has been handled.
+     * @param buffer is the array to recycle.
+     */
+    public void Recycle(byte[] buffer)
+    {
+        if (buffer == null || buffer.length > fMaxBufferSize || buffer.length < MIN_BUFFER_SIZE)
+        {
+            return;
+        }
+
+        int sizeClass = SizeClass(buffer.length);
+        if (buffer.length != (MIN_BUFFER_SIZE << sizeClass))
+        {
+            return;
+        }
+
+        if (fFree[sizeClass].fCount.incrementAndGet() <= fBuffersPerSize)
+        {
+            fFree[sizeClass].fBuffers.offer(buffer);
+        }
+        else
+        {
+            fFree[sizeClass].fCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of arrays this pool has had to allocate.
+     * @return the number of arrays this pool has had to allocate.
+     */
+    public long getAllocatedCount()
+    {
+        return fAllocated.get();
+    }
+
+    /**
+     * Returns the number of free arrays waiting in the pool.
+     * @return the number of free arrays waiting in the pool.
+     */
+    public int getFreeCount()
+    {
+        int free = 0;
+        for (int i = 0; i < fFree.length; i++)
+        {
+            free += fFree[i].fCount.get();
+        }
+        return free;
+    }
+
+    /**
+     * Returns the largest array this pool hands out.
+     * @return the largest array this pool hands out.
+     */
+    public int getMaxBufferSize()
+    {
+        return fMaxBufferSize;
+    }
+
+    private static int SizeClass(int length)
+    {
+        if (length <= MIN_BUFFER_SIZE)
+        {
+            return 0;
+        }
+        // The number of bits needed to hold length - 1, less those of MIN_BUFFER_SIZE
+        return (32 - Integer.numberOfLeadingZeros(length - 1)) - MIN_SIZE_SHIFT;
+    }
+
+    /**
+     * The free arrays of one size, and how many there are, since counting
+     * a ConcurrentLinkedQueue means walking it.
+     */
+    private static final class FreeList
+    {
+
+        final ConcurrentLinkedQueue<byte[]> fBuffers = new ConcurrentLinkedQueue<byte[]>();
+        final AtomicInteger fCount = new AtomicInteger(0);
+    }
+}
@@ -19,7 +19,9 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -29,25 +31,162 @@ public class DataFrame
 {
 
     private byte[] fBytes;
+    private int fOffset;
     private int fLength;
+    private BufferPool fPool;
+    private AtomicInteger fReferences;
 
     public DataFrame(byte[] bytes)
     {
         fBytes = bytes;
+        fOffset = 0;
         fLength = bytes.length;
     }
 
     public DataFrame(byte[] bytes, int offset, int length)
     {
-        fBytes = Arrays.copyOfRange(bytes, offset, length);
+        fBytes = Arrays.copyOfRange(bytes, offset, offset + length);
+        fOffset = 0;
         fLength = fBytes.length;
     }
 
+    private DataFrame(byte[] buffer, int offset, int length, BufferPool pool)
+    {
+        fBytes = buffer;
+        fOffset = offset;
+        fLength = length;
+        if (pool != null)
+        {
+            fPool = pool;
+            fReferences = new AtomicInteger(1);
+        }
+    }
+
+    /**
+     * Returns a frame over part of a buffer, without copying it.
+     * 
+     * The frame is only valid while the buffer's owner leaves it alone, which
+     * for received frames means until OnDataReceive returns.
+     * 
+     * @param buffer is the array holding the frame.
+     * @param offset is the position of the frame's first byte.
+     * @param length is the number of bytes in the frame.
+     * @return a frame over part of the buffer.
+     */
+    public static DataFrame Wrap(byte[] buffer, int offset, int length)
+    {
+        return new DataFrame(buffer, offset, length, null);
+    }
+
+    /**
+     * Returns a frame over part of a buffer taken from a pool, without copying it.
+     * 
+     * The frame holds the only reference to the buffer, and the buffer goes
+     * back to the pool when the last reference is released. Whoever handles
+     * a received frame releases it once OnDataReceive returns, so call Retain
+     * to keep using the frame after that, and Release when done with it.
+     * 
+     * @param pool is the pool the buffer came from.
+     * @param buffer is the array holding the frame.
+     * @param offset is the position of the frame's first byte.
+     * @param length is the number of bytes in the frame.
+     * @return a frame that owns the buffer.
+     */
+    public static DataFrame Pooled(BufferPool pool, byte[] buffer, int offset, int length)
+    {
+        return new DataFrame(buffer, offset, length, pool);
+    }
+
+    /**
+     * Keep this frame's buffer out of its pool until a matching Release.
+     * Does nothing for frames that aren't pooled.
+     * 
+     * @return this frame.
+     */
+    public DataFrame Retain()
+    {
+        if (fReferences != null && fReferences.getAndIncrement() <= 0)
+        {
+            fReferences.getAndDecrement();
+            throw new IllegalStateException("The frame has already been released.");
+        }
+        return this;
+    }
+
+    /**
+     * Drop a reference to this frame, giving its buffer back to the pool
+     * when it was the last one. Nothing may use the frame after its last
+     * release. Does nothing for frames that aren't pooled.
+     */
+    public void Release()
+    {
+        if (fReferences != null && fReferences.decrementAndGet() == 0)
+        {
+            fPool.Recycle(fBytes);
+        }
+    }
+
+    /**
+     * Returns true if this frame's buffer belongs to a pool.
+     * 
+     * @return true if this frame's buffer belongs to a pool.
+     */
+    public boolean isPooled()
+    {
+        return fReferences != null;
+    }
+
+    /**
+     * Returns a read-only view of this frame, positioned at its first byte.
+     * 
+     * The view shares the frame's buffer, so it is only valid as long as the frame is.
+     * 
+     * @return a read-only view of this frame.
+     */
+    public ByteBuffer asByteBuffer()
+    {
+        return ByteBuffer.wrap(fBytes, fOffset, fLength).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the bytes of this frame, in an array of their own size.
+     * 
+     * A frame over part of a buffer is copied out, and so is a pooled frame,
+     * whose buffer goes back to the pool when the frame is released: the
+     * array returned here stays valid after that. Use getBuffer and getOffset
+     * instead to read a frame in place.
+     * 
+     * @return the bytes of this frame.
+     */
     public byte[] getBytes()
+    {
+        if (fPool == null && fOffset == 0 && fLength == fBytes.length)
+        {
+            return fBytes;
+        }
+        return Arrays.copyOfRange(fBytes, fOffset, fOffset + fLength);
+    }
+
+    /**
+     * Returns the array holding this frame, which may hold other data too.
+     * 
+     * @return the array holding this frame.
+     */
+    public byte[] getBuffer()
     {
         return fBytes;
     }
 
+    /**
+     * Returns the position of this frame's first byte in its buffer.
+     * 
+     * @return the position of this frame's first byte in its buffer.
+     */
+    public int getOffset()
+    {
+        return fOffset;
+    }
+
     public int getLength()
     {
         return fLength;
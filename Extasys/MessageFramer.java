@@ -0,0 +1,296 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys;
+
+import java.io.IOException;
+
+/**
+ * Splits a stream of bytes into frames, either behind a length prefix or
+ * ending in a delimiter.
+ * 
+ * Received bytes are appended to a ring buffer that grows as needed. Each
+ * whole frame is handed to OnFrame as a slice of that buffer, without being
+ * copied, unless it happens to wrap around the end of the ring. The slice is
+ * only valid until OnFrame returns. Bytes are never decoded as text, so binary
+ * frames arrive exactly as they were sent, and a delimiter is searched for
+ * only in bytes that haven't been searched before.
+ */
+public abstract class MessageFramer
+{
+
+    /**
+     * The longest frame accepted unless another limit is given, in bytes.
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    private static final int INITIAL_CAPACITY = 4096;
+    private final int fPrefixSize;
+    private final byte[] fDelimiter;
+    private final int fMaxFrameLength;
+    private byte[] fBuffer = new byte[INITIAL_CAPACITY];
+    private int fHead = 0;
+    private int fCount = 0;
+    private int fScanned = 0;
+    private byte[] fScratch = new byte[0];
+
+    /**
+     * Constructs a framer for frames that end in a delimiter.
+     * The delimiter itself isn't part of the frame.
+     * @param delimiter is the bytes that end each frame.
+     * @param maxFrameLength is the longest frame accepted, in bytes.
+     */
+    protected MessageFramer(byte[] delimiter, int maxFrameLength)
+    {
+        if (delimiter == null || delimiter.length == 0)
+        {
+            throw new IllegalArgumentException("The delimiter must not be empty.");
+        }
+        fPrefixSize = 0;
+        fDelimiter = delimiter.clone();
+        fMaxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Constructs a framer for frames behind a big-endian length prefix.
+     * The prefix counts the bytes that follow it and isn't part of the frame.
+     * @param prefixSize is the size of the length prefix: 1, 2 or 4 bytes.
+     * @param maxFrameLength is the longest frame accepted, in bytes.
+     */
+    protected MessageFramer(int prefixSize, int maxFrameLength)
+    {
+        if (prefixSize != 1 && prefixSize != 2 && prefixSize != 4)
+        {
+            throw new IllegalArgumentException("The length prefix must be 1, 2 or 4 bytes.");
+        }
+        fPrefixSize = prefixSize;
+        fDelimiter = null;
+        fMaxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Handle a whole frame.
+     * @param buffer holds the frame. It belongs to the framer, so copy anything that has to outlive the call.
+     * @param offset is the position of the frame's first byte.
+     * @param length is the number of bytes in the frame.
+     */
+    protected abstract void OnFrame(byte[] buffer, int offset, int length);
+
+    /**
+     * Add received bytes, and hand every frame they complete to OnFrame.
+     * @param data is the array holding the received bytes.
+     * @param offset is the position of the first received byte.
+     * @param length is the number of bytes received.
+     * @throws IOException if a frame is longer than the limit. The buffered bytes are dropped.
+     */
+    public void Append(byte[] data, int offset, int length) throws IOException
+    {
+        EnsureCapacity(fCount + length);
+
+        int tail = (fHead + fCount) & (fBuffer.length - 1);
+        int first = Math.min(length, fBuffer.length - tail);
+        System.arraycopy(data, offset, fBuffer, tail, first);
+        System.arraycopy(data, offset + first, fBuffer, 0, length - first);
+        fCount += length;
+
+        if (fDelimiter == null)
+        {
+            ReadPrefixedFrames();
+        }
+        else
+        {
+            ReadDelimitedFrames();
+        }
+
+        if (fCount == 0)
+        {
+            // Start the next frame at the front, where it won't wrap
+            fHead = 0;
+        }
+    }
+
+    /**
+     * Drop every buffered byte.
+     * Call this method when the connection is lost, so the next one starts clean.
+     */
+    public void Clear()
+    {
+        fHead = 0;
+        fCount = 0;
+        fScanned = 0;
+    }
+
+    /**
+     * Returns the number of bytes waiting for the rest of their frame.
+     * @return the number of bytes waiting for the rest of their frame.
+     */
+    public int getBufferedLength()
+    {
+        return fCount;
+    }
+
+    /**
+     * Put a big-endian length prefix in front of some data, ready to send to a
+     * length-prefixed framer.
+     * @param data is the array holding the frame.
+     * @param offset is the position of the frame's first byte.
+     * @param length is the number of bytes in the frame.
+     * @param prefixSize is the size of the length prefix: 1, 2 or 4 bytes.
+     * @return a new array holding the prefix and the frame.
+     */
+    public static byte[] PrefixLength(byte[] data, int offset, int length, int prefixSize)
+    {
+        if (prefixSize < 4 && length >= (1 << (8 * prefixSize)))
+        {
+            throw new IllegalArgumentException("A frame of " + length + " bytes doesn't fit a " + prefixSize + " byte length prefix.");
+        }
+
+        byte[] result = new byte[prefixSize + length];
+        for (int i = 0; i < prefixSize; i++)
+        {
+            result[i] = (byte) (length >>> (8 * (prefixSize - 1 - i)));
+        }
+        System.arraycopy(data, offset, result, prefixSize, length);
+        return result;
+    }
+
+    private void ReadPrefixedFrames() throws IOException
+    {
+        while (fCount >= fPrefixSize)
+        {
+            int length = 0;
+            for (int i = 0; i < fPrefixSize; i++)
+            {
+                length = (length << 8) | (0xff & ByteAt(i));
+            }
+
+            if (length < 0 || length > fMaxFrameLength)
+            {
+                Clear();
+                throw new IOException("Frame of " + (0xffffffffL & length) + " bytes is longer than the limit of " + fMaxFrameLength + ".");
+            }
+            if (fCount - fPrefixSize < length)
+            {
+                // Make room for the whole frame now, rather than a bit at a time
+                EnsureCapacity(fPrefixSize + length);
+                return;
+            }
+
+            Emit(fPrefixSize, length);
+            Consume(fPrefixSize + length);
+        }
+    }
+
+    private void ReadDelimitedFrames() throws IOException
+    {
+        int last = fDelimiter.length - 1;
+        while (true)
+        {
+            int end = -1;
+            for (int i = Math.max(fScanned, last); i < fCount; i++)
+            {
+                // Check the delimiter's last byte first, it is the one that just arrived
+                if (ByteAt(i) == fDelimiter[last] && Matches(i - last))
+                {
+                    end = i - last;
+                    break;
+                }
+            }
+
+            if (end < 0)
+            {
+                fScanned = fCount;
+                if (fCount - last > fMaxFrameLength)
+                {
+                    Clear();
+                    throw new IOException("No delimiter in the last " + fMaxFrameLength + " bytes.");
+                }
+                return;
+            }
+
+            Emit(0, end);
+            Consume(end + fDelimiter.length);
+            fScanned = 0;
+        }
+    }
+
+    private boolean Matches(int position)
+    {
+        for (int j = 0; j < fDelimiter.length - 1; j++)
+        {
+            if (ByteAt(position + j) != fDelimiter[j])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte ByteAt(int position)
+    {
+        return fBuffer[(fHead + position) & (fBuffer.length - 1)];
+    }
+
+    private void Emit(int position, int length)
+    {
+        int start = (fHead + position) & (fBuffer.length - 1);
+        if (start + length <= fBuffer.length)
+        {
+            OnFrame(fBuffer, start, length);
+            return;
+        }
+
+        // The frame wraps around the end of the ring, so it has to be joined up
+        if (fScratch.length < length)
+        {
+            fScratch = new byte[length];
+        }
+        int first = fBuffer.length - start;
+        System.arraycopy(fBuffer, start, fScratch, 0, first);
+        System.arraycopy(fBuffer, 0, fScratch, first, length - first);
+        OnFrame(fScratch, 0, length);
+    }
+
+    private void Consume(int length)
+    {
+        fHead = (fHead + length) & (fBuffer.length - 1);
+        fCount -= length;
+    }
+
+    private void EnsureCapacity(int capacity)
+    {
+        if (capacity <= fBuffer.length)
+        {
+            return;
+        }
+
+        int size = fBuffer.length;
+        while (size < capacity)
+        {
+            size <<= 1;
+        }
+
+        // Unwrap the buffered bytes to the front of the new ring
+        byte[] buffer = new byte[size];
+        int first = Math.min(fCount, fBuffer.length - fHead);
+        System.arraycopy(fBuffer, fHead, buffer, 0, first);
+        System.arraycopy(fBuffer, 0, buffer, first, fCount - first);
+        fBuffer = buffer;
+        fHead = 0;
+    }
+}
@@ -21,7 +21,6 @@ package Extasys.Network.TCP.Client.Connectors.Packets;
 
 import Extasys.DataFrame;
 import Extasys.Network.TCP.Client.Connectors.TCPConnector;
-import Extasys.ManualResetEvent;
 
 /**
  *
@@ -30,78 +29,40 @@ import Extasys.ManualResetEvent;
 public class IncomingTCPClientPacket implements Runnable
 {
 
-    public ManualResetEvent fDone = new ManualResetEvent(false);
     private TCPConnector fConnector;
     private DataFrame fData;
-    private IncomingTCPClientPacket fPreviousPacket;
-    public boolean fCancel = false;
 
     /**
      * Constructs a new incoming packet received by a TCP connector.
      * 
      * Use this class to receive data from a server.
-     * This is an incoming message that will remain in the client's thread pool
-     * as a job for the thread pool workers.
+     * This is an incoming message that will wait in the connector's incoming
+     * packet queue until every packet received before it has been handled.
      * 
      * @param TCPConnector is the TCP Connector where this message belongs to.
      * @param data is a DataFrame class.
-     * @param previousPacket is the previous incoming message of the TCP Connector.
      */
-    public IncomingTCPClientPacket(TCPConnector connector, DataFrame data, IncomingTCPClientPacket previousPacket)
+    public IncomingTCPClientPacket(TCPConnector connector, DataFrame data)
     {
         fConnector = connector;
         fData = data;
-        fPreviousPacket = previousPacket;
 
-        connector.getMyExtasysTCPClient().getMyThreadPool().execute(this);
-    }
-
-    /**
-     * Cancel this incoming packet.
-     * 
-     * By calling this method this and all the previous incoming packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last incoming packet of the TCP Connector
-     * when the TCP Connector disconnects.
-     * 
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
+        connector.getIncomingQueue().Enqueue(this);
     }
 
     public void run()
     {
         try
         {
-            if (fPreviousPacket == null)
-            {
-                fConnector.getMyExtasysTCPClient().OnDataReceive(fConnector, fData);
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    fConnector.getMyExtasysTCPClient().OnDataReceive(fConnector, fData);
-                }
-                else
-                {
-                    fCancel = true;
-                }
-            }
+            fConnector.getMyExtasysTCPClient().OnDataReceive(fConnector, fData);
         }
         catch (Exception ex)
         {
         }
-
-        if (fPreviousPacket != null)
+        finally
         {
-            fPreviousPacket = null;
+            fData.Release();
         }
-
-        fDone.Set();
     }
 
     /**
@@ -113,15 +74,4 @@ public class IncomingTCPClientPacket implements Runnable
     {
         return fData;
     }
-
-    /**
-     * Returns the previus incoming packet received by the client.
-     * If the packet is null means that the packet has been received and parsed from the client.
-     * 
-     * @return the previus incoming packet received by the client.
-     */
-    public IncomingTCPClientPacket getPreviusPacket()
-    {
-        return fPreviousPacket;
-    }
 }
@@ -19,8 +19,9 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.TCP.Client.Connectors.Packets;
 
+import Extasys.DataFrame;
 import Extasys.Network.TCP.Client.Connectors.TCPConnector;
-import Extasys.ManualResetEvent;
+import Extasys.Network.TCP.Client.Connectors.Tools.TCPClientMessageCollector;
 
 /**
  *
@@ -29,75 +30,42 @@ import Extasys.ManualResetEvent;
 public class MessageCollectorTCPClientPacket implements Runnable
 {
 
-    public ManualResetEvent fDone = new ManualResetEvent(false);
     private TCPConnector fConnector;
-    private String fData;
-    private MessageCollectorTCPClientPacket fPreviousPacket;
-    public boolean fCancel = false;
+    private TCPClientMessageCollector fCollector;
+    private DataFrame fData;
 
     /**
      * Constructs a new (incoming) message collector packet.
      * 
      * Use this class to receive data from the server.
-     * This is an incoming message that will remain in the servers thread pool
-     * as a job for the thread pool workers.
+     * This is an incoming message that will wait in the connector's incoming
+     * packet queue until every packet received before it has been collected.
      * 
      * @param TCPConnector is the packets TCP Connector.
-     * @param data is the string received.
-     * @param previousPacket is the previous message collector packet of the TCP Connector.
+     * @param data is the data received. The packet releases it once collected.
      */
-    public MessageCollectorTCPClientPacket(TCPConnector connector, String data, MessageCollectorTCPClientPacket previousPacket)
+    public MessageCollectorTCPClientPacket(TCPConnector connector, DataFrame data)
     {
         fConnector = connector;
+        fCollector = connector.getMyMessageCollector();
         fData = data;
-        fPreviousPacket = previousPacket;
 
-        connector.getMyExtasysTCPClient().getMyThreadPool().execute(this);
-    }
-
-    /**
-     * Cancel this message collector packet.
-     * 
-     * By calling this method this and all the previous message collector packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last message collector packet of the connector
-     * when the connector disconnects.
-     * 
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
+        connector.getIncomingQueue().Enqueue(this);
     }
 
     public void run()
     {
         try
         {
-            if (fPreviousPacket == null)
-            {
-                fConnector.getMyMessageCollector().AppendData(fData);
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    fConnector.getMyMessageCollector().AppendData(fData);
-                }
-                else
-                {
-                    fCancel = true;
-                }
-
-                fPreviousPacket = null;
-            }
+            fCollector.AppendData(fData.getBuffer(), fData.getOffset(), fData.getLength());
         }
         catch (Exception ex)
         {
         }
-
-        fDone.Set();
+        finally
+        {
+            fData.Release();
+        }
     }
 
     /** 
@@ -105,7 +73,7 @@ public class MessageCollectorTCPClientPacket implements Runnable
      * 
      * @return the data of this packet.
      */
-    public String getData()
+    public DataFrame getData()
     {
         return fData;
     }
@@ -20,7 +20,6 @@ THE SOFTWARE.*/
 package Extasys.Network.TCP.Client.Connectors.Packets;
 
 import Extasys.Network.TCP.Client.Connectors.TCPConnector;
-import Extasys.ManualResetEvent;
 import Extasys.Network.TCP.Client.Exceptions.ConnectorCannotSendPacketException;
 import java.io.IOException;
 
@@ -31,103 +30,48 @@ import java.io.IOException;
 public class OutgoingTCPClientPacket implements Runnable
 {
 
-    public ManualResetEvent fDone = new ManualResetEvent(false);
     private TCPConnector fConnector;
     private byte[] fBytes;
     private int fOffset;
     private int fLength;
-    private OutgoingTCPClientPacket fPreviousPacket;
-    public boolean fCancel = false;
 
     /**
      * Constructs a new outgoing packet for an existing TCP Connector.
      * 
      * Use this class to send data from the TCP Connector to a server.
-     * This is an outgoing message that will remain in the servers thread pool 
-     * as a job for the thread pool workers.
+     * This is an outgoing message that will wait in the connector's outgoing
+     * packet queue until every packet sent before it has gone out.
      * 
      * @param TCPConnector is the TCPConnector where this message belongs to.
      * @param bytes is the byte array to be sent.
      * @param offset is the position in the data buffer at witch to begin sending.
      * @param length is the number of the bytes to be send.
-     * @param previousPacket is the previous outgoing packet of the TCPConnector.
      */
-    public OutgoingTCPClientPacket(TCPConnector connector, byte[] bytes, int offset, int length, OutgoingTCPClientPacket previousPacket) throws ConnectorCannotSendPacketException
+    public OutgoingTCPClientPacket(TCPConnector connector, byte[] bytes, int offset, int length) throws ConnectorCannotSendPacketException
     {
         fConnector = connector;
         fBytes = bytes;
         fOffset = offset;
         fLength = length;
-        fPreviousPacket = previousPacket;
 
-        connector.getMyExtasysTCPClient().getMyThreadPool().execute(this);
-    }
-
-    /**
-     * Cancel this outgoing packet.
-     * 
-     * By calling this method this and all the previous outgoing packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last outgoing packet of the TCP Connector
-     * when the TCP Connector disconnects.
-     * 
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
+        connector.getOutgoingQueue().Enqueue(this);
     }
 
     public void run()
     {
         try
         {
-            if (fPreviousPacket == null)
-            {
-                try
-                {
-                    fConnector.fOutput.write(fBytes, fOffset, fLength);
-                    fConnector.fBytesOut += fLength;
-                }
-                catch (IOException ioException)
-                {
-                    fCancel = true;
-                    fConnector.Stop();
-                }
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    try
-                    {
-                        fConnector.fOutput.write(fBytes, fOffset, fLength);
-                        fConnector.fBytesOut += fLength;
-                    }
-                    catch (IOException ioException)
-                    {
-                        fCancel = true;
-                        fConnector.Stop();
-                    }
-                }
-                else
-                {
-                    fCancel = true;
-                }
-            }
+            fConnector.fOutput.write(fBytes, fOffset, fLength);
+            fConnector.fBytesOut += fLength;
         }
-        catch (Exception ex)
+        catch (IOException ioException)
         {
+            fConnector.getOutgoingQueue().Clear();
+            fConnector.Stop();
         }
-
-        if (fPreviousPacket != null)
+        catch (Exception ex)
         {
-            fPreviousPacket = null;
         }
-
-        fDone.Set();
     }
 
     /**
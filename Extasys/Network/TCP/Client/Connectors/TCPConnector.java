@@ -19,7 +19,9 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.TCP.Client.Connectors;
 
+import Extasys.BufferPool;
 import Extasys.DataFrame;
+import Extasys.PacketQueue;
 import Extasys.Network.TCP.Client.Connectors.Packets.IncomingTCPClientPacket;
 import Extasys.Network.TCP.Client.Connectors.Packets.MessageCollectorTCPClientPacket;
 import Extasys.Network.TCP.Client.Connectors.Packets.OutgoingTCPClientPacket;
@@ -58,11 +60,12 @@ public class TCPConnector
     //Message collector properties.
     private boolean fUseMessageCollector;
     private String fETX;
+    private int fLengthPrefixSize;
+    private int fMaxFrameLength;
     private TCPClientMessageCollector fMessageCollector;
     //Messages IO.
-    public IncomingTCPClientPacket fLastIncomingPacket = null;
-    public MessageCollectorTCPClientPacket fLastMessageCollectorPacket = null;
-    private OutgoingTCPClientPacket fLastOutgoingPacket = null;
+    private PacketQueue fIncomingQueue;
+    private PacketQueue fOutgoingQueue;
 
     /**
      * Constructs a new TCP Connector.
@@ -100,7 +103,6 @@ public class TCPConnector
 
         fUseMessageCollector = true;
         fETX = String.valueOf(ETX);
-        fMessageCollector = new TCPClientMessageCollector(this, ETX);
     }
 
     /**
@@ -122,7 +124,34 @@ public class TCPConnector
 
         fUseMessageCollector = true;
         fETX = splitter;
-        fMessageCollector = new TCPClientMessageCollector(this, splitter);
+    }
+
+    /**
+     * Constructs a new TCP Connector with message collector use (length prefix).
+     * @param myTCPClient is the TCP connector's main Extasys TCP Client.
+     * @param name is the connector's name. 
+     * @param serverIP is the server's ip address the connector will connect to.
+     * @param serverPort is the server's tcp port the connector will connect to.
+     * @param readBufferSize is the read buffer size in bytes for this connection.
+     * @param prefixSize is the size of the big-endian length prefix: 1, 2 or 4 bytes.
+     * @param maxFrameLength is the longest message accepted in bytes.
+     */
+    public TCPConnector(ExtasysTCPClient myTCPClient, String name, InetAddress serverIP, int serverPort, int readBufferSize, int prefixSize, int maxFrameLength)
+    {
+        if (prefixSize != 1 && prefixSize != 2 && prefixSize != 4)
+        {
+            throw new IllegalArgumentException("The length prefix must be 1, 2 or 4 bytes.");
+        }
+
+        fMyTCPClient = myTCPClient;
+        fName = name;
+        fServerIP = serverIP;
+        fServerPort = serverPort;
+        fReadBufferSize = readBufferSize;
+
+        fUseMessageCollector = true;
+        fLengthPrefixSize = prefixSize;
+        fMaxFrameLength = maxFrameLength;
     }
 
     /**
@@ -145,9 +174,21 @@ public class TCPConnector
                 throw new Exception(ex.getMessage());
             }
 
-            fLastIncomingPacket = null;
-            fLastMessageCollectorPacket = null;
-            fLastOutgoingPacket = null;
+            fIncomingQueue = new PacketQueue(fMyTCPClient.getMyThreadPool());
+            fOutgoingQueue = new PacketQueue(fMyTCPClient.getMyThreadPool());
+
+            if (fUseMessageCollector)
+            {
+                // A new collector for each connection, so nothing left over from the last one is framed with it
+                if (fLengthPrefixSize > 0)
+                {
+                    fMessageCollector = new TCPClientMessageCollector(this, fLengthPrefixSize, fMaxFrameLength);
+                }
+                else
+                {
+                    fMessageCollector = new TCPClientMessageCollector(this, fETX);
+                }
+            }
 
             try
             {
@@ -205,19 +246,14 @@ public class TCPConnector
             fOutput = null;
 
 
-            if (fLastIncomingPacket != null)
+            if (fIncomingQueue != null)
             {
-                fLastIncomingPacket.Cancel();
+                fIncomingQueue.Clear();
             }
 
-            if (fLastMessageCollectorPacket != null)
+            if (fOutgoingQueue != null)
             {
-                fLastMessageCollectorPacket.Cancel();
-            }
-
-            if (fLastOutgoingPacket != null)
-            {
-                fLastOutgoingPacket.Cancel();
+                fOutgoingQueue.Clear();
             }
 
             fActive = false;
@@ -228,7 +264,7 @@ public class TCPConnector
                 fReadIncomingDataThread.Dispose();
             }
 
-            if (fUseMessageCollector)
+            if (fMessageCollector != null)
             {
                 fMessageCollector.Dispose();
                 fMessageCollector = null;
@@ -272,7 +308,7 @@ public class TCPConnector
     {
         if (fIsConnected)
         {
-            fLastOutgoingPacket = new OutgoingTCPClientPacket(this, bytes, offset, length, fLastOutgoingPacket);
+            new OutgoingTCPClientPacket(this, bytes, offset, length);
         }
         else
         {
@@ -289,6 +325,24 @@ public class TCPConnector
         return fMyTCPClient;
     }
 
+    /**
+     * Returns the queue that delivers this connector's received data in order.
+     * @return the queue that delivers this connector's received data in order.
+     */
+    public PacketQueue getIncomingQueue()
+    {
+        return fIncomingQueue;
+    }
+
+    /**
+     * Returns the queue that sends this connector's outgoing data in order.
+     * @return the queue that sends this connector's outgoing data in order.
+     */
+    public PacketQueue getOutgoingQueue()
+    {
+        return fOutgoingQueue;
+    }
+
     /**
      * Returns the active state of this connector.
      * @return True if connector is active and connected.
@@ -397,13 +451,17 @@ class ReadIncomingDataThread extends Thread
 {
 
     private TCPConnector fMyTCPConnector;
+    private BufferPool fBufferPool;
     private byte[] fReadBuffer;
+    private int fReadBufferSize;
     private boolean fActive = false;
 
     public ReadIncomingDataThread(TCPConnector myTCPConnector)
     {
         fMyTCPConnector = myTCPConnector;
-        fReadBuffer = new byte[myTCPConnector.getReadBufferSize()];
+        fBufferPool = myTCPConnector.getMyExtasysTCPClient().getBufferPool();
+        fReadBufferSize = myTCPConnector.getReadBufferSize();
+        fReadBuffer = fBufferPool.Take(fReadBufferSize);
 
         if (!fMyTCPConnector.fIsConnected)
         {
@@ -440,15 +498,19 @@ class ReadIncomingDataThread extends Thread
         {
             try
             {
-                bytesRead = fMyTCPConnector.fInput.read(fReadBuffer);
+                bytesRead = fMyTCPConnector.fInput.read(fReadBuffer, 0, fReadBufferSize);
                 fMyTCPConnector.fBytesIn += bytesRead;
                 if (bytesRead > 0)
                 {
+                    // The frame takes the read buffer with it, so read the next data into another one
+                    DataFrame frame = DataFrame.Pooled(fBufferPool, fReadBuffer, 0, bytesRead);
+                    fReadBuffer = fBufferPool.Take(fReadBufferSize);
+
                     if (!fMyTCPConnector.isMessageCollectorInUse()) //No message collector.
                     {
                         try
                         {
-                            fMyTCPConnector.fLastIncomingPacket = new IncomingTCPClientPacket(fMyTCPConnector, new DataFrame(fReadBuffer, 0, bytesRead), fMyTCPConnector.fLastIncomingPacket);
+                            new IncomingTCPClientPacket(fMyTCPConnector, frame);
                         }
                         catch (Exception ex)
                         {
@@ -459,7 +521,7 @@ class ReadIncomingDataThread extends Thread
                     {
                         try
                         {
-                            fMyTCPConnector.fLastMessageCollectorPacket = new MessageCollectorTCPClientPacket(fMyTCPConnector, new String(fReadBuffer, 0, bytesRead), fMyTCPConnector.fLastMessageCollectorPacket);
+                            new MessageCollectorTCPClientPacket(fMyTCPConnector, frame);
                         }
                         catch (Exception ex)
                         {
@@ -480,6 +542,8 @@ class ReadIncomingDataThread extends Thread
             {
             }
         }
+
+        fBufferPool.Recycle(fReadBuffer);
     }
 }
 
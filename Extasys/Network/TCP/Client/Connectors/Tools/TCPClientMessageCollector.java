@@ -20,7 +20,9 @@ THE SOFTWARE.*/
 package Extasys.Network.TCP.Client.Connectors.Tools;
 
 import Extasys.DataFrame;
+import Extasys.MessageFramer;
 import Extasys.Network.TCP.Client.Connectors.TCPConnector;
+import java.io.IOException;
 
 /**
  *
@@ -30,50 +32,79 @@ public class TCPClientMessageCollector
 {
 
     private TCPConnector fMyConnector;
-    private String fETXStr;
-    private StringBuilder fIncomingDataBuffer;
-    private int fIndexOfETX;
+    private MessageFramer fFramer;
 
     public TCPClientMessageCollector(TCPConnector connector, char ETX)
     {
-        Initialize(connector, String.valueOf(ETX));
+        this(connector, String.valueOf(ETX));
     }
 
     public TCPClientMessageCollector(TCPConnector connector, String splitter)
     {
-        Initialize(connector, splitter);
+        fMyConnector = connector;
+        fFramer = new MessageFramer(splitter.getBytes(), MessageFramer.DEFAULT_MAX_FRAME_LENGTH)
+        {
+
+            protected void OnFrame(byte[] buffer, int offset, int length)
+            {
+                FrameReceived(buffer, offset, length);
+            }
+        };
     }
 
-    private void Initialize(TCPConnector connector, String splitter)
+    /**
+     * Constructs a message collector for messages behind a length prefix.
+     * @param connector is the connector whose messages are collected.
+     * @param prefixSize is the size of the big-endian length prefix: 1, 2 or 4 bytes.
+     * @param maxFrameLength is the longest message accepted, in bytes. The connector is stopped if the server sends a longer one.
+     */
+    public TCPClientMessageCollector(TCPConnector connector, int prefixSize, int maxFrameLength)
     {
         fMyConnector = connector;
-        fETXStr = splitter;
-        fIncomingDataBuffer = new StringBuilder();
+        fFramer = new MessageFramer(prefixSize, maxFrameLength)
+        {
+
+            protected void OnFrame(byte[] buffer, int offset, int length)
+            {
+                FrameReceived(buffer, offset, length);
+            }
+        };
     }
 
-    public void AppendData(String data)
+    private void FrameReceived(byte[] buffer, int offset, int length)
     {
         try
         {
-            fIncomingDataBuffer.append(data);
-            fIndexOfETX = fIncomingDataBuffer.indexOf(fETXStr);
-            while (fIndexOfETX > -1)
-            {
-                fMyConnector.getMyExtasysTCPClient().OnDataReceive(fMyConnector, new DataFrame(fIncomingDataBuffer.substring(0, fIndexOfETX).getBytes()));
-                fIncomingDataBuffer = fIncomingDataBuffer.delete(0, fIndexOfETX + 1);
-            }
+            fMyConnector.getMyExtasysTCPClient().OnDataReceive(fMyConnector, DataFrame.Wrap(buffer, offset, length));
         }
         catch (Exception ex)
         {
         }
     }
 
+    public void AppendData(byte[] data, int offset, int length)
+    {
+        TCPConnector connector = fMyConnector;
+        if (connector == null)
+        {
+            return;
+        }
+
+        try
+        {
+            fFramer.Append(data, offset, length);
+        }
+        catch (IOException ex)
+        {
+            connector.Stop();
+        }
+    }
+
     public void Dispose()
     {
         try
         {
-            fIncomingDataBuffer = null;
-            fETXStr = null;
+            fFramer.Clear();
             fMyConnector = null;
         }
         catch (Exception ex)
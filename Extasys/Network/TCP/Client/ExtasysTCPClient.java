@@ -19,6 +19,7 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.TCP.Client;
 
+import Extasys.BufferPool;
 import Extasys.DataFrame;
 import Extasys.Network.TCP.Client.Connectors.TCPConnector;
 import Extasys.Network.TCP.Client.Exceptions.*;
@@ -39,6 +40,7 @@ public class ExtasysTCPClient
     private ArrayList<Object> fConnectors = new ArrayList<Object>();
     private ArrayBlockingQueue<Runnable> fThreadPoolQueue = new ArrayBlockingQueue<Runnable>(100000);
     private ThreadPoolExecutor fMyThreadPool;
+    private BufferPool fBufferPool = new BufferPool();
 
     /**
      * Constructs a new Extasys TCP Client.
@@ -101,6 +103,24 @@ public class ExtasysTCPClient
         return connector;
     }
 
+    /**
+     * Add a new connector with message collector (length prefix).
+     * Each message is received behind a big-endian length prefix, so it may hold any bytes.
+     * @param name is the connector's name.
+     * @param serverIP is the remote host's (server) IP address.
+     * @param serverPort is the remote host's (server) port.
+     * @param readBufferSize is the read buffer size for this connection in bytes.
+     * @param prefixSize is the size of the length prefix: 1, 2 or 4 bytes.
+     * @param maxFrameLength is the longest message accepted in bytes. The connector stops if the server sends a longer one.
+     * @return the connector.
+     */
+    public TCPConnector AddLengthPrefixedConnector(String name, InetAddress serverIP, int serverPort, int readBufferSize, int prefixSize, int maxFrameLength)
+    {
+        TCPConnector connector = new TCPConnector(this, name, serverIP, serverPort, readBufferSize, prefixSize, maxFrameLength);
+        fConnectors.add(connector);
+        return connector;
+    }
+
     /**
      * Stop and remove a connector from this client.
      * @param name is the connector's name.
@@ -189,6 +209,8 @@ public class ExtasysTCPClient
 
     /**
      * A connector of this client receives data.
+     * The frame's buffer is reused once this method returns, so call
+     * data.Retain() to keep it longer and data.Release() when done with it.
      * @param connector is the client's connector.
      * @param data is the received data.
      */
@@ -252,6 +274,15 @@ public class ExtasysTCPClient
         return fMyThreadPool;
     }
 
+    /**
+     * Returns the pool that connectors take their read buffers from.
+     * @return the pool that connectors take their read buffers from.
+     */
+    public BufferPool getBufferPool()
+    {
+        return fBufferPool;
+    }
+
     /**
      * Returns the total number of bytes received from all the connectors of the client.
      * @return the number of bytes received from all the connectors of the client.
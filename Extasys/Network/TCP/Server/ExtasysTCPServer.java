@@ -19,16 +19,22 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.TCP.Server;
 
+import Extasys.BufferPool;
 import Extasys.DataFrame;
+import Extasys.ThreadMode;
 import Extasys.Network.TCP.Server.Listener.Exceptions.*;
 import Extasys.Network.TCP.Server.Listener.TCPClientConnection;
+import Extasys.Network.TCP.Server.Listener.NIOTCPListener;
 import Extasys.Network.TCP.Server.Listener.TCPListener;
+import Extasys.Network.TCP.Server.Listener.TCPSelectorThread;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -42,6 +48,12 @@ public class ExtasysTCPServer
     private ArrayList<Object> fListeners = new ArrayList<Object>();
     private ArrayBlockingQueue fThreadPoolQueue = new ArrayBlockingQueue(100000);
     private ThreadPoolExecutor fMyThreadPool;
+    private ThreadMode fThreadMode;
+    private ExecutorService fExecutor;
+    private BufferPool fBufferPool = new BufferPool();
+    private int fSelectorThreadCount = Runtime.getRuntime().availableProcessors();
+    private TCPSelectorThread[] fSelectorThreads = null;
+    private AtomicInteger fNextSelectorThread = new AtomicInteger(0);
 
     /**
      * Constructs an new Extasys TCP Server.
@@ -51,10 +63,27 @@ public class ExtasysTCPServer
      * @param maximumPoolSize is the maximum number of threads to allow in the pool.
      */
     public ExtasysTCPServer(String name, String description, int corePoolSize, int maximumPoolSize)
+    {
+        this(name, description, ThreadMode.POOLED, corePoolSize, maximumPoolSize);
+    }
+
+    /**
+     * Constructs an new Extasys TCP Server.
+     * In VIRTUAL mode each blocking connection reads on its own virtual thread,
+     * so a server can hold many mostly idle connections cheaply.
+     * @param name is the name of the server.
+     * @param description is the description of the server.
+     * @param threadMode is the kind of threads to run readers and packet tasks on.
+     * @param corePoolSize is the number of threads to keep in the pool, even if they are idle. Only used in POOLED mode.
+     * @param maximumPoolSize is the maximum number of threads to allow in the pool. Only used in POOLED mode.
+     */
+    public ExtasysTCPServer(String name, String description, ThreadMode threadMode, int corePoolSize, int maximumPoolSize)
     {
         fName = name;
         fDescription = description;
         fMyThreadPool = new ThreadPoolExecutor(corePoolSize, maximumPoolSize, 2, TimeUnit.SECONDS, fThreadPoolQueue);
+        fThreadMode = threadMode.Resolve();
+        fExecutor = fThreadMode == ThreadMode.VIRTUAL ? ThreadMode.NewVirtualThreadExecutor() : fMyThreadPool;
     }
 
     /**
@@ -110,6 +139,84 @@ public class ExtasysTCPServer
         fListeners.add(listener);
     }
 
+    /**
+     * Add a new NIO listener to this server.
+     * The listener and its connections are served by this server's selector
+     * threads, so no thread is kept per connection.
+     * @param name is the listener's name.
+     * @param ipAddress is the listener's IP address.
+     * @param port is the listener's tcp port.
+     * @param maxConnections is the listener's maximum allowed connections.
+     * @param readBufferSize is the read buffer size for each connections in bytes.
+     * @param connectionTimeOut is the connections time-out in milliseconds. Set to 0 for no time-out.
+     * @param backLog is the number of outstanding connection requests the listener can have.
+     */
+    public void AddNIOListener(String name, InetAddress ipAddress, int port, int maxConnections, int readBufferSize, int connectionTimeOut, int backLog)
+    {
+        TCPListener listener = new NIOTCPListener(name, ipAddress, port, maxConnections, readBufferSize, connectionTimeOut, backLog);
+        listener.setMyExtasysTCPServer(this);
+        fListeners.add(listener);
+    }
+
+    /**
+     * Add a new NIO listener with message collector (string splitter).
+     * @param name is the listener's name.
+     * @param ipAddress is the listener's IP address.
+     * @param port is the listener's tcp port.
+     * @param maxConnections is the number of maximum allowed connections.
+     * @param readBufferSize is the read buffer size for each connection in bytes.
+     * @param connectionTimeOut is the connections time-out in milliseconds. Set to 0 for no time-out.
+     * @param backLog backLog is the number of outstanding connection requests the listener can have.
+     * @param splitter is the message splitter.
+     */
+    public void AddNIOListener(String name, InetAddress ipAddress, int port, int maxConnections, int readBufferSize, int connectionTimeOut, int backLog, String splitter)
+    {
+        TCPListener listener = new NIOTCPListener(name, ipAddress, port, maxConnections, readBufferSize, connectionTimeOut, backLog, splitter);
+        listener.setMyExtasysTCPServer(this);
+        fListeners.add(listener);
+    }
+
+    /**
+     * Add new listener with message collector (length prefix).
+     * Each message is sent behind a big-endian length prefix, so it may hold any bytes.
+     * @param name is the listener's name.
+     * @param ipAddress is the listener's IP address.
+     * @param port is the listener's tcp port.
+     * @param maxConnections is the number of maximum allowed connections.
+     * @param readBufferSize is the read buffer size for each connection in bytes.
+     * @param connectionTimeOut is the connections time-out in milliseconds. Set to 0 for no time-out.
+     * @param backLog backLog is the number of outstanding connection requests the listener can have.
+     * @param prefixSize is the size of the length prefix: 1, 2 or 4 bytes.
+     * @param maxFrameLength is the longest message accepted in bytes. A client that sends a longer one is disconnected.
+     */
+    public void AddLengthPrefixedListener(String name, InetAddress ipAddress, int port, int maxConnections, int readBufferSize, int connectionTimeOut, int backLog, int prefixSize, int maxFrameLength)
+    {
+        TCPListener listener = new TCPListener(name, ipAddress, port, maxConnections, readBufferSize, connectionTimeOut, backLog);
+        listener.setLengthPrefix(prefixSize, maxFrameLength);
+        listener.setMyExtasysTCPServer(this);
+        fListeners.add(listener);
+    }
+
+    /**
+     * Add a new NIO listener with message collector (length prefix).
+     * @param name is the listener's name.
+     * @param ipAddress is the listener's IP address.
+     * @param port is the listener's tcp port.
+     * @param maxConnections is the number of maximum allowed connections.
+     * @param readBufferSize is the read buffer size for each connection in bytes.
+     * @param connectionTimeOut is the connections time-out in milliseconds. Set to 0 for no time-out.
+     * @param backLog backLog is the number of outstanding connection requests the listener can have.
+     * @param prefixSize is the size of the length prefix: 1, 2 or 4 bytes.
+     * @param maxFrameLength is the longest message accepted in bytes. A client that sends a longer one is disconnected.
+     */
+    public void AddLengthPrefixedNIOListener(String name, InetAddress ipAddress, int port, int maxConnections, int readBufferSize, int connectionTimeOut, int backLog, int prefixSize, int maxFrameLength)
+    {
+        TCPListener listener = new NIOTCPListener(name, ipAddress, port, maxConnections, readBufferSize, connectionTimeOut, backLog);
+        listener.setLengthPrefix(prefixSize, maxFrameLength);
+        listener.setMyExtasysTCPServer(this);
+        fListeners.add(listener);
+    }
+
     /**
      * Remove a listener.
      * @param name is the listener's name to remove.
@@ -173,11 +280,25 @@ public class ExtasysTCPServer
     public void Dispose()
     {
         Stop();
+        synchronized (this)
+        {
+            if (fSelectorThreads != null)
+            {
+                for (int i = 0; i < fSelectorThreads.length; i++)
+                {
+                    fSelectorThreads[i].Dispose();
+                }
+                fSelectorThreads = null;
+            }
+        }
+        fExecutor.shutdown();
         fMyThreadPool.shutdown();
     }
 
     /**
      * Server is receiving data from a client connection.
+     * The frame's buffer is reused once this method returns, so call
+     * data.Retain() to keep it longer and data.Release() when done with it.
      * @param sender is the client sends the data to this server.
      * @param data is the incoming DataFrame.
      */
@@ -363,6 +484,86 @@ public class ExtasysTCPServer
         return fMyThreadPool;
     }
 
+    /**
+     * Returns the mode this server runs its threads in.
+     * This is POOLED if VIRTUAL was asked for on a runtime without virtual threads.
+     * @return the mode this server runs its threads in.
+     */
+    public ThreadMode getThreadMode()
+    {
+        return fThreadMode;
+    }
+
+    /**
+     * Returns the executor that runs this server's packet tasks.
+     * This is the thread pool in POOLED mode, and runs each task on a new virtual thread in VIRTUAL mode.
+     * @return the executor that runs this server's packet tasks.
+     */
+    public ExecutorService getExecutor()
+    {
+        return fExecutor;
+    }
+
+    /**
+     * Create a reader thread for this server. The thread isn't started.
+     * @param task is what the thread runs.
+     * @param name is the name of the thread.
+     * @return a virtual thread in VIRTUAL mode, a platform thread otherwise.
+     */
+    public Thread NewThread(Runnable task, String name)
+    {
+        return ThreadMode.NewThread(fThreadMode, task, name);
+    }
+
+    /**
+     * Sets the number of selector threads that serve the NIO listeners.
+     * Call this method before the server starts.
+     * @param count is the number of selector threads.
+     */
+    public synchronized void setSelectorThreadCount(int count)
+    {
+        fSelectorThreadCount = Math.max(1, count);
+    }
+
+    /**
+     * Returns the selector threads that serve the NIO listeners, starting them the first time.
+     * @return the selector threads that serve the NIO listeners.
+     */
+    public synchronized TCPSelectorThread[] getSelectorThreads() throws IOException
+    {
+        if (fSelectorThreads == null)
+        {
+            TCPSelectorThread[] threads = new TCPSelectorThread[fSelectorThreadCount];
+            for (int i = 0; i < threads.length; i++)
+            {
+                threads[i] = new TCPSelectorThread(fName + " selector " + i);
+                threads[i].start();
+            }
+            fSelectorThreads = threads;
+        }
+        return fSelectorThreads;
+    }
+
+    /**
+     * Returns the selector thread to serve the next accepted connection.
+     * The connections are spread over the selector threads in turn.
+     * @return the selector thread to serve the next accepted connection.
+     */
+    public TCPSelectorThread NextSelectorThread() throws IOException
+    {
+        TCPSelectorThread[] threads = getSelectorThreads();
+        return threads[(fNextSelectorThread.getAndIncrement() & 0x7fffffff) % threads.length];
+    }
+
+    /**
+     * Returns the pool that client connections take their read buffers from.
+     * @return the pool that client connections take their read buffers from.
+     */
+    public BufferPool getBufferPool()
+    {
+        return fBufferPool;
+    }
+
     /**
      * Returns the total bytes received from this server.
      * @return the total bytes received from this server.
@@ -0,0 +1,306 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.TCP.Server.Listener;
+
+import Extasys.DataFrame;
+import Extasys.Network.TCP.Server.Listener.Exceptions.ClientIsDisconnectedException;
+import Extasys.Network.TCP.Server.Listener.Packets.IncomingTCPClientConnectionPacket;
+import Extasys.Network.TCP.Server.Listener.Packets.MessageCollectorTCPClientConnectionPacket;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * A client connection served by a TCPSelectorThread instead of a reader thread.
+ * 
+ * Incoming data is read into the connection's own read buffer when the socket
+ * is readable, and handed to the incoming queue just like a blocking
+ * connection does. Outgoing data waits in the connection's write queue and is
+ * written whenever the socket has room, so SendData never blocks.
+ */
+public class NIOTCPClientConnection extends TCPClientConnection
+{
+
+    /**
+     * The number of unsent bytes a connection can hold before it is disconnected.
+     */
+    public static final int DEFAULT_MAX_PENDING_BYTES = 1024 * 1024;
+    protected SocketChannel fChannel;
+    protected TCPSelectorThread fSelectorThread;
+    private byte[] fReadBytes;
+    private ByteBuffer fReadBuffer;
+    private final ArrayDeque<ByteBuffer> fPendingWrites = new ArrayDeque<ByteBuffer>();
+    private int fPendingBytes = 0;
+    private boolean fWriteScheduled = false;
+    private volatile long fLastActivity;
+
+    /**
+     * Constructs a new connection and starts serving it on a selector thread.
+     * @param channel is the accepted, non-blocking channel.
+     * @param myTCPListener is the listener that accepted the connection.
+     * @param selectorThread is the thread that serves the connection.
+     */
+    public NIOTCPClientConnection(SocketChannel channel, TCPListener myTCPListener, TCPSelectorThread selectorThread)
+    {
+        super(myTCPListener, AddressOf(channel), myTCPListener.isMessageCollectorInUse(), myTCPListener.getMessageSplitter());
+        fChannel = channel;
+        fConnection = channel.socket();
+        fSelectorThread = selectorThread;
+        fLastActivity = System.currentTimeMillis();
+
+        try
+        {
+            fConnection.setReceiveBufferSize(myTCPListener.getReadBufferSize());
+            fConnection.setSendBufferSize(myTCPListener.getReadBufferSize());
+        }
+        catch (IOException ex)
+        {
+        }
+
+        fReadBytes = fMyExtasysServer.getBufferPool().Take(myTCPListener.getReadBufferSize());
+        fReadBuffer = ByteBuffer.wrap(fReadBytes, 0, myTCPListener.getReadBufferSize());
+
+        fActive = true;
+        fIsConnected = true;
+        fMyListener.AddClient(this);
+        fSelectorThread.Register(fChannel, SelectionKey.OP_READ, this);
+        fMyExtasysServer.OnClientConnect(this);
+    }
+
+    private static String AddressOf(SocketChannel channel)
+    {
+        Socket socket = channel.socket();
+        return socket.getInetAddress().toString() + ":" + String.valueOf(socket.getPort());
+    }
+
+    /**
+     * Read what the socket has.
+     * This is called by the selector thread when the channel is readable.
+     */
+    void ReadIncomingData()
+    {
+        int bytesRead;
+        try
+        {
+            fReadBuffer.clear();
+            bytesRead = fChannel.read(fReadBuffer);
+        }
+        catch (IOException ex)
+        {
+            DisconnectMe();
+            return;
+        }
+
+        if (bytesRead < 0)
+        {
+            DisconnectMe();
+            return;
+        }
+
+        if (bytesRead > 0)
+        {
+            fLastActivity = System.currentTimeMillis();
+            fBytesIn += bytesRead;
+            fMyListener.fBytesIn += bytesRead;
+
+            // The frame takes the read buffer with it, so read the next data into another one
+            DataFrame frame = DataFrame.Pooled(fMyExtasysServer.getBufferPool(), fReadBytes, 0, bytesRead);
+            fReadBytes = fMyExtasysServer.getBufferPool().Take(fMyListener.getReadBufferSize());
+            fReadBuffer = ByteBuffer.wrap(fReadBytes, 0, fMyListener.getReadBufferSize());
+
+            if (!fUseMessageCollector)
+            {
+                new IncomingTCPClientConnectionPacket(this, frame);
+            }
+            else
+            {
+                new MessageCollectorTCPClientConnectionPacket(this, frame);
+            }
+        }
+    }
+
+    /**
+     * Write as much of the write queue as the socket takes.
+     * This is called on the selector thread, when data is queued and when the
+     * channel becomes writable again.
+     */
+    void WriteOutgoingData()
+    {
+        SelectionKey key = fSelectorThread.KeyFor(fChannel);
+        if (key == null || !key.isValid())
+        {
+            return;
+        }
+
+        try
+        {
+            synchronized (fPendingWrites)
+            {
+                if (!fPendingWrites.isEmpty())
+                {
+                    ByteBuffer[] buffers = fPendingWrites.toArray(new ByteBuffer[fPendingWrites.size()]);
+                    fPendingBytes -= (int) fChannel.write(buffers);
+                    while (!fPendingWrites.isEmpty() && !fPendingWrites.peekFirst().hasRemaining())
+                    {
+                        fPendingWrites.pollFirst();
+                    }
+                }
+
+                // Only wait for room while there is something left to write
+                if (fPendingWrites.isEmpty())
+                {
+                    fWriteScheduled = false;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                else
+                {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            DisconnectMe();
+        }
+    }
+
+    /**
+     * Send data to client.
+     * The data is queued and written by the selector thread when the socket has
+     * room. A client that lets more than DEFAULT_MAX_PENDING_BYTES pile up is
+     * disconnected.
+     * @param bytes is the byte array to be send. It must not change until it has been written.
+     * @param offset is the position in the data buffer at witch to begin sending.
+     * @param length is the number of the bytes to be send.
+     */
+    @Override
+    public synchronized void SendData(byte[] bytes, int offset, int length) throws ClientIsDisconnectedException
+    {
+        if (!fIsConnected)
+        {
+            throw new ClientIsDisconnectedException(this);
+        }
+
+        boolean overflow = false;
+        boolean schedule = false;
+        synchronized (fPendingWrites)
+        {
+            if (fPendingBytes > 0 && fPendingBytes + length > DEFAULT_MAX_PENDING_BYTES)
+            {
+                overflow = true;
+            }
+            else
+            {
+                fPendingWrites.addLast(ByteBuffer.wrap(bytes, offset, length));
+                fPendingBytes += length;
+                schedule = !fWriteScheduled;
+                fWriteScheduled = true;
+            }
+        }
+
+        if (overflow)
+        {
+            // Too far behind to ever catch up
+            DisconnectMe();
+            throw new ClientIsDisconnectedException(this);
+        }
+
+        fBytesOut += length;
+        fMyListener.fBytesOut += length;
+
+        if (schedule)
+        {
+            fSelectorThread.Execute(new Runnable()
+            {
+
+                public void run()
+                {
+                    WriteOutgoingData();
+                }
+            });
+        }
+    }
+
+    /**
+     * Disconnect this client.
+     */
+    @Override
+    public synchronized void DisconnectMe()
+    {
+        if (fActive)
+        {
+            synchronized (fPendingWrites)
+            {
+                fPendingWrites.clear();
+                fPendingBytes = 0;
+            }
+
+            super.DisconnectMe();
+
+            // The selector thread may still be reading into the buffer, so let it hand the buffer back
+            fSelectorThread.Execute(new Runnable()
+            {
+
+                public void run()
+                {
+                    fMyExtasysServer.getBufferPool().Recycle(fReadBytes);
+                }
+            });
+        }
+    }
+
+    /**
+     * Disconnect this client if it has sent nothing for longer than its listener's time-out.
+     * This is called by the selector thread.
+     * @param now is the current time in milliseconds.
+     */
+    void CheckTimeOut(long now)
+    {
+        int timeOut = fMyListener.getConnectionTimeOut();
+        if (timeOut > 0 && now - fLastActivity > timeOut)
+        {
+            DisconnectMe();
+        }
+    }
+
+    /**
+     * Returns the channel of this connection.
+     * @return the channel of this connection.
+     */
+    public SocketChannel getChannel()
+    {
+        return fChannel;
+    }
+
+    /**
+     * Returns the number of bytes waiting to be written to this client.
+     * @return the number of bytes waiting to be written to this client.
+     */
+    public int getPendingBytes()
+    {
+        synchronized (fPendingWrites)
+        {
+            return fPendingBytes;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.TCP.Server.Listener;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A TCP listener that accepts through a non-blocking ServerSocketChannel.
+ * 
+ * The listener and its connections are served by the server's selector
+ * threads instead of an accept thread and a reader thread per connection.
+ * Accepted connections are spread over the selector threads in turn.
+ */
+public class NIOTCPListener extends TCPListener
+{
+
+    protected ServerSocketChannel fChannel;
+    protected TCPSelectorThread fAcceptThread;
+
+    /**
+     * Constructs a new NIO TCP listener.
+     * @param name is the listener's name.
+     * @param ipAddress is the listener's IP Address.
+     * @param port is the listener's port.
+     * @param maxConnections is the listener's maximum connections limit.
+     * @param readBufferSize is the listener's each connection read buffer size in bytes.
+     * @param connectionTimeOut is the listener's connections time-out time in milliseconds. Set to 0 for no time-out.
+     * @param backLog is the number of outstanding connection requests this listener can have.
+     */
+    public NIOTCPListener(String name, InetAddress ipAddress, int port, int maxConnections, int readBufferSize, int connectionTimeOut, int backLog)
+    {
+        super(name, ipAddress, port, maxConnections, readBufferSize, connectionTimeOut, backLog);
+    }
+
+    /**
+     * Constructs a new NIO TCP listener with message collector.
+     * @param name is the listener's name.
+     * @param ipAddress is the listener's IP Address.
+     * @param port is the listener's port.
+     * @param maxConnections is the listener's maximum allowed connections.
+     * @param readBufferSize is the listener's each connection read buffer size in bytes.
+     * @param connectionTimeOut is the listener's connections time-out in milliseconds. Set to 0 for no time-out
+     * @param backLog is the number of outstanding connection requests this listener can have.
+     * @param splitter is the message splitter.
+     */
+    public NIOTCPListener(String name, InetAddress ipAddress, int port, int maxConnections, int readBufferSize, int connectionTimeOut, int backLog, String splitter)
+    {
+        super(name, ipAddress, port, maxConnections, readBufferSize, connectionTimeOut, backLog, splitter);
+    }
+
+    /**
+     * Start or restart the TCPListener.
+     */
+    @Override
+    public void Start() throws IOException, Exception
+    {
+        Stop();
+        try
+        {
+            fChannel = ServerSocketChannel.open();
+            fChannel.bind(new InetSocketAddress(getIPAddress(), getPort()), fBackLog);
+            fChannel.configureBlocking(false);
+
+            fActive = true;
+            fAcceptThread = getMyExtasysTCPServer().getSelectorThreads()[0];
+            fAcceptThread.Register(fChannel, SelectionKey.OP_ACCEPT, this);
+        }
+        catch (IOException ex)
+        {
+            // Let Stop() close whatever was opened
+            fActive = true;
+            Stop();
+            throw ex;
+        }
+    }
+
+    /**
+     * Stop the TCP listener and disconnect its clients.
+     */
+    @Override
+    public void Stop()
+    {
+        fActive = false;
+        if (fAcceptThread != null)
+        {
+            fAcceptThread.Close(fChannel);
+            fAcceptThread = null;
+        }
+        else if (fChannel != null)
+        {
+            try
+            {
+                fChannel.close();
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+        fChannel = null;
+
+        super.Stop();
+    }
+
+    /**
+     * Accept every waiting connection.
+     * This is called by the selector thread when the channel has connections to accept.
+     */
+    void AcceptConnections()
+    {
+        SocketChannel client;
+        try
+        {
+            while (fActive && (client = fChannel.accept()) != null)
+            {
+                if (getConnectedClients().size() >= getMaxConnections())
+                {
+                    client.close();
+                    continue;
+                }
+
+                try
+                {
+                    client.configureBlocking(false);
+                    new NIOTCPClientConnection(client, this, getMyExtasysTCPServer().NextSelectorThread());
+                }
+                catch (IOException ex)
+                {
+                    client.close();
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+        }
+    }
+
+    /**
+     * Returns TCP listener's ServerSocket.
+     * @return TCP listener's ServerSocket, or null if the listener isn't started.
+     */
+    @Override
+    public ServerSocket getServerSocket()
+    {
+        return fChannel == null ? null : fChannel.socket();
+    }
+}
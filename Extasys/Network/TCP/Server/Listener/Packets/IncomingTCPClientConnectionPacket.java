@@ -21,7 +21,6 @@ package Extasys.Network.TCP.Server.Listener.Packets;
 
 import Extasys.DataFrame;
 import Extasys.Network.TCP.Server.Listener.TCPClientConnection;
-import Extasys.ManualResetEvent;
 
 /**
  *
@@ -30,80 +29,37 @@ import Extasys.ManualResetEvent;
 public class IncomingTCPClientConnectionPacket implements Runnable
 {
 
-    public ManualResetEvent fDone = new ManualResetEvent(false);
     private TCPClientConnection fClient;
     private DataFrame fData;
-    private IncomingTCPClientConnectionPacket fPreviousPacket;
-    public boolean fCancel = false;
 
     /**
      * Constructs a new incoming packet for an existing TCP client connection.
      * Use this class to receive data from a client.
-     * This is an incoming message that will remain in the servers thread pool 
-     * as a job for the thread pool workers.
+     * This is an incoming message that will wait in the client's incoming
+     * packet queue until every packet received before it has been handled.
      * @param client is the client where this message belongs to.
      * @param data is a DataFrame class.
-     * @param previousPacket is the previous incoming message of the client.
      */
-    public IncomingTCPClientConnectionPacket(TCPClientConnection client, DataFrame data, IncomingTCPClientConnectionPacket previousPacket)
+    public IncomingTCPClientConnectionPacket(TCPClientConnection client, DataFrame data)
     {
-        try
-        {
-            fClient = client;
-            fData = data;
-            fPreviousPacket = previousPacket;
-        }
-        catch (Exception ex)
-        {
-            return;
-        }
-        fClient.getMyExtasysTCPServer().getMyThreadPool().execute(this);
-    }
-
-    /**
-     * Cancel this incoming packet.
-     * By calling this method this and all the previous incoming packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last incoming packet of the client
-     * when the client disconnects.
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
+        fClient = client;
+        fData = data;
+        fClient.getIncomingQueue().Enqueue(this);
     }
 
     public void run()
     {
         try
         {
-            if (fPreviousPacket == null)
-            {
-                fClient.getMyExtasysTCPServer().OnDataReceive(fClient, fData);
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    fClient.getMyExtasysTCPServer().OnDataReceive(fClient, fData);
-                }
-                else
-                {
-                    fCancel = true;
-                }
-            }
+            fClient.getMyExtasysTCPServer().OnDataReceive(fClient, fData);
         }
         catch (Exception ex)
         {
-           
         }
-
-        if (fPreviousPacket != null)
+        finally
         {
-            fPreviousPacket = null;
+            fData.Release();
         }
-        fDone.Set();
     }
 
     /**
@@ -19,8 +19,9 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.TCP.Server.Listener.Packets;
 
+import Extasys.DataFrame;
 import Extasys.Network.TCP.Server.Listener.TCPClientConnection;
-import Extasys.ManualResetEvent;
+import Extasys.Network.TCP.Server.Listener.Tools.TCPClientConnectionMessageCollector;
 
 /**
  *
@@ -29,77 +30,42 @@ import Extasys.ManualResetEvent;
 public class MessageCollectorTCPClientConnectionPacket implements Runnable
 {
 
-    public ManualResetEvent fDone = new ManualResetEvent(false);
     private TCPClientConnection fClient;
-    private String fData;
-    private MessageCollectorTCPClientConnectionPacket fPreviousPacket;
-    public boolean fCancel = false;
+    private TCPClientConnectionMessageCollector fCollector;
+    private DataFrame fData;
 
     /**
      * Constructs a new (incoming) message collector packet.
      * 
      * Use this class to receive data from a client.
-     * This is an incoming message that will remain in the servers thread pool
-     * as a job for the thread pool workers.
+     * This is an incoming message that will wait in the client's incoming
+     * packet queue until every packet received before it has been collected.
      * 
      * @param TCPClientConnection is the packets TCPClientConnection.
-     * @param data is the string received.
-     * @param previousPacket is the previous message collector packet of the TCPClientConnection.
+     * @param data is the data received. The packet releases it once collected.
      */
-    public MessageCollectorTCPClientConnectionPacket(TCPClientConnection client, String data, MessageCollectorTCPClientConnectionPacket previousPacket)
+    public MessageCollectorTCPClientConnectionPacket(TCPClientConnection client, DataFrame data)
     {
         fClient = client;
+        fCollector = fClient.getMyMessageCollector();
         fData = data;
-        fPreviousPacket = previousPacket;
 
-        fClient.getMyExtasysTCPServer().getMyThreadPool().execute(this);
-    }
-
-    /**
-     * Cancel this message collector packet.
-     * 
-     * By calling this method this and all the previous message collector packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last message collector of the TCPClientConnection
-     * when the TCPClientConnection disconnects.
-     * 
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
+        fClient.getIncomingQueue().Enqueue(this);
     }
 
     public void run()
     {
         try
         {
-            if (fPreviousPacket == null)
-            {
-                fClient.getMyMessageCollector().AppendData(fData);
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    fClient.getMyMessageCollector().AppendData(fData);
-                }
-                else
-                {
-                    fCancel = true;
-                }
-
-                fPreviousPacket = null;
-            }
+            fCollector.AppendData(fData.getBuffer(), fData.getOffset(), fData.getLength());
         }
         catch (Exception ex)
         {
-            
         }
-
-        fDone.Set();
+        finally
+        {
+            fData.Release();
+        }
     }
 
     /** 
@@ -107,7 +73,7 @@ public class MessageCollectorTCPClientConnectionPacket implements Runnable
      * 
      * @return the data of this packet.
      */
-    public String getData()
+    public DataFrame getData()
     {
         return fData;
     }
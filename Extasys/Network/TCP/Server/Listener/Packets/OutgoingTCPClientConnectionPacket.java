@@ -20,7 +20,6 @@ THE SOFTWARE.*/
 package Extasys.Network.TCP.Server.Listener.Packets;
 
 import Extasys.Network.TCP.Server.Listener.TCPClientConnection;
-import Extasys.ManualResetEvent;
 import Extasys.Network.TCP.Server.Listener.Exceptions.OutgoingPacketFailedException;
 import java.io.IOException;
 
@@ -31,28 +30,24 @@ import java.io.IOException;
 public class OutgoingTCPClientConnectionPacket implements Runnable
 {
 
-    public ManualResetEvent fDone = new ManualResetEvent(false);
     private TCPClientConnection fClient;
     private byte[] fBytes;
     private int fOffset;
     private int fLength;
-    private OutgoingTCPClientConnectionPacket fPreviousPacket;
-    public boolean fCancel = false;
 
     /**
      * Constructs a new outgoing packet for an existing TCP client connection.
      * 
      * Use this class to send data from the server to a connected client.
-     * This is an outgoing message that will remain in the servers thread pool 
-     * as a job for the thread pool workers.
+     * This is an outgoing message that will wait in the client's outgoing
+     * packet queue until every packet sent before it has gone out.
      * 
      * @param client is the client where this message belongs to.
      * @param bytes is the byte array to be sent.
      * @param offset is the position in the data buffer at witch to begin sending.
      * @param length is the number of the bytes to be send.
-     * @param previousPacket is the previous outgoing packet of the client.
      */
-    public OutgoingTCPClientConnectionPacket(TCPClientConnection client, byte[] bytes, int offset, int length, OutgoingTCPClientConnectionPacket previousPacket) throws OutgoingPacketFailedException
+    public OutgoingTCPClientConnectionPacket(TCPClientConnection client, byte[] bytes, int offset, int length) throws OutgoingPacketFailedException
     {
         try
         {
@@ -60,8 +55,7 @@ public class OutgoingTCPClientConnectionPacket implements Runnable
             fBytes = bytes;
             fOffset = offset;
             fLength = length;
-            fPreviousPacket = previousPacket;
-            fClient.getMyExtasysTCPServer().getMyThreadPool().execute(this);
+            fClient.getOutgoingQueue().Enqueue(this);
         }
         catch (Exception ex)
         {
@@ -69,71 +63,21 @@ public class OutgoingTCPClientConnectionPacket implements Runnable
         }
     }
 
-    /**
-     * Cancel this outgoing packet.
-     * 
-     * By calling this method this and all the previous outgoing packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last outgoing packet of the client
-     * when the client disconnects.
-     * 
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
-    }
-
     public void run()
     {
         try
         {
-            if (fPreviousPacket == null)
-            {
-                try
-                {
-                    fClient.getOutputStream().write(fBytes, fOffset, fLength);
-                    fClient.fBytesOut += fLength;
-                }
-                catch (IOException ioException)
-                {
-                    fCancel = true;
-                    fClient.DisconnectMe();
-                }
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    try
-                    {
-                        fClient.getOutputStream().write(fBytes, fOffset, fLength);
-                    }
-                    catch (IOException ioException)
-                    {
-                        fCancel = true;
-                        fClient.DisconnectMe();
-                    }
-                }
-                else
-                {
-                    fCancel = true;
-                }
-            }
+            fClient.getOutputStream().write(fBytes, fOffset, fLength);
         }
-        catch (Exception ex)
+        catch (IOException ioException)
         {
-
+            fClient.getOutgoingQueue().Clear();
+            fClient.DisconnectMe();
         }
-
-        if (fPreviousPacket != null)
+        catch (Exception ex)
         {
-            fPreviousPacket = null;
-        }
 
-        fDone.Set();
+        }
     }
 
     /**
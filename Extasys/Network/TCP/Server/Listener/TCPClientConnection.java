@@ -47,13 +47,13 @@ public class TCPClientConnection
     public Socket fConnection;
     protected boolean fActive = false;
     protected boolean fIsConnected = false;
-    private TCPListener fMyListener;
-    private ExtasysTCPServer fMyExtasysServer;
-    private String fIPAddress;
+    protected TCPListener fMyListener;
+    protected ExtasysTCPServer fMyExtasysServer;
+    protected String fIPAddress;
     private String fName = "";
     private Object fTag = null;
     private Thread fClientDataReaderThread;
-    private Date fConnectionStartUpDateTime;
+    protected Date fConnectionStartUpDateTime;
     //Data input-output streams.
     public InputStream fInput;
     private OutputStream fOutput;
@@ -61,15 +61,16 @@ public class TCPClientConnection
     public int fBytesIn = 0;
     public int fBytesOut = 0;
     //Message collector.
-    private TCPClientConnectionMessageCollector fMyMessageCollector;
+    protected TCPClientConnectionMessageCollector fMyMessageCollector;
     protected boolean fUseMessageCollector;
     //Messages IO.
-    public IncomingTCPClientConnectionPacket fLastIncomingPacket = null;
-    public OutgoingTCPClientConnectionPacket fLastOugoingPacket = null;
-    public MessageCollectorTCPClientConnectionPacket fLastMessageCollectorPacket = null;
+    protected PacketQueue fIncomingQueue;
+    protected PacketQueue fOutgoingQueue;
 
     public TCPClientConnection(Socket socket, TCPListener myTCPListener, boolean useMessageCollector, String ETX)
     {
+        fIncomingQueue = new PacketQueue(myTCPListener.getMyExtasysTCPServer().getExecutor());
+        fOutgoingQueue = new PacketQueue(myTCPListener.getMyExtasysTCPServer().getExecutor());
         try
         {
             fUseMessageCollector = useMessageCollector;
@@ -101,7 +102,7 @@ public class TCPClientConnection
 
         if (fUseMessageCollector)
         {
-            fMyMessageCollector = new TCPClientConnectionMessageCollector(this, ETX);
+            fMyMessageCollector = NewMessageCollector(ETX);
         }
 
         fMyListener.AddClient(this);
@@ -111,6 +112,41 @@ public class TCPClientConnection
         fConnectionStartUpDateTime = cal.getTime();
     }
 
+    private TCPClientConnectionMessageCollector NewMessageCollector(String ETX)
+    {
+        if (fMyListener.getLengthPrefixSize() > 0)
+        {
+            return new TCPClientConnectionMessageCollector(this, fMyListener.getLengthPrefixSize(), fMyListener.getMaxFrameLength());
+        }
+        return new TCPClientConnectionMessageCollector(this, ETX);
+    }
+
+    /**
+     * Constructs a connection without a socket or a reader thread, for
+     * subclasses that read and write some other way.
+     * @param myTCPListener is the listener that accepted the connection.
+     * @param ipAddress is the client's address and port, the key of the listener's connected clients.
+     * @param useMessageCollector is true to split the incoming data with a message collector.
+     * @param ETX is the message collector's splitter.
+     */
+    protected TCPClientConnection(TCPListener myTCPListener, String ipAddress, boolean useMessageCollector, String ETX)
+    {
+        fIncomingQueue = new PacketQueue(myTCPListener.getMyExtasysTCPServer().getExecutor());
+        fOutgoingQueue = new PacketQueue(myTCPListener.getMyExtasysTCPServer().getExecutor());
+        fMyListener = myTCPListener;
+        fMyExtasysServer = myTCPListener.getMyExtasysTCPServer();
+        fIPAddress = ipAddress;
+        fUseMessageCollector = useMessageCollector;
+
+        if (fUseMessageCollector)
+        {
+            fMyMessageCollector = NewMessageCollector(ETX);
+        }
+
+        Calendar cal = Calendar.getInstance();
+        fConnectionStartUpDateTime = cal.getTime();
+    }
+
     private void StartReceivingData()
     {
         fActive = true;
@@ -127,7 +163,7 @@ public class TCPClientConnection
 
         fMyListener.getMyExtasysTCPServer().OnClientConnect(this);
 
-        fClientDataReaderThread = new Thread(new ClientDataReader(this));
+        fClientDataReaderThread = fMyExtasysServer.NewThread(new ClientDataReader(this), fIPAddress + " reader");
         fClientDataReaderThread.start();
     }
 
@@ -155,7 +191,7 @@ public class TCPClientConnection
         }
         fBytesOut += length;
         fMyListener.fBytesOut += length;
-        fLastOugoingPacket = new OutgoingTCPClientConnectionPacket(this, bytes, offset, length, fLastOugoingPacket);
+        new OutgoingTCPClientConnectionPacket(this, bytes, offset, length);
     }
 
     /**
@@ -196,20 +232,8 @@ public class TCPClientConnection
                 fMyMessageCollector.Dispose();
             }
 
-            if (fLastIncomingPacket != null)
-            {
-                fLastIncomingPacket.Cancel();
-            }
-
-            if (fLastOugoingPacket != null)
-            {
-                fLastOugoingPacket.Cancel();
-            }
-
-            if (fLastMessageCollectorPacket != null)
-            {
-                fLastMessageCollectorPacket.Cancel();
-            }
+            fIncomingQueue.Clear();
+            fOutgoingQueue.Clear();
 
             try
             {
@@ -305,6 +329,24 @@ public class TCPClientConnection
         return fTag;
     }
 
+    /**
+     * Returns the queue that delivers this client's received data in order.
+     * @return the queue that delivers this client's received data in order.
+     */
+    public PacketQueue getIncomingQueue()
+    {
+        return fIncomingQueue;
+    }
+
+    /**
+     * Returns the queue that sends this client's outgoing data in order.
+     * @return the queue that sends this client's outgoing data in order.
+     */
+    public PacketQueue getOutgoingQueue()
+    {
+        return fOutgoingQueue;
+    }
+
     public OutputStream getOutputStream()
     {
         return fOutput;
@@ -348,36 +390,43 @@ class ClientDataReader implements Runnable
 {
 
     private TCPClientConnection fClientConnection;
-    private byte[] fReadBuffer;
+    private int fReadBufferSize;
 
     public ClientDataReader(TCPClientConnection clientConnection)
     {
         fClientConnection = clientConnection;
-        fReadBuffer = new byte[fClientConnection.getMyTCPListener().getReadBufferSize()];
+        fReadBufferSize = fClientConnection.getMyTCPListener().getReadBufferSize();
     }
 
     public void run()
     {
         int bytesRead;
+        // Each read is handed on in the buffer it was read into, and the packet gives the buffer back to the pool.
+        BufferPool bufferPool = fClientConnection.getMyExtasysTCPServer().getBufferPool();
+        byte[] readBuffer = bufferPool.Take(fReadBufferSize);
+        DataFrame frame;
 
         while (fClientConnection.fActive)
         {
             try
             {
-                bytesRead = fClientConnection.fInput.read(fReadBuffer);
+                bytesRead = fClientConnection.fInput.read(readBuffer, 0, fReadBufferSize);
 
                 if (bytesRead > 0)
                 {
                     fClientConnection.fBytesIn += bytesRead;
                     fClientConnection.getMyTCPListener().fBytesIn += bytesRead;
 
+                    frame = DataFrame.Pooled(bufferPool, readBuffer, 0, bytesRead);
+                    readBuffer = bufferPool.Take(fReadBufferSize);
+
                     if (!fClientConnection.fUseMessageCollector)
                     {
-                        fClientConnection.fLastIncomingPacket = new IncomingTCPClientConnectionPacket(fClientConnection, new DataFrame(fReadBuffer, 0, bytesRead), fClientConnection.fLastIncomingPacket);
+                        new IncomingTCPClientConnectionPacket(fClientConnection, frame);
                     }
                     else
                     {
-                        fClientConnection.fLastMessageCollectorPacket = new MessageCollectorTCPClientConnectionPacket(fClientConnection, new String(fReadBuffer).substring(0, bytesRead), fClientConnection.fLastMessageCollectorPacket);
+                        new MessageCollectorTCPClientConnectionPacket(fClientConnection, frame);
                     }
                 }
                 else
@@ -400,5 +449,7 @@ class ClientDataReader implements Runnable
             {
             }
         }
+
+        bufferPool.Recycle(readBuffer);
     }
 }
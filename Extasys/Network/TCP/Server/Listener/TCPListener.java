@@ -19,6 +19,7 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.TCP.Server.Listener;
 
+import Extasys.MessageFramer;
 import Extasys.Network.TCP.Server.ExtasysTCPServer;
 import java.io.IOException;
 import java.net.InetAddress;
@@ -37,7 +38,7 @@ public class TCPListener
     // Socket.
     private ServerSocket fTcpListener;
     private Thread fTCPListenerThread;
-    private boolean fActive = false;
+    protected boolean fActive = false;
     // TCP listener identification.
     private String fName;
     private InetAddress fIPAddress;
@@ -48,12 +49,14 @@ public class TCPListener
     private int fMaxConnections;
     private int fReadBufferSize;
     private int fConnectionTimeOut;
-    private int fBackLog;
+    protected int fBackLog;
     // Bytes throughtput.
     public int fBytesIn,  fBytesOut;
     // Message collector.
     private boolean fUseMessageCollector = false;
     private String fMessageCollectorSplitter;
+    private int fLengthPrefixSize = 0;
+    private int fMaxFrameLength = MessageFramer.DEFAULT_MAX_FRAME_LENGTH;
 
     /**
      * Constructs a new TCP listener.
@@ -138,7 +141,7 @@ public class TCPListener
 
         try
         {
-            fTCPListenerThread = new Thread(new TCPListenerThread(fTcpListener, this));
+            fTCPListenerThread = fMyExtasysTCPServer.NewThread(new TCPListenerThread(fTcpListener, this), fName + " accept");
             fTCPListenerThread.start();
         }
         catch (Exception ex)
@@ -485,6 +488,41 @@ public class TCPListener
         return fUseMessageCollector;
     }
 
+    /**
+     * Split incoming data into messages behind a big-endian length prefix,
+     * instead of with a splitter. Set this before the listener starts.
+     * @param prefixSize is the size of the length prefix: 1, 2 or 4 bytes.
+     * @param maxFrameLength is the longest message accepted, in bytes. A client that sends a longer one is disconnected.
+     */
+    public void setLengthPrefix(int prefixSize, int maxFrameLength)
+    {
+        if (prefixSize != 1 && prefixSize != 2 && prefixSize != 4)
+        {
+            throw new IllegalArgumentException("The length prefix must be 1, 2 or 4 bytes.");
+        }
+        fUseMessageCollector = true;
+        fLengthPrefixSize = prefixSize;
+        fMaxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * Returns the size of the length prefix in front of each message.
+     * @return the size of the length prefix in bytes, or 0 if messages are split with a splitter.
+     */
+    public int getLengthPrefixSize()
+    {
+        return fLengthPrefixSize;
+    }
+
+    /**
+     * Returns the longest message the message collector accepts.
+     * @return the longest message the message collector accepts, in bytes.
+     */
+    public int getMaxFrameLength()
+    {
+        return fMaxFrameLength;
+    }
+
     /**
      * Returns message collector's splitter in string format.
      * @return the message collector's splitter in string format.
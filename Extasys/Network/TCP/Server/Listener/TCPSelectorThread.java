@@ -0,0 +1,267 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.TCP.Server.Listener;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One event-loop thread that accepts, reads and writes for any number of NIO
+ * TCP listeners and connections.
+ * 
+ * Channels are only registered and changed on this thread, through tasks that
+ * wake it up. Data is written when the socket has room for it, so a slow
+ * client only makes its own output wait. Once a second the thread also closes
+ * connections that have been quiet for longer than their listener's time-out.
+ */
+public class TCPSelectorThread extends Thread
+{
+
+    /**
+     * How often idle connections are looked for, in milliseconds.
+     */
+    public static final int TIME_OUT_CHECK_INTERVAL = 1000;
+    private Selector fSelector;
+    private ConcurrentLinkedQueue<Runnable> fPendingTasks = new ConcurrentLinkedQueue<Runnable>();
+    private volatile boolean fActive = true;
+    private long fLastTimeOutCheck = 0;
+
+    /**
+     * Constructs a new selector thread. Call start() to run it.
+     * @param name is the name of the thread.
+     */
+    public TCPSelectorThread(String name) throws IOException
+    {
+        super(name);
+        setDaemon(true);
+        fSelector = Selector.open();
+    }
+
+    /**
+     * Run a task on this thread, before it next waits for a channel.
+     * @param task is the task to run.
+     */
+    public void Execute(Runnable task)
+    {
+        if (Thread.currentThread() == this)
+        {
+            task.run();
+            return;
+        }
+        fPendingTasks.offer(task);
+        fSelector.wakeup();
+    }
+
+    /**
+     * Start selecting a channel.
+     * @param channel is the non-blocking channel.
+     * @param ops is the set of operations to select it for.
+     * @param attachment is the NIOTCPListener or NIOTCPClientConnection that serves the channel.
+     */
+    public void Register(final SelectableChannel channel, final int ops, final Object attachment)
+    {
+        Execute(new Runnable()
+        {
+
+            public void run()
+            {
+                try
+                {
+                    channel.register(fSelector, ops, attachment);
+                }
+                catch (ClosedChannelException ex)
+                {
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the key of a channel registered with this thread.
+     * Only use the key on this thread.
+     * @param channel is the registered channel.
+     * @return the channel's key, or null if it isn't registered.
+     */
+    public SelectionKey KeyFor(SelectableChannel channel)
+    {
+        return channel.keyFor(fSelector);
+    }
+
+    /**
+     * Stop selecting a channel and close it.
+     * A registered channel keeps its socket until the selector lets go of it, so
+     * this waits for the selector thread to do that. A listener's port can be
+     * bound again as soon as this method returns.
+     * @param channel is the channel to close.
+     */
+    public void Close(final SelectableChannel channel)
+    {
+        final CountDownLatch closed = new CountDownLatch(1);
+        Runnable task = new Runnable()
+        {
+
+            public void run()
+            {
+                SelectionKey key = channel.keyFor(fSelector);
+                if (key != null)
+                {
+                    key.cancel();
+                }
+                try
+                {
+                    channel.close();
+                    // Flush the cancelled key so the socket is really released
+                    fSelector.selectNow();
+                }
+                catch (IOException ex)
+                {
+                }
+                closed.countDown();
+            }
+        };
+
+        if (Thread.currentThread() == this || !isAlive())
+        {
+            task.run();
+            return;
+        }
+
+        fPendingTasks.offer(task);
+        fSelector.wakeup();
+        try
+        {
+            while (!closed.await(100, TimeUnit.MILLISECONDS))
+            {
+                if (!isAlive())
+                {
+                    // The selector is gone, so nothing else will close the channel
+                    task.run();
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the thread and close the selector.
+     */
+    public void Dispose()
+    {
+        fActive = false;
+        fSelector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (fActive)
+            {
+                Runnable task;
+                while ((task = fPendingTasks.poll()) != null)
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (Exception ex)
+                    {
+                    }
+                }
+
+                // A task may have left keys selected, and select() wouldn't report them again
+                if (fSelector.selectedKeys().isEmpty())
+                {
+                    fSelector.select(TIME_OUT_CHECK_INTERVAL);
+                }
+
+                Iterator<SelectionKey> keys = fSelector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try
+                    {
+                        if (key.isValid() && key.isAcceptable())
+                        {
+                            ((NIOTCPListener) key.attachment()).AcceptConnections();
+                        }
+                        if (key.isValid() && key.isReadable())
+                        {
+                            ((NIOTCPClientConnection) key.attachment()).ReadIncomingData();
+                        }
+                        if (key.isValid() && key.isWritable())
+                        {
+                            ((NIOTCPClientConnection) key.attachment()).WriteOutgoingData();
+                        }
+                    }
+                    catch (Exception ex)
+                    {
+                    }
+                }
+
+                CheckTimeOuts();
+            }
+        }
+        catch (IOException ex)
+        {
+        }
+        finally
+        {
+            try
+            {
+                fSelector.close();
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+    }
+
+    private void CheckTimeOuts()
+    {
+        long now = System.currentTimeMillis();
+        if (now - fLastTimeOutCheck < TIME_OUT_CHECK_INTERVAL)
+        {
+            return;
+        }
+        fLastTimeOutCheck = now;
+
+        for (SelectionKey key : fSelector.keys())
+        {
+            if (key.isValid() && key.attachment() instanceof NIOTCPClientConnection)
+            {
+                ((NIOTCPClientConnection) key.attachment()).CheckTimeOut(now);
+            }
+        }
+    }
+}
@@ -20,7 +20,9 @@ THE SOFTWARE.*/
 package Extasys.Network.TCP.Server.Listener.Tools;
 
 import Extasys.DataFrame;
+import Extasys.MessageFramer;
 import Extasys.Network.TCP.Server.Listener.TCPClientConnection;
+import java.io.IOException;
 
 /**
  *
@@ -30,50 +32,79 @@ public class TCPClientConnectionMessageCollector
 {
 
     private TCPClientConnection fMyClient;
-    private String fETXStr;
-    private StringBuilder fIncomingDataBuffer;
-    private int fIndexOfETX;
+    private MessageFramer fFramer;
 
     public TCPClientConnectionMessageCollector(TCPClientConnection myClient, char splitter)
     {
-        Initialize(myClient, String.valueOf(splitter));
+        this(myClient, String.valueOf(splitter));
     }
 
     public TCPClientConnectionMessageCollector(TCPClientConnection myClient, String splitter)
     {
-        Initialize(myClient, splitter);
+        fMyClient = myClient;
+        fFramer = new MessageFramer(splitter.getBytes(), MessageFramer.DEFAULT_MAX_FRAME_LENGTH)
+        {
+
+            protected void OnFrame(byte[] buffer, int offset, int length)
+            {
+                FrameReceived(buffer, offset, length);
+            }
+        };
     }
 
-    private void Initialize(TCPClientConnection myClient, String splitter)
+    /**
+     * Constructs a message collector for messages behind a length prefix.
+     * @param myClient is the client whose messages are collected.
+     * @param prefixSize is the size of the big-endian length prefix: 1, 2 or 4 bytes.
+     * @param maxFrameLength is the longest message accepted, in bytes. The client is disconnected if it sends a longer one.
+     */
+    public TCPClientConnectionMessageCollector(TCPClientConnection myClient, int prefixSize, int maxFrameLength)
     {
         fMyClient = myClient;
-        fETXStr = splitter;
-        fIncomingDataBuffer = new StringBuilder();
+        fFramer = new MessageFramer(prefixSize, maxFrameLength)
+        {
+
+            protected void OnFrame(byte[] buffer, int offset, int length)
+            {
+                FrameReceived(buffer, offset, length);
+            }
+        };
     }
 
-    public void AppendData(String data)
+    private void FrameReceived(byte[] buffer, int offset, int length)
     {
         try
         {
-            fIncomingDataBuffer.append(data);
-            fIndexOfETX = fIncomingDataBuffer.indexOf(fETXStr);
-            while (fIndexOfETX > -1)
-            {
-                fMyClient.getMyTCPListener().getMyExtasysTCPServer().OnDataReceive(fMyClient, new DataFrame(fIncomingDataBuffer.substring(0, fIndexOfETX).getBytes()));
-                fIncomingDataBuffer = fIncomingDataBuffer.delete(0, fIndexOfETX + 1);
-            }
+            fMyClient.getMyTCPListener().getMyExtasysTCPServer().OnDataReceive(fMyClient, DataFrame.Wrap(buffer, offset, length));
         }
         catch (Exception ex)
         {
         }
     }
 
+    public void AppendData(byte[] data, int offset, int length)
+    {
+        TCPClientConnection client = fMyClient;
+        if (client == null)
+        {
+            return;
+        }
+
+        try
+        {
+            fFramer.Append(data, offset, length);
+        }
+        catch (IOException ex)
+        {
+            client.DisconnectMe();
+        }
+    }
+
     public void Dispose()
     {
         try
         {
-            fIncomingDataBuffer = null;
-            fETXStr = null;
+            fFramer.Clear();
             fMyClient = null;
         }
         catch (Exception ex)
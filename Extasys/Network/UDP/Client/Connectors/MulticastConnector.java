@@ -71,9 +71,6 @@ public class MulticastConnector extends UDPConnector
 
                 fSocket.setReceiveBufferSize(fReadBufferSize);
                 fSocket.setSendBufferSize(fReadBufferSize);
-                
-                fLastIncomingPacket = null;
-                fLastOutgoingPacket = null;
 
                 if (fReadTimeOut > 0)
                 {
@@ -82,7 +79,7 @@ public class MulticastConnector extends UDPConnector
 
                 try
                 {
-                    fReadDataThread = new ReadIncomingData(this);
+                    fReadDataThread = fMyUDPClient.NewThread(new ReadIncomingData(this), fName + " reader");
                     fReadDataThread.start();
                 }
                 catch (Exception ex)
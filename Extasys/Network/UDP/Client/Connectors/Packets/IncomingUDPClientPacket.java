@@ -20,7 +20,6 @@ THE SOFTWARE.*/
 package Extasys.Network.UDP.Client.Connectors.Packets;
 
 import Extasys.Network.UDP.Client.Connectors.UDPConnector;
-import Extasys.ManualResetEvent;
 import java.net.DatagramPacket;
 
 /**
@@ -30,45 +29,27 @@ import java.net.DatagramPacket;
 public class IncomingUDPClientPacket implements Runnable
 {
 
-    public ManualResetEvent fDone = new ManualResetEvent(false);
     private UDPConnector fConnector;
     private DatagramPacket fData;
-    private IncomingUDPClientPacket fPreviousPacket;
-    public boolean fCancel = false;
 
     /**
      * Constructs a new incoming packet received by a UDP connector.
      * 
      * Use this class to receive data from a server.
-     * This is an incoming message that will remain in the clients thread pool 
-     * as a job for the thread pool workers.
+     * This is an incoming message that will wait in the connector's incoming
+     * packet queue until every packet received before it has been handled.
+     * The packet's data array must come from the client's buffer pool, it is
+     * recycled once the packet has been handled.
      * 
      * @param UDPConnector is the UDP Connector where this message belongs to.
      * @param data is a DatagramPacket.
-     * @param previousPacket is the previous incoming message of the UDP Connector.
      */
-    public IncomingUDPClientPacket(UDPConnector connector, DatagramPacket data, IncomingUDPClientPacket previousPacket)
+    public IncomingUDPClientPacket(UDPConnector connector, DatagramPacket data)
     {
         fConnector = connector;
         fData = data;
-        fPreviousPacket = previousPacket;
 
-        connector.getMyExtasysUDPClient().getMyThreadPool().execute(this);
-    }
-
-    /**
-     * Cancel this incoming packet.
-     * 
-     * By calling this method this and all the previous incoming packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last incoming packet of the UDP Connector
-     * when the UDP Connector stops.
-     * 
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
+        connector.getIncomingQueue().Enqueue(this);
     }
 
     //@Override
@@ -76,33 +57,13 @@ public class IncomingUDPClientPacket implements Runnable
     {
         try
         {
-            if (fPreviousPacket == null)
-            {
-                fConnector.getMyExtasysUDPClient().OnDataReceive(fConnector, fData);
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    fConnector.getMyExtasysUDPClient().OnDataReceive(fConnector, fData);
-                }
-                else
-                {
-                    fCancel = true;
-                }
-            }
+            fConnector.getMyExtasysUDPClient().OnDataReceive(fConnector, fData);
         }
         catch (Exception ex)
         {
         }
 
-        if (fPreviousPacket != null)
-        {
-            fPreviousPacket = null;
-        }
-
-        fDone.Set();
+        fConnector.getMyExtasysUDPClient().getBufferPool().Recycle(fData.getData());
     }
 
     /**
@@ -114,15 +75,4 @@ public class IncomingUDPClientPacket implements Runnable
     {
         return fData;
     }
-
-    /**
-     * Returns the previus incoming packet received by the client.
-     * If the packet is null means that the packet has been received and parsed from the client.
-     * 
-     * @return the previus incoming packet received by the client.
-     */
-    public IncomingUDPClientPacket getPreviusPacket()
-    {
-        return fPreviousPacket;
-    }
 }
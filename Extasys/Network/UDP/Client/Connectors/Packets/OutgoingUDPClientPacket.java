@@ -20,8 +20,6 @@ THE SOFTWARE.*/
 package Extasys.Network.UDP.Client.Connectors.Packets;
 
 import Extasys.Network.UDP.Client.Connectors.UDPConnector;
-//import Extasys.Network.UDP.Client.Connectors.MulticastConnector;
-import Extasys.ManualResetEvent;
 import java.net.DatagramPacket;
 
 /**
@@ -31,79 +29,36 @@ import java.net.DatagramPacket;
 public class OutgoingUDPClientPacket implements Runnable
 {
 
-    public ManualResetEvent fDone = new ManualResetEvent(false);
     private UDPConnector fConnector;
     private DatagramPacket fData;
-    private OutgoingUDPClientPacket fPreviousPacket;
-    public boolean fCancel = false;
 
     /**
      * Constructs a new outgoing packet for an existing UDP Connector.
      * Use this class to send data from the UDP Connector to a server.
-     * This is an outgoing message that will remain in the clients thread pool 
-     * as a job for the thread pool workers.
+     * This is an outgoing message that will wait in the connector's outgoing
+     * packet queue until every packet sent before it has gone out.
      * @param UDPConnector is the UDPConnector where this message belongs to.
      * @param data is the outgoing DatagramPacket.
-     * @param previousPacket is the previous outgoing packet of the UDPConnector.
      */
-    public OutgoingUDPClientPacket(UDPConnector connector, DatagramPacket data, OutgoingUDPClientPacket previousPacket)
+    public OutgoingUDPClientPacket(UDPConnector connector, DatagramPacket data)
     {
         fConnector = connector;
         fData = data;
-        fPreviousPacket = previousPacket;
-        connector.getMyExtasysUDPClient().getMyThreadPool().execute(this);
-    }
-
-    /**
-     * Cancel this outgoing packet.
-     * By calling this method this and all the previous outgoing packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last outgoing packet of the UDPConnector
-     * when the UDPConnector disconnects.
-     * 
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
+        connector.getOutgoingQueue().Enqueue(this);
     }
 
     // @Override
     public void run()
     {
-                
         try
-        {                
-            if (fPreviousPacket == null)
-            {
-                fConnector.fSocket.send(fData);
-                fConnector.fBytesOut += fData.getLength();
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    fConnector.fSocket.send(fData);
-                    fConnector.fBytesOut += fData.getLength();
-                }
-                else
-                {
-                    fCancel = true;
-                }
-            }
+        {
+            fConnector.fSocket.send(fData);
+            fConnector.fBytesOut += fData.getLength();
         }
         catch (Exception ex)
         {
             ex.printStackTrace();
         }
-
-        if (fPreviousPacket != null)
-        {
-            fPreviousPacket = null;
-        }
-
-        fDone.Set();
     }
 
     /**
@@ -114,16 +69,4 @@ public class OutgoingUDPClientPacket implements Runnable
     {
         return fData;
     }
-
-    /**
-     * Returns the previus outgoing packet of the client.
-     * If the packet is null means that the packet has been send to server.
-     * @return the previus outgoing packet of the client.
-     */
-    public OutgoingUDPClientPacket getPreviusPacket()
-    {
-        return fPreviousPacket;
-    }
 }
-
-
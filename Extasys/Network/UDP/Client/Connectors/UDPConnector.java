@@ -19,6 +19,8 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.UDP.Client.Connectors;
 
+import Extasys.BufferPool;
+import Extasys.PacketQueue;
 import Extasys.Network.UDP.Client.Connectors.Packets.*;
 import Extasys.Network.UDP.Client.ExtasysUDPClient;
 import java.io.IOException;
@@ -38,14 +40,15 @@ public class UDPConnector
     public DatagramSocket fSocket;
     protected InetAddress fServerIP;
     protected int fServerPort;
+    protected int fLocalPort = 0; // The port the socket was bound to, kept so a restart comes back on the same one.
     protected Thread fReadDataThread;
     protected String fName;
     protected int fReadBufferSize;
     protected int fReadTimeOut;
     public int fBytesIn = 0;
     public int fBytesOut = 0;
-    public IncomingUDPClientPacket fLastIncomingPacket = null;
-    public OutgoingUDPClientPacket fLastOutgoingPacket = null;
+    protected PacketQueue fIncomingQueue;
+    protected PacketQueue fOutgoingQueue;
 
     /**
      * Constructs a new UDP Connector.
@@ -64,6 +67,8 @@ public class UDPConnector
         fReadTimeOut = readTimeOut;
         fServerIP = serverIP;
         fServerPort = serverPort;
+        fIncomingQueue = new PacketQueue(myClient.getExecutor());
+        fOutgoingQueue = new PacketQueue(myClient.getExecutor());
     }
 
     /**
@@ -78,7 +83,8 @@ public class UDPConnector
                 fActive = true;
                 try
                 {
-                    fSocket = new DatagramSocket();
+                    fSocket = new DatagramSocket(fLocalPort);
+                    fLocalPort = fSocket.getLocalPort();
                 }
                 catch (SocketException ex)
                 {
@@ -89,9 +95,6 @@ public class UDPConnector
                 fSocket.setReceiveBufferSize(fReadBufferSize);
                 fSocket.setSendBufferSize(fReadBufferSize);
 
-                fLastIncomingPacket = null;
-                fLastOutgoingPacket = null;
-
                 if (fReadTimeOut > 0)
                 {
                     fSocket.setSoTimeout(fReadTimeOut);
@@ -99,7 +102,7 @@ public class UDPConnector
 
                 try
                 {
-                    fReadDataThread = new ReadIncomingData(this);
+                    fReadDataThread = fMyUDPClient.NewThread(new ReadIncomingData(this), fName + " reader");
                     fReadDataThread.start();
                 }
                 catch (Exception ex)
@@ -131,15 +134,8 @@ public class UDPConnector
             {
             }
 
-            if (fLastIncomingPacket != null)
-            {
-                fLastIncomingPacket.Cancel();
-            }
-
-            if (fLastOutgoingPacket != null)
-            {
-                fLastOutgoingPacket.Cancel();
-            }
+            fIncomingQueue.Clear();
+            fOutgoingQueue.Clear();
 
             try
             {
@@ -158,7 +154,7 @@ public class UDPConnector
     public void SendData(String data) throws IOException
     {
         DatagramPacket outPacket = new DatagramPacket(data.getBytes(), data.length(), fServerIP, fServerPort);
-        fLastOutgoingPacket = new OutgoingUDPClientPacket(this, outPacket, fLastOutgoingPacket);
+        new OutgoingUDPClientPacket(this, outPacket);
     }
 
     /**
@@ -170,7 +166,7 @@ public class UDPConnector
     public void SendData(byte[] bytes, int offset, int length) throws IOException
     {
         DatagramPacket outPacket = new DatagramPacket(bytes, offset, length, fServerIP, fServerPort);
-        fLastOutgoingPacket = new OutgoingUDPClientPacket(this, outPacket, fLastOutgoingPacket);
+        new OutgoingUDPClientPacket(this, outPacket);
     }
 
     public boolean isActive()
@@ -215,6 +211,24 @@ public class UDPConnector
         return fReadTimeOut;
     }
 
+    /**
+     * Returns the queue that delivers this connector's received packets in order.
+     * @return the queue that delivers this connector's received packets in order.
+     */
+    public PacketQueue getIncomingQueue()
+    {
+        return fIncomingQueue;
+    }
+
+    /**
+     * Returns the queue that sends this connector's outgoing packets in order.
+     * @return the queue that sends this connector's outgoing packets in order.
+     */
+    public PacketQueue getOutgoingQueue()
+    {
+        return fOutgoingQueue;
+    }
+
     /**
      * Return the number of bytes received from this connector.
      * @return the number of bytes received from this connector.
@@ -234,7 +248,7 @@ public class UDPConnector
     }
 }
 
-class ReadIncomingData extends Thread
+class ReadIncomingData implements Runnable
 {
 
     private UDPConnector fMyConnector;
@@ -247,17 +261,24 @@ class ReadIncomingData extends Thread
     @Override
     public void run()
     {
-        DatagramPacket receivedPacket;
-        byte[] data;
+        byte[] data = new byte[fMyConnector.getReadBufferSize()];
+        DatagramPacket receivedPacket = new DatagramPacket(data, data.length);
+        BufferPool bufferPool = fMyConnector.getMyExtasysUDPClient().getBufferPool();
         while (fMyConnector.isActive())
         {
             try
             {
-                data = new byte[fMyConnector.getReadBufferSize()];
-                receivedPacket = new DatagramPacket(data, data.length);
+                receivedPacket.setLength(data.length);
                 fMyConnector.fSocket.receive(receivedPacket);
                 fMyConnector.fBytesIn += receivedPacket.getLength();
-                fMyConnector.fLastIncomingPacket = new IncomingUDPClientPacket(fMyConnector, receivedPacket, fMyConnector.fLastIncomingPacket);
+                if (fMyConnector.getMyExtasysUDPClient().AcceptPacket(receivedPacket))
+                {
+                    // Copy it into a pooled array about its own size, so the read buffer can be reused straight away.
+                    int length = receivedPacket.getLength();
+                    byte[] copy = bufferPool.Take(length);
+                    System.arraycopy(data, 0, copy, 0, length);
+                    new IncomingUDPClientPacket(fMyConnector, new DatagramPacket(copy, length, receivedPacket.getSocketAddress()));
+                }
             }
             catch (IOException ex)
             {
@@ -19,13 +19,17 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.UDP.Client;
 
+import Extasys.BufferPool;
+import Extasys.ThreadMode;
 import Extasys.Network.UDP.Client.Connectors.UDPConnector;
+import Extasys.Network.UDP.IUDPPacketFilter;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -40,7 +44,11 @@ public class ExtasysUDPClient
     private String fDescription;
     private ArrayBlockingQueue<Runnable> fThreadPoolQueue = new ArrayBlockingQueue<Runnable>(50000);
     private ThreadPoolExecutor fMyThreadPool;
+    private ThreadMode fThreadMode;
+    private ExecutorService fExecutor;
     private ArrayList<UDPConnector> fConnectors = new ArrayList<UDPConnector>();
+    private volatile IUDPPacketFilter fPacketFilter = null;
+    private BufferPool fBufferPool = new BufferPool();
 
     /**
      * Constructs a new Extasys UDP Client.
@@ -50,10 +58,25 @@ public class ExtasysUDPClient
      * @param maximumPoolSize is the maximum number of threads to allow in the pool.
      */
     public ExtasysUDPClient(String name, String description, int corePoolSize, int maximumPoolSize)
+    {
+        this(name, description, ThreadMode.POOLED, corePoolSize, maximumPoolSize);
+    }
+
+    /**
+     * Constructs a new Extasys UDP Client.
+     * @param name is the name of the client.
+     * @param description is the description of the client.
+     * @param threadMode is the kind of threads to run readers and packet tasks on.
+     * @param corePoolSize is the number of threads to keep in the pool, even if they are idle. Only used in POOLED mode.
+     * @param maximumPoolSize is the maximum number of threads to allow in the pool. Only used in POOLED mode.
+     */
+    public ExtasysUDPClient(String name, String description, ThreadMode threadMode, int corePoolSize, int maximumPoolSize)
     {
         fName = name;
         fDescription = description;
         fMyThreadPool = new ThreadPoolExecutor(corePoolSize, maximumPoolSize, 2, TimeUnit.SECONDS, fThreadPoolQueue);
+        fThreadMode = threadMode.Resolve();
+        fExecutor = fThreadMode == ThreadMode.VIRTUAL ? ThreadMode.NewVirtualThreadExecutor() : fMyThreadPool;
     }
 
     /**
@@ -159,9 +182,17 @@ public class ExtasysUDPClient
     public void Dispose()
     {
         Stop();
+        fExecutor.shutdown();
         fMyThreadPool.shutdown();
     }
 
+    /**
+     * Handle a received datagram packet.
+     * The packet's data array goes back to the buffer pool when this method
+     * returns, so copy anything that has to outlive the call.
+     * @param connector is the connector that received the packet.
+     * @param packet is the received packet.
+     */
     public void OnDataReceive(UDPConnector connector, DatagramPacket packet)
     {
         System.out.println("Data received");
@@ -169,6 +200,76 @@ public class ExtasysUDPClient
         System.out.println("---" + new String(packet.getData(), 0, packet.getLength()));
     }
 
+    /**
+     * Returns true if a received datagram should be handed on to OnDataReceive.
+     * This is called on the connector's read thread, before the packet is queued on the thread pool.
+     * @param packet is the received datagram packet.
+     * @return true if there is no packet filter or the packet filter accepts the packet.
+     */
+    public boolean AcceptPacket(DatagramPacket packet)
+    {
+        IUDPPacketFilter filter = fPacketFilter;
+        return filter == null || filter.Accept(packet.getData(), packet.getOffset(), packet.getLength());
+    }
+
+    /**
+     * Sets the filter that decides which received datagrams are handed on to OnDataReceive.
+     * @param filter is the packet filter, or null to hand on every datagram.
+     */
+    public void setPacketFilter(IUDPPacketFilter filter)
+    {
+        fPacketFilter = filter;
+    }
+
+    /**
+     * Returns this client's packet filter.
+     * @return this client's packet filter, or null if it has none.
+     */
+    public IUDPPacketFilter getPacketFilter()
+    {
+        return fPacketFilter;
+    }
+
+    /**
+     * Returns the mode this client runs its threads in.
+     * This is POOLED if VIRTUAL was asked for on a runtime without virtual threads.
+     * @return the mode this client runs its threads in.
+     */
+    public ThreadMode getThreadMode()
+    {
+        return fThreadMode;
+    }
+
+    /**
+     * Returns the executor that runs this client's packet tasks.
+     * This is the thread pool in POOLED mode, and runs each task on a new virtual thread in VIRTUAL mode.
+     * @return the executor that runs this client's packet tasks.
+     */
+    public ExecutorService getExecutor()
+    {
+        return fExecutor;
+    }
+
+    /**
+     * Create a reader thread for this client. The thread isn't started.
+     * @param task is what the thread runs.
+     * @param name is the name of the thread.
+     * @return a virtual thread in VIRTUAL mode, a platform thread otherwise.
+     */
+    public Thread NewThread(Runnable task, String name)
+    {
+        return ThreadMode.NewThread(fThreadMode, task, name);
+    }
+
+    /**
+     * Returns the pool that received datagrams are copied into.
+     * @return the pool that received datagrams are copied into.
+     */
+    public BufferPool getBufferPool()
+    {
+        return fBufferPool;
+    }
+
     /**
      * Return the name of the client.
      * @return the name of the client.
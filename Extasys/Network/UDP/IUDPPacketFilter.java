@@ -0,0 +1,38 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.UDP;
+
+/**
+ * Decides which received datagrams are handed on to OnDataReceive.
+ * The filter runs on the read thread right after the datagram arrives, before
+ * any packet object is built or queued on the thread pool, so it must be quick
+ * and must not keep a reference to the data.
+ */
+public interface IUDPPacketFilter
+{
+    /**
+     * Returns true if the datagram should be handed on.
+     * @param data is the buffer the datagram was received into.
+     * @param offset is the position of the first byte of the datagram.
+     * @param length is the number of bytes received.
+     * @return true to pass the datagram on to OnDataReceive, false to drop it.
+     */
+    public boolean Accept(byte[] data, int offset, int length);
+}
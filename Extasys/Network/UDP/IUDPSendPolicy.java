@@ -0,0 +1,72 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.UDP;
+
+import java.net.DatagramPacket;
+
+/**
+ * Decides what a listener's send queue may drop, replace and pack together.
+ * The methods are called with the send queue locked, so they must be quick.
+ * Every packet passed in has its destination set.
+ */
+public interface IUDPSendPolicy
+{
+    /**
+     * Returns true if a packet may be dropped when the send queue is full.
+     * The queue grows rather than drop a packet this returns false for.
+     * @param packet is the packet waiting to be sent.
+     * @return true if the packet may be lost.
+     */
+    public boolean CanDrop(DatagramPacket packet);
+
+    /**
+     * Returns the key the queue files a packet under, so it can find the
+     * packet a new one might supersede without searching. Packets that might
+     * supersede each other must have equal keys, and packets to different
+     * destinations must not. This method is called without the queue locked.
+     * @param packet is the packet being sent.
+     * @return the key, or null if the packet never supersedes or is superseded.
+     */
+    public Object ReplaceKey(DatagramPacket packet);
+
+    /**
+     * Returns true if a new packet makes a packet still waiting in the queue
+     * pointless to send, for example a newer position of the same player.
+     * The new packet then takes the old one's place in the queue.
+     * It is only asked about the newest waiting packet with the same ReplaceKey.
+     * @param queued is the packet waiting in the queue.
+     * @param packet is the packet being sent.
+     * @return true if the queued packet should be replaced.
+     */
+    public boolean Supersedes(DatagramPacket queued, DatagramPacket packet);
+
+    /**
+     * Pack packets that go to the same destination into one datagram.
+     * The datagram is written from the start of out's data array, and out's
+     * length is set to its size. The caller sets out's destination.
+     * @param packets holds the packets, in the order they are to be sent.
+     * @param offset is the index of the first packet.
+     * @param count is the number of packets, at least 2.
+     * @param out is the packet to build the datagram in. Its data array can hold the largest datagram.
+     * @return the number of packets from offset on that were packed into out,
+     * or 0 or 1 if the first packet should be sent on its own.
+     */
+    public int Coalesce(DatagramPacket[] packets, int offset, int count, DatagramPacket out);
+}
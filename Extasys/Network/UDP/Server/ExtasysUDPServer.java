@@ -19,12 +19,25 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.UDP.Server;
 
+import Extasys.BufferPool;
+import Extasys.PacketQueue;
+import Extasys.ThreadMode;
+import Extasys.Network.UDP.IUDPPacketFilter;
+import Extasys.Network.UDP.IUDPSendPolicy;
+import Extasys.Network.UDP.Server.Listener.NIOMulticastListener;
+import Extasys.Network.UDP.Server.Listener.NIOUDPListener;
 import Extasys.Network.UDP.Server.Listener.UDPListener;
+import Extasys.Network.UDP.Server.Listener.UDPSelectorThread;
+import Extasys.Network.UDP.Server.Listener.Packets.IncomingUDPServerBatch;
+import Extasys.Network.UDP.Server.Listener.Packets.IncomingUDPServerPacket;
+import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -40,6 +53,14 @@ public class ExtasysUDPServer
     protected ArrayList<UDPListener> fListeners = new ArrayList<UDPListener>();
     protected ArrayBlockingQueue<Runnable> fThreadPoolQueue = new ArrayBlockingQueue<Runnable>(50000);
     protected ThreadPoolExecutor fMyThreadPool;
+    protected ThreadMode fThreadMode;
+    protected ExecutorService fExecutor;
+    protected volatile IUDPPacketFilter fPacketFilter = null;
+    protected volatile IUDPSendPolicy fSendPolicy = null;
+    protected volatile PacketQueue[] fLanes = null;
+    protected UDPSelectorThread fSelectorThread = null;
+    protected BufferPool fBufferPool = new BufferPool();
+    protected volatile int fBatchSize = 1;
 
     /**
      * Constructs a new Extasys UDP Server.
@@ -49,10 +70,25 @@ public class ExtasysUDPServer
      * @param maximumPoolSize is the maximum number of threads to allow in the pool.
      */
     public ExtasysUDPServer(String name, String description, int corePoolSize, int maximumPoolSize)
+    {
+        this(name, description, ThreadMode.POOLED, corePoolSize, maximumPoolSize);
+    }
+
+    /**
+     * Constructs a new Extasys UDP Server.
+     * @param name is the name of the server.
+     * @param description is the description of the server.
+     * @param threadMode is the kind of threads to run readers and packet tasks on.
+     * @param corePoolSize is the number of threads to keep in the pool, even if they are idle. Only used in POOLED mode.
+     * @param maximumPoolSize is the maximum number of threads to allow in the pool. Only used in POOLED mode.
+     */
+    public ExtasysUDPServer(String name, String description, ThreadMode threadMode, int corePoolSize, int maximumPoolSize)
     {
         fName = name;
         fDescription = description;
         fMyThreadPool = new ThreadPoolExecutor(corePoolSize, maximumPoolSize, 2, TimeUnit.SECONDS, fThreadPoolQueue);
+        fThreadMode = threadMode.Resolve();
+        fExecutor = fThreadMode == ThreadMode.VIRTUAL ? ThreadMode.NewVirtualThreadExecutor() : fMyThreadPool;
     }
 
     /**
@@ -71,6 +107,38 @@ public class ExtasysUDPServer
         return listener;
     }
 
+    /**
+     * Add a new NIO listener to this server.
+     * NIO listeners share one selector thread instead of keeping a read thread each.
+     * @param name is the listener's name.
+     * @param ipAddress is the listener's IP address.
+     * @param port is the listener's udp port.
+     * @param readBufferSize is the maximum size of bytes the listener can use to read incoming bytes at a time.
+     * @return the listener.
+     */
+    public UDPListener AddNIOListener(String name, InetAddress ipAddress, int port, int readBufferSize)
+    {
+        UDPListener listener = new NIOUDPListener(this, name, ipAddress, port, readBufferSize);
+        fListeners.add(listener);
+        return listener;
+    }
+
+    /**
+     * Add a new NIO multicast listener to this server.
+     * NIO listeners share one selector thread instead of keeping a read thread each.
+     * @param name is the listener's name.
+     * @param groupAddress is the multicast group the listener joins.
+     * @param port is the listener's udp port.
+     * @param readBufferSize is the maximum size of bytes the listener can use to read incoming bytes at a time.
+     * @return the listener.
+     */
+    public UDPListener AddNIOMulticastListener(String name, InetAddress groupAddress, int port, int readBufferSize)
+    {
+        UDPListener listener = new NIOMulticastListener(this, name, groupAddress, port, readBufferSize);
+        fListeners.add(listener);
+        return listener;
+    }
+
     /**
      * Stops and removes a UDP listener from this server.
      * @param name is the name of the UDP listener.
@@ -122,6 +190,15 @@ public class ExtasysUDPServer
         {
             ((UDPListener) fListeners.get(i)).Stop();
         }
+
+        PacketQueue[] lanes = fLanes;
+        if (lanes != null)
+        {
+            for (int i = 0; i < lanes.length; i++)
+            {
+                lanes[i].Clear();
+            }
+        }
     }
 
     /**
@@ -132,20 +209,252 @@ public class ExtasysUDPServer
     public void Dispose()
     {
         Stop();
+        synchronized (this)
+        {
+            if (fSelectorThread != null)
+            {
+                fSelectorThread.Dispose();
+                fSelectorThread = null;
+            }
+        }
+        fExecutor.shutdown();
         fMyThreadPool.shutdown();
     }
 
+    /**
+     * Handle a received datagram packet.
+     * The packet's data array goes back to the buffer pool when this method
+     * returns, so copy anything that has to outlive the call.
+     * @param listener is the listener that received the packet.
+     * @param packet is the received packet.
+     */
     public void OnDataReceive(UDPListener listener, DatagramPacket packet)
     {
         System.out.println("Data received");
         System.out.println("---" + packet.getAddress() + ":" + packet.getPort());
-        System.out.println("---" + new String(packet.getData(), 0, packet.getLength()));
+        System.out.println("---" + new String(packet.getData(), packet.getOffset(), packet.getLength()));
 
-        DatagramPacket reply = new DatagramPacket(packet.getData(), 0, packet.getLength(), packet.getAddress(), packet.getPort());
+        // The reply is sent after this returns, so it can't share the pooled array
+        byte[] data = Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+        DatagramPacket reply = new DatagramPacket(data, 0, data.length, packet.getAddress(), packet.getPort());
 
         listener.SendData(reply);
     }
 
+    /**
+     * Handle a batch of datagram packets received by a listener in one go.
+     * This is only called when the batch size is more than 1. By default it
+     * hands each packet to OnDataReceive in turn; override it to handle the
+     * whole batch at once, for example to send one reply for all of them.
+     * Every packet's data array goes back to the buffer pool when this method
+     * returns, so copy anything that has to outlive the call.
+     * @param listener is the listener that received the packets.
+     * @param packets holds the received packets, in the order they arrived.
+     * @param count is the number of packets in the batch, the rest of the array is unused.
+     */
+    public void OnDataReceiveBatch(UDPListener listener, DatagramPacket[] packets, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            try
+            {
+                OnDataReceive(listener, packets[i]);
+            }
+            catch (Exception ex)
+            {
+            }
+        }
+    }
+
+    /**
+     * Returns true if a received datagram should be handed on to OnDataReceive.
+     * This is called on the listener's read thread, before the packet is queued on the thread pool.
+     * @param packet is the received datagram packet.
+     * @return true if there is no packet filter or the packet filter accepts the packet.
+     */
+    public boolean AcceptPacket(DatagramPacket packet)
+    {
+        IUDPPacketFilter filter = fPacketFilter;
+        return filter == null || filter.Accept(packet.getData(), packet.getOffset(), packet.getLength());
+    }
+
+    /**
+     * Sets the filter that decides which received datagrams are handed on to OnDataReceive.
+     * @param filter is the packet filter, or null to hand on every datagram.
+     */
+    public void setPacketFilter(IUDPPacketFilter filter)
+    {
+        fPacketFilter = filter;
+    }
+
+    /**
+     * Returns this server's packet filter.
+     * @return this server's packet filter, or null if it has none.
+     */
+    public IUDPPacketFilter getPacketFilter()
+    {
+        return fPacketFilter;
+    }
+
+    /**
+     * Sets the policy that decides what the listeners' send queues may pack
+     * together, replace and drop.
+     * @param policy is the send policy, or null to send every packet as it is
+     * and drop new packets while a send queue is full.
+     */
+    public void setSendPolicy(IUDPSendPolicy policy)
+    {
+        fSendPolicy = policy;
+    }
+
+    /**
+     * Returns this server's send policy.
+     * @return this server's send policy, or null if it has none.
+     */
+    public IUDPSendPolicy getSendPolicy()
+    {
+        return fSendPolicy;
+    }
+
+    /**
+     * Hand incoming packets to a fixed number of lanes chosen by their source.
+     * Packets from the same source are still handled one at a time and in order,
+     * but packets from different sources are handled in parallel on the thread pool.
+     * With no lanes (the default) each listener handles all its packets in order.
+     * Call this method before the server starts.
+     * @param laneCount is the number of lanes, or 0 to go back to one queue per listener.
+     */
+    public void setLaneCount(int laneCount)
+    {
+        if (laneCount <= 0)
+        {
+            fLanes = null;
+            return;
+        }
+
+        PacketQueue[] lanes = new PacketQueue[laneCount];
+        for (int i = 0; i < laneCount; i++)
+        {
+            lanes[i] = new PacketQueue(fExecutor);
+        }
+        fLanes = lanes;
+    }
+
+    /**
+     * Sets the most datagrams a listener hands on as one batch.
+     * NIO listeners receive every datagram already waiting on their channel,
+     * up to this many, and queue them as a single batch for OnDataReceiveBatch.
+     * Blocking listeners can't tell whether more datagrams are waiting, so
+     * they hand each one on as a batch of one.
+     * @param batchSize is the largest batch, or 1 (the default) to hand each datagram to OnDataReceive on its own.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        fBatchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Returns the most datagrams a listener hands on as one batch.
+     * @return the most datagrams a listener hands on as one batch.
+     */
+    public int getBatchSize()
+    {
+        return fBatchSize;
+    }
+
+    /**
+     * Queue packets received by a listener for handling.
+     * With a batch size of 1 each packet is queued on its own. Otherwise the
+     * packets are queued as batches, one for each queue they would wait in,
+     * so packets that share a lane are still handled in order.
+     * @param listener is the listener that received the packets.
+     * @param packets holds the received packets, in the order they arrived. The array is not kept.
+     * @param count is the number of packets to queue.
+     */
+    public void DispatchPackets(UDPListener listener, DatagramPacket[] packets, int count)
+    {
+        if (fBatchSize <= 1)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                new IncomingUDPServerPacket(listener, packets[i]);
+            }
+            return;
+        }
+
+        PacketQueue[] queues = new PacketQueue[count];
+        for (int i = 0; i < count; i++)
+        {
+            queues[i] = SelectIncomingQueue(listener, packets[i]);
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            if (queues[i] == null)
+            {
+                continue;
+            }
+
+            PacketQueue queue = queues[i];
+            DatagramPacket[] batch = new DatagramPacket[count - i];
+            int batchCount = 0;
+            for (int j = i; j < count; j++)
+            {
+                if (queues[j] == queue)
+                {
+                    batch[batchCount++] = packets[j];
+                    queues[j] = null;
+                }
+            }
+            new IncomingUDPServerBatch(listener, queue, batch, batchCount);
+        }
+    }
+
+    /**
+     * Returns this server's lanes, to read their depth and latency.
+     * @return this server's lanes, or null if it has none.
+     */
+    public PacketQueue[] getLanes()
+    {
+        return fLanes;
+    }
+
+    /**
+     * Returns the queue that a received packet should wait in.
+     * @param listener is the listener that received the packet.
+     * @param packet is the received datagram packet.
+     * @return the packet's lane, or the listener's incoming queue if this server has no lanes.
+     */
+    public PacketQueue SelectIncomingQueue(UDPListener listener, DatagramPacket packet)
+    {
+        PacketQueue[] lanes = fLanes;
+        if (lanes == null)
+        {
+            return listener.getIncomingQueue();
+        }
+
+        // Mix every bit of the key into the low bits the lane is picked by
+        int key = getLaneKey(packet);
+        key ^= (key >>> 16);
+        key *= 0x85ebca6b;
+        key ^= (key >>> 13);
+        key *= 0xc2b2ae35;
+        key ^= (key >>> 16);
+        return lanes[(key & 0x7fffffff) % lanes.length];
+    }
+
+    /**
+     * Returns the value that picks a received packet's lane.
+     * Packets with the same key are handled in order. Override this method to
+     * order packets by something else the sender puts in them.
+     * @param packet is the received datagram packet.
+     * @return a hash of the packet's source address and port.
+     */
+    protected int getLaneKey(DatagramPacket packet)
+    {
+        return packet.getAddress().hashCode() * 31 + packet.getPort();
+    }
+
     /**
      * Returns the name of this server.
      * @return the name of this server.
@@ -183,6 +492,60 @@ public class ExtasysUDPServer
         return fMyThreadPool;
     }
 
+    /**
+     * Returns the mode this server runs its threads in.
+     * This is POOLED if VIRTUAL was asked for on a runtime without virtual threads.
+     * @return the mode this server runs its threads in.
+     */
+    public ThreadMode getThreadMode()
+    {
+        return fThreadMode;
+    }
+
+    /**
+     * Returns the executor that runs this server's packet tasks.
+     * This is the thread pool in POOLED mode, and runs each task on a new virtual thread in VIRTUAL mode.
+     * @return the executor that runs this server's packet tasks.
+     */
+    public ExecutorService getExecutor()
+    {
+        return fExecutor;
+    }
+
+    /**
+     * Create a reader thread for this server. The thread isn't started.
+     * @param task is what the thread runs.
+     * @param name is the name of the thread.
+     * @return a virtual thread in VIRTUAL mode, a platform thread otherwise.
+     */
+    public Thread NewThread(Runnable task, String name)
+    {
+        return ThreadMode.NewThread(fThreadMode, task, name);
+    }
+
+    /**
+     * Returns the pool that received datagrams are copied into.
+     * @return the pool that received datagrams are copied into.
+     */
+    public BufferPool getBufferPool()
+    {
+        return fBufferPool;
+    }
+
+    /**
+     * Returns the selector thread shared by this server's NIO listeners, starting it if needed.
+     * @return the selector thread shared by this server's NIO listeners.
+     */
+    public synchronized UDPSelectorThread getSelectorThread() throws IOException
+    {
+        if (fSelectorThread == null)
+        {
+            fSelectorThread = new UDPSelectorThread(fName + " selector");
+            fSelectorThread.start();
+        }
+        return fSelectorThread;
+    }
+
     /**
      * Returns the total bytes received from this server.
      * @return the total bytes received from this server.
@@ -66,11 +66,8 @@ public class MulticastListener extends UDPListener
                 fSocket.setSoTimeout(fReadDataTimeOut);
             }
 
-            fLastIncomingPacket = null;
-            fLastOutgoingPacket = null;
-
             fActive = true;
-            fReadIncomingDataThread = new ReadIncomingDataThread(this);
+            fReadIncomingDataThread = fMyUDPServer.NewThread(new ReadIncomingDataThread(this), fName + " reader");
             fReadIncomingDataThread.start();
         }
         catch (SocketException socketException)
@@ -0,0 +1,133 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.UDP.Server.Listener;
+
+import Extasys.Network.UDP.Server.ExtasysUDPServer;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.Enumeration;
+
+/**
+ * A multicast listener that reads through a non-blocking DatagramChannel.
+ * The channel joins the group through a MembershipKey, which is dropped when the listener stops.
+ */
+public class NIOMulticastListener extends NIOUDPListener
+{
+
+    protected NetworkInterface fNetworkInterface;
+    protected MembershipKey fMembershipKey;
+
+    /**
+     * Constructs a new NIO Multicast Listener that joins the group on the default multicast interface.
+     * @param myUDPServer is the udp listener's main UDP server.
+     * @param name is the name of the listener.
+     * @param groupAddress is the multicast group to join.
+     * @param port is the listener's UDP port.
+     * @param readBufferSize is the read buffer size of the listener, and the largest datagram it can receive.
+     */
+    public NIOMulticastListener(ExtasysUDPServer myUDPServer, String name, InetAddress groupAddress, int port, int readBufferSize)
+    {
+        this(myUDPServer, name, groupAddress, port, readBufferSize, null);
+    }
+
+    /**
+     * Constructs a new NIO Multicast Listener.
+     * @param myUDPServer is the udp listener's main UDP server.
+     * @param name is the name of the listener.
+     * @param groupAddress is the multicast group to join.
+     * @param port is the listener's UDP port.
+     * @param readBufferSize is the read buffer size of the listener, and the largest datagram it can receive.
+     * @param networkInterface is the interface to join the group on, or null for the default multicast interface.
+     */
+    public NIOMulticastListener(ExtasysUDPServer myUDPServer, String name, InetAddress groupAddress, int port, int readBufferSize, NetworkInterface networkInterface)
+    {
+        super(myUDPServer, name, groupAddress, port, readBufferSize);
+        fNetworkInterface = networkInterface;
+    }
+
+    @Override
+    protected DatagramChannel OpenChannel() throws IOException
+    {
+        NetworkInterface networkInterface = fNetworkInterface != null ? fNetworkInterface : getDefaultInterface();
+        if (networkInterface == null)
+        {
+            throw new IOException("No network interface supports multicast.");
+        }
+
+        DatagramChannel channel = DatagramChannel.open(fIPAddress instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+        try
+        {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, fReadBufferSize);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, fReadBufferSize);
+            channel.bind(new InetSocketAddress(fPort));
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            fMembershipKey = channel.join(fIPAddress, networkInterface);
+        }
+        catch (IOException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+        return channel;
+    }
+
+    @Override
+    public void Stop()
+    {
+        if (fMembershipKey != null)
+        {
+            fMembershipKey.drop();
+            fMembershipKey = null;
+        }
+        super.Stop();
+    }
+
+    /**
+     * Returns the first interface that is up and supports multicast, preferring one that isn't a loopback.
+     * @return the interface, or null if there is none.
+     */
+    public static NetworkInterface getDefaultInterface() throws IOException
+    {
+        NetworkInterface loopback = null;
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces != null && interfaces.hasMoreElements())
+        {
+            NetworkInterface networkInterface = interfaces.nextElement();
+            if (!networkInterface.isUp() || !networkInterface.supportsMulticast())
+            {
+                continue;
+            }
+            if (!networkInterface.isLoopback())
+            {
+                return networkInterface;
+            }
+            loopback = networkInterface;
+        }
+        return loopback;
+    }
+}
@@ -0,0 +1,255 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.UDP.Server.Listener;
+
+import Extasys.Network.UDP.Server.ExtasysUDPServer;
+import Extasys.Network.UDP.Server.Listener.Packets.IncomingUDPServerPacket;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+/**
+ * A UDP listener that reads through a non-blocking DatagramChannel.
+ * 
+ * Instead of a read thread of its own, the listener is served by its server's
+ * shared UDPSelectorThread. Datagrams are received straight into an array from
+ * the server's buffer pool. One the server's packet filter accepts is handed on
+ * in that array, and the next is received into a fresh one; one it drops leaves
+ * the array to be received into again, so nothing is copied either way.
+ */
+public class NIOUDPListener extends UDPListener
+{
+
+    protected DatagramChannel fChannel;
+    protected UDPSelectorThread fSelectorThread;
+    private byte[] fReceiveArray; // Pooled array the next datagram is received into, or null to take one.
+    private ByteBuffer fReceiveBuffer; // Wraps fReceiveArray, limited to the read buffer size.
+    private DatagramPacket fScratchPacket;
+    private DatagramPacket[] fBatch;
+
+    /**
+     * Constructs a new NIO UDP Listener.
+     * @param myUDPServer is the udp listener's main UDP server.
+     * @param name is the name of the listener.
+     * @param ipAddress is the listener's IP address.
+     * @param port is the listener's UDP port.
+     * @param readBufferSize is the read buffer size of the listener, and the largest datagram it can receive.
+     */
+    public NIOUDPListener(ExtasysUDPServer myUDPServer, String name, InetAddress ipAddress, int port, int readBufferSize)
+    {
+        super(myUDPServer, name, ipAddress, port, readBufferSize, 0);
+        fScratchPacket = new DatagramPacket(new byte[0], 0);
+    }
+
+    /**
+     * Start or restart the UDP listener.
+     */
+    @Override
+    public void Start() throws SocketException
+    {
+        Stop();
+        try
+        {
+            fChannel = OpenChannel();
+            fChannel.configureBlocking(false);
+
+            fActive = true;
+            fSelectorThread = fMyUDPServer.getSelectorThread();
+            fSelectorThread.Register(fChannel, this);
+        }
+        catch (IOException ex)
+        {
+            // Let Stop() close whatever was opened
+            fActive = true;
+            Stop();
+            SocketException socketException = new SocketException(ex.getMessage());
+            socketException.initCause(ex);
+            throw socketException;
+        }
+    }
+
+    /**
+     * Open and bind the channel this listener reads from.
+     * @return the bound channel, still in blocking mode.
+     */
+    protected DatagramChannel OpenChannel() throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, fReadBufferSize);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, fReadBufferSize);
+        channel.bind(new InetSocketAddress(fIPAddress, fPort));
+        return channel;
+    }
+
+    /**
+     * Stop the UDP listener.
+     */
+    @Override
+    public void Stop()
+    {
+        if (fActive)
+        {
+            fActive = false;
+            if (fSelectorThread != null)
+            {
+                fSelectorThread.Close(fChannel);
+                fSelectorThread = null;
+            }
+            else if (fChannel != null)
+            {
+                try
+                {
+                    fChannel.close();
+                }
+                catch (IOException ex)
+                {
+                }
+            }
+
+            fIncomingQueue.Clear();
+            fSendQueue.Clear();
+        }
+    }
+
+    /**
+     * Receive the datagrams waiting on the channel.
+     * This is called by the selector thread when the channel is readable.
+     * With a batch size of 1 every waiting datagram is received and queued on
+     * its own. Otherwise at most one batch is received, and the rest are left
+     * for the next time round the selector so other channels get their turn.
+     */
+    void ReadIncomingData()
+    {
+        int batchSize = fMyUDPServer.getBatchSize();
+        if (batchSize > 1)
+        {
+            ReadIncomingBatch(batchSize);
+            return;
+        }
+
+        try
+        {
+            DatagramPacket packet;
+            while (fActive && (packet = ReceivePacket()) != null)
+            {
+                if (packet != fScratchPacket)
+                {
+                    new IncomingUDPServerPacket(this, packet);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+        }
+    }
+
+    /**
+     * Receive one datagram into the pooled receive array.
+     * @return the datagram in the array it was received into, which now belongs to it,
+     * fScratchPacket if the server's packet filter dropped it, or null if none was waiting.
+     */
+    private DatagramPacket ReceivePacket() throws IOException
+    {
+        if (fReceiveArray == null)
+        {
+            fReceiveArray = fMyUDPServer.getBufferPool().Take(fReadBufferSize);
+            fReceiveBuffer = ByteBuffer.wrap(fReceiveArray, 0, fReadBufferSize);
+        }
+
+        SocketAddress source = fChannel.receive(fReceiveBuffer);
+        if (source == null)
+        {
+            return null;
+        }
+
+        int length = fReceiveBuffer.position();
+        fReceiveBuffer.clear();
+        fReceiveBuffer.limit(fReadBufferSize);
+        fBytesIn += length;
+
+        fScratchPacket.setData(fReceiveArray, 0, length);
+        fScratchPacket.setSocketAddress(source);
+        if (!fMyUDPServer.AcceptPacket(fScratchPacket))
+        {
+            return fScratchPacket;
+        }
+
+        // The packet keeps the array, so the next datagram goes into another
+        DatagramPacket packet = new DatagramPacket(fReceiveArray, length, source);
+        fReceiveArray = null;
+        fReceiveBuffer = null;
+        return packet;
+    }
+
+    /**
+     * Receive up to a batch of waiting datagrams and queue them together.
+     * @param batchSize is the most datagrams to receive.
+     */
+    private void ReadIncomingBatch(int batchSize)
+    {
+        if (fBatch == null || fBatch.length != batchSize)
+        {
+            fBatch = new DatagramPacket[batchSize];
+        }
+
+        int count = 0;
+        try
+        {
+            DatagramPacket packet;
+            while (fActive && count < batchSize && (packet = ReceivePacket()) != null)
+            {
+                if (packet != fScratchPacket)
+                {
+                    fBatch[count++] = packet;
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+        }
+        finally
+        {
+            // Whatever was received before a failure is still handed on
+            if (count > 0)
+            {
+                fMyUDPServer.DispatchPackets(this, fBatch, count);
+                Arrays.fill(fBatch, 0, count, null);
+            }
+        }
+    }
+
+    /**
+     * Write a datagram packet to the channel.
+     * The channel never blocks, so a datagram the socket has no room for is dropped.
+     * @param packet is the datagram packet to be send.
+     */
+    @Override
+    public void Send(DatagramPacket packet) throws IOException
+    {
+        fBytesOut += fChannel.send(ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength()), packet.getSocketAddress());
+    }
+}
@@ -0,0 +1,99 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.UDP.Server.Listener.Packets;
+
+import Extasys.PacketQueue;
+import Extasys.Network.UDP.Server.Listener.UDPListener;
+import java.net.DatagramPacket;
+
+/**
+ * A batch of datagram packets received by one listener in one go, handled as
+ * a single entry of a packet queue.
+ */
+public class IncomingUDPServerBatch implements Runnable
+{
+
+    private UDPListener fMyListener;
+    private DatagramPacket[] fPackets;
+    private int fCount;
+    private PacketQueue fQueue;
+    private long fReceivedTime;
+
+    /**
+     * Constructs a new incoming UDP batch and adds it to a queue.
+     * 
+     * The packets' data arrays must come from the server's buffer pool, they
+     * are recycled once the batch has been handled.
+     * 
+     * @param listener is the listener that received the packets.
+     * @param queue is the queue the batch waits in.
+     * @param packets holds the received packets, in the order they arrived.
+     * @param count is the number of packets in the batch.
+     */
+    public IncomingUDPServerBatch(UDPListener listener, PacketQueue queue, DatagramPacket[] packets, int count)
+    {
+        fMyListener = listener;
+        fPackets = packets;
+        fCount = count;
+        fReceivedTime = System.nanoTime();
+        fQueue = queue;
+        fQueue.Enqueue(this);
+    }
+
+    //@Override
+    public void run()
+    {
+        try
+        {
+            fMyListener.getMyExtasysUDPServer().OnDataReceiveBatch(fMyListener, fPackets, fCount);
+        }
+        catch (Exception ex)
+        {
+        }
+
+        for (int i = 0; i < fCount; i++)
+        {
+            fMyListener.getMyExtasysUDPServer().getBufferPool().Recycle(fPackets[i].getData());
+            fPackets[i] = null;
+        }
+        fQueue.RecordLatency(System.nanoTime() - fReceivedTime);
+    }
+
+    /**
+     * Returns the packets of this batch.
+     * Only the first getCount() entries are used.
+     * 
+     * @return the packets of this batch.
+     */
+    public DatagramPacket[] getPackets()
+    {
+        return fPackets;
+    }
+
+    /**
+     * Returns the number of packets in this batch.
+     * 
+     * @return the number of packets in this batch.
+     */
+    public int getCount()
+    {
+        return fCount;
+    }
+}
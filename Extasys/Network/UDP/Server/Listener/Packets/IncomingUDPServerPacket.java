@@ -19,8 +19,8 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
 THE SOFTWARE.*/
 package Extasys.Network.UDP.Server.Listener.Packets;
 
+import Extasys.PacketQueue;
 import Extasys.Network.UDP.Server.Listener.UDPListener;
-import Extasys.ManualResetEvent;
 import java.net.DatagramPacket;
 
 /**
@@ -30,43 +30,30 @@ import java.net.DatagramPacket;
 public class IncomingUDPServerPacket implements Runnable
 {
 
-    private ManualResetEvent fDone = new ManualResetEvent(false);
-    private boolean fCancel = false;
     private UDPListener fMyListener;
     private DatagramPacket fData;
-    private IncomingUDPServerPacket fPreviousPacket;
+    private PacketQueue fQueue;
+    private long fReceivedTime;
 
     /**
      * Constructs a new incoming UDP packet.
      * 
      * Use this class to receive data from a client.
-     * This is an incoming message that will remain in the servers thread pool 
-     * as a job for the thread pool workers.
+     * This is an incoming message that will wait in the queue the server picks
+     * for it until every packet received before it in that queue has been handled.
+     * The packet's data array must come from the server's buffer pool, it is
+     * recycled once the packet has been handled.
      * 
      * @param listener is the listener caught the message.
      * @param packet is a Datagram packet.
-     * @param previousPacket is the previous incoming message of the listener.
      */
-    public IncomingUDPServerPacket(UDPListener listener, DatagramPacket packet, IncomingUDPServerPacket previousPacket)
+    public IncomingUDPServerPacket(UDPListener listener, DatagramPacket packet)
     {
         fMyListener = listener;
         fData = packet;
-        listener.getMyExtasysUDPServer().getMyThreadPool().execute(this);
-    }
-
-    /**
-     * Cancel this incoming packet.
-     * 
-     * By calling this method this and all the previous incoming packets that 
-     * are stored in the thread pool will be canceled.
-     * Call this method for the last incoming packet of the server
-     * when the server stops.
-     * 
-     */
-    public void Cancel()
-    {
-        fCancel = true;
-        fDone.Set();
+        fReceivedTime = System.nanoTime();
+        fQueue = listener.getMyExtasysUDPServer().SelectIncomingQueue(listener, packet);
+        fQueue.Enqueue(this);
     }
 
     //@Override
@@ -74,35 +61,14 @@ public class IncomingUDPServerPacket implements Runnable
     {
         try
         {
-            if (fPreviousPacket == null)
-            {
-                fMyListener.getMyExtasysUDPServer().OnDataReceive(fMyListener, fData);
-            }
-            else
-            {
-                fPreviousPacket.fDone.WaitOne();
-                if (!fCancel && !fPreviousPacket.fCancel)
-                {
-                    fMyListener.getMyExtasysUDPServer().OnDataReceive(fMyListener, fData);
-                }
-                else
-                {
-                    System.out.println("IncomingUDPServerPacket canceled!");
-                    fCancel = true;
-                }
-
-            }
+            fMyListener.getMyExtasysUDPServer().OnDataReceive(fMyListener, fData);
         }
         catch (Exception ex)
         {
         }
 
-        if (fPreviousPacket != null)
-        {
-            fPreviousPacket = null;
-        }
-
-        fDone.Set();
+        fMyListener.getMyExtasysUDPServer().getBufferPool().Recycle(fData.getData());
+        fQueue.RecordLatency(System.nanoTime() - fReceivedTime);
     }
 
     /**
@@ -114,15 +80,4 @@ public class IncomingUDPServerPacket implements Runnable
     {
         return fData;
     }
-
-    /**
-     * Returns the previus incoming packet received by the server.
-     * If the packet is null means that the packet has been received and parsed from the server.
-     * 
-     * @return the previus incoming packet received by the server.
-     */
-    public IncomingUDPServerPacket getPreviusPacket()
-    {
-        return fPreviousPacket;
-    }
 }
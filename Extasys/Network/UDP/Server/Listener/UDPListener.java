@@ -20,10 +20,11 @@ THE SOFTWARE.*/
 
 package Extasys.Network.UDP.Server.Listener;
 
+import Extasys.BufferPool;
+import Extasys.PacketQueue;
 import Extasys.Network.UDP.Server.ExtasysUDPServer;
 //import Extasys.Network.UDP.Server.IUDPServer;
 import Extasys.Network.UDP.Server.Listener.Packets.IncomingUDPServerPacket;
-import Extasys.Network.UDP.Server.Listener.Packets.OutgoingUDPServerPacket;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -50,8 +51,8 @@ public class UDPListener
     public int fBytesIn = 0;
     public int fBytesOut = 0;
     //Messages IO.
-    public IncomingUDPServerPacket fLastIncomingPacket = null;
-    public OutgoingUDPServerPacket fLastOutgoingPacket = null;
+    protected PacketQueue fIncomingQueue;
+    protected UDPSendQueue fSendQueue;
 
     /**
      * Constructs a new UDP Listener.
@@ -70,6 +71,8 @@ public class UDPListener
         fPort = port;
         fReadBufferSize = readBufferSize;
         fReadDataTimeOut = readDataTimeOut;
+        fIncomingQueue = new PacketQueue(myUDPServer.getExecutor());
+        fSendQueue = new UDPSendQueue(this);
     }
 
     /**
@@ -89,11 +92,8 @@ public class UDPListener
                 fSocket.setSoTimeout(fReadDataTimeOut);
             }
 
-            fLastIncomingPacket = null;
-            fLastOutgoingPacket = null;
-
             fActive = true;
-            fReadIncomingDataThread = new ReadIncomingDataThread(this);
+            fReadIncomingDataThread = fMyUDPServer.NewThread(new ReadIncomingDataThread(this), fName + " reader");
             fReadIncomingDataThread.start();
         }
         catch (SocketException socketException)
@@ -121,15 +121,8 @@ public class UDPListener
 
             }
 
-            if (fLastIncomingPacket != null)
-            {
-                fLastIncomingPacket.Cancel();
-            }
-
-            if (fLastOutgoingPacket != null)
-            {
-                fLastOutgoingPacket.Cancel();
-            }
+            fIncomingQueue.Clear();
+            fSendQueue.Clear();
 
             try
             {
@@ -143,11 +136,25 @@ public class UDPListener
 
     /**
      * Send data to udp client.
+     * The packet waits in this listener's send queue, and may be packed together
+     * with others, replaced or dropped as the server's send policy allows.
+     * The packet's data array must not be changed after this call.
      * @param packet is the datagram packet to be send.
      */
     public void SendData(DatagramPacket packet)
     {
-        fLastOutgoingPacket = new OutgoingUDPServerPacket(this, packet, fLastOutgoingPacket);
+        fSendQueue.Enqueue(packet);
+    }
+
+    /**
+     * Write a datagram packet to the socket.
+     * This is called by the send queue's writer, in order, on the thread pool.
+     * @param packet is the datagram packet to be send.
+     */
+    public void Send(DatagramPacket packet) throws IOException
+    {
+        fSocket.send(packet);
+        fBytesOut += packet.getLength();
     }
 
     /**
@@ -195,6 +202,24 @@ public class UDPListener
         return fReadBufferSize;
     }
 
+    /**
+     * Returns the queue that delivers this listener's received packets in order.
+     * @return the queue that delivers this listener's received packets in order.
+     */
+    public PacketQueue getIncomingQueue()
+    {
+        return fIncomingQueue;
+    }
+
+    /**
+     * Returns the queue that sends this listener's outgoing packets in order.
+     * @return the queue that sends this listener's outgoing packets in order.
+     */
+    public UDPSendQueue getSendQueue()
+    {
+        return fSendQueue;
+    }
+
     public int getBytesIn()
     {
         return fBytesIn;
@@ -215,7 +240,7 @@ public class UDPListener
     }
 
 }
-class ReadIncomingDataThread extends Thread
+class ReadIncomingDataThread implements Runnable
 {
 
     private UDPListener fMyUDPListener;
@@ -228,18 +253,33 @@ class ReadIncomingDataThread extends Thread
     @Override
     public void run()
     {
-        byte[] data;
-        DatagramPacket receivedPacket;
+        byte[] data = new byte[fMyUDPListener.getReadBufferSize()];
+        DatagramPacket receivedPacket = new DatagramPacket(data, data.length);
+        BufferPool bufferPool = fMyUDPListener.getMyExtasysUDPServer().getBufferPool();
 
         while (fMyUDPListener.isActive())
         {
             try
             {
-                data = new byte[fMyUDPListener.getReadBufferSize()];
-                receivedPacket = new DatagramPacket(data, data.length);
+                receivedPacket.setLength(data.length);
                 fMyUDPListener.fSocket.receive(receivedPacket);
                 fMyUDPListener.fBytesIn += receivedPacket.getLength();
-                fMyUDPListener.fLastIncomingPacket = new IncomingUDPServerPacket(fMyUDPListener, receivedPacket, fMyUDPListener.fLastIncomingPacket);
+                if (fMyUDPListener.getMyExtasysUDPServer().AcceptPacket(receivedPacket))
+                {
+                    // Copy it into a pooled array about its own size, so the read buffer can be reused straight away.
+                    int length = receivedPacket.getLength();
+                    byte[] copy = bufferPool.Take(length);
+                    System.arraycopy(data, 0, copy, 0, length);
+                    DatagramPacket packet = new DatagramPacket(copy, length, receivedPacket.getSocketAddress());
+                    if (fMyUDPListener.getMyExtasysUDPServer().getBatchSize() > 1)
+                    {
+                        fMyUDPListener.getMyExtasysUDPServer().DispatchPackets(fMyUDPListener, new DatagramPacket[] { packet }, 1);
+                    }
+                    else
+                    {
+                        new IncomingUDPServerPacket(fMyUDPListener, packet);
+                    }
+                }
             }
             catch (IOException ex)
             {
@@ -0,0 +1,212 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.UDP.Server.Listener;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One event-loop thread that reads for any number of NIO UDP listeners.
+ * 
+ * Listeners register their non-blocking channels here instead of keeping a
+ * read thread each. The thread sleeps in select() until a channel has data or
+ * a listener starts or stops, so no read time-out is needed to notice either.
+ * An exception from one listener's read, such as one thrown by the packet
+ * filter or a full queue, is printed and the thread carries on with the rest.
+ */
+public class UDPSelectorThread extends Thread
+{
+
+    private Selector fSelector;
+    private ConcurrentLinkedQueue<Runnable> fPendingTasks = new ConcurrentLinkedQueue<Runnable>();
+    private volatile boolean fActive = true;
+
+    /**
+     * Constructs a new selector thread. Call start() to run it.
+     * @param name is the name of the thread.
+     */
+    public UDPSelectorThread(String name) throws IOException
+    {
+        super(name);
+        setDaemon(true);
+        fSelector = Selector.open();
+    }
+
+    /**
+     * Start reading for a listener.
+     * @param channel is the listener's non-blocking channel.
+     * @param listener is the listener that reads from the channel.
+     */
+    public void Register(final DatagramChannel channel, final NIOUDPListener listener)
+    {
+        // Channels can only be registered while the selector isn't blocked in select()
+        fPendingTasks.offer(new Runnable()
+        {
+
+            public void run()
+            {
+                try
+                {
+                    channel.register(fSelector, SelectionKey.OP_READ, listener);
+                }
+                catch (ClosedChannelException ex)
+                {
+                }
+            }
+        });
+        fSelector.wakeup();
+    }
+
+    /**
+     * Stop reading for a channel and close it.
+     * A registered channel keeps its socket until the selector lets go of it, so
+     * this waits for the selector thread to do that. The port can be bound again
+     * as soon as this method returns.
+     * @param channel is the channel to stop reading.
+     */
+    public void Close(final DatagramChannel channel)
+    {
+        final CountDownLatch closed = new CountDownLatch(1);
+        Runnable task = new Runnable()
+        {
+
+            public void run()
+            {
+                SelectionKey key = channel.keyFor(fSelector);
+                if (key != null)
+                {
+                    key.cancel();
+                }
+                try
+                {
+                    channel.close();
+                    // Flush the cancelled key so the socket is really released
+                    fSelector.selectNow();
+                }
+                catch (IOException ex)
+                {
+                }
+                closed.countDown();
+            }
+        };
+
+        if (Thread.currentThread() == this || !isAlive())
+        {
+            task.run();
+            return;
+        }
+
+        fPendingTasks.offer(task);
+        fSelector.wakeup();
+        try
+        {
+            while (!closed.await(100, TimeUnit.MILLISECONDS))
+            {
+                if (!isAlive())
+                {
+                    // The selector is gone, so nothing else will close the channel
+                    task.run();
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the thread and close the selector.
+     */
+    public void Dispose()
+    {
+        fActive = false;
+        fSelector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (fActive)
+            {
+                Runnable task;
+                while ((task = fPendingTasks.poll()) != null)
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        ex.printStackTrace();
+                    }
+                }
+
+                // A task may have left keys selected, and select() wouldn't report them again
+                if (fSelector.selectedKeys().isEmpty())
+                {
+                    fSelector.select();
+                }
+
+                Iterator<SelectionKey> keys = fSelector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    // Every listener shares this thread, so one that fails mustn't stop the others
+                    try
+                    {
+                        if (key.isValid() && key.isReadable())
+                        {
+                            ((NIOUDPListener) key.attachment()).ReadIncomingData();
+                        }
+                    }
+                    catch (RuntimeException ex)
+                    {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+        }
+        finally
+        {
+            try
+            {
+                fSelector.close();
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys.Network.UDP.Server.Listener;
+
+import Extasys.Network.UDP.IUDPSendPolicy;
+import java.net.DatagramPacket;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A listener's outgoing datagrams, waiting in a bounded ring for one writer.
+ * 
+ * Any thread can add a packet. At most one pool thread writes at a time, taking
+ * the waiting packets a batch at a time. If the server has a send policy, the
+ * writer packs runs of packets to the same destination into single datagrams,
+ * a new packet can replace one it supersedes while that one is still waiting,
+ * and the policy decides what is dropped when the ring is full. The newest
+ * waiting packet under each of the policy's replace keys is kept in a hash
+ * index, so finding the one to replace doesn't search the ring. Without a send
+ * policy every packet is sent as it is and new packets are dropped while the
+ * ring is full.
+ */
+public class UDPSendQueue implements Runnable
+{
+
+    /**
+     * The number of packets that can wait before the queue starts dropping them.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * The number of packets the writer takes from the ring at a time.
+     */
+    public static final int DRAIN_SIZE = 32;
+    /**
+     * The largest datagram the writer packs packets into.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+    private final UDPListener fMyListener;
+    private final AtomicBoolean fScheduled = new AtomicBoolean(false);
+    private Waiting[] fRing;
+    private int fHead = 0;
+    private int fCount = 0;
+    private int fCapacity;
+    private long fDroppedCount = 0;
+    private long fReplacedCount = 0;
+    private long fCoalescedCount = 0;
+    private final HashMap<Object, Waiting> fReplaceable = new HashMap<Object, Waiting>();
+    // Only touched by the writer.
+    private final DatagramPacket[] fDrain = new DatagramPacket[DRAIN_SIZE];
+    private DatagramPacket fCoalesced;
+
+    /**
+     * Constructs a new send queue of DEFAULT_CAPACITY packets.
+     * @param listener is the listener that writes the packets.
+     */
+    public UDPSendQueue(UDPListener listener)
+    {
+        fMyListener = listener;
+        fCapacity = DEFAULT_CAPACITY;
+        fRing = new Waiting[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Add a packet to the end of the queue.
+     * @param packet is the packet to send, with its destination set.
+     */
+    public void Enqueue(DatagramPacket packet)
+    {
+        IUDPSendPolicy policy = fMyListener.getMyExtasysUDPServer().getSendPolicy();
+        Object key = policy != null ? policy.ReplaceKey(packet) : null;
+        synchronized (this)
+        {
+            if (key != null)
+            {
+                Waiting queued = fReplaceable.get(key);
+                if (queued != null && policy.Supersedes(queued.fPacket, packet))
+                {
+                    queued.fPacket = packet;
+                    fReplacedCount++;
+                    return;
+                }
+            }
+
+            if (fCount >= fCapacity)
+            {
+                if (policy == null || policy.CanDrop(packet))
+                {
+                    fDroppedCount++;
+                    return;
+                }
+                if (!RemoveOldestDroppable(policy) && fCount == fRing.length)
+                {
+                    Grow();
+                }
+            }
+
+            Waiting waiting = new Waiting(packet, key);
+            fRing[(fHead + fCount) % fRing.length] = waiting;
+            fCount++;
+            if (key != null)
+            {
+                fReplaceable.put(key, waiting);
+            }
+        }
+        Schedule();
+    }
+
+    /**
+     * Drop every packet that has not been written yet.
+     * Call this method when the listener stops.
+     */
+    public synchronized void Clear()
+    {
+        for (int i = 0; i < fCount; i++)
+        {
+            fRing[(fHead + i) % fRing.length] = null;
+        }
+        fHead = 0;
+        fCount = 0;
+        fReplaceable.clear();
+    }
+
+    /**
+     * Sets the number of packets that can wait before the queue starts dropping them.
+     * Packets the send policy won't let be dropped can still go past it.
+     * @param capacity is the number of packets.
+     */
+    public synchronized void setCapacity(int capacity)
+    {
+        fCapacity = Math.max(1, capacity);
+        while (fRing.length < fCapacity)
+        {
+            Grow();
+        }
+    }
+
+    /**
+     * Returns the number of packets that can wait before the queue starts dropping them.
+     * @return the number of packets that can wait before the queue starts dropping them.
+     */
+    public synchronized int getCapacity()
+    {
+        return fCapacity;
+    }
+
+    /**
+     * Returns the number of packets waiting to be written.
+     * @return the number of packets waiting to be written.
+     */
+    public synchronized int getDepth()
+    {
+        return fCount;
+    }
+
+    /**
+     * Returns the number of packets dropped because the queue was full.
+     * @return the number of packets dropped because the queue was full.
+     */
+    public synchronized long getDroppedCount()
+    {
+        return fDroppedCount;
+    }
+
+    /**
+     * Returns the number of waiting packets replaced by newer ones.
+     * @return the number of waiting packets replaced by newer ones.
+     */
+    public synchronized long getReplacedCount()
+    {
+        return fReplacedCount;
+    }
+
+    /**
+     * Returns the number of packets sent packed together with others.
+     * @return the number of packets sent packed together with others.
+     */
+    public synchronized long getCoalescedCount()
+    {
+        return fCoalescedCount;
+    }
+
+    /**
+     * Set the dropped, replaced and coalesced counts back to zero.
+     */
+    public synchronized void ResetStatistics()
+    {
+        fDroppedCount = 0;
+        fReplacedCount = 0;
+        fCoalescedCount = 0;
+    }
+
+    private boolean RemoveOldestDroppable(IUDPSendPolicy policy)
+    {
+        for (int i = 0; i < fCount; i++)
+        {
+            Waiting waiting = fRing[(fHead + i) % fRing.length];
+            if (policy.CanDrop(waiting.fPacket))
+            {
+                Forget(waiting);
+                // Close the gap so the rest keep their order
+                for (int j = i; j < fCount - 1; j++)
+                {
+                    fRing[(fHead + j) % fRing.length] = fRing[(fHead + j + 1) % fRing.length];
+                }
+                fRing[(fHead + fCount - 1) % fRing.length] = null;
+                fCount--;
+                fDroppedCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void Grow()
+    {
+        Waiting[] ring = new Waiting[fRing.length * 2];
+        for (int i = 0; i < fCount; i++)
+        {
+            ring[i] = fRing[(fHead + i) % fRing.length];
+        }
+        fRing = ring;
+        fHead = 0;
+    }
+
+    /**
+     * Take a packet that is leaving the ring out of the replace index.
+     */
+    private void Forget(Waiting waiting)
+    {
+        if (waiting.fKey != null && fReplaceable.get(waiting.fKey) == waiting)
+        {
+            fReplaceable.remove(waiting.fKey);
+        }
+    }
+
+    private static boolean SameDestination(DatagramPacket a, DatagramPacket b)
+    {
+        return a.getPort() == b.getPort() && a.getAddress().equals(b.getAddress());
+    }
+
+    private void Schedule()
+    {
+        if (fScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                fMyListener.getMyExtasysUDPServer().getExecutor().execute(this);
+            }
+            catch (RejectedExecutionException ex)
+            {
+                fScheduled.set(false);
+            }
+        }
+    }
+
+    //@Override
+    public void run()
+    {
+        int count;
+        synchronized (this)
+        {
+            count = Math.min(fCount, DRAIN_SIZE);
+            for (int i = 0; i < count; i++)
+            {
+                Forget(fRing[fHead]);
+                fDrain[i] = fRing[fHead].fPacket;
+                fRing[fHead] = null;
+                fHead = (fHead + 1) % fRing.length;
+            }
+            fCount -= count;
+        }
+
+        IUDPSendPolicy policy = fMyListener.getMyExtasysUDPServer().getSendPolicy();
+        int i = 0;
+        while (i < count)
+        {
+            int sent = 1;
+            if (policy != null && i + 1 < count && SameDestination(fDrain[i], fDrain[i + 1]))
+            {
+                int run = 2;
+                while (i + run < count && SameDestination(fDrain[i], fDrain[i + run]))
+                {
+                    run++;
+                }
+                sent = Write(policy, i, run);
+            }
+            else
+            {
+                Write(fDrain[i]);
+            }
+
+            for (int j = i; j < i + sent; j++)
+            {
+                fDrain[j] = null;
+            }
+            i += sent;
+        }
+
+        fScheduled.set(false);
+
+        // A packet may have been enqueued after the ring was read but before the flag was cleared.
+        boolean waiting;
+        synchronized (this)
+        {
+            waiting = fCount > 0;
+        }
+        if (waiting)
+        {
+            Schedule();
+        }
+    }
+
+    /**
+     * Write the first of a run of packets to the same destination, packed
+     * together with as many of the following ones as the policy allows.
+     * @return the number of packets written.
+     */
+    private int Write(IUDPSendPolicy policy, int offset, int count)
+    {
+        if (fCoalesced == null)
+        {
+            fCoalesced = new DatagramPacket(new byte[MAX_DATAGRAM_SIZE], MAX_DATAGRAM_SIZE);
+        }
+
+        int packed;
+        try
+        {
+            packed = policy.Coalesce(fDrain, offset, count, fCoalesced);
+        }
+        catch (Exception ex)
+        {
+            packed = 0;
+        }
+
+        if (packed < 2)
+        {
+            Write(fDrain[offset]);
+            return 1;
+        }
+
+        fCoalesced.setAddress(fDrain[offset].getAddress());
+        fCoalesced.setPort(fDrain[offset].getPort());
+        Write(fCoalesced);
+        synchronized (this)
+        {
+            fCoalescedCount += packed;
+        }
+        return packed;
+    }
+
+    private void Write(DatagramPacket packet)
+    {
+        try
+        {
+            fMyListener.Send(packet);
+        }
+        catch (Exception ex)
+        {
+        }
+    }
+
+    /**
+     * A packet in the ring, and the key it's filed under in the replace index.
+     * Replacing the packet keeps its place in the ring.
+     */
+    private static final class Waiting
+    {
+
+        DatagramPacket fPacket;
+        final Object fKey;
+
+        Waiting(DatagramPacket packet, Object key)
+        {
+            fPacket = packet;
+            fKey = key;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs packets one at a time, in the order they were enqueued, on a shared thread pool.
+ * 
+ * Any thread can enqueue without taking a lock. At most one pool thread drains
+ * a queue at a time, running up to a batch of packets before it hands the thread
+ * back to the pool, so no pool thread ever sits blocked waiting for another packet.
+ * Each listener and connection keeps its own queues, so packets are only ordered
+ * against other packets of the same connection and direction.
+ * A queue holds at most its capacity of waiting packets, and drops and counts
+ * any more, so a flood can't grow the heap without bound.
+ */
+public class PacketQueue implements Runnable
+{
+
+    /**
+     * The number of packets drained before the pool thread is handed back.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    /**
+     * The number of waiting packets a queue holds by default, the same as the thread pool queue it replaced.
+     */
+    public static final int DEFAULT_CAPACITY = 50000;
+    private final ConcurrentLinkedQueue<Runnable> fPackets = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean fScheduled = new AtomicBoolean(false);
+    private final AtomicInteger fDepth = new AtomicInteger(0);
+    private final AtomicLong fDropped = new AtomicLong(0);
+    private final AtomicLong fRejected = new AtomicLong(0);
+    private final AtomicLong fTimedPackets = new AtomicLong(0);
+    private final AtomicLong fTotalLatency = new AtomicLong(0);
+    private final AtomicLong fMaxLatency = new AtomicLong(0);
+    private final Executor fExecutor;
+    private final int fBatchSize;
+    private final int fCapacity;
+
+    /**
+     * Constructs a new packet queue that drains DEFAULT_BATCH_SIZE packets at a time.
+     * @param executor is the thread pool that runs the packets.
+     */
+    public PacketQueue(Executor executor)
+    {
+        this(executor, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs a new packet queue.
+     * @param executor is the thread pool that runs the packets.
+     * @param batchSize is the number of packets run before the pool thread is handed back.
+     */
+    public PacketQueue(Executor executor, int batchSize)
+    {
+        this(executor, batchSize, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new packet queue.
+     * @param executor is the thread pool that runs the packets.
+     * @param batchSize is the number of packets run before the pool thread is handed back.
+     * @param capacity is the most packets that may wait to run, more are dropped.
+     */
+    public PacketQueue(Executor executor, int batchSize, int capacity)
+    {
+        fExecutor = executor;
+        fBatchSize = batchSize;
+        fCapacity = capacity;
+    }
+
+    /**
+     * Add a packet to the end of the queue, unless the queue is full.
+     * @param packet is the packet to run after every packet enqueued before it.
+     * @return true if the packet was queued, false if the queue was full and it was dropped.
+     * @throws RejectedExecutionException if the thread pool refuses to drain the queue.
+     * The packet stays queued, and runs once the queue is next drained.
+     */
+    public boolean Enqueue(Runnable packet)
+    {
+        if (fDepth.incrementAndGet() > fCapacity)
+        {
+            fDepth.decrementAndGet();
+            fDropped.incrementAndGet();
+            return false;
+        }
+
+        fPackets.offer(packet);
+        Schedule();
+        return true;
+    }
+
+    /**
+     * Drop every packet that has not started running yet.
+     * Call this method when the listener or connection stops.
+     */
+    public void Clear()
+    {
+        while (fPackets.poll() != null)
+        {
+            fDepth.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of packets waiting to run.
+     * @return the number of packets waiting to run.
+     */
+    public int getDepth()
+    {
+        return fDepth.get();
+    }
+
+    /**
+     * Returns the number of packets dropped because the queue was full.
+     * @return the number of packets dropped because the queue was full.
+     */
+    public long getDroppedCount()
+    {
+        return fDropped.get();
+    }
+
+    /**
+     * Returns the number of times the thread pool refused to take the queue back
+     * while packets were waiting, so they were drained on the thread that had it.
+     * @return the number of times the thread pool refused to take the queue back.
+     */
+    public long getRejectedCount()
+    {
+        return fRejected.get();
+    }
+
+    /**
+     * Record how long a packet waited between being received and being handled.
+     * Packets that know when they were received call this when they are done.
+     * @param nanoseconds is the time from receiving the packet to finishing with it.
+     */
+    public void RecordLatency(long nanoseconds)
+    {
+        fTimedPackets.incrementAndGet();
+        fTotalLatency.addAndGet(nanoseconds);
+
+        long max = fMaxLatency.get();
+        while (nanoseconds > max && !fMaxLatency.compareAndSet(max, nanoseconds))
+        {
+            max = fMaxLatency.get();
+        }
+    }
+
+    /**
+     * Returns the number of packets whose latency has been recorded.
+     * @return the number of packets whose latency has been recorded.
+     */
+    public long getTimedPacketCount()
+    {
+        return fTimedPackets.get();
+    }
+
+    /**
+     * Returns the average recorded latency in nanoseconds.
+     * @return the average recorded latency in nanoseconds, or 0 if none has been recorded.
+     */
+    public long getAverageLatency()
+    {
+        long count = fTimedPackets.get();
+        return count == 0 ? 0 : fTotalLatency.get() / count;
+    }
+
+    /**
+     * Returns the longest recorded latency in nanoseconds.
+     * @return the longest recorded latency in nanoseconds.
+     */
+    public long getMaxLatency()
+    {
+        return fMaxLatency.get();
+    }
+
+    /**
+     * Set the recorded latency statistics back to zero.
+     */
+    public void ResetStatistics()
+    {
+        fTimedPackets.set(0);
+        fTotalLatency.set(0);
+        fMaxLatency.set(0);
+    }
+
+    private void Schedule()
+    {
+        if (fScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                fExecutor.execute(this);
+            }
+            catch (RejectedExecutionException ex)
+            {
+                fScheduled.set(false);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Hand the queue back to the thread pool, to drain the packets still waiting.
+     * @param canDrainHere is true if the calling thread may carry on draining when the pool refuses.
+     * @return true if the pool refused and the calling thread now has the queue to drain.
+     */
+    private boolean Reschedule(boolean canDrainHere)
+    {
+        try
+        {
+            Schedule();
+            return false;
+        }
+        catch (RejectedExecutionException ex)
+        {
+            fRejected.incrementAndGet();
+            return canDrainHere && fScheduled.compareAndSet(false, true);
+        }
+    }
+
+    //@Override
+    public void run()
+    {
+        boolean drainHere = true;
+        while (drainHere)
+        {
+            boolean finished = false;
+            try
+            {
+                for (int i = 0; i < fBatchSize; i++)
+                {
+                    Runnable packet = fPackets.poll();
+                    if (packet == null)
+                    {
+                        break;
+                    }
+                    fDepth.decrementAndGet();
+
+                    try
+                    {
+                        packet.run();
+                    }
+                    catch (Exception ex)
+                    {
+                    }
+                }
+                finished = true;
+            }
+            finally
+            {
+                // Cleared even when a packet throws an Error, or nothing would ever drain the queue again
+                fScheduled.set(false);
+
+                // A packet may have been enqueued after the last poll but before the flag was cleared.
+                // If the pool won't take the queue back, keep draining here rather than strand the packets,
+                // unless an Error is on its way out of this thread.
+                drainHere = !fPackets.isEmpty() && Reschedule(finished);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*Copyright (c) 2008 Nikos Siatras
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.*/
+package Extasys;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The kind of threads an Extasys server or client runs its reader threads and
+ * packet tasks on.
+ * 
+ * Virtual threads need Java 21 or later. They are looked up when first needed,
+ * so Extasys still builds and runs on older runtimes, where asking for VIRTUAL
+ * gets POOLED instead. Servers and clients report the mode they really got.
+ */
+public enum ThreadMode
+{
+
+    /**
+     * Platform reader threads, and packet tasks on a fixed-size thread pool.
+     */
+    POOLED,
+    /**
+     * A virtual thread for each reader and each packet task.
+     */
+    VIRTUAL;
+    private static ThreadFactory fVirtualThreadFactory;
+    private static boolean fLookedUp = false;
+
+    /**
+     * Returns the mode a server or client asking for this one will get.
+     * @return this mode, or POOLED if this is VIRTUAL and the runtime has no virtual threads.
+     */
+    public ThreadMode Resolve()
+    {
+        return this == VIRTUAL && getVirtualThreadFactory() == null ? POOLED : this;
+    }
+
+    /**
+     * Returns true if the runtime has virtual threads.
+     * @return true if the runtime has virtual threads.
+     */
+    public static boolean isVirtualSupported()
+    {
+        return getVirtualThreadFactory() != null;
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread.
+     * @return an executor that runs each task on a new virtual thread, or null if the runtime has none.
+     */
+    public static ExecutorService NewVirtualThreadExecutor()
+    {
+        try
+        {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Create a thread of the given mode. The thread isn't started.
+     * @param mode is the mode to create the thread for.
+     * @param task is what the thread runs.
+     * @param name is the name of the thread.
+     * @return a new virtual thread if the mode resolves to VIRTUAL, a new platform thread otherwise.
+     */
+    public static Thread NewThread(ThreadMode mode, Runnable task, String name)
+    {
+        Thread thread;
+        if (mode.Resolve() == VIRTUAL)
+        {
+            thread = getVirtualThreadFactory().newThread(task);
+        }
+        else
+        {
+            thread = new Thread(task);
+        }
+        thread.setName(name);
+        return thread;
+    }
+
+    private static synchronized ThreadFactory getVirtualThreadFactory()
+    {
+        if (!fLookedUp)
+        {
+            fLookedUp = true;
+            try
+            {
+                // Thread.ofVirtual().factory(), through its public interface
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+                fVirtualThreadFactory = (ThreadFactory) factory.invoke(builder);
+            }
+            catch (Exception ex)
+            {
+                fVirtualThreadFactory = null;
+            }
+        }
+        return fVirtualThreadFactory;
+    }
+}
@@ -0,0 +1,225 @@
+package benchmarks;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.Position;
+import common.messages.*;
+
+/**
+ * Encode and decode throughput for every message type.
+ * Build it with Maven in benchmarks/, and run it with the gc profiler to see the allocation rate too (see README):
+ * $ java -jar target/benchmarks.jar MessageCodecBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark
+{
+	/**
+	 * Width and height of the generated map sent in LoginResponse, four times the size of our largest real map
+	 */
+	public static final int LARGE_MAP_SIZE = 128;
+
+	/**
+	 * The number of players listed in ServerInfoResponse
+	 */
+	public static final int SERVER_INFO_PLAYERS = 64;
+
+	/**
+	 * The number of players, and of projectiles, in a Snapshot
+	 */
+	public static final int SNAPSHOT_PLAYERS = 16;
+
+	@Param({"Chat", "HealthUpdate", "LoginRequest", "LoginResponse", "MulticastChange",
+	        "PingRequest", "PingResponse", "PlayerDeath", "PlayerJoin", "PlayerLeave",
+	        "PlayerMotion", "PlayerMotionCompact", "PlayerRespawn", "ProjectileLaunch",
+	        "ServerInfoRequest", "ServerInfoResponse", "Snapshot", "SnapshotAck"})
+	public String type;
+
+	private Message message;
+	private byte[] encoded;
+	private ByteBuffer in;
+	private ByteBuffer out;
+	private InetSocketAddress source;
+
+	@Setup
+	public void setup()
+	{
+		message = createMessage(type);
+		encoded = message.getMessageBytes();
+		in = ByteBuffer.wrap(encoded);
+		out = ByteBuffer.allocate(encoded.length);
+		source = new InetSocketAddress("127.0.0.1", 44000);
+	}
+
+	/**
+	 * Encode into a reused buffer, the way the send path bundles messages
+	 */
+	@Benchmark
+	public int encode()
+	{
+		out.clear();
+		message.encode(out);
+		return out.position();
+	}
+
+	/**
+	 * Encode into a new array of exactly the right size, the way single messages are sent
+	 */
+	@Benchmark
+	public byte[] encodeArray()
+	{
+		// Make a fresh copy each time since getMessageBytes() caches its result
+		message = createMessage(type);
+		return message.getMessageBytes();
+	}
+
+	/**
+	 * Decode through MessageAnalyser's decoder table, handing pooled messages back like the client does
+	 */
+	@Benchmark
+	public Message decode()
+	{
+		in.clear();
+		Message result = MessageAnalyser.getMessageFromBuffer(in, source);
+		result.release();
+		return result;
+	}
+
+	/**
+	 * Decode a whole datagram the way the Extasys receive path does
+	 */
+	@Benchmark
+	public int decodeDatagram()
+	{
+		int count = 0;
+		for (Message result : MessageAnalyser.getMessagesFromArray(encoded, 0, encoded.length, source))
+		{
+			result.release();
+			count ++;
+		}
+		return count;
+	}
+
+	/**
+	 * Build a representative message of a type
+	 * @param type One of the names in the type parameter
+	 * @return A new message of that type
+	 */
+	public static Message createMessage(String type)
+	{
+		Position position = new Position(31.5f, 12.25f);
+		Position velocity = new Position(2.5f, -1.75f);
+		Position aim = new Position(0.7f, 0.7f);
+		PlayerMotionMessage motion = new PlayerMotionMessage((char)7, 123456.0f, position, velocity, aim);
+
+		if (type.equals("Chat"))
+			return new ChatMessage((char)7, "Watch the left corridor, two of them are camping by the spawn.");
+		if (type.equals("HealthUpdate"))
+			return new HealthUpdateMessage((char)7, (char)75);
+		if (type.equals("LoginRequest"))
+			return new LoginRequestMessage("Player 7", "secret");
+		if (type.equals("LoginResponse"))
+		{
+			String[] names = playerNames(SERVER_INFO_PLAYERS);
+			char[] ids = new char[names.length];
+			for (int i=0; i < ids.length; i++)
+				ids[i] = (char)(i + 1);
+			return new LoginResponseMessage((char)7, (byte)1, "large", largeMap(), (char)names.length, names, ids, playerTeams(names.length), position, 123456.0f);
+		}
+		if (type.equals("MulticastChange"))
+			return new MulticastChangeMessage("224.0.0.1", 44001);
+		if (type.equals("PingRequest"))
+			return new PingRequestMessage((char)7, 123456.0f);
+		if (type.equals("PingResponse"))
+			return new PingResponseMessage((char)7, 123456.0f);
+		if (type.equals("PlayerDeath"))
+			return new PlayerDeathMessage((char)7, (char)3);
+		if (type.equals("PlayerJoin"))
+			return new PlayerJoinMessage((char)7, "Player 7", (byte)1);
+		if (type.equals("PlayerLeave"))
+			return new PlayerLeaveMessage((char)7);
+		if (type.equals("PlayerMotion"))
+			return motion;
+		if (type.equals("PlayerMotionCompact"))
+			return CompactMotionMessage.createKeyframe(motion, 0);
+		if (type.equals("PlayerRespawn"))
+			return new PlayerRespawnMessage((char)7, position);
+		if (type.equals("ProjectileLaunch"))
+			return new ProjectileLaunchMessage((char)7, position, aim, 123456.0f, (byte)0);
+		if (type.equals("ServerInfoRequest"))
+			return new ServerInfoRequestMessage();
+		if (type.equals("ServerInfoResponse"))
+		{
+			String[] names = playerNames(SERVER_INFO_PLAYERS);
+			return new ServerInfoResponseMessage((byte)0, (char)names.length, names, playerTeams(names.length), "large", largeMap());
+		}
+
+		if (type.equals("Snapshot"))
+		{
+			// A full snapshot of a crowded screen, the biggest one a player normally gets
+			SnapshotState state = new SnapshotState((char)1, 123456.0f, SNAPSHOT_PLAYERS, SNAPSHOT_PLAYERS);
+			for (int i=0; i < SNAPSHOT_PLAYERS; i++)
+				state.addPlayer((char)(i + 1), new Position(position.getX() + i % 4, position.getY() + i / 4), velocity, aim, 1000 - i);
+			for (int i=0; i < SNAPSHOT_PLAYERS; i++)
+				state.addProjectile((char)i, (char)(i + 1), position, aim, 123456.0f - i);
+			return new SnapshotMessage(state, null);
+		}
+		if (type.equals("SnapshotAck"))
+			return new SnapshotAckMessage((char)7, (char)1);
+
+		throw new IllegalArgumentException("Unknown message type: " + type);
+	}
+
+	/**
+	 * Build a map in the same text format as the files in maps/, walled in with scattered stones
+	 */
+	private static String largeMap()
+	{
+		StringBuilder map = new StringBuilder();
+		map.append(LARGE_MAP_SIZE).append(' ').append(LARGE_MAP_SIZE).append('\n');
+		for (int y=0; y < LARGE_MAP_SIZE; y++)
+		{
+			for (int x=0; x < LARGE_MAP_SIZE; x++)
+			{
+				boolean wall = x == 0 || y == 0 || x == LARGE_MAP_SIZE - 1 || y == LARGE_MAP_SIZE - 1 || (x * 7 + y * 13) % 23 == 0;
+				map.append(wall ? '+' : '.');
+			}
+			map.append('\n');
+		}
+		return map.toString();
+	}
+
+	private static String[] playerNames(int count)
+	{
+		String[] names = new String[count];
+		for (int i=0; i < count; i++)
+			names[i] = "Player " + (i + 1);
+		return names;
+	}
+
+	private static byte[] playerTeams(int count)
+	{
+		byte[] teams = new byte[count];
+		for (int i=0; i < count; i++)
+			teams[i] = (byte)(i % 2);
+		return teams;
+	}
+}
@@ -13,6 +13,8 @@ import Extasys.Network.UDP.Client.Connectors.MulticastConnector;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 //import java.net.SocketException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,6 +34,25 @@ public class ClientExtaSysConnection extends ExtasysUDPClient implements IUDPCli
     private boolean isConnected;
     private boolean waitingForLeaveAck;
     private long currentTime;
+    private FragmentAssembler fragments;
+    private MessageFilter filter;
+    
+    /**
+     * True once the server has sent a snapshot. Servers that send snapshots read compact motion
+     * and bundles, older ones don't, so until then motion goes in full and messages one at a time.
+     */
+    private volatile boolean serverReadsCompactMotion;
+    
+    /**
+     * The states from recent snapshots by sequence number, for the next ones to be applied to
+     */
+    private SnapshotState[] snapshots;
+    private int lastSnapshot;
+    
+    /**
+     * The group of the room the server put us in, or null until it tells us
+     */
+    private InetSocketAddress gameAddress;
     
     /**
      * Creates a client connection
@@ -40,9 +61,26 @@ public class ClientExtaSysConnection extends ExtasysUDPClient implements IUDPCli
         super("SphereorityClient", "The client connection for sphereority", 8,64);
         this.engine = engine;
         isConnected = false;
+        fragments = new FragmentAssembler();
+        filter = createMessageFilter();
+        setPacketFilter(filter);
+        snapshots = new SnapshotState[SnapshotState.HISTORY];
+        lastSnapshot = -1;
         // Add a UDP connector to this UDP client.
         // You can add more than one connectors if you need to.
-        AddConnector("ServerConnector", 10240, 8000, remoteHostIP, remoteHostPort,true);     
+        // The server's group is only for sending to: if we joined it we'd also get every other client's
+        // motion and shots. The server answers the port this connector sends from, which it keeps across restarts.
+        AddConnector("ServerConnector", 10240, 8000, remoteHostIP, remoteHostPort,false);
+    }
+
+    /**
+     * Creates a filter that lets through only what handleMessage deals with.
+     * Other players' motion and shots are dropped before they're decoded: those only come from the server's snapshots.
+     */
+    public static MessageFilter createMessageFilter() {
+        return new MessageFilter(TYPE_PLAYER_JOIN, TYPE_PLAYER_LEAVE, TYPE_MESSAGE_FRAGMENT,
+                                 TYPE_SNAPSHOT, TYPE_PLAYER_DEATH, TYPE_PLAYER_RESPAWN,
+                                 TYPE_MULTICAST_CHANGE);
     }
 
     /**
@@ -95,6 +133,7 @@ public class ClientExtaSysConnection extends ExtasysUDPClient implements IUDPCli
                 " @ rate of " + 
                 (getBytesOut() * 1000) / timeElapsed + " bytes/sec");
         }
+        logger.log(Level.INFO,"Packet filter " + filter);
     }
 
     /**
@@ -166,57 +205,21 @@ public class ClientExtaSysConnection extends ExtasysUDPClient implements IUDPCli
     //@Override
     public void OnDataReceive(UDPConnector connector, DatagramPacket packet) {
         try {
-            // Retrieve the message
-            Message message = MessageAnalyser.getMessageFromArray(packet.getData(), new InetSocketAddress(packet.getAddress(), packet.getPort()));
+            // Retrieve the messages, there may be several bundled together
+            // or this may finish off a message that was too big for one packet
+            List<Message> messages = MessageAnalyser.getMessagesFromArray(packet.getData(),
+                                                        packet.getOffset(),
+                                                        packet.getLength(),
+                                                        new InetSocketAddress(packet.getAddress(), packet.getPort()),
+                                                        fragments);
             
-            // Ignore messages that are sent to yourself
-            if (message.isMyMessage())
-            	return;
-            
-            switch(message.getMessageType()) {
-                case TYPE_PLAYER_MOTION:
-                    PlayerMotionMessage pm = (PlayerMotionMessage)message;
-                    // New player was added?
-                    engine.processPlayerMotion(pm);
-                    logger.log(Level.FINE,"PlayerMotion: " + pm.getPlayerId()
-                                                           + " "
-                                                           + pm.getPosition() 
-                                                           + " "
-                                                           + pm.getVelocity() 
-                                                           + " "
-                                                           + pm.getTime());
-                    break;
-                case TYPE_PLAYER_JOIN:
-                    PlayerJoinMessage pj = (PlayerJoinMessage) message;
-                    logger.log(Level.FINE,"PlayerJoin: " + pj.getPlayerId());
-                    String myName = engine.localPlayer.getPlayerName();
-                    // Waiting for a server message?
-                    if(!isConnected) {
-                        handleLogin(pj);
-                    }
-                    // Playing the game and message is not about me?
-                    else if(pj.getPlayerId() != ERROR_ID && !pj.getPlayerName().equals(myName)) {
-                        engine.processPlayerJoin(pj);
-                    }
-                    break;
-                case TYPE_PLAYER_LEAVE:
-                    logger.log(Level.FINE,"PlayerLeave: " + ((PlayerLeaveMessage)message).getPlayerId());
-                    // Connected?
-                    if(isConnected) {
-                        // Handle a logout message if it came from the server.
-                        handleLogout((PlayerLeaveMessage)message);
-                    }
-                    // Ignore otherwise
-                    break;
-                case TYPE_PROJECTILE_LAUNCH:
-                    ProjectileLaunchMessage p = (ProjectileLaunchMessage) message;
-                    logger.log(Level.FINE,"Projectile: " + p.getOwnerId()
-                                                         + " "
-                                                         + p.getOrigin()
-                                                         + " "
-                                                         + p.getDirection());
-                    engine.processProjectile(p);
-                    break;
+            for (Message message : messages) {
+                try {
+                    handleMessage(message);
+                }
+                catch (Exception ex) {
+                    ex.printStackTrace();
+                }
             }
         }
         catch (Exception ex) {
@@ -224,6 +227,95 @@ public class ClientExtaSysConnection extends ExtasysUDPClient implements IUDPCli
         }
     }
     
+    /**
+     * How to handle a single received message.
+     * @param message The message to handle.
+     */
+    protected void handleMessage(Message message) throws Exception {
+        // Ignore messages that are sent to yourself
+        if (message.isMyMessage())
+        	return;
+        
+        switch(message.getMessageType()) {
+            case TYPE_PLAYER_JOIN:
+                PlayerJoinMessage pj = (PlayerJoinMessage) message;
+                logger.log(Level.FINE,"PlayerJoin: " + pj.getPlayerId());
+                String myName = engine.localPlayer.getPlayerName();
+                // Waiting for a server message?
+                if(!isConnected) {
+                    handleLogin(pj);
+                }
+                // Playing the game and message is not about me?
+                else if(pj.getPlayerId() != ERROR_ID && !pj.getPlayerName().equals(myName)) {
+                    engine.processPlayerJoin(pj);
+                }
+                break;
+            case TYPE_PLAYER_LEAVE:
+                logger.log(Level.FINE,"PlayerLeave: " + ((PlayerLeaveMessage)message).getPlayerId());
+                // Connected?
+                if(isConnected) {
+                    // Handle a logout message if it came from the server.
+                    handleLogout((PlayerLeaveMessage)message);
+                }
+                // Ignore otherwise
+                break;
+            case TYPE_SNAPSHOT:
+                if(isConnected)
+                    handleSnapshot((SnapshotMessage)message);
+                break;
+            case TYPE_PLAYER_DEATH:
+                logger.log(Level.FINE,"PlayerDeath: " + ((PlayerDeathMessage)message).getDeadPlayerId());
+                if(isConnected)
+                    engine.processPlayerDeath((PlayerDeathMessage)message);
+                break;
+            case TYPE_PLAYER_RESPAWN:
+                logger.log(Level.FINE,"PlayerRespawn: " + ((PlayerRespawnMessage)message).getPlayerId());
+                if(isConnected)
+                    engine.processPlayerRespawn((PlayerRespawnMessage)message);
+                break;
+            case TYPE_MULTICAST_CHANGE:
+                MulticastChangeMessage mc = (MulticastChangeMessage)message;
+                logger.log(Level.INFO,"Moving to game group " + mc.getMulticastAddress() + ":" + mc.getMulticastPort());
+                changeGameGroup(new InetSocketAddress(InetAddress.getByName(mc.getMulticastAddress()),
+                                                      mc.getMulticastPort()));
+                break;
+        }
+    }
+    
+    /**
+     * Check if the server has shown it reads compact motion, by sending us a snapshot
+     */
+    public boolean serverReadsCompactMotion() {
+        return serverReadsCompactMotion;
+    }
+    
+    /**
+     * Applies a snapshot from the server to the state it was encoded against, and acknowledges it
+     * so the server can send the next ones as changes from it.
+     */
+    protected synchronized void handleSnapshot(SnapshotMessage message) throws Exception {
+        char sequence = message.getSequence();
+        // Late, after a newer one
+        if(lastSnapshot >= 0 && (short)(sequence - lastSnapshot) <= 0)
+            return;
+        
+        SnapshotState base = null;
+        if(!message.isFull()) {
+            base = snapshots[message.getBaselineSequence() % SnapshotState.HISTORY];
+            // We no longer have the baseline, so wait for one we do
+            if(base == null || base.getSequence() != message.getBaselineSequence())
+                return;
+        }
+        
+        SnapshotState state = message.apply(base);
+        snapshots[sequence % SnapshotState.HISTORY] = state;
+        lastSnapshot = sequence;
+        serverReadsCompactMotion = true;
+        sendMessage(new SnapshotAckMessage(engine.localPlayer.getPlayerID(), sequence), SERVER_CONNECTOR);
+        
+        engine.processSnapshot(message, state);
+    }
+    
     /**
      * Handles login given a PlayerJoin Message.
      */
@@ -245,13 +337,32 @@ public class ClientExtaSysConnection extends ExtasysUDPClient implements IUDPCli
         else
         {
             engine.localPlayer.setPlayerID(message.getPlayerId());
+            // The server says which room's group to use just before it says we're in
+            InetSocketAddress group = gameAddress != null ? gameAddress : message.getSource();
             AddConnector("GameConnector", 10240, 8000,
-                          message.getSource().getAddress(),
-                          message.getSource().getPort(),true);
+                          group.getAddress(),
+                          group.getPort(),true);
             isConnected = true;
         }
     }
     
+    /**
+     * Switches the game connector over to another multicast group, or remembers the group
+     * to use once we've logged in.
+     * @param group The group's address and port.
+     */
+    protected synchronized void changeGameGroup(InetSocketAddress group) throws Exception {
+        gameAddress = group;
+        if(!isConnected || getConnectors().size() <= GAME_CONNECTOR)
+            return;
+        
+        getConnectors().get(GAME_CONNECTOR).Stop();
+        UDPConnector connector = new MulticastConnector(this, "GameConnector", 10240, 8000,
+                                                        group.getAddress(), group.getPort());
+        getConnectors().set(GAME_CONNECTOR, connector);
+        connector.Start();
+    }
+    
     /**
      * Handles logout of players given a PlayerLeave Message.
      */
@@ -307,6 +418,47 @@ public class ClientExtaSysConnection extends ExtasysUDPClient implements IUDPCli
         getConnectors().get(connector).SendData(msgToSend, 0, msgToSend.length);
     }
     
+    /**
+     * Sends several Sphereority messages via a connector, bundling as many
+     * as will fit into each datagram. Servers too old to send snapshots can't
+     * unpack bundles either, so until ours has sent one they go one at a time.
+     */
+    public void sendMessages(List<Message> messages, int connector) throws Exception {
+        if (messages.isEmpty())
+            return;
+        
+        UDPConnector udpConnector = getConnectors().get(connector);
+        if (!serverReadsCompactMotion) {
+            for (Message message : messages) {
+                byte[] msgToSend = message.getMessageBytes();
+                udpConnector.SendData(msgToSend, 0, msgToSend.length);
+            }
+            return;
+        }
+        
+        MessageBundle bundle = new MessageBundle();
+        for (Message message : messages) {
+            if (bundle.add(message))
+                continue;
+            
+            // The bundle is full, so send it and start another
+            sendBundle(bundle, udpConnector);
+            if (!bundle.add(message)) {
+                // Too big to bundle at all, send it on its own
+                byte[] msgToSend = message.getMessageBytes();
+                udpConnector.SendData(msgToSend, 0, msgToSend.length);
+            }
+        }
+        sendBundle(bundle, udpConnector);
+    }
+    
+    private void sendBundle(MessageBundle bundle, UDPConnector connector) throws Exception {
+        byte[] msgToSend = bundle.getMessageBytes();
+        if (msgToSend != null)
+            connector.SendData(msgToSend, 0, msgToSend.length);
+        bundle.clear();
+    }
+    
     /**
      * Start sending the messages.
      */
@@ -335,6 +487,7 @@ class SendUpdateMessages extends Thread implements Constants
 {
     private ClientExtaSysConnection fMyClient;
     private GameEngine engine;
+    private MotionCodec motionCodec = new MotionCodec();
     private boolean fActive = true;
 
     public SendUpdateMessages(ClientExtaSysConnection client, GameEngine engine)
@@ -370,17 +523,21 @@ class SendUpdateMessages extends Thread implements Constants
     }
     
     /**
-     * Send messages about the local player to the game's multicast channel.
+     * Send messages about the local player to the server, which passes them on to the others.
      * @param checkNames Counter used for knowing when to resolve names.
      */
     protected void sendGameMessages(int checkNames) throws Exception {
         LocalPlayer localPlayer = engine.localPlayer;
         char playerId = localPlayer.getPlayerID();
-        float currentTime = (float)System.currentTimeMillis();
+        // Motion is stamped in seconds of game time, the same as the engine animates with
+        float currentTime = engine.currentTime;
         
-        // Send where the player is now
-        fMyClient.sendMessage(localPlayer.getMotionPacket(currentTime),
-                              ClientExtaSysConnection.GAME_CONNECTOR);
+        List<Message> gameMessages = new ArrayList<Message>();
+        
+        // Send where the player is now, compactly if the server reads compact motion,
+        // and in full to an older server so it gets every update
+        PlayerMotionMessage motion = localPlayer.getMotionPacket(currentTime);
+        gameMessages.add(motionCodec.encode(motion, fMyClient.serverReadsCompactMotion()));
         
         // Go through all the projectiles in the game
         synchronized(engine.bulletList) {
@@ -389,28 +546,33 @@ class SendUpdateMessages extends Thread implements Constants
                 // we have sent information about it
                 if(!p.isDelivered() && !(p.getOwner() != playerId)) {
                     // Deliver the information about the projectile
-                	fMyClient.sendMessage(new ProjectileLaunchMessage(playerId,
+                	gameMessages.add(new ProjectileLaunchMessage(playerId,
                 			p.getStartPosition(),
                 			p.getDirection(),
                 			p.getStartTime(),
-                			(byte)0),
-                			 ClientExtaSysConnection.GAME_CONNECTOR);
+                			(byte)0));
                     p.delivered();
                 }
             }
         }
         
+        // Only the server hears these; everybody else learns of them from its snapshots
+        fMyClient.sendMessages(gameMessages, ClientExtaSysConnection.SERVER_CONNECTOR);
+        // Sending copies the bytes out, and the codec keeps its own copy of the motion
+        motion.release();
+        
         // Resolve names that have not been found every 4th time
         if(checkNames == 4) {
+            List<Message> whoisMessages = new ArrayList<Message>();
             synchronized(engine.playerList) {
                 for(Player player : engine.playerList) {
                     if (player.getPlayerName().equals(RESOLVING_NAME)) {
                         ClientExtaSysConnection.logger.log(Level.INFO,"WHOIS " + player.getPlayerID());
-                        fMyClient.sendMessage(new PlayerJoinMessage(playerId, RESOLVING_NAME, (byte)0),
-                            ClientExtaSysConnection.SERVER_CONNECTOR);
+                        whoisMessages.add(new PlayerJoinMessage(player.getPlayerID(), RESOLVING_NAME, (byte)0));
                     }
                 }
             }
+            fMyClient.sendMessages(whoisMessages, ClientExtaSysConnection.SERVER_CONNECTOR);
         }
         
         Thread.sleep(RESEND_DELAY);
@@ -11,6 +11,8 @@ import java.awt.geom.Rectangle2D;
 import java.awt.Window;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Vector;
 import javax.swing.Timer;
 
@@ -36,6 +38,9 @@ public class GameEngine implements Constants, ActionListener, ActionCallback
     public Vector<Player> playerList; // This only contains players
     public Vector<Projectile> bulletList; // This only contains bullets
     public Vector<Actor> miscList; // Anything else not in the above lists
+    
+    // The projectiles the server has told us about, by owner and id, and when they were launched
+    protected HashMap<Integer, Float> knownProjectiles;
 
     public long lastTime;
     public float currentTime;
@@ -80,6 +85,7 @@ public class GameEngine implements Constants, ActionListener, ActionCallback
         playerList = new Vector<Player>();
         bulletList = new Vector<Projectile>();
         miscList = new Vector<Actor>();
+        knownProjectiles = new HashMap<Integer, Float>();
 
         gameViewArea = new ClientViewArea(this);
         addButton(-5, -5, 45, 15, "Quit", Color.red);
@@ -579,17 +585,23 @@ public class GameEngine implements Constants, ActionListener, ActionCallback
         // Do not process a player if they have not been added
         if(playerIndex == -1) {
             processPlayerJoin(new PlayerJoinMessage(message.getPlayerId(), RESOLVING_NAME, (byte)-1));
+            playerIndex = getPlayerIndex(message.getPlayerId());
         }
         
         if (playerIndex < 0)
+        {
+            message.release();
             return;
+        }
             
         try
         {
-            // Update the co-ordinates of the player
+            // Update the co-ordinates of the player, who releases the message when done with it
             Player player = playerList.get(playerIndex);
             if (player instanceof RemotePlayer)
                 ((RemotePlayer) player).addMotionPacket(message);
+            else
+                message.release();
         } catch (Exception ex)
         {
             ex.printStackTrace();
@@ -617,10 +629,17 @@ public class GameEngine implements Constants, ActionListener, ActionCallback
         }
     }
 
-    public void processProjectile(ProjectileLaunchMessage message)
+    /**
+     * Add a projectile fired by a remote player
+     * @param ownerId The player who fired it
+     * @param origin Where it was fired from
+     * @param direction Which way it's going
+     * @param flightTime How long it's been flying already, in seconds
+     */
+    public void processProjectile(char ownerId, Position origin, Position direction, float flightTime)
     {
         // Get the index of the player
-        int playerIndex = getPlayerIndex(message.getOwnerId());
+        int playerIndex = getPlayerIndex(ownerId);
 
         // Do not process this message if the player has not joined the game
         if (playerIndex == -1)
@@ -630,9 +649,9 @@ public class GameEngine implements Constants, ActionListener, ActionCallback
         
         if (player instanceof RemotePlayer) {
             // Add the projectile to the list
-            addActor(new Projectile(message.getOrigin(),
-                                    message.getDirection(),
-                                    player.getCurrentTime(),
+            addActor(new Projectile(origin,
+                                    direction,
+                                    player.getCurrentTime() - flightTime,
                                     player.getCurrentTime(),
                                     player.getPlayerID(),
                                     player.getTeam()));
@@ -642,6 +661,125 @@ public class GameEngine implements Constants, ActionListener, ActionCallback
         }
     }    
 
+    /**
+     * A player was killed, as decided by the server. Dead players stay where they fell until they respawn,
+     * and the server doesn't listen to our motion until then.
+     */
+    public synchronized void processPlayerDeath(PlayerDeathMessage message)
+    {
+        char id = message.getDeadPlayerId();
+        Player player = id == localPlayer.getPlayerID() ? localPlayer : getPlayer(id);
+        if (player == null)
+            return;
+        
+        player.setHealth(0);
+        player.getVelocity().setPosition(0, 0);
+        if (player == localPlayer)
+        {
+            logger.log(Level.INFO, "Killed by player " + (int)message.getKillingPlayerId());
+            playDeath(1.0f);
+        }
+    }
+    
+    /**
+     * A player came back to life where the server put them, which for us means jumping there
+     */
+    public synchronized void processPlayerRespawn(PlayerRespawnMessage message)
+    {
+        char id = message.getPlayerId();
+        Player player = id == localPlayer.getPlayerID() ? localPlayer : getPlayer(id);
+        if (player == null)
+            return;
+        
+        player.setHealth(DEFAULT_ACTOR_HEALTH);
+        if (player instanceof RemotePlayer)
+            ((RemotePlayer) player).jumpTo(message.getNewPosition());
+        else
+        {
+            player.setPosition(message.getNewPosition());
+            player.getVelocity().setPosition(0, 0);
+        }
+    }
+
+    /**
+     * Apply a snapshot from the server: motion for the remote players that changed,
+     * health for anybody whose health changed, and the projectiles we hadn't heard about.
+     * Snapshots are the only place other players' state comes from.
+     * @param message The snapshot as it arrived, listing only what changed
+     * @param state The whole state the snapshot describes
+     */
+    public synchronized void processSnapshot(SnapshotMessage message, SnapshotState state)
+    {
+        char localId = localPlayer.getPlayerID();
+        for (int i = 0; i < message.getPlayerEntryCount(); i++)
+        {
+            int changes = message.getPlayerEntryChanges(i);
+            // Gone out of view, they'll be back in a later snapshot
+            if ((changes & SnapshotMessage.PLAYER_REMOVED) != 0)
+                continue;
+            
+            char id = message.getPlayerEntryId(i);
+            int index = state.findPlayer(id);
+            if ((changes & SnapshotMessage.PLAYER_HEALTH) != 0)
+            {
+                Player player = id == localId ? localPlayer : getPlayer(id);
+                if (player != null)
+                    player.setHealth(state.getHealth(index));
+            }
+            
+            if (id == localId)
+            {
+                if ((changes & SnapshotMessage.PLAYER_POSITION) != 0)
+                    correctLocalPlayer(state.getPosition(index), state.getVelocity(index));
+            }
+            else if ((changes & ~SnapshotMessage.PLAYER_HEALTH) != 0)
+                processPlayerMotion(PlayerMotionMessage.obtain(id, state.getTime(), state.getPosition(index),
+                                                               state.getVelocity(index), state.getAim(index, PLAYER_AIM_LENGTH)));
+        }
+        
+        // Forget projectiles that can't be flying any more, since the server reuses their ids
+        Iterator<Float> launched = knownProjectiles.values().iterator();
+        while (launched.hasNext())
+        {
+            if (state.getTime() - launched.next() > PROJECTILE_LIFETIME)
+                launched.remove();
+        }
+        
+        for (char id : message.getNewProjectileIds())
+        {
+            // A projectile is new again whenever it comes back into view or the server
+            // falls back to a full snapshot, so only add the ones we haven't seen before
+            int index = state.findProjectile(id);
+            char owner = state.getOwner(index);
+            Integer key = (owner << 16) | id;
+            if (knownProjectiles.containsKey(key))
+                continue;
+            knownProjectiles.put(key, state.getLaunchTime(index));
+            
+            processProjectile(owner, state.getOrigin(index), state.getDirection(index, PLAYER_AIM_LENGTH),
+                              state.getTime() - state.getLaunchTime(index));
+        }
+    }
+    
+    /**
+     * We know better where we are ourselves, since the server's position is a little behind,
+     * except when the server is further off than one of our motion messages could pull it.
+     * The server only lets a player move MAXIMUM_SPEED since their last message, plus MOVE_TOLERANCE,
+     * so past that it would keep dragging us back and we'd never agree again. Then we go where it says.
+     * @param position Where the server has us
+     * @param velocity How fast the server has us going
+     */
+    protected void correctLocalPlayer(Position position, Position velocity)
+    {
+        float reach = MAXIMUM_SPEED * RESEND_DELAY / 1000f + MOVE_TOLERANCE;
+        if (localPlayer.getPosition().subtract(position).getMagnitude() <= reach)
+            return;
+        
+        logger.log(Level.FINE, "Moved back to the server's position " + position);
+        localPlayer.setPosition(position);
+        localPlayer.getVelocity().setPosition(velocity.getX(), velocity.getY());
+    }
+    
     /**
      * Retrieve a player given their ID.
      */
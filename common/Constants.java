@@ -104,6 +104,16 @@ public interface Constants
 	 */
 	public static final float AIM_LENGTH = 0.4f;
 
+	/**
+	 * How long a projectile flies before the server drops it, in seconds
+	 */
+	public static final float PROJECTILE_LIFETIME = 10;
+
+	/**
+	 * How much further than MAXIMUM_SPEED allows a player's proposed move may go, to cover jitter in the client's clock
+	 */
+	public static final float MOVE_TOLERANCE = 0.5f;
+
 	/**
 	 * The width of the player window
 	 */
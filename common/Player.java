@@ -78,11 +78,11 @@ public abstract class Player extends WeightedPosition {
 	/**
 	 * Create a player motion packet
 	 * @param currentTime	The current game time
-	 * @return	The motion packet
+	 * @return	The motion packet, from the pool so release() it once it's been sent
 	 */
 	public PlayerMotionMessage getMotionPacket(float currentTime)
 	{
-		return new PlayerMotionMessage(getPlayerID(), currentTime, position, velocity, aim); 
+		return PlayerMotionMessage.obtain(getPlayerID(), currentTime, position, velocity, aim); 
 	}
 	
     public String getPlayerName() {
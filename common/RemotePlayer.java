@@ -30,6 +30,7 @@ public class RemotePlayer extends Player {
     
     protected Position currentPosition;
     protected Position currentAim;
+    protected Position interpolatedPosition;
     protected int nothingRendered;
 	protected Queue<PlayerMotionMessage> messageList;
 	protected Queue<PlayerMotionMessage> renderQueue;
@@ -47,11 +48,17 @@ public class RemotePlayer extends Player {
 		
 		messageList = new LinkedList<PlayerMotionMessage>();
 		renderQueue = new LinkedList<PlayerMotionMessage>();
+		interpolatedPosition = new Position();
         currentTime = -1;
         nothingRendered = 1;
         logger.log(Level.FINE,"Interpolation Size: " + INTERPOLATION_SIZE + " Resend Size: " + RESEND_DELAY);
     }
 	
+	/**
+	 * Queue a motion message for interpolation. This player owns it from now on
+	 *   and releases it once it has been rendered.
+	 * @param msg The motion message
+	 */
 	public void addMotionPacket(PlayerMotionMessage msg)
 	{
         //logger.log(Level.FINE,"Queue Size: " + renderQueue.size());
@@ -118,8 +125,10 @@ public class RemotePlayer extends Player {
         if(currentPosition == null) {
             // Do we have an initial message?
             if(messageList.peek() != null) {
-                currentPosition = messageList.peek().getPosition();
-                currentAim      = messageList.poll().getAim();
+                PlayerMotionMessage first = messageList.poll();
+                currentPosition = new Position(first.getPosition());
+                currentAim      = new Position(first.getAim());
+                first.release();
             }
             // Do nothing if we do not
             else
@@ -127,8 +136,7 @@ public class RemotePlayer extends Player {
         }
         // Check if we still have interpolating points to go through
         else if(renderQueue.peek() != null) {
-            currentPosition = renderQueue.peek().getPosition();
-            currentAim      = renderQueue.poll().getAim();
+            useMotionMessage(renderQueue.poll());
         }
         // Extrapolate the next point and then interpolate between the current
         // position and that point.  Add the points to the rendering queue.
@@ -172,17 +180,18 @@ public class RemotePlayer extends Player {
                     }*/
                     
                     // Add the result to the rendering queue
-                    renderQueue.add(makeMotionMessage(new Position(positionX,
-                                                                   positionY),
+                    interpolatedPosition.setPosition(positionX, positionY);
+                    renderQueue.add(makeMotionMessage(interpolatedPosition,
                                                       msgVelocity,
                                                       msgAim,
                                                       currentTime));
                                                      
                 }
                 // Use the first interpolated position/aim
-                currentPosition = renderQueue.peek().getPosition();
-                currentAim      = renderQueue.poll().getAim();
+                useMotionMessage(renderQueue.poll());
             }
+            // The interpolated messages hold copies, so we're done with this one
+            pm.release();
         }
         else {
             //logger.log(Level.FINE,"No Interpolation: " + nothingRendered++);
@@ -204,9 +213,45 @@ public class RemotePlayer extends Player {
 		return super.animate(dTime,currentTime);
 	}
     
+    /**
+     * Move straight to a position, dropping any motion still waiting to be shown,
+     *   for when the player comes back somewhere else rather than moving there.
+     * @param newPosition Where the player is now
+     */
+    public void jumpTo(Position newPosition)
+    {
+        for (PlayerMotionMessage pm : messageList)
+            pm.release();
+        messageList.clear();
+        for (PlayerMotionMessage pm : renderQueue)
+            pm.release();
+        renderQueue.clear();
+        
+        if (currentPosition == null)
+        {
+            currentPosition = new Position(newPosition);
+            currentAim = new Position(aim);
+        }
+        else
+            currentPosition.setPosition(newPosition.getX(), newPosition.getY());
+        setPosition(newPosition);
+        velocity.setPosition(0, 0);
+    }
+    
     protected PlayerMotionMessage makeMotionMessage(Position pos, Position velocity,Position aim, float currentTime)
     {
-        return new PlayerMotionMessage(playerID, currentTime, pos, velocity, aim);
+        return PlayerMotionMessage.obtain(playerID, currentTime, pos, velocity, aim);
+    }
+    
+    /**
+     * Move to the position and aim in an interpolated message, then recycle it.
+     * The values are copied since the message will be reused.
+     */
+    protected void useMotionMessage(PlayerMotionMessage pm)
+    {
+        currentPosition.setPosition(pm.getPosition().getX(), pm.getPosition().getY());
+        currentAim.setPosition(pm.getAim().getX(), pm.getAim().getY());
+        pm.release();
     }
     
     /**
@@ -3,6 +3,8 @@ package common.messages;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 /**
  * This class consists of static methods to assist in pushing data into and out of a byte array or a ByteArray(Input/Output)Stream
@@ -15,6 +17,27 @@ public class ByteStreamUtils
      */
     public static final String STRING_CHARSET = "UTF-8";
     
+    /**
+     * The Charset object for STRING_CHARSET, so decoding doesn't have to look it up by name
+     */
+    public static final Charset CHARSET = Charset.forName(STRING_CHARSET);
+    
+    /**
+     * Player, map and server names we've already decoded, so repeats don't allocate
+     */
+    private static final StringCache nameCache = new StringCache(StringCache.DEFAULT_SIZE);
+    
+    /**
+     * Per-thread scratch space for decoding strings out of direct buffers
+     */
+    private static final ThreadLocal<char[]> decodeBuffer = new ThreadLocal<char[]>()
+    {
+        protected char[] initialValue()
+        {
+            return new char[256];
+        }
+    };
+    
     /**
      * Convert a string to an array of bytes
      * @param s The string to convert
@@ -137,8 +160,9 @@ public class ByteStreamUtils
 	{
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		
+		// Stop at the terminator or the end of the stream (-1)
 		int b = in.read();
-		while (b <= 0)
+		while (b > 0)
 		{
 			out.write(b);
 			b = in.read();
@@ -202,4 +226,230 @@ public class ByteStreamUtils
 	{
 		return Float.intBitsToFloat(readInt(in));
 	}
+	
+	/* ***************************************************************** *
+	 * These methods are for writing strings to and from a byte array at *
+	 * an offset, without wrapping it in a stream or copying it first    *
+	 * ***************************************************************** */
+	
+	/**
+	 * Writes a zero-terminated UTF-8 string straight into an array
+	 * @param out The array to write into
+	 * @param offset Where to start writing
+	 * @param s The string to write
+	 * @return The offset just past the string's terminator
+	 * @throws ArrayIndexOutOfBoundsException If the string doesn't fit
+	 */
+	public static int write(byte[] out, int offset, String s)
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(out, offset, out.length - offset);
+		write(buffer, s);
+		return buffer.position();
+	}
+	
+	/**
+	 * Reads a zero-terminated UTF-8 string from an array
+	 * @param in The array to read from
+	 * @param offset Where the string starts
+	 * @param limit The end of the valid data in the array
+	 * @return The string, which ends at the first terminator or at limit
+	 */
+	public static String readString(byte[] in, int offset, int limit)
+	{
+		int end = offset;
+		while (end < limit && in[end] != 0)
+			end ++;
+		return new String(in, offset, end - offset, CHARSET);
+	}
+	
+	/**
+	 * Reads a big-endian char from an array, for peeking at headers without a buffer
+	 * @param in The array to read from
+	 * @param offset Where the char starts
+	 * @return The char
+	 */
+	public static char getChar(byte[] in, int offset)
+	{
+		return (char)(((0xff & in[offset]) << 8) | (0xff & in[offset + 1]));
+	}
+	
+	/* ************************************************************* *
+	 * These methods are for writing strings to and from a ByteBuffer *
+	 * Primitives can use ByteBuffer's own (big-endian) get and put   *
+	 * ************************************************************* */
+	
+	/**
+	 * Writes a zero-terminated UTF-8 string straight into a buffer, without any intermediate array
+	 * @param out The ByteBuffer to use
+	 * @param s The string to write
+	 */
+	public static void write(ByteBuffer out, String s)
+	{
+		int length = s.length();
+		for (int i=0; i < length; i++)
+		{
+			int c = s.charAt(i);
+			
+			if (c < 0x80)
+				out.put((byte)c);
+			else if (c < 0x800)
+			{
+				out.put((byte)(0xc0 | (c >> 6)));
+				out.put((byte)(0x80 | (c & 0x3f)));
+			}
+			else if (Character.isHighSurrogate((char)c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				c = Character.toCodePoint((char)c, s.charAt(++i));
+				out.put((byte)(0xf0 | (c >> 18)));
+				out.put((byte)(0x80 | ((c >> 12) & 0x3f)));
+				out.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+				out.put((byte)(0x80 | (c & 0x3f)));
+			}
+			else
+			{
+				out.put((byte)(0xe0 | (c >> 12)));
+				out.put((byte)(0x80 | ((c >> 6) & 0x3f)));
+				out.put((byte)(0x80 | (c & 0x3f)));
+			}
+		}
+		out.put((byte)0);
+	}
+	
+	/**
+	 * Reads in a zero-terminated UTF-8 string from a buffer
+	 * @param in The ByteBuffer to use
+	 * @return A string from the buffer
+	 */
+	public static String readString(ByteBuffer in)
+	{
+		int start = in.position();
+		int end = findTerminator(in, start);
+		String result = readString(in, start, end);
+		
+		// Skip the string and its terminator (if there was one)
+		in.position(Math.min(end + 1, in.limit()));
+		return result;
+	}
+	
+	/**
+	 * Reads in a zero-terminated name from a buffer, such as a player, map or server name.
+	 * Names that were seen recently come back as the same String without allocating anything,
+	 *   so only use this for short strings that are likely to repeat.
+	 * @param in The ByteBuffer to use
+	 * @return A name from the buffer
+	 */
+	public static String readName(ByteBuffer in)
+	{
+		int start = in.position();
+		int end = findTerminator(in, start);
+		String result = nameCache.get(in, start, end);
+		
+		// Skip the string and its terminator (if there was one)
+		in.position(Math.min(end + 1, in.limit()));
+		return result;
+	}
+	
+	/**
+	 * Decodes UTF-8 bytes from a buffer without moving it.
+	 * Heap buffers are decoded in place, and direct buffers through a per-thread scratch array.
+	 * @param in The ByteBuffer to use
+	 * @param start The index of the first byte
+	 * @param end The index just past the last byte
+	 * @return The decoded string
+	 */
+	public static String readString(ByteBuffer in, int start, int end)
+	{
+		if (in.hasArray())
+			return new String(in.array(), in.arrayOffset() + start, end - start, CHARSET);
+		
+		// A UTF-8 string never has more chars than bytes
+		char[] chars = decodeBuffer.get();
+		if (chars.length < end - start)
+		{
+			chars = new char[Math.max(end - start, chars.length * 2)];
+			decodeBuffer.set(chars);
+		}
+		
+		int count = 0;
+		int i = start;
+		while (i < end)
+		{
+			int b = 0xff & in.get(i++);
+			if (b < 0x80)
+				chars[count++] = (char)b;
+			else if (b < 0xc0)
+				chars[count++] = '\ufffd';
+			else if (b < 0xe0 && i < end)
+				chars[count++] = (char)((b & 0x1f) << 6 | (in.get(i++) & 0x3f));
+			else if (b < 0xf0 && i + 1 < end)
+			{
+				chars[count++] = (char)((b & 0x0f) << 12 | (in.get(i) & 0x3f) << 6 | (in.get(i + 1) & 0x3f));
+				i += 2;
+			}
+			else if (b < 0xf8 && i + 2 < end)
+			{
+				int c = (b & 0x07) << 18 | (in.get(i) & 0x3f) << 12 | (in.get(i + 1) & 0x3f) << 6 | (in.get(i + 2) & 0x3f);
+				i += 3;
+				if (c >= 0x10000 && c <= Character.MAX_CODE_POINT)
+					count += Character.toChars(c, chars, count);
+				else
+					chars[count++] = '\ufffd';
+			}
+			else
+				chars[count++] = '\ufffd';
+		}
+		
+		return new String(chars, 0, count);
+	}
+	
+	/**
+	 * Find the end of a zero-terminated string
+	 * @return The index of the terminator, or the buffer's limit if there isn't one
+	 */
+	private static int findTerminator(ByteBuffer in, int start)
+	{
+		int end = start;
+		int limit = in.limit();
+		while (end < limit && in.get(end) != 0)
+			end ++;
+		return end;
+	}
+	
+	/* ***************************************************************** *
+	 * These methods measure a message in a ByteBuffer without reading it *
+	 * Each returns -1 once a field runs off the end of the buffer, and   *
+	 * passes an earlier -1 straight through so they can be chained       *
+	 * ***************************************************************** */
+	
+	/**
+	 * Find where a fixed-size field ends
+	 * @param in The ByteBuffer to check
+	 * @param position Where the field starts, or -1
+	 * @param size The size of the field in bytes
+	 * @return Where the field ends, or -1 if it runs past the buffer's limit
+	 */
+	public static int skip(ByteBuffer in, int position, int size)
+	{
+		if (position < 0 || size < 0 || position + size > in.limit())
+			return -1;
+		return position + size;
+	}
+	
+	/**
+	 * Find where a zero-terminated string ends
+	 * @param in The ByteBuffer to check
+	 * @param position Where the string starts, or -1
+	 * @return Where the string's terminator ends, or -1 if there's no terminator before the buffer's limit
+	 */
+	public static int skipString(ByteBuffer in, int position)
+	{
+		if (position < 0)
+			return -1;
+		
+		int limit = in.limit();
+		for (int i=position; i < limit; i++)
+			if (in.get(i) == 0)
+				return i + 1;
+		return -1;
+	}
 }
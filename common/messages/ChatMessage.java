@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -37,22 +36,52 @@ public class ChatMessage extends Message implements MessagePlayerId
 			throw new InvalidParameterException(String.format("The byte array passed to the ChatMessage class is NOT a chat message. Message code is 0x%02x.", message[1]));
 		
 		// Skip the header
-		ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+	}
+	
+	/**
+	 * Decode a chat message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public ChatMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_CHAT_MESSAGE);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes chat messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			int end = ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 2);
+			return ByteStreamUtils.skipString(in, end);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new ChatMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
 		// Player id
-		playerId = ByteStreamUtils.readChar(in);
+		playerId = in.getChar();
 		// Message
-		this.message = ByteStreamUtils.readString(in);
+		message = ByteStreamUtils.readString(in);
 	}
 	
-	protected byte[] getMessageContents()
+	protected void encodeContents(ByteBuffer out)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Player id
-		ByteStreamUtils.write(out, playerId);
+		out.putChar(playerId);
 		// Message
 		ByteStreamUtils.write(out, message);
-		
-		return out.toByteArray();
 	}
 
 	public String getMessage()
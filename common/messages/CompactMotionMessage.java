@@ -0,0 +1,301 @@
+package common.messages;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+
+import common.Constants;
+
+/**
+ * A compact, quantized player motion message.
+ * Contents:
+ *    Player id (1 byte)
+ *    Flags and sequence (1 byte: high bit set for a delta, low 7 bits are the keyframe's sequence number)
+ *    Keyframe:
+ *       Time of motion (1 float)
+ *       Position (2 unsigned shorts)
+ *    Delta against the keyframe with the given sequence number:
+ *       Time since the keyframe (1 unsigned byte, in steps of MOTION_TIME_STEP seconds)
+ *       Position offset from the keyframe (2 signed bytes)
+ *    Velocity (2 signed bytes)
+ *    Aim (1 unsigned byte)
+ *
+ * A keyframe is 15 bytes and a delta is 10, against 32 for a PlayerMotionMessage.
+ * Use a MotionCodec to decide between the two and to turn them back into PlayerMotionMessages.
+ */
+public class CompactMotionMessage extends Message implements MessagePlayerId
+{
+	/**
+	 * The flag bit that marks a delta against a keyframe
+	 */
+	public static final int DELTA_FLAG = 0x80;
+
+	/**
+	 * The mask for the sequence number in the flags byte
+	 */
+	public static final int SEQUENCE_MASK = 0x7f;
+
+	/**
+	 * The largest player id that fits in a compact motion message
+	 */
+	public static final int MAX_PLAYER_ID = 0xff;
+
+	private char playerId;
+	private boolean delta;
+	private int sequence;
+	private float time;
+	private int timeSteps;
+	private int positionX, positionY;
+	private int velocityX, velocityY;
+	private int aim;
+
+	/**
+	 * Recycled instances for DECODER
+	 */
+	private static final MessagePool<CompactMotionMessage> pool = new MessagePool<CompactMotionMessage>()
+	{
+		protected CompactMotionMessage create()
+		{
+			return new CompactMotionMessage();
+		}
+	};
+
+	/**
+	 * Encode a new keyframe from a full motion message
+	 * @param motion The motion to quantize
+	 * @param sequence This keyframe's sequence number
+	 */
+	public static CompactMotionMessage createKeyframe(PlayerMotionMessage motion, int sequence)
+	{
+		CompactMotionMessage result = new CompactMotionMessage();
+
+		result.playerId = motion.getPlayerId();
+		result.delta = false;
+		result.sequence = sequence & SEQUENCE_MASK;
+		result.time = motion.getTime();
+		result.positionX = quantizePosition(motion.getPosition().getX());
+		result.positionY = quantizePosition(motion.getPosition().getY());
+		result.quantizeMotion(motion);
+
+		return result;
+	}
+
+	/**
+	 * Encode a new delta against a keyframe
+	 * @param keyframe The keyframe to encode against
+	 * @param motion The motion to quantize
+	 * @return The delta, or null if the motion is too far from the keyframe to fit
+	 */
+	public static CompactMotionMessage createDelta(CompactMotionMessage keyframe, PlayerMotionMessage motion)
+	{
+		int dx = quantizePosition(motion.getPosition().getX()) - keyframe.positionX;
+		int dy = quantizePosition(motion.getPosition().getY()) - keyframe.positionY;
+		int dt = Math.round((motion.getTime() - keyframe.time) / MOTION_TIME_STEP);
+
+		if (dx < Byte.MIN_VALUE || dx > Byte.MAX_VALUE || dy < Byte.MIN_VALUE || dy > Byte.MAX_VALUE)
+			return null;
+		if (dt < 0 || dt > 0xff)
+			return null;
+
+		CompactMotionMessage result = new CompactMotionMessage();
+
+		result.playerId = motion.getPlayerId();
+		result.delta = true;
+		result.sequence = keyframe.sequence;
+		result.timeSteps = dt;
+		result.positionX = dx;
+		result.positionY = dy;
+		result.quantizeMotion(motion);
+
+		return result;
+	}
+
+	private CompactMotionMessage()
+	{
+		super(TYPE_PLAYER_MOTION_COMPACT);
+	}
+
+	/**
+	 * Decode a compact motion message
+	 * @param message
+	 * @throws Exception If the given byte array is not a compact motion message, an exception will be thrown
+	 */
+	public CompactMotionMessage(byte[] message, InetSocketAddress source) throws Exception
+	{
+		super(message, source);
+
+		if (message[1] != TYPE_PLAYER_MOTION_COMPACT)
+			throw new InvalidParameterException(String.format("The byte array passed to the CompactMotionMessage class is NOT a compact motion message. Message code is 0x%02x.", message[1]));
+
+		// Skip the header
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+	}
+
+	/**
+	 * Decode a compact motion message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public CompactMotionMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_PLAYER_MOTION_COMPACT);
+
+		decode(in, source);
+	}
+
+	/**
+	 * Measures and decodes compact motion messages for MessageAnalyser, into pooled instances
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			// Header, player id and flags
+			int end = ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 2);
+			if (end < 0)
+				return -1;
+			boolean delta = (in.get(end - 1) & DELTA_FLAG) != 0;
+			// Keyframe or delta, then velocity and aim
+			return ByteStreamUtils.skip(in, end, (delta ? 3 : 8) + 3);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			CompactMotionMessage result = pool.acquire();
+			result.decode(in, source);
+			return result;
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
+		// Player id
+		playerId = (char)(0xff & in.get());
+		// Flags and sequence
+		int flags = 0xff & in.get();
+		delta = (flags & DELTA_FLAG) != 0;
+		sequence = flags & SEQUENCE_MASK;
+		if (delta)
+		{
+			// Time since the keyframe
+			timeSteps = 0xff & in.get();
+			// Position offset
+			positionX = in.get();
+			positionY = in.get();
+		}
+		else
+		{
+			// Time
+			time = in.getFloat();
+			// Position
+			positionX = in.getChar();
+			positionY = in.getChar();
+		}
+		// Velocity
+		velocityX = in.get();
+		velocityY = in.get();
+		// Aim
+		aim = 0xff & in.get();
+	}
+
+	protected void encodeContents(ByteBuffer out)
+	{
+		// Player id
+		out.put((byte)playerId);
+		// Flags and sequence
+		out.put((byte)(delta ? DELTA_FLAG | sequence : sequence));
+		if (delta)
+		{
+			// Time since the keyframe
+			out.put((byte)timeSteps);
+			// Position offset
+			out.put((byte)positionX);
+			out.put((byte)positionY);
+		}
+		else
+		{
+			// Time
+			out.putFloat(time);
+			// Position
+			out.putChar((char)positionX);
+			out.putChar((char)positionY);
+		}
+		// Velocity
+		out.put((byte)velocityX);
+		out.put((byte)velocityY);
+		// Aim
+		out.put((byte)aim);
+	}
+
+	/**
+	 * Expand this message back into a full motion message
+	 * @param keyframe The keyframe this is a delta against, ignored if this is a keyframe
+	 * @return The equivalent PlayerMotionMessage, from the pool so release() it when done
+	 */
+	public PlayerMotionMessage toMotionMessage(CompactMotionMessage keyframe)
+	{
+		float t;
+		int x, y;
+		if (delta)
+		{
+			t = keyframe.time + timeSteps * MOTION_TIME_STEP;
+			x = keyframe.positionX + positionX;
+			y = keyframe.positionY + positionY;
+		}
+		else
+		{
+			t = time;
+			x = positionX;
+			y = positionY;
+		}
+
+		double angle = aim * Math.PI / 128;
+		return PlayerMotionMessage.obtain(playerId, t,
+				(float)x / MOTION_POSITION_SCALE, (float)y / MOTION_POSITION_SCALE,
+				velocityX / MOTION_VELOCITY_SCALE, velocityY / MOTION_VELOCITY_SCALE,
+				Constants.PLAYER_AIM_LENGTH * (float)Math.cos(angle), Constants.PLAYER_AIM_LENGTH * (float)Math.sin(angle));
+	}
+
+	/**
+	 * Quantize the velocity and aim of a motion message into this one
+	 */
+	private void quantizeMotion(PlayerMotionMessage motion)
+	{
+		velocityX = quantizeVelocity(motion.getVelocity().getX());
+		velocityY = quantizeVelocity(motion.getVelocity().getY());
+		aim = (int)Math.round(Math.atan2(motion.getAim().getY(), motion.getAim().getX()) * 128 / Math.PI) & 0xff;
+	}
+
+	private static int quantizePosition(float p)
+	{
+		return Math.max(0, Math.min(0xffff, Math.round(p * MOTION_POSITION_SCALE)));
+	}
+
+	private static int quantizeVelocity(float v)
+	{
+		return Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.round(v * MOTION_VELOCITY_SCALE)));
+	}
+
+	public char getPlayerId()
+	{
+		return playerId;
+	}
+
+	/**
+	 * Find out if this is a delta or a keyframe
+	 * @return True if this message needs a keyframe to be expanded
+	 */
+	public boolean isDelta()
+	{
+		return delta;
+	}
+
+	/**
+	 * Get this keyframe's sequence number, or the sequence number of the keyframe this delta is against
+	 * @return The sequence number
+	 */
+	public int getSequence()
+	{
+		return sequence;
+	}
+}
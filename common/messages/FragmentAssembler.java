@@ -0,0 +1,146 @@
+package common.messages;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Puts messages split by MessageFragments back together.
+ * Each receiver keeps one of these, since pieces from one sender are matched up by transfer id.
+ * Transfers that stall are dropped after TRANSFER_TIMEOUT, and only MAX_TRANSFERS are kept at once.
+ */
+public class FragmentAssembler implements MessageConstants
+{
+	/**
+	 * How long to wait for the rest of a message, in milliseconds
+	 */
+	public static final long TRANSFER_TIMEOUT = 5000;
+	
+	/**
+	 * The most messages to put together at once, the oldest is dropped to make room
+	 */
+	public static final int MAX_TRANSFERS = 16;
+	
+	/**
+	 * The biggest message we'll put back together
+	 */
+	public static final int MAX_MESSAGE_SIZE = 1 << 24;
+	
+	private static class Transfer
+	{
+		InetSocketAddress source;
+		int id;
+		byte[][] pieces;
+		int received;
+		int size;
+		long started;
+	}
+	
+	private LinkedList<Transfer> transfers;
+	private long droppedTransfers;
+	
+	public FragmentAssembler()
+	{
+		transfers = new LinkedList<Transfer>();
+		droppedTransfers = 0;
+	}
+	
+	/**
+	 * Add a received piece
+	 * @param in The buffer holding the piece, from its position (the fragment header) to its limit
+	 * @param source The address that sent it
+	 * @return The whole message once this was its last missing piece, otherwise null
+	 */
+	public synchronized byte[] add(ByteBuffer in, InetSocketAddress source)
+	{
+		int start = in.position();
+		if (in.remaining() < MessageFragments.FRAGMENT_HEADER_SIZE || in.get(start + 1) != TYPE_MESSAGE_FRAGMENT)
+			return null;
+		
+		int id = in.getChar(start + 2);
+		int index = in.getChar(start + 4);
+		int count = in.getChar(start + 6);
+		if (count == 0 || index >= count)
+			return null;
+		
+		long now = System.currentTimeMillis();
+		Transfer transfer = find(source, id, count, now);
+		if (transfer.pieces[index] != null)
+			return null;
+		
+		int length = in.remaining() - MessageFragments.FRAGMENT_HEADER_SIZE;
+		if (transfer.size + length > MAX_MESSAGE_SIZE)
+		{
+			transfers.remove(transfer);
+			droppedTransfers ++;
+			return null;
+		}
+		
+		byte[] piece = new byte[length];
+		ByteBuffer data = in.duplicate();
+		data.position(start + MessageFragments.FRAGMENT_HEADER_SIZE);
+		data.get(piece);
+		transfer.pieces[index] = piece;
+		transfer.received ++;
+		transfer.size += length;
+		
+		if (transfer.received < count)
+			return null;
+		
+		// That was the last piece
+		transfers.remove(transfer);
+		byte[] result = new byte[transfer.size];
+		int offset = 0;
+		for (byte[] p : transfer.pieces)
+		{
+			System.arraycopy(p, 0, result, offset, p.length);
+			offset += p.length;
+		}
+		return result;
+	}
+	
+	/**
+	 * Get the number of transfers given up on, because they stalled, overflowed or were pushed out by newer ones
+	 * @return The number of messages lost
+	 */
+	public synchronized long getDroppedTransfers()
+	{
+		return droppedTransfers;
+	}
+	
+	/**
+	 * Find the transfer a piece belongs to, starting a new one if needed and dropping stale ones
+	 */
+	private Transfer find(InetSocketAddress source, int id, int count, long now)
+	{
+		Transfer found = null;
+		for (Iterator<Transfer> i = transfers.iterator(); i.hasNext(); )
+		{
+			Transfer transfer = i.next();
+			if (now - transfer.started > TRANSFER_TIMEOUT)
+			{
+				i.remove();
+				droppedTransfers ++;
+			}
+			else if (transfer.id == id && transfer.pieces.length == count && (transfer.source == null ? source == null : transfer.source.equals(source)))
+				found = transfer;
+		}
+		if (found != null)
+			return found;
+		
+		if (transfers.size() >= MAX_TRANSFERS)
+		{
+			transfers.removeFirst();
+			droppedTransfers ++;
+		}
+		
+		found = new Transfer();
+		found.source = source;
+		found.id = id;
+		found.pieces = new byte[count][];
+		found.started = now;
+		transfers.addLast(found);
+		return found;
+	}
+}
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -38,26 +37,55 @@ public class HealthUpdateMessage extends Message implements MessagePlayerId
 	{
 		super(message, source);
 		
-        if (message[1] != TYPE_PLAYER_DEATH)
+        if (message[1] != TYPE_HEALTH_UPDATE)
             throw new InvalidParameterException(String.format("The byte array passed to the HealthUpdateMessage class is NOT a health update message. Message code is 0x%02x.", message[1]));
         
         // Skip the header
-        ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
-        // Player id
-        playerId = ByteStreamUtils.readChar(in);
-        // Health
-        health = ByteStreamUtils.readChar(in);
+        decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
 	}
 	
-	protected byte[] getMessageContents()
+	/**
+	 * Decode a health update message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public HealthUpdateMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_HEALTH_UPDATE);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes health update messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 4);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new HealthUpdateMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Player id
-		ByteStreamUtils.write(out, playerId);
+		playerId = in.getChar();
 		// Health
-		ByteStreamUtils.write(out, health);
-		
-		return out.toByteArray();
+		health = in.getChar();
+	}
+	
+	protected void encodeContents(ByteBuffer out)
+	{
+		// Player id
+		out.putChar(playerId);
+		// Health
+		out.putChar(health);
 	}
 
 	public char getHealth()
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -44,9 +43,7 @@ public class LoginRequestMessage extends Message
             throw new InvalidParameterException(String.format("The byte array passed to the LoginRequestMessage class is NOT a login request message. Message code is 0x%02x.", message[1]));
         
         // Skip the header
-        ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
-        userName = ByteStreamUtils.readString(in);
-        password = ByteStreamUtils.readString(in);
+        decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
     }
     
     public String getUserName()
@@ -59,13 +56,45 @@ public class LoginRequestMessage extends Message
         return password;
     }
     
-    protected byte[] getMessageContents()
+    /**
+     * Decode a login request message straight from a buffer
+     * @param in The buffer to read from, positioned at the start of the message header
+     * @param source The address that sent this message
+     */
+    public LoginRequestMessage(ByteBuffer in, InetSocketAddress source)
+    {
+        super(TYPE_LOGIN_REQUEST);
+        
+        decode(in, source);
+    }
+    
+    /**
+     * Measures and decodes login request messages for MessageAnalyser
+     */
+    public static final MessageDecoder DECODER = new MessageDecoder()
+    {
+        public int findEnd(ByteBuffer in)
+        {
+            int end = ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE);
+            end = ByteStreamUtils.skipString(in, end);
+            return ByteStreamUtils.skipString(in, end);
+        }
+        
+        public Message decode(ByteBuffer in, InetSocketAddress source)
+        {
+            return new LoginRequestMessage(in, source);
+        }
+    };
+    
+    protected void decodeContents(ByteBuffer in)
+    {
+        userName = ByteStreamUtils.readName(in);
+        password = ByteStreamUtils.readString(in);
+    }
+    
+    protected void encodeContents(ByteBuffer out)
     {
-    	ByteArrayOutputStream out = new ByteArrayOutputStream();
-    	
-    	ByteStreamUtils.write(out, userName);
-    	ByteStreamUtils.write(out, password);
-    	
-        return out.toByteArray();
+        ByteStreamUtils.write(out, userName);
+        ByteStreamUtils.write(out, password);
     }
 }
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 import common.Position;
@@ -14,7 +13,7 @@ import common.Position;
  *    The new player's id (2 bytes)
  *    The new player's team (1 byte)
  *    Map name (1 string)
- *    Map (1 string)
+ *    Map (4-byte length, then the map packed by MapCodec)
  *    Number of players (2 bytes)
  *    Per player:
  *       Player name (1 string)
@@ -28,6 +27,7 @@ public class LoginResponseMessage extends Message implements MessagePlayerId
 	private char playerId;
 	private byte playerTeam;
 	private String mapName, map;
+	private byte[] packedMap;
 	private char numPlayers;
 	private String[] playerNames;
 	private char[] playerIds;
@@ -58,61 +58,122 @@ public class LoginResponseMessage extends Message implements MessagePlayerId
             throw new InvalidParameterException(String.format("The byte array passed to the LoginResponseMessage class is NOT a login response message. Message code is 0x%02x.", message[1]));
 		
 		// Skip the header
-		ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+	}
+	
+	/**
+	 * Decode a login response message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public LoginResponseMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_LOGIN_RESPONSE);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes login response messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			// Header, player id, team, map name and map
+			int end = ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 3);
+			end = ByteStreamUtils.skipString(in, end);
+			end = MapCodec.skip(in, end);
+			// Number of players, then their names, ids and teams
+			end = ByteStreamUtils.skip(in, end, 2);
+			if (end < 0)
+				return -1;
+			int numPlayers = in.getChar(end - 2);
+			for (int i=0; i < numPlayers && end >= 0; i++)
+				end = ByteStreamUtils.skipString(in, end);
+			end = ByteStreamUtils.skip(in, end, numPlayers*3);
+			// Initial position
+			return ByteStreamUtils.skip(in, end, 8);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new LoginResponseMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
 		// Player id
-		playerId = ByteStreamUtils.readChar(in);
+		playerId = in.getChar();
 		// Player team
-		playerTeam = ByteStreamUtils.readByte(in);
+		playerTeam = in.get();
 		// Map name
-		mapName = ByteStreamUtils.readString(in);
+		mapName = ByteStreamUtils.readName(in);
 		// Map
-		map = ByteStreamUtils.readString(in);
+		map = MapCodec.read(in);
+		packedMap = null;
 		// Number of players
-		numPlayers = ByteStreamUtils.readChar(in);
+		numPlayers = in.getChar();
 		// All player names
 		playerNames = new String[numPlayers];
 		for (int i=0; i < numPlayers; i++)
-			playerNames[i] = ByteStreamUtils.readString(in);
+			playerNames[i] = ByteStreamUtils.readName(in);
 		// All player ids
 		playerIds = new char[numPlayers];
 		for (int i=0; i < numPlayers; i++)
-			playerIds[i] = ByteStreamUtils.readChar(in);
+			playerIds[i] = in.getChar();
 		// All player teams
 		playerTeams = new byte[numPlayers];
-		for (int i=0; i < numPlayers; i++)
-			playerTeams[i] = ByteStreamUtils.readByte(in);
+		in.get(playerTeams);
 		// Initial position
-		initialPosition = new Position(ByteStreamUtils.readFloat(in),
-				ByteStreamUtils.readFloat(in));
+		initialPosition = new Position(in.getFloat(), in.getFloat());
 	}
 	
-	protected byte[] getMessageContents()
+	protected void encodeContents(ByteBuffer out)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Player id
-		ByteStreamUtils.write(out, playerId);
+		out.putChar(playerId);
 		// Player team
-		ByteStreamUtils.write(out, playerTeam);
+		out.put(playerTeam);
 		// Map name
 		ByteStreamUtils.write(out, mapName);
 		// Map
-		ByteStreamUtils.write(out, map);
+		if (packedMap == null)
+			packedMap = MapCodec.encode(map);
+		MapCodec.write(out, packedMap);
 		// Number of players
-		ByteStreamUtils.write(out, numPlayers);
+		out.putChar(numPlayers);
 		// All player names
 		for (int i=0; i < numPlayers; i++)
 			ByteStreamUtils.write(out, playerNames[i]);
 		// All player ids
 		for (int i=0; i < numPlayers; i++)
-			ByteStreamUtils.write(out, playerIds[i]);
+			out.putChar(playerIds[i]);
 		// All player teams
-		for (int i=0; i < numPlayers; i++)
-			ByteStreamUtils.write(out, playerTeams[i]);
+		out.put(playerTeams, 0, numPlayers);
 		// Initial position
-		ByteStreamUtils.write(out, initialPosition.getX());
-		ByteStreamUtils.write(out, initialPosition.getY());
-		
-		return out.toByteArray();
+		out.putFloat(initialPosition.getX());
+		out.putFloat(initialPosition.getY());
+	}
+	
+	/**
+	 * Fill in the fields that differ between players in an already-encoded login response,
+	 *   so a server can encode the shared parts once and copy them for each new player
+	 * @param message The encoded message, changed in place
+	 * @param playerId The new player's id
+	 * @param playerTeam The new player's team
+	 * @param initialPosition The new player's initial position
+	 */
+	public static void setPlayerFields(byte[] message, char playerId, byte playerTeam, Position initialPosition)
+	{
+		ByteBuffer out = ByteBuffer.wrap(message);
+		// Player id and team come straight after the header
+		out.putChar(MESSAGE_HEADER_SIZE, playerId);
+		out.put(MESSAGE_HEADER_SIZE + 2, playerTeam);
+		// Initial position is at the very end
+		out.putFloat(message.length - 8, initialPosition.getX());
+		out.putFloat(message.length - 4, initialPosition.getY());
 	}
 	
 	public float getGameTime()
@@ -0,0 +1,322 @@
+package common.messages;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Packs a map's text into a compact form for sending over the network, and back again.
+ * Contents:
+ *    Flags (1 byte: FLAG_DEFLATED, FLAG_TEXT)
+ *    If FLAG_DEFLATED, the length of the body once it's inflated (4 bytes)
+ *    Body, deflated if FLAG_DEFLATED:
+ *       If FLAG_TEXT, the map text as UTF-8 (anything that isn't a plain wall grid)
+ *       Otherwise:
+ *          Width and height (2 bytes each)
+ *          The character used for empty cells (1 byte)
+ *          Walls, one bit per cell, row by row, high bit first
+ *          Number of spawn points (2 bytes)
+ *          Per spawn point: x and y (2 bytes each)
+ *
+ * A grid map costs an eighth of a byte per cell before deflating, against a byte per cell as text.
+ */
+public class MapCodec
+{
+	/**
+	 * The body is deflated
+	 */
+	public static final int FLAG_DEFLATED = 0x01;
+	
+	/**
+	 * The body is the map's text rather than a grid
+	 */
+	public static final int FLAG_TEXT = 0x02;
+	
+	/**
+	 * Wall and spawn point cells, as they appear in map files
+	 */
+	public static final char WALL = '+', SPAWN = 's';
+	
+	/**
+	 * The largest body we'll inflate, so a bad packet can't make us allocate without limit
+	 */
+	public static final int MAX_BODY_SIZE = 1 << 24;
+	
+	/**
+	 * Encode a map's text
+	 * @param map The text of the map, as in the files in maps/
+	 * @return The compact form
+	 */
+	public static byte[] encode(String map)
+	{
+		int flags = 0;
+		byte[] body = encodeGrid(map);
+		if (body == null)
+		{
+			flags |= FLAG_TEXT;
+			body = ByteStreamUtils.convertStringToByteArray(map);
+		}
+		
+		byte[] deflated = deflate(body);
+		ByteBuffer out;
+		if (deflated.length + 4 < body.length)
+		{
+			out = ByteBuffer.allocate(1 + 4 + deflated.length);
+			out.put((byte)(flags | FLAG_DEFLATED));
+			out.putInt(body.length);
+			out.put(deflated);
+		}
+		else
+		{
+			out = ByteBuffer.allocate(1 + body.length);
+			out.put((byte)flags);
+			out.put(body);
+		}
+		
+		return out.array();
+	}
+	
+	/**
+	 * Decode a map back into its text
+	 * @param data The array holding the compact form
+	 * @param offset Where the compact form starts
+	 * @param length The length of the compact form
+	 * @return The text of the map, or null if the data is malformed
+	 */
+	public static String decode(byte[] data, int offset, int length)
+	{
+		if (length < 1)
+			return null;
+		
+		int flags = data[offset];
+		byte[] body;
+		int bodyOffset, bodyLength;
+		if ((flags & FLAG_DEFLATED) != 0)
+		{
+			if (length < 5)
+				return null;
+			bodyLength = ByteBuffer.wrap(data, offset + 1, 4).getInt();
+			if (bodyLength < 0 || bodyLength > MAX_BODY_SIZE)
+				return null;
+			body = inflate(data, offset + 5, length - 5, bodyLength);
+			if (body == null)
+				return null;
+			bodyOffset = 0;
+		}
+		else
+		{
+			body = data;
+			bodyOffset = offset + 1;
+			bodyLength = length - 1;
+		}
+		
+		if ((flags & FLAG_TEXT) != 0)
+			return new String(body, bodyOffset, bodyLength, ByteStreamUtils.CHARSET);
+		
+		return decodeGrid(ByteBuffer.wrap(body, bodyOffset, bodyLength));
+	}
+	
+	/**
+	 * Write a packed map into a message, after its length
+	 * @param out The buffer to write into
+	 * @param packed The map, packed by encode()
+	 */
+	public static void write(ByteBuffer out, byte[] packed)
+	{
+		out.putInt(packed.length);
+		out.put(packed);
+	}
+	
+	/**
+	 * Read a packed map out of a message
+	 * @param in The buffer to read from, positioned at the map's length
+	 * @return The text of the map, or null if it's malformed
+	 */
+	public static String read(ByteBuffer in)
+	{
+		int length = in.getInt();
+		String result;
+		if (in.hasArray())
+			result = decode(in.array(), in.arrayOffset() + in.position(), length);
+		else
+		{
+			byte[] temp = new byte[length];
+			in.duplicate().get(temp);
+			result = decode(temp, 0, length);
+		}
+		
+		in.position(in.position() + length);
+		return result;
+	}
+	
+	/**
+	 * Find where a packed map in a message ends, for checking a message's length before decoding it
+	 * @param in The buffer to check
+	 * @param position Where the map's length starts, or -1
+	 * @return Where the map ends, or -1 if it runs past the buffer's limit
+	 */
+	public static int skip(ByteBuffer in, int position)
+	{
+		int end = ByteStreamUtils.skip(in, position, 4);
+		if (end < 0)
+			return -1;
+		return ByteStreamUtils.skip(in, end, in.getInt(position));
+	}
+	
+	/**
+	 * Pack a map as a wall grid and spawn list
+	 * @return The packed grid, or null if the map isn't a plain grid of walls, spawn points and one kind of empty cell
+	 */
+	private static byte[] encodeGrid(String map)
+	{
+		String[] lines = map.split("\r?\n");
+		if (lines.length < 1)
+			return null;
+		
+		int width, height;
+		Scanner header = new Scanner(lines[0]);
+		if (!header.hasNextInt())
+			return null;
+		width = header.nextInt();
+		if (!header.hasNextInt())
+			return null;
+		height = header.nextInt();
+		if (header.hasNext() || width < 0 || height < 0 || width > 0xffff || height > 0xffff || lines.length - 1 > height)
+			return null;
+		
+		// Anything that's neither a wall nor a spawn point must be the same empty character
+		char empty = 0;
+		byte[] walls = new byte[(width * height + 7) / 8];
+		List<Integer> spawns = new ArrayList<Integer>();
+		for (int y=0; y < height; y++)
+		{
+			String line = y + 1 < lines.length ? lines[y + 1] : "";
+			if (line.length() != width)
+				return null;
+			
+			for (int x=0; x < width; x++)
+			{
+				char c = line.charAt(x);
+				int cell = y * width + x;
+				if (c == WALL)
+					walls[cell >> 3] |= 0x80 >> (cell & 7);
+				else if (c == SPAWN)
+					spawns.add(cell);
+				else if (c > 0x7f || (empty != 0 && c != empty))
+					return null;
+				else
+					empty = c;
+			}
+		}
+		if (spawns.size() > 0xffff)
+			return null;
+		
+		ByteBuffer out = ByteBuffer.allocate(5 + walls.length + 2 + 4 * spawns.size());
+		out.putChar((char)width);
+		out.putChar((char)height);
+		out.put((byte)(empty == 0 ? ' ' : empty));
+		out.put(walls);
+		out.putChar((char)spawns.size());
+		for (int cell : spawns)
+		{
+			out.putChar((char)(cell % width));
+			out.putChar((char)(cell / width));
+		}
+		
+		return out.array();
+	}
+	
+	/**
+	 * Unpack a wall grid and spawn list back into map text
+	 * @return The map text, or null if the grid is truncated
+	 */
+	private static String decodeGrid(ByteBuffer in)
+	{
+		if (in.remaining() < 5)
+			return null;
+		int width = in.getChar();
+		int height = in.getChar();
+		char empty = (char)(0xff & in.get());
+		
+		// Check the sizes before allocating anything
+		int wallBytes = (int)(((long)width * height + 7) / 8);
+		if (in.remaining() < wallBytes + 2)
+			return null;
+		int numSpawns = in.getChar(in.position() + wallBytes);
+		if (in.remaining() < wallBytes + 2 + 4 * numSpawns)
+			return null;
+		
+		char[][] rows = new char[height][width];
+		for (int y=0; y < height; y++)
+		{
+			for (int x=0; x < width; x++)
+			{
+				int cell = y * width + x;
+				rows[y][x] = (in.get(in.position() + (cell >> 3)) & (0x80 >> (cell & 7))) != 0 ? WALL : empty;
+			}
+		}
+		in.position(in.position() + wallBytes + 2);
+		
+		for (int i=0; i < numSpawns; i++)
+		{
+			int x = in.getChar();
+			int y = in.getChar();
+			if (x < width && y < height)
+				rows[y][x] = SPAWN;
+		}
+		
+		// The same layout Map reads from files
+		StringBuilder result = new StringBuilder((width + 2) * (height + 1));
+		result.append(width).append(' ').append(height).append("\r\n");
+		for (int y=0; y < height; y++)
+			result.append(rows[y]).append("\r\n");
+		return result.toString();
+	}
+	
+	private static byte[] deflate(byte[] data)
+	{
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		deflater.setInput(data);
+		deflater.finish();
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 16);
+		byte[] chunk = new byte[4096];
+		while (!deflater.finished())
+		{
+			int count = deflater.deflate(chunk);
+			out.write(chunk, 0, count);
+		}
+		deflater.end();
+		
+		return out.toByteArray();
+	}
+	
+	private static byte[] inflate(byte[] data, int offset, int length, int inflatedLength)
+	{
+		Inflater inflater = new Inflater();
+		inflater.setInput(data, offset, length);
+		
+		byte[] result = new byte[inflatedLength];
+		try
+		{
+			int count = inflater.inflate(result);
+			if (count != inflatedLength || !inflater.finished())
+				return null;
+		}
+		catch (DataFormatException er)
+		{
+			return null;
+		}
+		finally
+		{
+			inflater.end();
+		}
+		
+		return result;
+	}
+}
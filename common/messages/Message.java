@@ -1,6 +1,10 @@
 package common.messages;
 
 import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
 
 public abstract class Message implements MessageConstants
 {
@@ -9,6 +13,22 @@ public abstract class Message implements MessageConstants
 	 */
 	public static final int MESSAGE_HEADER_SIZE = 2;
 	
+	/**
+	 * The starting size of the scratch buffer used by getMessageBytes()
+	 */
+	public static final int DEFAULT_ENCODE_BUFFER_SIZE = 1500;
+	
+	/**
+	 * Per-thread scratch buffer so getMessageBytes() doesn't need a stream per message
+	 */
+	private static final ThreadLocal<ByteBuffer> encodeBuffer = new ThreadLocal<ByteBuffer>()
+	{
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocate(DEFAULT_ENCODE_BUFFER_SIZE);
+		}
+	};
+	
 	protected int messageType;
     protected byte[] messageBytes;
     
@@ -16,6 +36,16 @@ public abstract class Message implements MessageConstants
      * The ip address and port that originated this packet
      */
     protected InetSocketAddress source;
+    
+    /**
+     * The pool this message came from and goes back to on release(), or null if it isn't pooled
+     */
+    MessagePool<?> ownerPool;
+    
+    /**
+     * True while this message is sitting in its pool's free list
+     */
+    boolean pooled;
 	
     /**
      * Create a new message of a particular type.
@@ -57,15 +87,53 @@ public abstract class Message implements MessageConstants
 		return messageType;
 	}
 	
-    /**
-     * Get the additional contents of this message (note that this does not include the header!)
-     * Please avoid using this and instead use getByteArray()
-     * @return The contents of this message as a byte array
-     */
-	protected abstract byte[] getMessageContents();
+	/**
+	 * Write the additional contents of this message (not including the header) into a buffer
+	 * @param out The buffer to write into, starting at its current position
+	 */
+	protected abstract void encodeContents(ByteBuffer out);
+	
+	/**
+	 * Read the additional contents of this message (not including the header) from a buffer
+	 * @param in The buffer to read from, starting at its current position
+	 */
+	protected abstract void decodeContents(ByteBuffer in);
+	
+	/**
+	 * Write this entire message, header included, into a caller-supplied buffer.
+	 * The buffer's position is advanced past the message.
+	 * @param out The heap or direct buffer to write into
+	 * @throws BufferOverflowException If the buffer doesn't have enough room left
+	 */
+	public void encode(ByteBuffer out)
+	{
+		out.put(GAME_MAGIC_NUMBER);
+		out.put((byte)messageType);
+		encodeContents(out);
+	}
+	
+	/**
+	 * Read an entire message, header included, from a caller-supplied buffer into this instance.
+	 * The buffer's position is advanced past the message.
+	 * @param in The heap or direct buffer to read from
+	 * @param source The InetSocketAddress that originated this message, or null if it's ours
+	 * @throws InvalidParameterException If the buffer doesn't hold a message of this type
+	 */
+	public void decode(ByteBuffer in, InetSocketAddress source)
+	{
+		byte magic = in.get();
+		byte type = in.get();
+		if (magic != GAME_MAGIC_NUMBER || type != (byte)messageType)
+			throw new InvalidParameterException(String.format("The buffer passed to %s does not hold its message type. Message code is 0x%02x.", getClass().getSimpleName(), type));
+		
+		this.source = source;
+		messageBytes = null;
+		decodeContents(in);
+	}
     
     /**
      * Get the array of bytes that represent the entire message.
+     * Please use encode(ByteBuffer) in anything that runs once per packet.
      * @return The byte array that represents this message 
      */
     public byte[] getMessageBytes()
@@ -73,21 +141,40 @@ public abstract class Message implements MessageConstants
         if (messageBytes != null)
             return messageBytes;
         
-        byte[] contents = getMessageContents();
-        
-        if (contents == null)
-            return new byte[] { GAME_MAGIC_NUMBER, (byte)messageType };
-        
-        messageBytes = new byte[contents.length + 2];
+        ByteBuffer out = encodeBuffer.get();
+        while (true)
+        {
+        	out.clear();
+        	try
+        	{
+        		encode(out);
+        		break;
+        	}
+        	catch (BufferOverflowException er)
+        	{
+        		// Grow the scratch buffer and try again
+        		out = ByteBuffer.allocate(out.capacity() * 2);
+        		encodeBuffer.set(out);
+        	}
+        }
         
-        messageBytes[0] = GAME_MAGIC_NUMBER;
-        messageBytes[1] = (byte)messageType;
-        for (int i=0; i < contents.length; i++)
-            messageBytes[i+2] = contents[i];
+        messageBytes = Arrays.copyOf(out.array(), out.position());
         
         return messageBytes;
     }
     
+    /**
+     * Hand this message back to its pool once nothing holds on to it any more.
+     * Messages that didn't come from a pool ignore this, so it's always safe to call
+     *   from the code that consumes a message. Never touch a message after releasing it.
+     */
+    public void release()
+    {
+        MessagePool<?> owner = ownerPool;
+        if (owner != null)
+            owner.recycle(this);
+    }
+    
     /**
      * For messages that have come in from the network
      * @return The InetSocketAddress that originated this message
@@ -1,9 +1,94 @@
 package common.messages;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MessageAnalyser implements MessageConstants
 {
+    /**
+     * The decoder for each message type, indexed by the unsigned type byte.
+     * Copied on write, so readers never need to lock it.
+     */
+    private static volatile MessageDecoder[] decoders = new MessageDecoder[256];
+    
+    private static final AtomicLong unknownMessages = new AtomicLong();
+    private static final AtomicLong malformedMessages = new AtomicLong();
+    
+    static
+    {
+        registerDecoder(TYPE_CHAT_MESSAGE, ChatMessage.DECODER);
+        registerDecoder(TYPE_HEALTH_UPDATE, HealthUpdateMessage.DECODER);
+        registerDecoder(TYPE_LOGIN_REQUEST, LoginRequestMessage.DECODER);
+        registerDecoder(TYPE_LOGIN_RESPONSE, LoginResponseMessage.DECODER);
+        registerDecoder(TYPE_MULTICAST_CHANGE, MulticastChangeMessage.DECODER);
+        registerDecoder(TYPE_PING_REQUEST, PingRequestMessage.DECODER);
+        registerDecoder(TYPE_PING_RESPONSE, PingResponseMessage.DECODER);
+        registerDecoder(TYPE_PLAYER_DEATH, PlayerDeathMessage.DECODER);
+        registerDecoder(TYPE_PLAYER_JOIN, PlayerJoinMessage.DECODER);
+        registerDecoder(TYPE_PLAYER_LEAVE, PlayerLeaveMessage.DECODER);
+        registerDecoder(TYPE_PLAYER_MOTION, PlayerMotionMessage.DECODER);
+        registerDecoder(TYPE_PLAYER_MOTION_COMPACT, CompactMotionMessage.DECODER);
+        registerDecoder(TYPE_PLAYER_RESPAWN, PlayerRespawnMessage.DECODER);
+        registerDecoder(TYPE_PROJECTILE_LAUNCH, ProjectileLaunchMessage.DECODER);
+        registerDecoder(TYPE_SERVER_INFO_REQUEST, ServerInfoRequestMessage.DECODER);
+        registerDecoder(TYPE_SERVER_INFO_RESPONSE, ServerInfoResponseMessage.DECODER);
+        registerDecoder(TYPE_SNAPSHOT, SnapshotMessage.DECODER);
+        registerDecoder(TYPE_SNAPSHOT_ACK, SnapshotAckMessage.DECODER);
+    }
+    
+    /**
+     * Register the decoder for a message type, replacing any decoder already registered for it
+     * @param type The message type byte
+     * @param decoder The decoder to use, or null to stop decoding this type
+     */
+    public static synchronized void registerDecoder(byte type, MessageDecoder decoder)
+    {
+        if (type == TYPE_MESSAGE_BUNDLE || type == TYPE_MESSAGE_FRAGMENT)
+            throw new IllegalArgumentException("Message bundles and fragments are unpacked by getMessagesFromArray() and can't have a decoder.");
+        
+        MessageDecoder[] table = decoders.clone();
+        table[0xff & type] = decoder;
+        decoders = table;
+    }
+    
+    /**
+     * Get the decoder registered for a message type
+     * @param type The message type byte
+     * @return The decoder, or null if this type isn't supported
+     */
+    public static MessageDecoder getDecoder(byte type)
+    {
+        return decoders[0xff & type];
+    }
+    
+    /**
+     * Get the number of messages dropped because nothing decodes their type
+     */
+    public static long getUnknownMessageCount()
+    {
+        return unknownMessages.get();
+    }
+    
+    /**
+     * Get the number of messages dropped because they were truncated or otherwise malformed
+     */
+    public static long getMalformedMessageCount()
+    {
+        return malformedMessages.get();
+    }
+    
+    /**
+     * Set the unknown and malformed message counts back to zero
+     */
+    public static void resetCounts()
+    {
+        unknownMessages.set(0);
+        malformedMessages.set(0);
+    }
+    
     /**
      * Create an instance of a Message subclass for the specified message 
      * @param message The byte array that represents the message
@@ -11,165 +96,126 @@ public class MessageAnalyser implements MessageConstants
      */
     public static Message getMessageFromArray(byte[] message, InetSocketAddress source)
     {
-        if (!isValidMessage(message))
+        if (message == null)
             return null;
+        
+        return getMessageFromBuffer(ByteBuffer.wrap(message), source);
+    }
 
-        switch (getMessageType(message))
+    /**
+     * Decode the message at a buffer's current position without copying it out first.
+     * The message is measured before it's decoded, so bad input is counted and dropped instead of throwing.
+     * On success the buffer's position is left just past the message, otherwise it isn't moved.
+     * @param in The heap or direct buffer that holds the message
+     * @param source The address that sent this message
+     * @return The message wrapped in a Message subclass, or null if it couldn't be decoded
+     */
+    public static Message getMessageFromBuffer(ByteBuffer in, InetSocketAddress source)
+    {
+        int start = in.position();
+        if (in.remaining() < Message.MESSAGE_HEADER_SIZE || in.get(start) != GAME_MAGIC_NUMBER)
+        {
+            malformedMessages.incrementAndGet();
+            return null;
+        }
+        
+        MessageDecoder decoder = decoders[0xff & in.get(start + 1)];
+        if (decoder == null)
         {
-            case TYPE_CHAT_MESSAGE:
-            	try
-            	{
-            		return new ChatMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
+            unknownMessages.incrementAndGet();
+            return null;
+        }
+        
+        if (decoder.findEnd(in) < 0)
+        {
+            malformedMessages.incrementAndGet();
+            return null;
+        }
+        
+        return decoder.decode(in, source);
+    }
 
-            case TYPE_HEALTH_UPDATE:
-            	try
-            	{
-            		return new HealthUpdateMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
+    /**
+     * Decode every message in a datagram, unpacking it first if it's a MessageBundle.
+     * Message fragments are dropped, use the version that takes a FragmentAssembler to receive them.
+     * @param data The array that holds the datagram
+     * @param offset Where the datagram starts in the array
+     * @param length The length of the datagram
+     * @param source The address that sent the datagram
+     * @return The decoded messages, without any that couldn't be decoded
+     */
+    public static List<Message> getMessagesFromArray(byte[] data, int offset, int length, InetSocketAddress source)
+    {
+        return getMessagesFromArray(data, offset, length, source, null);
+    }
+    
+    /**
+     * Decode every message in a datagram, unpacking it first if it's a MessageBundle
+     *   or putting it back together first if it's the last missing piece of a fragmented message
+     * @param data The array that holds the datagram
+     * @param offset Where the datagram starts in the array
+     * @param length The length of the datagram
+     * @param source The address that sent the datagram
+     * @param assembler Where fragments are collected, or null to drop them
+     * @return The decoded messages, without any that couldn't be decoded
+     */
+    public static List<Message> getMessagesFromArray(byte[] data, int offset, int length, InetSocketAddress source, FragmentAssembler assembler)
+    {
+        List<Message> result = new ArrayList<Message>();
+        if (data == null)
+            return result;
 
-            case TYPE_LOGIN_REQUEST:
-                try
-                {
-                    return new LoginRequestMessage(message, source);
-                }
-                catch (Exception er)
-                {
-                    return null;
-                }
+        ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+        if (length < Message.MESSAGE_HEADER_SIZE || in.get(offset) != GAME_MAGIC_NUMBER)
+        {
+            malformedMessages.incrementAndGet();
+            return result;
+        }
 
-            case TYPE_LOGIN_RESPONSE:
-            	try
-            	{
-            		return new LoginResponseMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_MULTICAST_CHANGE:
-            	try
-            	{
-            		return new MulticastChangeMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-                
-            case TYPE_PING_REQUEST:
-            	try
-            	{
-            		return new PingRequestMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_PING_RESPONSE:
-            	try
-            	{
-            		return new PingResponseMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_PLAYER_DEATH:
-            	try
-            	{
-            		return new PlayerDeathMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_PLAYER_JOIN:
-            	try
-            	{
-            		return new PlayerJoinMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_PLAYER_LEAVE:
-            	try
-            	{
-            		return new PlayerLeaveMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_PLAYER_MOTION:
-            	try
-            	{
-            		return new PlayerMotionMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_PLAYER_RESPAWN:
-            	try
-            	{
-            		return new PlayerRespawnMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_PROJECTILE_LAUNCH:
-            	try
-            	{
-            		return new ProjectileLaunchMessage(message, source);
-            	}
-            	catch (Exception er)
-            	{
-            		return null;
-            	}
-            
-            case TYPE_SERVER_INFO_REQUEST:
-                try
-                {
-                    return new ServerInfoRequestMessage(message, source);
-                }
-                catch (Exception er)
-                {
-                    return null;
-                }
+        if (in.get(offset + 1) == TYPE_MESSAGE_FRAGMENT)
+        {
+            if (assembler == null)
+            {
+                unknownMessages.incrementAndGet();
+                return result;
+            }
             
-            case TYPE_SERVER_INFO_RESPONSE:
-                try
-                {
-                    return new ServerInfoResponseMessage(message, source);
-                }
-                catch (Exception er)
-                {
-                    return null;
-                }
+            byte[] whole = assembler.add(in, source);
+            if (whole == null)
+                return result;
+            // A message is never fragmented twice
+            return getMessagesFromArray(whole, 0, whole.length, source, null);
+        }
+        
+        if (in.get(offset + 1) != TYPE_MESSAGE_BUNDLE)
+        {
+            Message message = getMessageFromBuffer(in, source);
+            if (message != null)
+                result.add(message);
+            return result;
+        }
 
-            default:
-                System.out.printf("Unknown message type 0x%02x.\n", getMessageType(message));
-                return null;
+        // Skip the bundle header, then read each length-prefixed message
+        in.position(offset + MessageBundle.FIRST_FRAME_OFFSET);
+        while (in.remaining() >= MessageBundle.FRAME_HEADER_SIZE)
+        {
+            int frameLength = in.getChar();
+            if (frameLength > in.remaining())
+            {
+                malformedMessages.incrementAndGet();
+                break;
+            }
+
+            int frameEnd = in.position() + frameLength;
+            ByteBuffer frame = in.duplicate();
+            frame.limit(frameEnd);
+            Message message = getMessageFromBuffer(frame, source);
+            if (message != null)
+                result.add(message);
+            in.position(frameEnd);
         }
+
+        return result;
     }
 
     /**
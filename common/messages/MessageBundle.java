@@ -0,0 +1,118 @@
+package common.messages;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Packs several messages into one datagram, each behind a 2-byte length.
+ * Use MessageAnalyser.getMessagesFromArray() to unpack them again.
+ * Contents, repeated until the end of the datagram:
+ *    Length of the message that follows (2 bytes)
+ *    The message, header included
+ */
+public class MessageBundle implements MessageConstants
+{
+	/**
+	 * The largest bundle we'll build by default, small enough to fit an Ethernet frame with IP and UDP headers
+	 */
+	public static final int MAX_BUNDLE_SIZE = 1400;
+
+	/**
+	 * The size of the length field in front of each bundled message
+	 */
+	public static final int FRAME_HEADER_SIZE = 2;
+
+	/**
+	 * Where the first bundled message's length field starts
+	 */
+	public static final int FIRST_FRAME_OFFSET = Message.MESSAGE_HEADER_SIZE;
+
+	private ByteBuffer buffer;
+	private int count;
+
+	/**
+	 * Create a new empty bundle of MAX_BUNDLE_SIZE bytes
+	 */
+	public MessageBundle()
+	{
+		this(MAX_BUNDLE_SIZE);
+	}
+
+	/**
+	 * Create a new empty bundle
+	 * @param maxSize The largest datagram this bundle will grow to, in bytes
+	 */
+	public MessageBundle(int maxSize)
+	{
+		buffer = ByteBuffer.allocate(maxSize);
+		clear();
+	}
+
+	/**
+	 * Empty this bundle so it can be reused
+	 */
+	public void clear()
+	{
+		buffer.clear();
+		buffer.put(GAME_MAGIC_NUMBER);
+		buffer.put(TYPE_MESSAGE_BUNDLE);
+		count = 0;
+	}
+
+	/**
+	 * Add a message to the end of this bundle
+	 * @param message The message to add
+	 * @return True if it fit, false if the bundle is too full (it is left unchanged)
+	 */
+	public boolean add(Message message)
+	{
+		int start = buffer.position();
+		if (buffer.remaining() <= FRAME_HEADER_SIZE)
+			return false;
+
+		buffer.position(start + FRAME_HEADER_SIZE);
+		try
+		{
+			message.encode(buffer);
+		}
+		catch (BufferOverflowException er)
+		{
+			buffer.position(start);
+			return false;
+		}
+
+		buffer.putChar(start, (char)(buffer.position() - start - FRAME_HEADER_SIZE));
+		count ++;
+		return true;
+	}
+
+	/**
+	 * Get the number of messages in this bundle
+	 * @return The number of messages added since the last clear()
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	public boolean isEmpty()
+	{
+		return count == 0;
+	}
+
+	/**
+	 * Get a copy of the datagram to send for this bundle.
+	 * A bundle of one message is sent as that message alone, since anybody can read that.
+	 * @return The bytes to send, or null if the bundle is empty
+	 */
+	public byte[] getMessageBytes()
+	{
+		if (count == 0)
+			return null;
+		if (count == 1)
+			return Arrays.copyOfRange(buffer.array(), FIRST_FRAME_OFFSET + FRAME_HEADER_SIZE, buffer.position());
+
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+}
@@ -114,7 +114,7 @@ public interface MessageConstants
 	 * This means a player has moved.
 	 * Contents:
 	 *    Player id (2 bytes)
-	 *    Time of motion (1 float)
+	 *    Time of motion (1 float, in seconds of game time, see MOTION_TIME_STEP)
 	 *    Position (2 floats)
 	 *    Velocity (2 floats)
 	 *    Aim (2 floats)
@@ -152,4 +152,76 @@ public interface MessageConstants
 	 *    The new multicast port to use (2 bytes);
 	 */
 	public static final byte TYPE_MULTICAST_CHANGE = (byte)0x1e;
+	
+	/**
+	 * A compact, quantized form of TYPE_PLAYER_MOTION. Clients only send it once every peer
+	 *   they know about has been heard sending it too, so older clients keep getting TYPE_PLAYER_MOTION.
+	 * Positions are fixed-point in 1/MOTION_POSITION_SCALE map units, velocities in 1/MOTION_VELOCITY_SCALE
+	 *   units per second and aim is an angle in 1/256ths of a turn.
+	 * Contents:
+	 *    Player id (1 byte)
+	 *    Flags and sequence (1 byte: high bit set for a delta, low 7 bits are the keyframe's sequence number)
+	 *    Keyframe:
+	 *       Time of motion (1 float)
+	 *       Position (2 unsigned shorts)
+	 *    Delta against the keyframe with the given sequence number:
+	 *       Time since the keyframe (1 unsigned byte, in steps of MOTION_TIME_STEP seconds)
+	 *       Position offset from the keyframe (2 signed bytes)
+	 *    Velocity (2 signed bytes)
+	 *    Aim (1 unsigned byte)
+	 */
+	public static final byte TYPE_PLAYER_MOTION_COMPACT = (byte)0x1f;
+	
+	/**
+	 * The number of fixed-point steps per map unit in compact motion positions
+	 */
+	public static final int MOTION_POSITION_SCALE = 16;
+	
+	/**
+	 * The number of fixed-point steps per unit of speed in compact motion velocities
+	 */
+	public static final float MOTION_VELOCITY_SCALE = 12.5f;
+	
+	/**
+	 * The size in seconds of one time step in compact motion deltas.
+	 * Motion times are in seconds of game time, counted from when the game started, so a float
+	 *   holds them to within a step for more than a day. A delta covers up to 255 steps after its keyframe.
+	 */
+	public static final float MOTION_TIME_STEP = 0.025f;
+	
+	/**
+	 * Several messages packed into one datagram to save on per-packet overhead
+	 * Contents, repeated until the end of the datagram:
+	 *    Length of the message that follows (2 bytes)
+	 *    The message, header included
+	 */
+	public static final byte TYPE_MESSAGE_BUNDLE = (byte)0x20;
+	
+	/**
+	 * One piece of a message too big for a single datagram
+	 * Contents:
+	 *    Transfer id, the same for every piece of one message (2 bytes)
+	 *    Index of this piece (2 bytes)
+	 *    Number of pieces (2 bytes)
+	 *    This piece of the message's bytes, up to the end of the datagram
+	 */
+	public static final byte TYPE_MESSAGE_FRAGMENT = (byte)0x21;
+	
+	/**
+	 * The server's view of the game for one client, as the changes from a snapshot the client acknowledged
+	 * Contents:
+	 *    Sequence number (2 bytes)
+	 *    Baseline's sequence number (2 bytes), the same as the sequence number for a full snapshot
+	 *    Server game time (1 float)
+	 *    Changed players, new projectiles and projectiles gone (see SnapshotMessage)
+	 */
+	public static final byte TYPE_SNAPSHOT = (byte)0x22;
+	
+	/**
+	 * A client has received a snapshot
+	 * Contents:
+	 *    Player id (2 bytes)
+	 *    Sequence number of the snapshot (2 bytes)
+	 */
+	public static final byte TYPE_SNAPSHOT_ACK = (byte)0x23;
 }
@@ -0,0 +1,27 @@
+package common.messages;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes one type of message for MessageAnalyser.
+ * Register new message types with MessageAnalyser.registerDecoder().
+ */
+public interface MessageDecoder
+{
+	/**
+	 * Find where the message at the buffer's position ends, without moving the buffer or throwing.
+	 * This is used to reject truncated or malformed messages before decode() is called.
+	 * @param in The buffer, positioned at the start of the message header
+	 * @return The buffer index just past the end of the message, or -1 if it runs past the buffer's limit
+	 */
+	public int findEnd(ByteBuffer in);
+	
+	/**
+	 * Decode the message at the buffer's position, which findEnd() has already checked
+	 * @param in The buffer, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 * @return The decoded message
+	 */
+	public Message decode(ByteBuffer in, InetSocketAddress source);
+}
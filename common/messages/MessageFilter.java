@@ -0,0 +1,235 @@
+package common.messages;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import Extasys.Network.UDP.IUDPPacketFilter;
+
+/**
+ * Drops datagrams the receiver would ignore anyway, from their headers alone.
+ * Extasys runs this on the read thread, so nothing is decoded or queued for unwanted traffic.
+ * Only the magic number, the type and (for a few types) the sender's player id are looked at,
+ *   MessageAnalyser still checks the rest when it decodes what gets through.
+ * A bundle gets through if any message in it would, and a fragment if fragments are accepted.
+ */
+public class MessageFilter implements IUDPPacketFilter, MessageConstants
+{
+	/**
+	 * The types of message we want, indexed by unsigned type
+	 */
+	private final boolean[] accepted;
+
+	/**
+	 * Messages sent by this player are dropped, or -1 to keep them all
+	 */
+	private volatile int ignoredPlayer;
+
+	private final AtomicLongArray dropped;
+	private final AtomicLong malformed;
+
+	/**
+	 * Create a filter that drops everything until some types are accepted
+	 */
+	public MessageFilter()
+	{
+		accepted = new boolean[256];
+		ignoredPlayer = -1;
+		dropped = new AtomicLongArray(256);
+		malformed = new AtomicLong();
+	}
+
+	/**
+	 * Create a filter that lets the given types through
+	 * @param types The message types to accept
+	 */
+	public MessageFilter(byte... types)
+	{
+		this();
+		for (byte type : types)
+			accept(type);
+	}
+
+	/**
+	 * Let messages of a type through
+	 * @param type The message type
+	 */
+	public void accept(byte type)
+	{
+		accepted[0xff & type] = true;
+	}
+
+	/**
+	 * Drop messages of a type
+	 * @param type The message type
+	 */
+	public void reject(byte type)
+	{
+		accepted[0xff & type] = false;
+	}
+
+	/**
+	 * Find out if messages of a type are let through
+	 */
+	public boolean isAccepted(byte type)
+	{
+		return accepted[0xff & type];
+	}
+
+	/**
+	 * Drop motion and projectile messages sent by a player, usually our own echoed back by multicast
+	 * @param playerId The player to ignore
+	 */
+	public void ignorePlayer(char playerId)
+	{
+		ignoredPlayer = playerId;
+	}
+
+	/**
+	 * Stop ignoring the player given to ignorePlayer()
+	 */
+	public void clearIgnoredPlayer()
+	{
+		ignoredPlayer = -1;
+	}
+
+	public boolean Accept(byte[] data, int offset, int length)
+	{
+		if (length < Message.MESSAGE_HEADER_SIZE || data[offset] != GAME_MAGIC_NUMBER)
+		{
+			malformed.incrementAndGet();
+			return false;
+		}
+
+		if (data[offset + 1] != TYPE_MESSAGE_BUNDLE)
+		{
+			if (acceptMessage(data, offset, length))
+				return true;
+			dropped.incrementAndGet(0xff & data[offset + 1]);
+			return false;
+		}
+
+		// Look through the bundle for anything we want
+		int end = offset + length;
+		int position = offset + MessageBundle.FIRST_FRAME_OFFSET;
+		while (position < end)
+		{
+			int size = frameSize(data, position, end);
+			if (size < 0)
+			{
+				malformed.incrementAndGet();
+				return false;
+			}
+			if (acceptMessage(data, position + MessageBundle.FRAME_HEADER_SIZE, size))
+				return true;
+			position += MessageBundle.FRAME_HEADER_SIZE + size;
+		}
+
+		// Nothing wanted, so count every message in it as dropped
+		position = offset + MessageBundle.FIRST_FRAME_OFFSET;
+		while (position < end)
+		{
+			int size = frameSize(data, position, end);
+			dropped.incrementAndGet(0xff & data[position + MessageBundle.FRAME_HEADER_SIZE + 1]);
+			position += MessageBundle.FRAME_HEADER_SIZE + size;
+		}
+		return false;
+	}
+
+	/**
+	 * Check the header of a single message
+	 * @return True if the message should get through
+	 */
+	private boolean acceptMessage(byte[] data, int offset, int length)
+	{
+		byte type = data[offset + 1];
+		if (!accepted[0xff & type])
+			return false;
+
+		int ignored = ignoredPlayer;
+		if (ignored < 0)
+			return true;
+
+		// Only these types lead with the id of the player who sent them
+		int start = offset + Message.MESSAGE_HEADER_SIZE;
+		switch (type)
+		{
+			case TYPE_PLAYER_MOTION:
+			case TYPE_PROJECTILE_LAUNCH:
+				return length < Message.MESSAGE_HEADER_SIZE + 2 || ByteStreamUtils.getChar(data, start) != ignored;
+			case TYPE_PLAYER_MOTION_COMPACT:
+				return length < Message.MESSAGE_HEADER_SIZE + 1 || (0xff & data[start]) != ignored;
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Get the size of the bundled message whose length field is at position
+	 * @return The size, or -1 if it doesn't hold a whole message header or runs past the end
+	 */
+	private static int frameSize(byte[] data, int position, int end)
+	{
+		if (end - position < MessageBundle.FRAME_HEADER_SIZE)
+			return -1;
+		int size = ByteStreamUtils.getChar(data, position);
+		if (size < Message.MESSAGE_HEADER_SIZE || size > end - position - MessageBundle.FRAME_HEADER_SIZE)
+			return -1;
+		if (data[position + MessageBundle.FRAME_HEADER_SIZE] != GAME_MAGIC_NUMBER)
+			return -1;
+		return size;
+	}
+
+	/**
+	 * Get the number of messages of a type this filter has dropped
+	 * @param type The message type
+	 */
+	public long getDropCount(byte type)
+	{
+		return dropped.get(0xff & type);
+	}
+
+	/**
+	 * Get the number of messages this filter has dropped, of any type
+	 */
+	public long getTotalDropCount()
+	{
+		long total = 0;
+		for (int i=0; i < dropped.length(); i++)
+			total += dropped.get(i);
+		return total;
+	}
+
+	/**
+	 * Get the number of datagrams dropped because they weren't game messages at all
+	 */
+	public long getMalformedCount()
+	{
+		return malformed.get();
+	}
+
+	/**
+	 * Set all the drop counts back to zero
+	 */
+	public void resetCounts()
+	{
+		for (int i=0; i < dropped.length(); i++)
+			dropped.set(i, 0);
+		malformed.set(0);
+	}
+
+	/**
+	 * List the drop counts, for logging
+	 */
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder("Dropped:");
+		for (int i=0; i < dropped.length(); i++)
+		{
+			long count = dropped.get(i);
+			if (count > 0)
+				result.append(String.format(" 0x%02x=%d", i, count));
+		}
+		result.append(" malformed=").append(malformed.get());
+		return result.toString();
+	}
+}
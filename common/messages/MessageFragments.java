@@ -0,0 +1,65 @@
+package common.messages;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits a message that's too big for one datagram into TYPE_MESSAGE_FRAGMENT pieces.
+ * Use a FragmentAssembler at the other end to put them back together.
+ */
+public class MessageFragments implements MessageConstants
+{
+	/**
+	 * The size of the header in front of each piece
+	 */
+	public static final int FRAGMENT_HEADER_SIZE = Message.MESSAGE_HEADER_SIZE + 6;
+	
+	/**
+	 * The most pieces one message can be split into
+	 */
+	public static final int MAX_FRAGMENTS = 0xffff;
+	
+	private static final AtomicInteger nextTransferId = new AtomicInteger();
+	
+	/**
+	 * Split an encoded message into datagrams no bigger than maxSize
+	 * @param message The encoded message
+	 * @param maxSize The largest datagram to send
+	 * @return The datagrams to send, which is just the message itself if it already fits
+	 * @throws IllegalArgumentException If it would take more than MAX_FRAGMENTS pieces
+	 */
+	public static List<byte[]> split(byte[] message, int maxSize)
+	{
+		List<byte[]> result = new ArrayList<byte[]>();
+		if (message.length <= maxSize)
+		{
+			result.add(message);
+			return result;
+		}
+		
+		int pieceSize = maxSize - FRAGMENT_HEADER_SIZE;
+		int count = (message.length + pieceSize - 1) / pieceSize;
+		if (count > MAX_FRAGMENTS)
+			throw new IllegalArgumentException(String.format("A message of %d bytes needs more than %d fragments.", message.length, MAX_FRAGMENTS));
+		
+		char transferId = (char)nextTransferId.incrementAndGet();
+		for (int i=0; i < count; i++)
+		{
+			int start = i * pieceSize;
+			int length = Math.min(pieceSize, message.length - start);
+			
+			ByteBuffer out = ByteBuffer.allocate(FRAGMENT_HEADER_SIZE + length);
+			out.put(GAME_MAGIC_NUMBER);
+			out.put(TYPE_MESSAGE_FRAGMENT);
+			out.putChar(transferId);
+			out.putChar((char)i);
+			out.putChar((char)count);
+			out.put(message, start, length);
+			result.add(out.array());
+		}
+		
+		return result;
+	}
+}
@@ -0,0 +1,93 @@
+package common.messages;
+
+/**
+ * A bounded free list of message instances, so the per-packet decode paths don't allocate.
+ * Decoders acquire() an instance and fill it, and whoever consumes the message calls
+ *   Message.release() once nothing holds on to it any more.
+ * A message that is never released is just garbage collected, so consumers that keep
+ *   messages around (or don't know about pooling) are still correct.
+ */
+public abstract class MessagePool<T extends Message>
+{
+	/**
+	 * The number of free instances a pool keeps by default
+	 */
+	public static final int DEFAULT_POOL_SIZE = 256;
+	
+	private Message[] free;
+	private int count;
+	
+	/**
+	 * Create a new pool with DEFAULT_POOL_SIZE free slots
+	 */
+	protected MessagePool()
+	{
+		this(DEFAULT_POOL_SIZE);
+	}
+	
+	/**
+	 * Create a new pool
+	 * @param size The most free instances to keep, extra releases are left for the garbage collector
+	 */
+	protected MessagePool(int size)
+	{
+		free = new Message[size];
+		count = 0;
+	}
+	
+	/**
+	 * Create a brand new instance when the pool is empty
+	 * @return A new, empty message
+	 */
+	protected abstract T create();
+	
+	/**
+	 * Get a recycled instance, or a new one if none are free.
+	 * The caller must fill in every field before the message is used.
+	 * @return A message owned by this pool
+	 */
+	@SuppressWarnings("unchecked")
+	public T acquire()
+	{
+		Message message = null;
+		synchronized (this)
+		{
+			if (count > 0)
+			{
+				message = free[--count];
+				free[count] = null;
+			}
+		}
+		
+		if (message == null)
+			message = create();
+		
+		message.ownerPool = this;
+		message.pooled = false;
+		return (T)message;
+	}
+	
+	/**
+	 * Give an instance back to the pool, called from Message.release()
+	 * @param message The message to recycle
+	 */
+	synchronized void recycle(Message message)
+	{
+		if (message.pooled || count == free.length)
+			return;
+		
+		message.pooled = true;
+		message.source = null;
+		message.messageBytes = null;
+		free[count++] = message;
+	}
+	
+	/**
+	 * Get the number of instances waiting to be reused
+	 * @return The number of free instances
+	 */
+	public synchronized int getFreeCount()
+	{
+		return count;
+	}
+}
@@ -0,0 +1,280 @@
+package common.messages;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+import Extasys.Network.UDP.IUDPSendPolicy;
+
+/**
+ * Decides what a server listener's send queue may do with our messages.
+ * Queued datagrams to the same address are packed into MessageBundles, if that address
+ *   has been allowed bundles: never a multicast group, since clients older than bundles drop them.
+ * A newer motion message from a player replaces an older one still waiting, since only the latest position matters.
+ * When the queue is full, anything but the protected types may be dropped:
+ *   by default joins, leaves and login responses (and the fragments they're split into) always get sent.
+ */
+public class MessageSendPolicy implements IUDPSendPolicy, MessageConstants
+{
+	/**
+	 * The types that may be dropped, indexed by unsigned type
+	 */
+	private final boolean[] droppable;
+
+	/**
+	 * The types a newer message from the same player may replace, indexed by unsigned type
+	 */
+	private final boolean[] replaceable;
+
+	/**
+	 * The largest bundle we'll pack
+	 */
+	private final int maxBundleSize;
+
+	/**
+	 * The addresses that can unpack bundles
+	 */
+	private final ConcurrentHashMap<InetSocketAddress, Boolean> bundling;
+
+	/**
+	 * Create a policy that packs bundles of up to MessageBundle.MAX_BUNDLE_SIZE bytes
+	 */
+	public MessageSendPolicy()
+	{
+		this(MessageBundle.MAX_BUNDLE_SIZE);
+	}
+
+	/**
+	 * Create a policy with the default protected and replaceable types
+	 * @param maxBundleSize The largest datagram to pack messages into, in bytes
+	 */
+	public MessageSendPolicy(int maxBundleSize)
+	{
+		this.maxBundleSize = maxBundleSize;
+		bundling = new ConcurrentHashMap<InetSocketAddress, Boolean>();
+		droppable = new boolean[256];
+		replaceable = new boolean[256];
+
+		for (int i=0; i < droppable.length; i++)
+			droppable[i] = true;
+		protect(TYPE_PLAYER_JOIN);
+		protect(TYPE_PLAYER_LEAVE);
+		protect(TYPE_LOGIN_RESPONSE);
+		protect(TYPE_MESSAGE_FRAGMENT);
+
+		replaceable[0xff & TYPE_PLAYER_MOTION] = true;
+		replaceable[0xff & TYPE_PLAYER_MOTION_COMPACT] = true;
+	}
+
+	/**
+	 * Never drop messages of a type, however full the queue gets
+	 * @param type The message type
+	 */
+	public void protect(byte type)
+	{
+		droppable[0xff & type] = false;
+	}
+
+	/**
+	 * Let messages of a type be dropped when the queue is full
+	 * @param type The message type
+	 */
+	public void allowDrop(byte type)
+	{
+		droppable[0xff & type] = true;
+	}
+
+	/**
+	 * Let a newer message of a type replace an older one from the same player.
+	 * Only types that lead with a player id can be replaced.
+	 * @param type The message type
+	 * @param replace True to replace older messages, false to send them all
+	 */
+	public void setReplaceable(byte type, boolean replace)
+	{
+		replaceable[0xff & type] = replace;
+	}
+
+	/**
+	 * Start packing datagrams to an address into bundles, once we know it can unpack them
+	 * @param destination The address, which mustn't be a multicast group
+	 */
+	public void allowBundles(InetSocketAddress destination)
+	{
+		if (!destination.getAddress().isMulticastAddress())
+			bundling.put(destination, Boolean.TRUE);
+	}
+
+	/**
+	 * Stop packing datagrams to an address into bundles
+	 * @param destination The address
+	 */
+	public void forgetBundles(InetSocketAddress destination)
+	{
+		bundling.remove(destination);
+	}
+
+	/**
+	 * Check if an address has been allowed bundles
+	 * @param address The address
+	 * @param port The port
+	 */
+	public boolean canBundle(InetAddress address, int port)
+	{
+		return !bundling.isEmpty() && bundling.containsKey(new InetSocketAddress(address, port));
+	}
+
+	public boolean CanDrop(DatagramPacket packet)
+	{
+		byte[] data = packet.getData();
+		int offset = packet.getOffset();
+		int length = packet.getLength();
+		if (length < Message.MESSAGE_HEADER_SIZE)
+			return true;
+
+		if (data[offset + 1] != TYPE_MESSAGE_BUNDLE)
+			return droppable[0xff & data[offset + 1]];
+
+		// A bundle can only go if everything in it can
+		int end = offset + length;
+		int position = offset + MessageBundle.FIRST_FRAME_OFFSET;
+		while (end - position >= MessageBundle.FRAME_HEADER_SIZE + Message.MESSAGE_HEADER_SIZE)
+		{
+			if (!droppable[0xff & data[position + MessageBundle.FRAME_HEADER_SIZE + 1]])
+				return false;
+			position += MessageBundle.FRAME_HEADER_SIZE + ByteStreamUtils.getChar(data, position);
+		}
+		return true;
+	}
+
+	public Object ReplaceKey(DatagramPacket packet)
+	{
+		byte[] data = packet.getData();
+		int start = packet.getOffset();
+		if (packet.getLength() < Message.MESSAGE_HEADER_SIZE + 2 || !replaceable[0xff & data[start + 1]])
+			return null;
+
+		char player;
+		switch (data[start + 1])
+		{
+			case TYPE_PLAYER_MOTION:
+				player = ByteStreamUtils.getChar(data, start + Message.MESSAGE_HEADER_SIZE);
+				break;
+			case TYPE_PLAYER_MOTION_COMPACT:
+				player = (char)(0xff & data[start + Message.MESSAGE_HEADER_SIZE]);
+				break;
+			default:
+				return null;
+		}
+		return new ReplaceKey(packet.getAddress(), packet.getPort(), data[start + 1], player);
+	}
+
+	public boolean Supersedes(DatagramPacket queued, DatagramPacket packet)
+	{
+		byte[] old = queued.getData();
+		byte[] data = packet.getData();
+		int oldStart = queued.getOffset();
+		int start = packet.getOffset();
+		if (queued.getLength() < Message.MESSAGE_HEADER_SIZE + 2 || packet.getLength() < Message.MESSAGE_HEADER_SIZE + 2)
+			return false;
+
+		byte type = data[start + 1];
+		if (old[oldStart + 1] != type || !replaceable[0xff & type])
+			return false;
+
+		oldStart += Message.MESSAGE_HEADER_SIZE;
+		start += Message.MESSAGE_HEADER_SIZE;
+		switch (type)
+		{
+			case TYPE_PLAYER_MOTION:
+				return ByteStreamUtils.getChar(old, oldStart) == ByteStreamUtils.getChar(data, start);
+			case TYPE_PLAYER_MOTION_COMPACT:
+				if (old[oldStart] != data[start])
+					return false;
+				// A delta can't stand in for the keyframe it is against, receivers would never get that keyframe
+				boolean oldDelta = (old[oldStart + 1] & CompactMotionMessage.DELTA_FLAG) != 0;
+				boolean delta = (data[start + 1] & CompactMotionMessage.DELTA_FLAG) != 0;
+				return !delta || (oldDelta && old[oldStart + 1] == data[start + 1]);
+			default:
+				return false;
+		}
+	}
+
+	public int Coalesce(DatagramPacket[] packets, int offset, int count, DatagramPacket out)
+	{
+		if (!canBundle(packets[offset].getAddress(), packets[offset].getPort()))
+			return 0;
+
+		byte[] bundle = out.getData();
+		int limit = Math.min(maxBundleSize, bundle.length);
+		bundle[0] = GAME_MAGIC_NUMBER;
+		bundle[1] = TYPE_MESSAGE_BUNDLE;
+		int position = MessageBundle.FIRST_FRAME_OFFSET;
+
+		int packed = 0;
+		for (; packed < count; packed++)
+		{
+			DatagramPacket packet = packets[offset + packed];
+			byte[] data = packet.getData();
+			int start = packet.getOffset();
+			int length = packet.getLength();
+			if (length < Message.MESSAGE_HEADER_SIZE || data[start] != GAME_MAGIC_NUMBER || data[start + 1] == TYPE_MESSAGE_FRAGMENT)
+				break;
+
+			if (data[start + 1] == TYPE_MESSAGE_BUNDLE)
+			{
+				// Its frames can go straight into ours
+				int size = length - MessageBundle.FIRST_FRAME_OFFSET;
+				if (position + size > limit)
+					break;
+				System.arraycopy(data, start + MessageBundle.FIRST_FRAME_OFFSET, bundle, position, size);
+				position += size;
+			}
+			else
+			{
+				if (position + MessageBundle.FRAME_HEADER_SIZE + length > limit)
+					break;
+				bundle[position] = (byte)(length >> 8);
+				bundle[position + 1] = (byte)length;
+				System.arraycopy(data, start, bundle, position + MessageBundle.FRAME_HEADER_SIZE, length);
+				position += MessageBundle.FRAME_HEADER_SIZE + length;
+			}
+		}
+
+		out.setLength(position);
+		return packed;
+	}
+
+	/**
+	 * The destination, type and player that ReplaceKey() files a replaceable message under
+	 */
+	private static final class ReplaceKey
+	{
+		private final InetAddress address;
+		private final int port;
+		private final byte type;
+		private final char player;
+
+		ReplaceKey(InetAddress address, int port, byte type, char player)
+		{
+			this.address = address;
+			this.port = port;
+			this.type = type;
+			this.player = player;
+		}
+
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof ReplaceKey))
+				return false;
+			ReplaceKey key = (ReplaceKey)other;
+			return port == key.port && type == key.type && player == key.player && address.equals(key.address);
+		}
+
+		public int hashCode()
+		{
+			return ((address.hashCode() * 31 + port) * 31 + type) * 31 + player;
+		}
+	}
+}
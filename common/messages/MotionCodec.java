@@ -0,0 +1,102 @@
+package common.messages;
+
+/**
+ * Keeps the keyframe state needed to send or receive one player's CompactMotionMessages.
+ * A client uses one of these for the local player and the server uses one per player.
+ * The client only sends compact motion once the server has shown it reads it, see encode().
+ * Motion is never acknowledged, so the most recent keyframe stands in for the acknowledged
+ *   baseline: a receiver that missed it drops deltas until the next keyframe.
+ */
+public class MotionCodec
+{
+	/**
+	 * A keyframe is sent at least this often, so a lost one only costs this many updates
+	 */
+	public static final int KEYFRAME_INTERVAL = 8;
+
+	private CompactMotionMessage keyframe;
+	private int nextSequence;
+	private int sinceKeyframe;
+
+	public MotionCodec()
+	{
+		keyframe = null;
+		nextSequence = 0;
+		sinceKeyframe = 0;
+	}
+
+	/**
+	 * Encode a motion message for a receiver, compactly only if it's known to read compact motion.
+	 * Receivers from before compact motion can't decode any of it, keyframes included, so they get every update in full.
+	 * @param motion The full motion message
+	 * @param compactReceiver True once the receiver has shown it reads compact motion
+	 * @return The compact message, or the full motion message itself if it can't or mustn't be compressed
+	 */
+	public Message encode(PlayerMotionMessage motion, boolean compactReceiver)
+	{
+		CompactMotionMessage compact = compactReceiver ? compress(motion) : null;
+		return compact != null ? compact : motion;
+	}
+
+	/**
+	 * Compress a motion message for sending, as a delta if possible or as a new keyframe otherwise
+	 * @param motion The full motion message
+	 * @return The compact message, or null if this player's id doesn't fit in a compact message
+	 */
+	public synchronized CompactMotionMessage compress(PlayerMotionMessage motion)
+	{
+		if (motion.getPlayerId() > CompactMotionMessage.MAX_PLAYER_ID)
+			return null;
+
+		if (keyframe != null && keyframe.getPlayerId() == motion.getPlayerId() && sinceKeyframe < KEYFRAME_INTERVAL - 1)
+		{
+			CompactMotionMessage delta = CompactMotionMessage.createDelta(keyframe, motion);
+			if (delta != null)
+			{
+				sinceKeyframe ++;
+				return delta;
+			}
+		}
+
+		return compressKeyframe(motion);
+	}
+
+	/**
+	 * Compress a motion message as a new keyframe, whatever the delta state is
+	 * @param motion The full motion message
+	 * @return The compact keyframe, or null if this player's id doesn't fit in a compact message
+	 */
+	public synchronized CompactMotionMessage compressKeyframe(PlayerMotionMessage motion)
+	{
+		if (motion.getPlayerId() > CompactMotionMessage.MAX_PLAYER_ID)
+			return null;
+
+		keyframe = CompactMotionMessage.createKeyframe(motion, nextSequence);
+		nextSequence = (nextSequence + 1) & CompactMotionMessage.SEQUENCE_MASK;
+		sinceKeyframe = 0;
+
+		return keyframe;
+	}
+
+	/**
+	 * Expand a received compact message back into a full motion message
+	 * @param message The compact message
+	 * A keyframe is kept until the next one replaces it, so only release() deltas after this.
+	 * @return The full motion message, or null if it's a delta against a keyframe we never got
+	 */
+	public synchronized PlayerMotionMessage expand(CompactMotionMessage message)
+	{
+		if (!message.isDelta())
+		{
+			if (keyframe != null && keyframe != message)
+				keyframe.release();
+			keyframe = message;
+			return message.toMotionMessage(null);
+		}
+
+		if (keyframe == null || keyframe.getSequence() != message.getSequence())
+			return null;
+
+		return message.toMotionMessage(keyframe);
+	}
+}
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -36,23 +35,54 @@ public class MulticastChangeMessage extends Message
 		if (message[1] != TYPE_MULTICAST_CHANGE)
             throw new InvalidParameterException(String.format("The byte array passed to the MulticastChangeMessage class is NOT a multicast change message. Message code is 0x%02x.", message[1]));
         
-        // Ignore the first two bytes, they're the magic number and the message type
-        ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
-        // Addres
-        multicastAddress = ByteStreamUtils.readString(in);
-        // Port
-        multicastPort = ByteStreamUtils.readChar(in);
+        // Skip the header
+        decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
 	}
 	
-	protected byte[] getMessageContents()
+	/**
+	 * Decode a multicast change message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public MulticastChangeMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_MULTICAST_CHANGE);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes multicast change messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			int end = ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE);
+			end = ByteStreamUtils.skipString(in, end);
+			return ByteStreamUtils.skip(in, end, 2);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new MulticastChangeMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
+		// Address
+		multicastAddress = ByteStreamUtils.readName(in);
+		// Port
+		multicastPort = in.getChar();
+	}
+	
+	protected void encodeContents(ByteBuffer out)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Address
 		ByteStreamUtils.write(out, multicastAddress);
 		// Port
-		ByteStreamUtils.write(out, (char)multicastPort);
-		
-		return out.toByteArray();
+		out.putChar((char)multicastPort);
 	}
 
 	public String getMulticastAddress()
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -42,22 +41,51 @@ public class PingResponseMessage extends Message implements MessagePlayerId
 			throw new InvalidParameterException(String.format("The byte array passed to the PingResponseMessage class is NOT a ping response message. Message code is 0x%02x.", message[1]));
 		
 		// Skip the header
-		ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE);
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+	}
+	
+	/**
+	 * Decode a ping response message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public PingResponseMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_PING_REQUEST);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes ping response messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 6);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new PingResponseMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
 		// Player id
-		playerId = ByteStreamUtils.readChar(in);
+		playerId = in.getChar();
 		// Current time
-		currentTime = ByteStreamUtils.readFloat(in);
+		currentTime = in.getFloat();
 	}
 	
-	protected byte[] getMessageContents()
+	protected void encodeContents(ByteBuffer out)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Player id
-		ByteStreamUtils.write(out, playerId);
+		out.putChar(playerId);
 		// Current time
-		ByteStreamUtils.write(out, currentTime);
-		
-		return out.toByteArray();
+		out.putFloat(currentTime);
 	}
 
 	public float getCurrentTime()
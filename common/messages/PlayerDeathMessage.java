@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -40,23 +39,52 @@ public class PlayerDeathMessage extends Message implements MessagePlayerId
         if (message[1] != TYPE_PLAYER_DEATH)
             throw new InvalidParameterException(String.format("The byte array passed to the PlayerDeathMessage class is NOT a player death message. Message code is 0x%02x.", message[1]));
         
-        // Ignore the first two bytes, they're the magic number and the message type
-        ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
-        // Dead player's id
-        deadPlayerId = ByteStreamUtils.readChar(in);
-        // Killing player's id
-        killingPlayerId = ByteStreamUtils.readChar(in);
+        // Skip the header
+        decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
 	}
 	
-	protected byte[] getMessageContents()
+	/**
+	 * Decode a player death message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public PlayerDeathMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_PLAYER_DEATH);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes player death messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 4);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new PlayerDeathMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Dead player's id
-		ByteStreamUtils.write(out, deadPlayerId);
+		deadPlayerId = in.getChar();
 		// Killing player's id
-		ByteStreamUtils.write(out, killingPlayerId);
-		
-		return out.toByteArray();
+		killingPlayerId = in.getChar();
+	}
+	
+	protected void encodeContents(ByteBuffer out)
+	{
+		// Dead player's id
+		out.putChar(deadPlayerId);
+		// Killing player's id
+		out.putChar(killingPlayerId);
 	}
 	
 	public char getDeadPlayerId()
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -45,26 +44,58 @@ public class PlayerJoinMessage extends Message implements MessagePlayerId
 		if (message[1] != TYPE_PLAYER_JOIN)
 			throw new InvalidParameterException(String.format("The byte array passed to the PlayerJoinMessage class is NOT a player join message. Message code is 0x%02x.", message[1]));
 		
-		ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
+		// Skip the header
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+	}
+	
+	/**
+	 * Decode a player join message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public PlayerJoinMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_PLAYER_JOIN);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes player join messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			int end = ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 2);
+			end = ByteStreamUtils.skipString(in, end);
+			return ByteStreamUtils.skip(in, end, 1);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new PlayerJoinMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
 		// Player id
-		playerId = ByteStreamUtils.readChar(in);
+		playerId = in.getChar();
 		// Player name
-		playerName = ByteStreamUtils.readString(in);
+		playerName = ByteStreamUtils.readName(in);
 		// Player team
-		playerTeam = ByteStreamUtils.readByte(in);
+		playerTeam = in.get();
 	}
 	
-	protected byte[] getMessageContents()
+	protected void encodeContents(ByteBuffer out)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Player id
-		ByteStreamUtils.write(out, playerId);
+		out.putChar(playerId);
 		// Player name
 		ByteStreamUtils.write(out, playerName);
 		// Player team
-		ByteStreamUtils.write(out, playerTeam);
-		
-		return out.toByteArray();
+		out.put(playerTeam);
 	}
 	
 	public char getPlayerId()
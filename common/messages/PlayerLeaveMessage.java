@@ -1,6 +1,7 @@
 package common.messages;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -35,12 +36,48 @@ public class PlayerLeaveMessage extends Message implements MessagePlayerId
 		if (message[1] != TYPE_PLAYER_LEAVE)
 			throw new InvalidParameterException(String.format("The byte array passed to the PlayerLeaveMessage class is NOT a player leave message. Message code is 0x%02x.", message[1]));
 		
-		playerId = (char)(((0xff & message[MESSAGE_HEADER_SIZE]) << 8) | (0xff & message[MESSAGE_HEADER_SIZE + 1]));
+		// Skip the header
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
 	}
 	
-	protected byte[] getMessageContents()
+	/**
+	 * Decode a player leave message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public PlayerLeaveMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_PLAYER_LEAVE);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes player leave messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 2);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new PlayerLeaveMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
+		// Player id
+		playerId = in.getChar();
+	}
+	
+	protected void encodeContents(ByteBuffer out)
 	{
-		return new byte[] { (byte)(0xff & (playerId >> 8)), (byte)(0xff & playerId) };
+		// Player id
+		out.putChar(playerId);
 	}
 	
 	public char getPlayerId()
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 import common.Position;
@@ -11,7 +10,7 @@ import common.Position;
  * This means a player has moved.
  * Contents:
  *    Player id (2 bytes)
- *    Time of motion (1 float)
+ *    Time of motion (1 float, seconds of game time)
  *    Position (2 floats)
  *    Velocity (2 floats)
  *    Aim (2 floats)
@@ -22,6 +21,54 @@ public class PlayerMotionMessage extends Message implements MessagePlayerId
 	private float time;
 	private Position position, velocity, aim;
 	
+	/**
+	 * Recycled instances for DECODER and obtain()
+	 */
+	private static final MessagePool<PlayerMotionMessage> pool = new MessagePool<PlayerMotionMessage>(4 * MessagePool.DEFAULT_POOL_SIZE)
+	{
+		protected PlayerMotionMessage create()
+		{
+			return new PlayerMotionMessage();
+		}
+	};
+	
+	/**
+	 * Get a pooled player motion message, to be handed back with release() once it's been used
+	 * @param playerId
+	 * @param time
+	 * @param position Copied into the message
+	 * @param velocity Copied into the message
+	 * @param aim Copied into the message
+	 */
+	public static PlayerMotionMessage obtain(char playerId, float time, Position position, Position velocity, Position aim)
+	{
+		return obtain(playerId, time, position.getX(), position.getY(), velocity.getX(), velocity.getY(), aim.getX(), aim.getY());
+	}
+	
+	/**
+	 * Get a pooled player motion message without building Positions first,
+	 *   to be handed back with release() once it's been used
+	 */
+	public static PlayerMotionMessage obtain(char playerId, float time, float x, float y, float velocityX, float velocityY, float aimX, float aimY)
+	{
+		PlayerMotionMessage result = pool.acquire();
+		result.playerId = playerId;
+		result.time = time;
+		result.position.setPosition(x, y);
+		result.velocity.setPosition(velocityX, velocityY);
+		result.aim.setPosition(aimX, aimY);
+		return result;
+	}
+	
+	private PlayerMotionMessage()
+	{
+		super(TYPE_PLAYER_MOTION);
+		
+		position = new Position();
+		velocity = new Position();
+		aim = new Position();
+	}
+	
 	/**
 	 * Encode a new player motion message
 	 * @param playerId
@@ -31,13 +78,9 @@ public class PlayerMotionMessage extends Message implements MessagePlayerId
 	 */
 	public PlayerMotionMessage(char playerId, float time, Position position, Position velocity, Position aim)
 	{
-		super(TYPE_PLAYER_MOTION);
+		this();
 		
-		this.playerId = playerId;
-		this.time = time;
-		this.position = new Position(position);
-		this.velocity = new Position(velocity);
-		this.aim = new Position(aim);
+		set(playerId, time, position, velocity, aim);
 	}
 	
 	/**
@@ -49,44 +92,89 @@ public class PlayerMotionMessage extends Message implements MessagePlayerId
 	{
 		super(message, source);
 		
+		position = new Position();
+		velocity = new Position();
+		aim = new Position();
+		
 		if (message[1] != TYPE_PLAYER_MOTION)
 			throw new InvalidParameterException(String.format("The byte array passed to the PlayerMotionMessage class is NOT a player motion message. Message code is 0x%02x.", message[1]));
 		
 		// Skip the header
-		ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE);
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+	}
+	
+	/**
+	 * Decode a player motion message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public PlayerMotionMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		this();
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes player motion messages for MessageAnalyser.
+	 * These arrive many times a second per player, so they're decoded into pooled instances.
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 30);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			PlayerMotionMessage result = pool.acquire();
+			result.decode(in, source);
+			return result;
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
 		// Player id
-		playerId = ByteStreamUtils.readChar(in);
+		playerId = in.getChar();
 		// Time
-		time = ByteStreamUtils.readFloat(in);
+		time = in.getFloat();
 		// Position
-		position = new Position(ByteStreamUtils.readFloat(in),
-				ByteStreamUtils.readFloat(in));
+		position.setPosition(in.getFloat(), in.getFloat());
 		// Velocity
-		velocity = new Position(ByteStreamUtils.readFloat(in),
-				ByteStreamUtils.readFloat(in));
+		velocity.setPosition(in.getFloat(), in.getFloat());
 		// Aim
-		aim = new Position(ByteStreamUtils.readFloat(in),
-				ByteStreamUtils.readFloat(in));
+		aim.setPosition(in.getFloat(), in.getFloat());
 	}
 	
-	protected byte[] getMessageContents()
+	protected void encodeContents(ByteBuffer out)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Player id
-		ByteStreamUtils.write(out, playerId);
+		out.putChar(playerId);
 		// Time
-		ByteStreamUtils.write(out, time);
+		out.putFloat(time);
 		// Position
-		ByteStreamUtils.write(out, position.getX());
-		ByteStreamUtils.write(out, position.getY());
+		out.putFloat(position.getX());
+		out.putFloat(position.getY());
 		// Velocity
-		ByteStreamUtils.write(out, velocity.getX());
-		ByteStreamUtils.write(out, velocity.getY());
+		out.putFloat(velocity.getX());
+		out.putFloat(velocity.getY());
 		// Aim
-		ByteStreamUtils.write(out, aim.getX());
-		ByteStreamUtils.write(out, aim.getY());
-		
-		return out.toByteArray();
+		out.putFloat(aim.getX());
+		out.putFloat(aim.getY());
+	}
+	
+	/**
+	 * Fill in every field of this message, copying the positions so the caller can reuse theirs
+	 */
+	private void set(char playerId, float time, Position position, Position velocity, Position aim)
+	{
+		this.playerId = playerId;
+		this.time = time;
+		this.position.setPosition(position.getX(), position.getY());
+		this.velocity.setPosition(velocity.getX(), velocity.getY());
+		this.aim.setPosition(aim.getX(), aim.getY());
 	}
 	
 	public Position getAim()
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 import common.Position;
@@ -44,24 +43,52 @@ public class PlayerRespawnMessage extends Message implements MessagePlayerId
             throw new InvalidParameterException(String.format("The byte array passed to the PlayerRespawnMessage class is NOT a player respawn message. Message code is 0x%02x.", message[1]));
         
         // Skip the header
-        ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
-        // Player id
-        playerId = ByteStreamUtils.readChar(in);
-        // New position
-        newPosition = new Position(ByteStreamUtils.readFloat(in),
-        		ByteStreamUtils.readFloat(in));
+        decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
 	}
 	
-	protected byte[] getMessageContents()
+	/**
+	 * Decode a player respawn message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public PlayerRespawnMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_PLAYER_RESPAWN);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes player respawn messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 10);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new PlayerRespawnMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Player id
-		ByteStreamUtils.write(out, playerId);
+		playerId = in.getChar();
 		// New position
-		ByteStreamUtils.write(out, newPosition.getX());
-		ByteStreamUtils.write(out, newPosition.getY());
-		
-		return out.toByteArray();
+		newPosition = new Position(in.getFloat(), in.getFloat());
+	}
+	
+	protected void encodeContents(ByteBuffer out)
+	{
+		// Player id
+		out.putChar(playerId);
+		// New position
+		out.putFloat(newPosition.getX());
+		out.putFloat(newPosition.getY());
 	}
 
 	public Position getNewPosition()
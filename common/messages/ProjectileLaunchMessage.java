@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 import common.Position;
@@ -56,38 +55,65 @@ public class ProjectileLaunchMessage extends Message implements MessagePlayerId
             throw new InvalidParameterException(String.format("The byte array passed to the ProjectileLaunchMessage class is NOT a projectile launch message. Message code is 0x%02x.", message[1]));
         
         // Skip the header
-        ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length-MESSAGE_HEADER_SIZE);
-        // Owner id
-        ownerId = ByteStreamUtils.readChar(in);
-        // Origin
-        origin = new Position(ByteStreamUtils.readFloat(in),
-        		ByteStreamUtils.readFloat(in));
-        // Direction
-        direction = new Position(ByteStreamUtils.readFloat(in),
-        		ByteStreamUtils.readFloat(in));
-        // Launch time
-        launchTime = ByteStreamUtils.readFloat(in);
-        // Type
-        type = ByteStreamUtils.readByte(in);
+        decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
 	}
 	
-	protected byte[] getMessageContents()
+	/**
+	 * Decode a projectile launch message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public ProjectileLaunchMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_PROJECTILE_LAUNCH);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes projectile launch messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 23);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new ProjectileLaunchMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
 	{
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// Owner id
-		ByteStreamUtils.write(out, ownerId);
+		ownerId = in.getChar();
 		// Origin
-		ByteStreamUtils.write(out, origin.getX());
-		ByteStreamUtils.write(out, origin.getY());
+		origin = new Position(in.getFloat(), in.getFloat());
 		// Direction
-		ByteStreamUtils.write(out, direction.getX());
-		ByteStreamUtils.write(out, direction.getY());
+		direction = new Position(in.getFloat(), in.getFloat());
 		// Launch time
-		ByteStreamUtils.write(out, launchTime);
+		launchTime = in.getFloat();
 		// Type
-		ByteStreamUtils.write(out, type);
-		
-		return out.toByteArray();
+		type = in.get();
+	}
+	
+	protected void encodeContents(ByteBuffer out)
+	{
+		// Owner id
+		out.putChar(ownerId);
+		// Origin
+		out.putFloat(origin.getX());
+		out.putFloat(origin.getY());
+		// Direction
+		out.putFloat(direction.getX());
+		out.putFloat(direction.getY());
+		// Launch time
+		out.putFloat(launchTime);
+		// Type
+		out.put(type);
 	}
 
 	public Position getDirection()
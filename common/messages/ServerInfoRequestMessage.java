@@ -1,6 +1,7 @@
 package common.messages;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -24,10 +25,41 @@ public class ServerInfoRequestMessage extends Message
         // Nothing else to do
     }
     
-    public byte[] getMessageContents()
+    /**
+     * Decode a server info request message straight from a buffer
+     * @param in The buffer to read from, positioned at the start of the message header
+     * @param source The address that sent this message
+     */
+    public ServerInfoRequestMessage(ByteBuffer in, InetSocketAddress source)
+    {
+        super(TYPE_SERVER_INFO_REQUEST);
+        
+        decode(in, source);
+    }
+    
+    /**
+     * Measures and decodes server info request messages for MessageAnalyser
+     */
+    public static final MessageDecoder DECODER = new MessageDecoder()
+    {
+        public int findEnd(ByteBuffer in)
+        {
+            return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE);
+        }
+        
+        public Message decode(ByteBuffer in, InetSocketAddress source)
+        {
+            return new ServerInfoRequestMessage(in, source);
+        }
+    };
+    
+    protected void decodeContents(ByteBuffer in)
+    {
+        // We have no additional information
+    }
+    
+    protected void encodeContents(ByteBuffer out)
     {
         // We have no additional information
-        return null;
     }
-
 }
@@ -1,8 +1,7 @@
 package common.messages;
 
-import java.io.ByteArrayOutputStream;
-import java.io.ByteArrayInputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 
 /**
@@ -14,7 +13,7 @@ import java.security.InvalidParameterException;
  *      Player name (1 string)
  *      Team (1 byte)
  *   Map name (1 string)
- *   Map (1 string)
+ *   Map (4-byte length, then the map packed by MapCodec)
  */
 public class ServerInfoResponseMessage extends Message
 {
@@ -23,6 +22,7 @@ public class ServerInfoResponseMessage extends Message
     private String[] playerNames;
     private byte[] playerTeams;
     private String mapName, map;
+    private byte[] packedMap;
     
     /**
      * Encode a new server info response message
@@ -59,45 +59,85 @@ public class ServerInfoResponseMessage extends Message
             throw new InvalidParameterException(String.format("The byte array passed to the ServerInfoResponse class is NOT a server info response message. Message code is 0x%02x.", message[1]));
         
         // Skip the header
-        ByteArrayInputStream in = new ByteArrayInputStream(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE);
+        decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+    }
+    
+    /**
+     * Decode a server info response message straight from a buffer
+     * @param in The buffer to read from, positioned at the start of the message header
+     * @param source The address that sent this message
+     */
+    public ServerInfoResponseMessage(ByteBuffer in, InetSocketAddress source)
+    {
+        super(TYPE_SERVER_INFO_RESPONSE);
+        
+        decode(in, source);
+    }
+    
+    /**
+     * Measures and decodes server info response messages for MessageAnalyser
+     */
+    public static final MessageDecoder DECODER = new MessageDecoder()
+    {
+        public int findEnd(ByteBuffer in)
+        {
+            // Header, game type and number of players
+            int end = ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 3);
+            if (end < 0)
+                return -1;
+            int numPlayers = in.getChar(end - 2);
+            // Player names and teams
+            for (int i=0; i < numPlayers && end >= 0; i++)
+                end = ByteStreamUtils.skipString(in, end);
+            end = ByteStreamUtils.skip(in, end, numPlayers);
+            // Map name and map
+            end = ByteStreamUtils.skipString(in, end);
+            return MapCodec.skip(in, end);
+        }
+        
+        public Message decode(ByteBuffer in, InetSocketAddress source)
+        {
+            return new ServerInfoResponseMessage(in, source);
+        }
+    };
+    
+    protected void decodeContents(ByteBuffer in)
+    {
         // Game type
-        type = (byte)in.read();
+        type = in.get();
         // Number of players
-        numPlayers = (char)((0xFF & in.read())<<8 + 0xFF&in.read());
+        numPlayers = in.getChar();
         // Player names
         playerNames = new String[numPlayers];
         for (int i=0; i < numPlayers; i++)
-            playerNames[i] = ByteStreamUtils.readString(in);
+            playerNames[i] = ByteStreamUtils.readName(in);
         // Player teams
         playerTeams = new byte[numPlayers];
-        for (int i=0; i < numPlayers; i++)
-            playerTeams[i] = (byte)in.read();
+        in.get(playerTeams);
         // Map name
-        mapName = ByteStreamUtils.readString(in);
+        mapName = ByteStreamUtils.readName(in);
         // Map
-        map = ByteStreamUtils.readString(in);
+        map = MapCodec.read(in);
+        packedMap = null;
     }
     
-    protected byte[] getMessageContents()
+    protected void encodeContents(ByteBuffer out)
     {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
         // Game type
-        out.write(type);
+        out.put(type);
         // Number of players
-        out.write(numPlayers >> 8);
-        out.write(0xFF & numPlayers);
+        out.putChar(numPlayers);
         // Player names
         for (int i=0; i < numPlayers; i++)
-        	ByteStreamUtils.write(out, playerNames[i]);
+            ByteStreamUtils.write(out, playerNames[i]);
         // Player teams
-        for (int i=0; i < numPlayers; i++)
-            out.write(playerTeams[i]);
+        out.put(playerTeams, 0, numPlayers);
         // Map name
-    	ByteStreamUtils.write(out, mapName);
+        ByteStreamUtils.write(out, mapName);
         // Map
-    	ByteStreamUtils.write(out, map);
-        
-        return out.toByteArray();
+        if (packedMap == null)
+            packedMap = MapCodec.encode(map);
+        MapCodec.write(out, packedMap);
     }
 
 	public String getMap()
@@ -0,0 +1,100 @@
+package common.messages;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+
+/**
+ * A client has received a snapshot, so the server can send the next ones as changes from it
+ * Contents:
+ *    Player's id (2 bytes)
+ *    Sequence number of the snapshot (2 bytes)
+ */
+public class SnapshotAckMessage extends Message implements MessagePlayerId
+{
+	private char playerId;
+	private char sequence;
+	
+	/**
+	 * Encode a new snapshot acknowledgement
+	 * @param playerId The id of the player who got the snapshot
+	 * @param sequence The snapshot's sequence number
+	 */
+	public SnapshotAckMessage(char playerId, char sequence)
+	{
+		super(TYPE_SNAPSHOT_ACK);
+		
+		this.playerId = playerId;
+		this.sequence = sequence;
+	}
+	
+	/**
+	 * Decode a snapshot acknowledgement
+	 * @param message
+	 * @throws Exception If the message given is not a snapshot acknowledgement, an exception is thrown
+	 */
+	public SnapshotAckMessage(byte[] message, InetSocketAddress source) throws Exception
+	{
+		super(message, source);
+		
+		if (message[1] != TYPE_SNAPSHOT_ACK)
+			throw new InvalidParameterException(String.format("The byte array passed to the SnapshotAckMessage class is NOT a snapshot acknowledgement. Message code is 0x%02x.", message[1]));
+		
+		// Skip the header
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+	}
+	
+	/**
+	 * Decode a snapshot acknowledgement straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public SnapshotAckMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_SNAPSHOT_ACK);
+		
+		decode(in, source);
+	}
+	
+	/**
+	 * Measures and decodes snapshot acknowledgements for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			return ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 4);
+		}
+		
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new SnapshotAckMessage(in, source);
+		}
+	};
+	
+	protected void decodeContents(ByteBuffer in)
+	{
+		// Player id
+		playerId = in.getChar();
+		// Sequence number
+		sequence = in.getChar();
+	}
+	
+	protected void encodeContents(ByteBuffer out)
+	{
+		// Player id
+		out.putChar(playerId);
+		// Sequence number
+		out.putChar(sequence);
+	}
+
+	public char getPlayerId()
+	{
+		return playerId;
+	}
+
+	public char getSequence()
+	{
+		return sequence;
+	}
+}
@@ -0,0 +1,524 @@
+package common.messages;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * The server's view of the game for one client, as the changes from a state the client has acknowledged.
+ * Contents:
+ *    Sequence number (2 bytes)
+ *    Baseline's sequence number (2 bytes), the same as the sequence number when nothing is left out
+ *    Server game time (1 float)
+ *    Number of player entries (2 bytes), then for each:
+ *       Player id (2 bytes)
+ *       Changes (1 byte: PLAYER_* bits, or PLAYER_REMOVED if they're gone from view)
+ *       Position (2 unsigned shorts), if PLAYER_POSITION is set
+ *       Velocity (2 signed bytes), if PLAYER_VELOCITY is set
+ *       Aim (1 unsigned byte), if PLAYER_AIM is set
+ *       Health (2 bytes), if PLAYER_HEALTH is set
+ *    Number of new projectiles (2 bytes), then for each:
+ *       Projectile id (2 bytes)
+ *       Owner id (2 bytes)
+ *       Origin (2 unsigned shorts)
+ *       Direction (1 unsigned short)
+ *       Time of launch (1 float)
+ *    Number of projectiles gone (2 bytes), then each one's id (2 bytes)
+ *
+ * Players that haven't changed since the baseline aren't listed at all, and a projectile
+ *   only flies in a straight line so it's sent once and then only when it's gone.
+ * See SnapshotState for how the values are quantized.
+ */
+public class SnapshotMessage extends Message
+{
+	public static final int PLAYER_POSITION = 0x01;
+	public static final int PLAYER_VELOCITY = 0x02;
+	public static final int PLAYER_AIM = 0x04;
+	public static final int PLAYER_HEALTH = 0x08;
+	public static final int PLAYER_ALL = PLAYER_POSITION | PLAYER_VELOCITY | PLAYER_AIM | PLAYER_HEALTH;
+	public static final int PLAYER_REMOVED = 0x80;
+
+	private char sequence;
+	private char baseline;
+	private float time;
+
+	// Player entries, in order of id
+	private int playerCount;
+	private char[] playerIds;
+	private byte[] changes;
+	private int[] positionX, positionY;
+	private int[] velocityX, velocityY;
+	private int[] aim;
+	private char[] health;
+
+	// New projectiles, in order of id
+	private int projectileCount;
+	private char[] projectileIds;
+	private char[] owners;
+	private int[] originX, originY;
+	private char[] direction;
+	private float[] launchTime;
+
+	private int removedCount;
+	private char[] removedIds;
+
+	/**
+	 * Encode a state as the changes from a baseline
+	 * @param state The state to send
+	 * @param base A state the client has acknowledged, or null to send everything
+	 */
+	public SnapshotMessage(SnapshotState state, SnapshotState base)
+	{
+		super(TYPE_SNAPSHOT);
+
+		sequence = state.getSequence();
+		baseline = base == null ? sequence : base.getSequence();
+		time = state.getTime();
+		allocate(state.getPlayerCount() + (base == null ? 0 : base.getPlayerCount()),
+				state.getProjectileCount(), base == null ? 0 : base.getProjectileCount());
+
+		diffPlayers(state, base);
+		diffProjectiles(state, base);
+	}
+
+	/**
+	 * Decode a snapshot message
+	 * @param message
+	 * @throws Exception If the given byte array is not a snapshot message, an exception will be thrown
+	 */
+	public SnapshotMessage(byte[] message, InetSocketAddress source) throws Exception
+	{
+		super(message, source);
+
+		if (message[1] != TYPE_SNAPSHOT)
+			throw new InvalidParameterException(String.format("The byte array passed to the SnapshotMessage class is NOT a snapshot message. Message code is 0x%02x.", message[1]));
+
+		// Skip the header
+		decodeContents(ByteBuffer.wrap(message, MESSAGE_HEADER_SIZE, message.length - MESSAGE_HEADER_SIZE));
+	}
+
+	/**
+	 * Decode a snapshot message straight from a buffer
+	 * @param in The buffer to read from, positioned at the start of the message header
+	 * @param source The address that sent this message
+	 */
+	public SnapshotMessage(ByteBuffer in, InetSocketAddress source)
+	{
+		super(TYPE_SNAPSHOT);
+
+		decode(in, source);
+	}
+
+	/**
+	 * Measures and decodes snapshot messages for MessageAnalyser
+	 */
+	public static final MessageDecoder DECODER = new MessageDecoder()
+	{
+		public int findEnd(ByteBuffer in)
+		{
+			// Header, sequence numbers, time and number of players
+			int end = ByteStreamUtils.skip(in, in.position(), MESSAGE_HEADER_SIZE + 10);
+			if (end < 0)
+				return -1;
+			int players = in.getChar(end - 2);
+			for (int i=0; i < players && end >= 0; i++)
+			{
+				end = ByteStreamUtils.skip(in, end, 3);
+				if (end >= 0)
+					end = ByteStreamUtils.skip(in, end, fieldsSize(in.get(end - 1)));
+			}
+			// New projectiles
+			end = ByteStreamUtils.skip(in, end, 2);
+			if (end < 0)
+				return -1;
+			end = ByteStreamUtils.skip(in, end, 14 * in.getChar(end - 2));
+			// Projectiles gone
+			end = ByteStreamUtils.skip(in, end, 2);
+			if (end < 0)
+				return -1;
+			return ByteStreamUtils.skip(in, end, 2 * in.getChar(end - 2));
+		}
+
+		public Message decode(ByteBuffer in, InetSocketAddress source)
+		{
+			return new SnapshotMessage(in, source);
+		}
+	};
+
+	/**
+	 * Get the number of bytes of player fields that follow a changes byte
+	 */
+	private static int fieldsSize(int change)
+	{
+		if ((change & PLAYER_REMOVED) != 0)
+			return 0;
+		int size = 0;
+		if ((change & PLAYER_POSITION) != 0)
+			size += 4;
+		if ((change & PLAYER_VELOCITY) != 0)
+			size += 2;
+		if ((change & PLAYER_AIM) != 0)
+			size += 1;
+		if ((change & PLAYER_HEALTH) != 0)
+			size += 2;
+		return size;
+	}
+
+	private void allocate(int players, int projectiles, int removed)
+	{
+		players = Math.max(1, players);
+		playerIds = new char[players];
+		changes = new byte[players];
+		positionX = new int[players];
+		positionY = new int[players];
+		velocityX = new int[players];
+		velocityY = new int[players];
+		aim = new int[players];
+		health = new char[players];
+
+		projectiles = Math.max(1, projectiles);
+		projectileIds = new char[projectiles];
+		owners = new char[projectiles];
+		originX = new int[projectiles];
+		originY = new int[projectiles];
+		direction = new char[projectiles];
+		launchTime = new float[projectiles];
+
+		removedIds = new char[Math.max(1, removed)];
+	}
+
+	/**
+	 * Walk both lists of players in order of id, listing the new ones, the changed ones and the ones gone
+	 */
+	private void diffPlayers(SnapshotState state, SnapshotState base)
+	{
+		int i = 0, j = 0;
+		int count = state.getPlayerCount(), baseCount = base == null ? 0 : base.getPlayerCount();
+		while (i < count || j < baseCount)
+		{
+			if (j == baseCount || (i < count && state.getPlayerId(i) < base.getPlayerId(j)))
+			{
+				addPlayerEntry(state, i, PLAYER_ALL);
+				i ++;
+			}
+			else if (i == count || base.getPlayerId(j) < state.getPlayerId(i))
+			{
+				playerIds[playerCount] = base.getPlayerId(j);
+				changes[playerCount] = (byte)PLAYER_REMOVED;
+				playerCount ++;
+				j ++;
+			}
+			else
+			{
+				int change = 0;
+				if (state.getPositionX(i) != base.getPositionX(j) || state.getPositionY(i) != base.getPositionY(j))
+					change |= PLAYER_POSITION;
+				if (state.getVelocityX(i) != base.getVelocityX(j) || state.getVelocityY(i) != base.getVelocityY(j))
+					change |= PLAYER_VELOCITY;
+				if (state.getAimAngle(i) != base.getAimAngle(j))
+					change |= PLAYER_AIM;
+				if (state.getHealthValue(i) != base.getHealthValue(j))
+					change |= PLAYER_HEALTH;
+				if (change != 0)
+					addPlayerEntry(state, i, change);
+				i ++;
+				j ++;
+			}
+		}
+	}
+
+	private void addPlayerEntry(SnapshotState state, int index, int change)
+	{
+		playerIds[playerCount] = state.getPlayerId(index);
+		changes[playerCount] = (byte)change;
+		positionX[playerCount] = state.getPositionX(index);
+		positionY[playerCount] = state.getPositionY(index);
+		velocityX[playerCount] = state.getVelocityX(index);
+		velocityY[playerCount] = state.getVelocityY(index);
+		aim[playerCount] = state.getAimAngle(index);
+		health[playerCount] = state.getHealthValue(index);
+		playerCount ++;
+	}
+
+	/**
+	 * List the projectiles that aren't in the baseline, and the baseline's that are gone
+	 */
+	private void diffProjectiles(SnapshotState state, SnapshotState base)
+	{
+		for (int i=0; i < state.getProjectileCount(); i++)
+		{
+			if (base != null && base.findProjectile(state.getProjectileId(i)) >= 0)
+				continue;
+			projectileIds[projectileCount] = state.getProjectileId(i);
+			owners[projectileCount] = state.getOwner(i);
+			originX[projectileCount] = state.getOriginX(i);
+			originY[projectileCount] = state.getOriginY(i);
+			direction[projectileCount] = state.getDirectionAngle(i);
+			launchTime[projectileCount] = state.getLaunchTime(i);
+			projectileCount ++;
+		}
+
+		if (base == null)
+			return;
+		for (int j=0; j < base.getProjectileCount(); j++)
+		{
+			if (state.findProjectile(base.getProjectileId(j)) < 0)
+				removedIds[removedCount ++] = base.getProjectileId(j);
+		}
+	}
+
+	/**
+	 * Rebuild the whole state this message was encoded from
+	 * @param base The state with the baseline's sequence number, ignored if this is a full snapshot
+	 * @return The state, which the client should keep in case the server uses it as a baseline
+	 * @throws IllegalArgumentException If this needs a baseline and base isn't it
+	 */
+	public SnapshotState apply(SnapshotState base)
+	{
+		if (isFull())
+			base = null;
+		else if (base == null || base.getSequence() != baseline)
+			throw new IllegalArgumentException("Snapshot " + (int)sequence + " needs baseline " + (int)baseline);
+
+		int baseCount = base == null ? 0 : base.getPlayerCount();
+		int baseProjectiles = base == null ? 0 : base.getProjectileCount();
+		SnapshotState result = new SnapshotState(sequence, time, baseCount + playerCount, baseProjectiles + projectileCount);
+
+		// Merge the baseline's players with the entries, both in order of id
+		int i = 0, j = 0;
+		while (i < playerCount || j < baseCount)
+		{
+			if (i == playerCount || (j < baseCount && base.getPlayerId(j) < playerIds[i]))
+			{
+				// Unchanged
+				result.addQuantizedPlayer(base.getPlayerId(j), base.getPositionX(j), base.getPositionY(j),
+						base.getVelocityX(j), base.getVelocityY(j), base.getAimAngle(j), base.getHealthValue(j));
+				j ++;
+				continue;
+			}
+
+			boolean inBase = j < baseCount && base.getPlayerId(j) == playerIds[i];
+			int change = changes[i];
+			if ((change & PLAYER_REMOVED) == 0)
+			{
+				boolean position = (change & PLAYER_POSITION) != 0 || !inBase;
+				boolean velocity = (change & PLAYER_VELOCITY) != 0 || !inBase;
+				boolean playerAim = (change & PLAYER_AIM) != 0 || !inBase;
+				boolean playerHealth = (change & PLAYER_HEALTH) != 0 || !inBase;
+				result.addQuantizedPlayer(playerIds[i],
+						position ? positionX[i] : base.getPositionX(j),
+						position ? positionY[i] : base.getPositionY(j),
+						velocity ? velocityX[i] : base.getVelocityX(j),
+						velocity ? velocityY[i] : base.getVelocityY(j),
+						playerAim ? aim[i] : base.getAimAngle(j),
+						playerHealth ? health[i] : base.getHealthValue(j));
+			}
+			i ++;
+			if (inBase)
+				j ++;
+		}
+
+		// Merge the baseline's projectiles that are still flying with the new ones
+		i = 0;
+		j = 0;
+		while (i < projectileCount || j < baseProjectiles)
+		{
+			if (i == projectileCount || (j < baseProjectiles && base.getProjectileId(j) < projectileIds[i]))
+			{
+				if (!isRemoved(base.getProjectileId(j)))
+					result.addQuantizedProjectile(base.getProjectileId(j), base.getOwner(j), base.getOriginX(j),
+							base.getOriginY(j), base.getDirectionAngle(j), base.getLaunchTime(j));
+				j ++;
+			}
+			else
+			{
+				result.addQuantizedProjectile(projectileIds[i], owners[i], originX[i], originY[i], direction[i], launchTime[i]);
+				if (j < baseProjectiles && base.getProjectileId(j) == projectileIds[i])
+					j ++;
+				i ++;
+			}
+		}
+
+		return result;
+	}
+
+	private boolean isRemoved(char id)
+	{
+		for (int i=0; i < removedCount; i++)
+			if (removedIds[i] == id)
+				return true;
+		return false;
+	}
+
+	protected void decodeContents(ByteBuffer in)
+	{
+		// Sequence numbers and time
+		sequence = in.getChar();
+		baseline = in.getChar();
+		time = in.getFloat();
+
+		// Players
+		int players = in.getChar();
+		allocate(players, 0, 0);
+		playerCount = 0;
+		for (int i=0; i < players; i++)
+		{
+			playerIds[i] = in.getChar();
+			int change = 0xff & in.get();
+			changes[i] = (byte)change;
+			if ((change & PLAYER_REMOVED) == 0)
+			{
+				if ((change & PLAYER_POSITION) != 0)
+				{
+					positionX[i] = in.getChar();
+					positionY[i] = in.getChar();
+				}
+				if ((change & PLAYER_VELOCITY) != 0)
+				{
+					velocityX[i] = in.get();
+					velocityY[i] = in.get();
+				}
+				if ((change & PLAYER_AIM) != 0)
+					aim[i] = 0xff & in.get();
+				if ((change & PLAYER_HEALTH) != 0)
+					health[i] = in.getChar();
+			}
+			playerCount ++;
+		}
+
+		// New projectiles
+		int projectiles = in.getChar();
+		projectileIds = new char[projectiles];
+		owners = new char[projectiles];
+		originX = new int[projectiles];
+		originY = new int[projectiles];
+		direction = new char[projectiles];
+		launchTime = new float[projectiles];
+		for (int i=0; i < projectiles; i++)
+		{
+			projectileIds[i] = in.getChar();
+			owners[i] = in.getChar();
+			originX[i] = in.getChar();
+			originY[i] = in.getChar();
+			direction[i] = in.getChar();
+			launchTime[i] = in.getFloat();
+		}
+		projectileCount = projectiles;
+
+		// Projectiles gone
+		removedCount = in.getChar();
+		removedIds = new char[removedCount];
+		for (int i=0; i < removedCount; i++)
+			removedIds[i] = in.getChar();
+	}
+
+	protected void encodeContents(ByteBuffer out)
+	{
+		// Sequence numbers and time
+		out.putChar(sequence);
+		out.putChar(baseline);
+		out.putFloat(time);
+
+		// Players
+		out.putChar((char)playerCount);
+		for (int i=0; i < playerCount; i++)
+		{
+			int change = 0xff & changes[i];
+			out.putChar(playerIds[i]);
+			out.put((byte)change);
+			if ((change & PLAYER_REMOVED) != 0)
+				continue;
+			if ((change & PLAYER_POSITION) != 0)
+			{
+				out.putChar((char)positionX[i]);
+				out.putChar((char)positionY[i]);
+			}
+			if ((change & PLAYER_VELOCITY) != 0)
+			{
+				out.put((byte)velocityX[i]);
+				out.put((byte)velocityY[i]);
+			}
+			if ((change & PLAYER_AIM) != 0)
+				out.put((byte)aim[i]);
+			if ((change & PLAYER_HEALTH) != 0)
+				out.putChar(health[i]);
+		}
+
+		// New projectiles
+		out.putChar((char)projectileCount);
+		for (int i=0; i < projectileCount; i++)
+		{
+			out.putChar(projectileIds[i]);
+			out.putChar(owners[i]);
+			out.putChar((char)originX[i]);
+			out.putChar((char)originY[i]);
+			out.putChar(direction[i]);
+			out.putFloat(launchTime[i]);
+		}
+
+		// Projectiles gone
+		out.putChar((char)removedCount);
+		for (int i=0; i < removedCount; i++)
+			out.putChar(removedIds[i]);
+	}
+
+	public char getSequence()
+	{
+		return sequence;
+	}
+
+	/**
+	 * Get the sequence number of the state this was encoded against
+	 * @return The baseline's sequence number, or this snapshot's own if it's a full snapshot
+	 */
+	public char getBaselineSequence()
+	{
+		return baseline;
+	}
+
+	/**
+	 * Find out if this snapshot can be used without a baseline
+	 */
+	public boolean isFull()
+	{
+		return baseline == sequence;
+	}
+
+	public float getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * Get the number of players listed, the only ones that changed since the baseline
+	 */
+	public int getPlayerEntryCount()
+	{
+		return playerCount;
+	}
+
+	public char getPlayerEntryId(int index)
+	{
+		return playerIds[index];
+	}
+
+	/**
+	 * Get what changed about a listed player
+	 * @param index The entry's index
+	 * @return PLAYER_* bits, or PLAYER_REMOVED
+	 */
+	public int getPlayerEntryChanges(int index)
+	{
+		return 0xff & changes[index];
+	}
+
+	/**
+	 * Get the ids of the projectiles that first show up in this snapshot
+	 * @return A new array of the ids
+	 */
+	public char[] getNewProjectileIds()
+	{
+		return Arrays.copyOf(projectileIds, projectileCount);
+	}
+}
@@ -0,0 +1,286 @@
+package common.messages;
+
+import java.util.Arrays;
+
+import common.Position;
+
+/**
+ * Everything one client was told about in a snapshot, quantized the way SnapshotMessage sends it.
+ * The server keeps the states it sent each client and the client keeps the ones it received,
+ *   both by sequence number, so a snapshot can be sent as the changes from one the client acknowledged.
+ * Players and projectiles are kept sorted by id, which is what lets two states be compared in one pass.
+ * Positions use the same fixed point as CompactMotionMessage. Aim is an angle in 1/256ths of a turn,
+ *   and a projectile's direction in 1/65536ths since a small error in it grows with distance.
+ */
+public class SnapshotState implements MessageConstants
+{
+	/**
+	 * How many recent states each end keeps, so the server only uses a baseline the client still has
+	 */
+	public static final int HISTORY = 32;
+
+	private char sequence;
+	private float time;
+
+	private int playerCount;
+	private char[] playerIds;
+	private int[] positionX, positionY;
+	private int[] velocityX, velocityY;
+	private int[] aim;
+	private char[] health;
+
+	private int projectileCount;
+	private char[] projectileIds;
+	private char[] owners;
+	private int[] originX, originY;
+	private char[] direction;
+	private float[] launchTime;
+
+	/**
+	 * Create an empty state to add players and projectiles to, in order of id
+	 * @param sequence The sequence number of the snapshot this state goes with
+	 * @param time The server's game time
+	 * @param players Room for this many players, more are made room for as needed
+	 * @param projectiles Room for this many projectiles, more are made room for as needed
+	 */
+	public SnapshotState(char sequence, float time, int players, int projectiles)
+	{
+		this.sequence = sequence;
+		this.time = time;
+
+		players = Math.max(1, players);
+		playerIds = new char[players];
+		positionX = new int[players];
+		positionY = new int[players];
+		velocityX = new int[players];
+		velocityY = new int[players];
+		aim = new int[players];
+		health = new char[players];
+
+		projectiles = Math.max(1, projectiles);
+		projectileIds = new char[projectiles];
+		owners = new char[projectiles];
+		originX = new int[projectiles];
+		originY = new int[projectiles];
+		direction = new char[projectiles];
+		launchTime = new float[projectiles];
+	}
+
+	/**
+	 * Add a player, which must have a higher id than the last one added
+	 * @param id The player's id
+	 * @param position Where they are
+	 * @param velocity How fast they're going
+	 * @param aimVector Where they're aiming
+	 * @param playerHealth How much health they have left
+	 */
+	public void addPlayer(char id, Position position, Position velocity, Position aimVector, int playerHealth)
+	{
+		addQuantizedPlayer(id, quantizePosition(position.getX()), quantizePosition(position.getY()),
+				quantizeVelocity(velocity.getX()), quantizeVelocity(velocity.getY()),
+				quantizeAngle(aimVector, 0x100), (char)Math.max(0, Math.min(0xffff, playerHealth)));
+	}
+
+	/**
+	 * Add a projectile, which must have a higher id than the last one added
+	 * @param id The projectile's id
+	 * @param owner The id of the player who fired it
+	 * @param origin Where it was fired from
+	 * @param projectileDirection Which way it's going
+	 * @param launch The game time it was fired at
+	 */
+	public void addProjectile(char id, char owner, Position origin, Position projectileDirection, float launch)
+	{
+		addQuantizedProjectile(id, owner, quantizePosition(origin.getX()), quantizePosition(origin.getY()),
+				(char)quantizeAngle(projectileDirection, 0x10000), launch);
+	}
+
+	void addQuantizedPlayer(char id, int x, int y, int vx, int vy, int playerAim, char playerHealth)
+	{
+		if (playerCount == playerIds.length)
+			growPlayers();
+		if (playerCount > 0 && playerIds[playerCount - 1] >= id)
+			throw new IllegalArgumentException("Players must be added in order of id");
+
+		playerIds[playerCount] = id;
+		positionX[playerCount] = x;
+		positionY[playerCount] = y;
+		velocityX[playerCount] = vx;
+		velocityY[playerCount] = vy;
+		aim[playerCount] = playerAim;
+		health[playerCount] = playerHealth;
+		playerCount ++;
+	}
+
+	void addQuantizedProjectile(char id, char owner, int x, int y, char angle, float launch)
+	{
+		if (projectileCount == projectileIds.length)
+			growProjectiles();
+		if (projectileCount > 0 && projectileIds[projectileCount - 1] >= id)
+			throw new IllegalArgumentException("Projectiles must be added in order of id");
+
+		projectileIds[projectileCount] = id;
+		owners[projectileCount] = owner;
+		originX[projectileCount] = x;
+		originY[projectileCount] = y;
+		direction[projectileCount] = angle;
+		launchTime[projectileCount] = launch;
+		projectileCount ++;
+	}
+
+	private void growPlayers()
+	{
+		int size = playerIds.length * 2;
+		playerIds = Arrays.copyOf(playerIds, size);
+		positionX = Arrays.copyOf(positionX, size);
+		positionY = Arrays.copyOf(positionY, size);
+		velocityX = Arrays.copyOf(velocityX, size);
+		velocityY = Arrays.copyOf(velocityY, size);
+		aim = Arrays.copyOf(aim, size);
+		health = Arrays.copyOf(health, size);
+	}
+
+	private void growProjectiles()
+	{
+		int size = projectileIds.length * 2;
+		projectileIds = Arrays.copyOf(projectileIds, size);
+		owners = Arrays.copyOf(owners, size);
+		originX = Arrays.copyOf(originX, size);
+		originY = Arrays.copyOf(originY, size);
+		direction = Arrays.copyOf(direction, size);
+		launchTime = Arrays.copyOf(launchTime, size);
+	}
+
+	static int quantizePosition(float p)
+	{
+		return Math.max(0, Math.min(0xffff, Math.round(p * MOTION_POSITION_SCALE)));
+	}
+
+	static int quantizeVelocity(float v)
+	{
+		return Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.round(v * MOTION_VELOCITY_SCALE)));
+	}
+
+	/**
+	 * Turn a vector's direction into an angle
+	 * @param steps The number of steps in a whole turn, a power of two
+	 */
+	static int quantizeAngle(Position p, int steps)
+	{
+		return (int)Math.round(Math.atan2(p.getY(), p.getX()) * (steps / 2) / Math.PI) & (steps - 1);
+	}
+
+	public char getSequence()
+	{
+		return sequence;
+	}
+
+	public float getTime()
+	{
+		return time;
+	}
+
+	public int getPlayerCount()
+	{
+		return playerCount;
+	}
+
+	/**
+	 * Find a player's index in this state
+	 * @param id The player's id
+	 * @return The index, or a negative number if they're not in this state
+	 */
+	public int findPlayer(char id)
+	{
+		return Arrays.binarySearch(playerIds, 0, playerCount, id);
+	}
+
+	public char getPlayerId(int index)
+	{
+		return playerIds[index];
+	}
+
+	public Position getPosition(int index)
+	{
+		return new Position((float)positionX[index] / MOTION_POSITION_SCALE, (float)positionY[index] / MOTION_POSITION_SCALE);
+	}
+
+	public Position getVelocity(int index)
+	{
+		return new Position(velocityX[index] / MOTION_VELOCITY_SCALE, velocityY[index] / MOTION_VELOCITY_SCALE);
+	}
+
+	/**
+	 * Get a player's aim
+	 * @param index The player's index
+	 * @param length How long to make the aim vector
+	 */
+	public Position getAim(int index, float length)
+	{
+		double angle = aim[index] * Math.PI / 128;
+		return new Position(length * (float)Math.cos(angle), length * (float)Math.sin(angle));
+	}
+
+	public int getHealth(int index)
+	{
+		return health[index];
+	}
+
+	public int getProjectileCount()
+	{
+		return projectileCount;
+	}
+
+	/**
+	 * Find a projectile's index in this state
+	 * @param id The projectile's id
+	 * @return The index, or a negative number if it's not in this state
+	 */
+	public int findProjectile(char id)
+	{
+		return Arrays.binarySearch(projectileIds, 0, projectileCount, id);
+	}
+
+	public char getProjectileId(int index)
+	{
+		return projectileIds[index];
+	}
+
+	public char getOwner(int index)
+	{
+		return owners[index];
+	}
+
+	public Position getOrigin(int index)
+	{
+		return new Position((float)originX[index] / MOTION_POSITION_SCALE, (float)originY[index] / MOTION_POSITION_SCALE);
+	}
+
+	/**
+	 * Get which way a projectile is going
+	 * @param index The projectile's index
+	 * @param length How long to make the direction vector
+	 */
+	public Position getDirection(int index, float length)
+	{
+		double angle = direction[index] * Math.PI / 0x8000;
+		return new Position(length * (float)Math.cos(angle), length * (float)Math.sin(angle));
+	}
+
+	public float getLaunchTime(int index)
+	{
+		return launchTime[index];
+	}
+
+	// Raw values for SnapshotMessage to compare and copy
+
+	int getPositionX(int index) { return positionX[index]; }
+	int getPositionY(int index) { return positionY[index]; }
+	int getVelocityX(int index) { return velocityX[index]; }
+	int getVelocityY(int index) { return velocityY[index]; }
+	int getAimAngle(int index) { return aim[index]; }
+	char getHealthValue(int index) { return health[index]; }
+	int getOriginX(int index) { return originX[index]; }
+	int getOriginY(int index) { return originY[index]; }
+	char getDirectionAngle(int index) { return direction[index]; }
+}
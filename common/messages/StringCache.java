@@ -0,0 +1,98 @@
+package common.messages;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Remembers recently decoded strings by their UTF-8 bytes, so a string that keeps
+ *   coming in over the network (a player's name, say) is only decoded and allocated once.
+ * It's a direct-mapped table: a new string simply replaces whatever shared its slot.
+ * Entries are never changed once they're made, so it's safe to share between threads.
+ */
+public class StringCache
+{
+	/**
+	 * The default number of slots, plenty for every name in a game
+	 */
+	public static final int DEFAULT_SIZE = 512;
+	
+	/**
+	 * Strings longer than this many bytes are decoded but not cached
+	 */
+	public static final int MAX_CACHED_LENGTH = 64;
+	
+	private static final class Entry
+	{
+		final byte[] bytes;
+		final String value;
+		
+		Entry(byte[] bytes, String value)
+		{
+			this.bytes = bytes;
+			this.value = value;
+		}
+	}
+	
+	private final Entry[] entries;
+	private final int mask;
+	
+	/**
+	 * Create an empty cache
+	 * @param size The number of slots, rounded up to a power of two
+	 */
+	public StringCache(int size)
+	{
+		int slots = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		entries = new Entry[slots];
+		mask = slots - 1;
+	}
+	
+	/**
+	 * Get the string for some UTF-8 bytes in a buffer, decoding and caching it if it isn't already known
+	 * @param in The buffer, which isn't moved
+	 * @param start The index of the string's first byte
+	 * @param end The index just past the string's last byte
+	 * @return The string
+	 */
+	public String get(ByteBuffer in, int start, int end)
+	{
+		int length = end - start;
+		if (length > MAX_CACHED_LENGTH)
+			return ByteStreamUtils.readString(in, start, end);
+		
+		// FNV-1a over the bytes
+		int hash = 0x811c9dc5;
+		for (int i=start; i < end; i++)
+			hash = (hash ^ (0xff & in.get(i))) * 0x01000193;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		
+		Entry entry = entries[slot];
+		if (entry != null && matches(entry.bytes, in, start, length))
+			return entry.value;
+		
+		byte[] bytes = new byte[length];
+		for (int i=0; i < length; i++)
+			bytes[i] = in.get(start + i);
+		String value = ByteStreamUtils.readString(in, start, end);
+		entries[slot] = new Entry(bytes, value);
+		return value;
+	}
+	
+	/**
+	 * Forget every cached string
+	 */
+	public void clear()
+	{
+		for (int i=0; i < entries.length; i++)
+			entries[i] = null;
+	}
+	
+	private static boolean matches(byte[] bytes, ByteBuffer in, int start, int length)
+	{
+		if (bytes.length != length)
+			return false;
+		for (int i=0; i < length; i++)
+			if (bytes[i] != in.get(start + i))
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,88 @@
+package server;
+
+import common.Constants;
+import common.Map;
+import common.messages.MulticastChangeMessage;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * One match hosted by the server: its own engine, and so its own map and players,
+ * and its own multicast group for announcing who joins and leaves.
+ * Players are told which group to use with a MulticastChangeMessage when they join.
+ */
+class GameRoom implements Constants {
+    /**
+     * The most rooms one server can host. Each room has its own port, between MCAST_PORT and SERVER_PORT,
+     * since a socket bound to a port hears every group joined on that port.
+     */
+    public static final int MAX_ROOMS = SERVER_PORT - MCAST_PORT;
+
+    private int index;
+    private ServerGameEngine engine;
+    private ResponseCache responses;
+    private InetSocketAddress gameAddress;
+
+    /**
+     * Create a room.
+     * @param index The room's number, which picks its multicast group.
+     * @param map The map to play.
+     * @param gameStartTime When the server started.
+     */
+    public GameRoom(int index, Map map, long gameStartTime) throws UnknownHostException {
+        if(index < 0 || index >= MAX_ROOMS)
+            throw new IllegalArgumentException("Room " + index + " is out of range, a server can host " + MAX_ROOMS);
+
+        this.index = index;
+        this.engine = new ServerGameEngine(gameStartTime);
+        this.engine.setMap(map);
+        this.responses = new ResponseCache(engine);
+        this.gameAddress = groupAddress(index);
+    }
+
+    /**
+     * Find the multicast group of a room: the n'th one after PLAYER_MCAST_ADDRESS, on the n'th port after MCAST_PORT.
+     * Room 0 uses the group a single game always has.
+     * @param index The room's number.
+     * @return The group's address and port.
+     */
+    public static InetSocketAddress groupAddress(int index) throws UnknownHostException {
+        byte[] base = InetAddress.getByName(PLAYER_MCAST_ADDRESS).getAddress();
+        int address = ByteBuffer.wrap(base).getInt() + index;
+        return new InetSocketAddress(InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(address).array()),
+                                     MCAST_PORT + index);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public ServerGameEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Get the cached login and server info responses for this room.
+     */
+    public ResponseCache getResponses() {
+        return responses;
+    }
+
+    public InetSocketAddress getGameAddress() {
+        return gameAddress;
+    }
+
+    /**
+     * Make the message that tells a player to move to this room's group.
+     */
+    public MulticastChangeMessage makeMulticastChange() {
+        return new MulticastChangeMessage(gameAddress.getAddress().getHostAddress(), gameAddress.getPort());
+    }
+
+    public String toString() {
+        return "room " + index + " (" + engine.getMap().getName() + " on " + gameAddress + ")";
+    }
+}
@@ -0,0 +1,106 @@
+package server;
+
+import common.Constants;
+import common.Map;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buckets players by where they are on the map, so finding everybody near a point
+ * only looks at the few cells around it instead of every player in the game.
+ */
+class InterestGrid implements Constants {
+    /**
+     * Width and height of a cell, in tiles
+     */
+    public static final int CELL_SIZE = 4;
+
+    private int columns, rows;
+    private ArrayList<ArrayList<ServerPlayer>> cells;
+
+    /**
+     * Create an empty grid covering a map.
+     * @param map The map.
+     */
+    public InterestGrid(Map map) {
+        resize(map);
+    }
+
+    /**
+     * Empty the grid and make it cover a different map.
+     * @param map The new map.
+     */
+    public void resize(Map map) {
+        columns = Math.max(1, (map.getWidth() + CELL_SIZE - 1) / CELL_SIZE);
+        rows = Math.max(1, (map.getHeight() + CELL_SIZE - 1) / CELL_SIZE);
+        cells = new ArrayList<ArrayList<ServerPlayer>>(columns * rows);
+        for(int i = 0; i < columns * rows; i++)
+            cells.add(new ArrayList<ServerPlayer>());
+    }
+
+    /**
+     * Add a player, or move it to the cell it's in now.
+     * @param player The player.
+     */
+    public void update(ServerPlayer player) {
+        int cell = cellAt(player.getX(), player.getY());
+        int oldCell = player.getInterestCell();
+        if(cell == oldCell)
+            return;
+
+        if(oldCell >= 0)
+            cells.get(oldCell).remove(player);
+        cells.get(cell).add(player);
+        player.setInterestCell(cell);
+    }
+
+    /**
+     * Take a player out of the grid.
+     * @param player The player.
+     */
+    public void remove(ServerPlayer player) {
+        int cell = player.getInterestCell();
+        if(cell >= 0)
+            cells.get(cell).remove(player);
+        player.setInterestCell(-1);
+    }
+
+    /**
+     * Find the players in a rectangle, as of their last update().
+     * @param minX The left edge.
+     * @param minY The top edge.
+     * @param maxX The right edge.
+     * @param maxY The bottom edge.
+     * @param result The players found are added to this.
+     */
+    public void query(float minX, float minY, float maxX, float maxY, List<ServerPlayer> result) {
+        int left = column(minX), right = column(maxX);
+        int top = row(minY), bottom = row(maxY);
+
+        for(int y = top; y <= bottom; y++) {
+            for(int x = left; x <= right; x++) {
+                for(ServerPlayer player : cells.get(y * columns + x)) {
+                    float px = player.getX(), py = player.getY();
+                    if(px >= minX && px <= maxX && py >= minY && py <= maxY)
+                        result.add(player);
+                }
+            }
+        }
+    }
+
+    private int cellAt(float x, float y) {
+        return row(y) * columns + column(x);
+    }
+
+    /**
+     * Find the column a coordinate falls in, clamped to the grid so players pushed off the map are still found.
+     */
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int)Math.floor(x / CELL_SIZE)));
+    }
+
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int)Math.floor(y / CELL_SIZE)));
+    }
+}
@@ -0,0 +1,188 @@
+package server;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The players in a game, found by id or by name in constant time however many there are.
+ * Players are kept in a table indexed by id, with a hash index on their names, and the free ids
+ * in a bitmap. Only one thread may change the registry at a time, which in ServerGameEngine means
+ * holding the engine's lock, but any thread may look players up without locking.
+ */
+class PlayerRegistry implements Iterable<ServerPlayer> {
+    /**
+     * The highest id there can be, since (char)-1 and (char)-2 mean "new player" and "couldn't join"
+     */
+    public static final int MAX_CAPACITY = 0xfffd;
+
+    private int capacity;
+    private AtomicReferenceArray<ServerPlayer> byId;
+    private ConcurrentHashMap<String, ServerPlayer> byName;
+
+    /**
+     * One bit per id, set while the id is free, and the lowest word that might have a bit set
+     */
+    private long[] freeIds;
+    private int firstFreeWord;
+
+    /**
+     * The players packed together, for going through them all, and how many there are
+     */
+    private ServerPlayer[] all;
+    private volatile int count;
+
+    /**
+     * Create an empty registry.
+     * @param capacity The most players, who get ids from 1 up to this.
+     */
+    public PlayerRegistry(int capacity) {
+        if(capacity < 1 || capacity > MAX_CAPACITY)
+            throw new IllegalArgumentException("A registry holds between 1 and " + MAX_CAPACITY + " players, not " + capacity);
+
+        this.capacity = capacity;
+        byId = new AtomicReferenceArray<ServerPlayer>(capacity + 1);
+        byName = new ConcurrentHashMap<String, ServerPlayer>();
+        all = new ServerPlayer[Math.min(capacity, 16)];
+        count = 0;
+
+        // Id 0 is never handed out
+        freeIds = new long[(capacity + 64) / 64];
+        Arrays.fill(freeIds, -1L);
+        freeIds[0] &= ~1L;
+        int extra = freeIds.length * 64 - (capacity + 1);
+        freeIds[freeIds.length - 1] &= -1L >>> extra;
+        firstFreeWord = 0;
+    }
+
+    /**
+     * Take the lowest free id.
+     * @return The id, or (char)-2 if every id is taken.
+     */
+    public char allocateId() {
+        for(int i = firstFreeWord; i < freeIds.length; i++) {
+            if(freeIds[i] != 0) {
+                int bit = Long.numberOfTrailingZeros(freeIds[i]);
+                freeIds[i] &= ~(1L << bit);
+                firstFreeWord = i;
+                return (char)(i * 64 + bit);
+            }
+        }
+        firstFreeWord = freeIds.length;
+        return (char)-2;
+    }
+
+    /**
+     * Give back an id from allocateId() that didn't end up being used.
+     * @param id The id.
+     */
+    public void releaseId(char id) {
+        freeIds[id / 64] |= 1L << (id % 64);
+        firstFreeWord = Math.min(firstFreeWord, id / 64);
+    }
+
+    /**
+     * Add a player, under the id they were given by allocateId().
+     * @param player The player.
+     * @return False if somebody already has their name, in which case the id is left allocated.
+     */
+    public boolean add(ServerPlayer player) {
+        if(byName.putIfAbsent(player.getPlayerName(), player) != null)
+            return false;
+
+        if(count == all.length)
+            all = Arrays.copyOf(all, Math.min(capacity, all.length * 2));
+        player.setRegistryIndex(count);
+        all[count] = player;
+        byId.set(player.getPlayerID(), player);
+        count ++;
+        return true;
+    }
+
+    /**
+     * Take a player out, and free their id.
+     * @param id The player's id.
+     * @return The player, or null if there's nobody with that id.
+     */
+    public ServerPlayer remove(char id) {
+        ServerPlayer player = get(id);
+        if(player == null)
+            return null;
+
+        byId.set(id, null);
+        byName.remove(player.getPlayerName(), player);
+
+        // Move the last player into the gap
+        int index = player.getRegistryIndex();
+        ServerPlayer last = all[count - 1];
+        all[index] = last;
+        last.setRegistryIndex(index);
+        all[count - 1] = null;
+        player.setRegistryIndex(-1);
+        count --;
+
+        releaseId(id);
+        return player;
+    }
+
+    /**
+     * Find a player by id, from any thread.
+     * @return The player, or null if there's nobody with that id.
+     */
+    public ServerPlayer get(char id) {
+        return id < byId.length() ? byId.get(id) : null;
+    }
+
+    /**
+     * Find a player by name, from any thread.
+     * @return The player, or null if nobody has that name.
+     */
+    public ServerPlayer get(String name) {
+        return byName.get(name);
+    }
+
+    public boolean nameInUse(String name) {
+        return byName.containsKey(name);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Check if every id is taken.
+     */
+    public boolean isFull() {
+        return count == capacity;
+    }
+
+    /**
+     * Go through the players in no particular order.
+     * Only the thread that changes the registry may do this, and not while changing it.
+     */
+    public Iterator<ServerPlayer> iterator() {
+        return new Iterator<ServerPlayer>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            public ServerPlayer next() {
+                if(next >= count)
+                    throw new NoSuchElementException();
+                return all[next ++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
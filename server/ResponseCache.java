@@ -0,0 +1,76 @@
+package server;
+
+import common.Position;
+import common.messages.LoginResponseMessage;
+import common.messages.MessageBundle;
+import common.messages.MessageFragments;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the encoded server info response and login response for the current game state,
+ * so a burst of server browser probes or logins doesn't re-encode the map and player list
+ * for every requester. They're only rebuilt when the engine's state version changes, which
+ * happens when a player joins or leaves or the map changes.
+ */
+class ResponseCache {
+    private ServerGameEngine engine;
+    private int version;
+    private List<byte[]> serverInfo;
+    private byte[] loginTemplate;
+    
+    public ResponseCache(ServerGameEngine engine) {
+        this.engine = engine;
+        version = -1;
+    }
+    
+    /**
+     * Get the datagrams of the server info response for the current game state.
+     * They're shared, so send them as-is and don't change them.
+     * @return The encoded response, fragmented if it doesn't fit in one datagram.
+     */
+    public synchronized List<byte[]> getServerInfo() {
+        refresh();
+        return serverInfo;
+    }
+    
+    /**
+     * Get an encoded login response for the current game state.
+     * @param playerId The id of the player logging in.
+     * @param playerTeam The team of the player logging in.
+     * @param initialPosition Where the player logging in starts.
+     * @return The datagrams of a new copy of the encoded response, with this player's fields filled in.
+     */
+    public synchronized List<byte[]> getLoginResponse(char playerId, byte playerTeam, Position initialPosition) {
+        refresh();
+        byte[] result = Arrays.copyOf(loginTemplate, loginTemplate.length);
+        LoginResponseMessage.setPlayerFields(result, playerId, playerTeam, initialPosition);
+        return MessageFragments.split(result, MessageBundle.MAX_BUNDLE_SIZE);
+    }
+    
+    /**
+     * Get the state version the cached responses were built from.
+     * @return The version, or -1 if nothing has been built yet.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+    
+    /**
+     * Rebuild the responses if the game state has changed since they were built.
+     */
+    private void refresh() {
+        // Hold the engine so the version matches the state the responses describe
+        synchronized(engine) {
+            int current = engine.getStateVersion();
+            if(current == version)
+                return;
+            
+            serverInfo = MessageFragments.split(engine.makeServerInfoResponse().getMessageBytes(),
+                                                MessageBundle.MAX_BUNDLE_SIZE);
+            loginTemplate = engine.makeLoginResponse((char)0, (byte)0, new Position()).getMessageBytes();
+            version = current;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package server;
+
+import common.Constants;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the ticks of every room on one shared ForkJoinPool, instead of a thread per room.
+ * A single timer thread wakes once a tick and hands each room to the pool. A room that's still
+ * busy with its last ticks is skipped, and catches up on the ones it missed next time round,
+ * so one slow room never holds up the rest.
+ */
+class RoomScheduler {
+    public static Logger logger = Logger.getLogger(Constants.SERVER_LOGGER_NAME);
+
+    private ForkJoinPool pool;
+    private List<RoomTask> rooms;
+    private volatile boolean running;
+    private Thread timerThread;
+
+    /**
+     * Create a scheduler.
+     * @param parallelism The most rooms to tick at once, usually the number of processors.
+     */
+    public RoomScheduler(int parallelism) {
+        // Ticks are never joined, so run them in the order they're handed in
+        pool = new ForkJoinPool(Math.max(1, parallelism), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        rooms = new CopyOnWriteArrayList<RoomTask>();
+        running = false;
+    }
+
+    /**
+     * Start ticking a room, from its next due tick.
+     * @param room The room.
+     */
+    public void add(GameRoom room) {
+        rooms.add(new RoomTask(room));
+    }
+
+    /**
+     * Stop ticking a room. A tick already running finishes.
+     * @param room The room.
+     */
+    public void remove(GameRoom room) {
+        for(RoomTask task : rooms) {
+            if(task.room == room)
+                rooms.remove(task);
+        }
+    }
+
+    /**
+     * Start the timer thread. Does nothing if it's already running.
+     * @param listener Where every room publishes its game state.
+     */
+    public synchronized void start(final StateListener listener) {
+        if(timerThread != null)
+            return;
+
+        running = true;
+        timerThread = new Thread("Sphereority rooms") {
+            public void run() {
+                runTimer(listener);
+            }
+        };
+        timerThread.start();
+        logger.log(Level.INFO, "Ticking " + rooms.size() + " rooms on " + pool.getParallelism() + " threads");
+    }
+
+    /**
+     * Stop the timer thread and wait for the ticks already handed out to finish.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized(this) {
+            thread = timerThread;
+            timerThread = null;
+            running = false;
+        }
+        if(thread == null)
+            return;
+
+        thread.interrupt();
+        try {
+            thread.join();
+            pool.shutdown();
+            pool.awaitTermination(ServerGameEngine.TICK_LENGTH * ServerGameEngine.MAX_CATCH_UP_TICKS, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException er) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hand every room to the pool once a tick, until stopped.
+     */
+    private void runTimer(StateListener listener) {
+        final long tickNanos = ServerGameEngine.TICK_LENGTH * 1000000L;
+        long nextTick = System.nanoTime();
+
+        while(running) {
+            long now = System.nanoTime();
+            if(now < nextTick) {
+                LockSupport.parkNanos(nextTick - now);
+                continue;
+            }
+
+            for(RoomTask task : rooms)
+                task.schedule(now, listener);
+
+            // The rooms catch up on missed ticks themselves, so the timer just skips ahead
+            nextTick += tickNanos;
+            if(nextTick <= now)
+                nextTick = now + tickNanos;
+        }
+    }
+
+    /**
+     * A room, and whether its ticks are in the pool right now
+     */
+    private class RoomTask implements Runnable {
+        final GameRoom room;
+        private final AtomicBoolean busy;
+        private long now;
+        private StateListener listener;
+
+        RoomTask(GameRoom room) {
+            this.room = room;
+            this.busy = new AtomicBoolean(false);
+        }
+
+        /**
+         * Hand this room to the pool, unless it's still running from last time.
+         */
+        void schedule(long now, StateListener listener) {
+            if(!busy.compareAndSet(false, true))
+                return;
+            this.now = now;
+            this.listener = listener;
+            pool.execute(this);
+        }
+
+        public void run() {
+            try {
+                room.getEngine().runDueTicks(now, listener);
+            }
+            catch(Exception ex) {
+                logger.log(Level.WARNING, "Ticking " + room + " failed", ex);
+            }
+            finally {
+                busy.set(false);
+            }
+        }
+    }
+}
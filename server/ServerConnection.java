@@ -11,6 +11,10 @@ import Extasys.Network.UDP.Server.IUDPServer;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 //import java.util.Iterator;
 import java.util.logging.Level;
@@ -23,84 +27,268 @@ import java.util.logging.Logger;
 /**
  * Establishes the connection used to inform clients of what to do.
  */
-public class ServerConnection extends ExtasysUDPServer implements IUDPServer, Constants, MessageConstants
+public class ServerConnection extends ExtasysUDPServer implements IUDPServer, StateListener, Constants, MessageConstants
 {
 
-    protected ServerGameEngine engine;
-    protected InetSocketAddress gameAddress;
     public static Logger logger = Logger.getLogger(SERVER_LOGGER_NAME);
-    protected long gameStartTime;
+    protected MessageFilter filter;
+    protected UDPListener serverListener;
+    
+    /**
+     * The rooms, in the order new players fill them
+     */
+    protected final List<GameRoom> rooms;
+    
+    /**
+     * The room each player joined, by the address they joined from, since player ids are only unique within a room
+     */
+    protected final ConcurrentHashMap<InetSocketAddress, GameRoom> roomsByPlayer;
+    
+    /**
+     * What the send queue may do with our replies, including which players it may bundle them for.
+     * Clients older than bundles drop them, so a player is only allowed bundles once they send
+     * compact motion, which came in with bundles.
+     */
+    protected final MessageSendPolicy sendPolicy;
     
     /**
      * Start the connection to the server.
      */ 
-    public ServerConnection(InetAddress listenerIP, int port, ServerGameEngine engine, long gameStartTime) throws Exception
+    public ServerConnection(InetAddress listenerIP, int port, List<GameRoom> rooms) throws Exception
     {
         super("SphereorityClient", "The server connection for Sphereority", 8, 32);
-        this.engine = engine;
-        this.gameAddress = new InetSocketAddress(InetAddress.getByName(PLAYER_MCAST_ADDRESS),MCAST_PORT);
-        this.AddListener("SphereorityServer", listenerIP, port, 10240, 10000, true);
-        this.gameStartTime = gameStartTime;
+        this.serverListener = this.AddNIOMulticastListener("SphereorityServer", listenerIP, port, 10240);
+        this.rooms = new ArrayList<GameRoom>(rooms);
+        this.roomsByPlayer = new ConcurrentHashMap<InetSocketAddress, GameRoom>();
+        // Players send their motion and shots straight here, as proposals for their room's simulation.
+        // The rooms' groups only carry joins and leaves, so each player sees other players only in the snapshots sent to them
+        // Only build the messages handleMessage answers, whatever else turns up on the group
+        this.filter = new MessageFilter(TYPE_LOGIN_REQUEST, TYPE_PLAYER_JOIN, TYPE_PLAYER_LEAVE, TYPE_SERVER_INFO_REQUEST,
+                                        TYPE_PLAYER_MOTION, TYPE_PLAYER_MOTION_COMPACT, TYPE_PROJECTILE_LAUNCH,
+                                        TYPE_SNAPSHOT_ACK);
+        setPacketFilter(filter);
+        // Each client's messages are handled in order, but different clients in parallel
+        setLaneCount(Runtime.getRuntime().availableProcessors());
+        // Take everything already waiting on the socket in one go, and answer it together
+        setBatchSize(32);
+        // Pack replies into bundles for players who can unpack them, and never drop joins or leaves however busy we get
+        this.sendPolicy = new MessageSendPolicy();
+        setSendPolicy(sendPolicy);
+        logger.info("Extasys tasks run on " + getThreadMode() + " threads");
     }
 
     public void OnDataReceive(UDPListener listener, DatagramPacket packet)
+    {
+        LinkedHashMap<InetSocketAddress, List<Message>> replies = new LinkedHashMap<InetSocketAddress, List<Message>>();
+        handlePacket(listener, packet, replies);
+        sendReplies(replies);
+    }
+    
+    public void OnDataReceiveBatch(UDPListener listener, DatagramPacket[] packets, int count)
+    {
+        // Replies go to the groups of the rooms they're about, so collect the replies to the whole batch together
+        LinkedHashMap<InetSocketAddress, List<Message>> replies = new LinkedHashMap<InetSocketAddress, List<Message>>();
+        for (int i=0; i < count; i++)
+            handlePacket(listener, packets[i], replies);
+        sendReplies(replies);
+    }
+    
+    /**
+     * Handle every message in a received datagram.
+     * @param listener The listener the datagram came in on
+     * @param packet The datagram
+     * @param replies Any messages to send in reply are added here, by the group to send them to
+     */
+    protected void handlePacket(UDPListener listener, DatagramPacket packet, java.util.Map<InetSocketAddress, List<Message>> replies)
+    {
+        // There may be several messages bundled together
+        List<Message> messages = MessageAnalyser.getMessagesFromArray(packet.getData(),
+                                        packet.getOffset(),
+                                        packet.getLength(),
+                                        new InetSocketAddress(packet.getAddress(), packet.getPort()));
+        
+        for (Message message : messages)
+            handleMessage(listener, message, replies);
+    }
+    
+    /**
+     * Send the replies to some received messages, bundled for each player who can unpack bundles.
+     * @param replies The messages to send, by the group to send them to
+     */
+    protected void sendReplies(java.util.Map<InetSocketAddress, List<Message>> replies)
+    {
+        for (java.util.Map.Entry<InetSocketAddress, List<Message>> entry : replies.entrySet())
+        {
+            try
+            {
+                SendMessages(serverListener, entry.getValue(), entry.getKey().getAddress(), entry.getKey().getPort());
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+    }
+    
+    private static void addReply(java.util.Map<InetSocketAddress, List<Message>> replies, InetSocketAddress group, Message message)
+    {
+        List<Message> messages = replies.get(group);
+        if (messages == null)
+        {
+            messages = new ArrayList<Message>();
+            replies.put(group, messages);
+        }
+        messages.add(message);
+    }
+    
+    /**
+     * Pick the room a new player goes in: the first one with space, so matches fill up one at a time.
+     * @return The room, or the last one if they're all full.
+     */
+    protected GameRoom chooseRoom()
+    {
+        for (GameRoom room : rooms)
+        {
+            if (!room.getEngine().isFull())
+                return room;
+        }
+        return rooms.get(rooms.size() - 1);
+    }
+    
+    /**
+     * Find the room a message is for: the one its sender joined.
+     * @return The room, or null if the sender isn't in one.
+     */
+    protected GameRoom findRoom(Message message)
+    {
+        return roomsByPlayer.get(message.getSource());
+    }
+    
+    /**
+     * Add a new player to the first room that will take them, and tell them where it is.
+     * The room's other players are told about them on the room's group.
+     * @param playerName The name the player asked for
+     * @param playerTeam The team the player asked for
+     * @param source The address the player asked from, which the server sends to them at from now on
+     * @param replies The announcement to the room is added here
+     */
+    protected void handleNewPlayer(String playerName, byte playerTeam, InetSocketAddress source,
+                                   java.util.Map<InetSocketAddress, List<Message>> replies) throws Exception
+    {
+        // A repeat of a request we've already answered
+        if (roomsByPlayer.containsKey(source))
+            return;
+        
+        GameRoom room = chooseRoom();
+        char playerId = (char)-2;
+        int first = rooms.indexOf(room);
+        // Someone else may take the last place first, so carry on to the later rooms
+        for (int i = first; i < rooms.size() && playerId == (char)-2; i++)
+        {
+            room = rooms.get(i);
+            playerId = room.getEngine().processPlayerJoin(playerName, source);
+        }
+        PlayerJoinMessage joined = new PlayerJoinMessage(playerId, playerName, playerTeam);
+        
+        if (playerId == (char)-2)
+        {
+            logger.info("No room for " + playerName);
+            SendMessage(serverListener, joined, source.getAddress(), source.getPort());
+            return;
+        }
+        
+        roomsByPlayer.put(source, room);
+        logger.info("Added Player " + playerName + " with ID " + (int)playerId + " to " + room);
+        
+        // Move the new player to the room's group, then tell them all about the game, straight from the cache
+        List<Message> welcome = new ArrayList<Message>();
+        welcome.add(room.makeMulticastChange());
+        welcome.add(joined);
+        SendMessages(serverListener, welcome, source.getAddress(), source.getPort());
+        SendDatagrams(serverListener, room.getResponses().getLoginResponse(playerId, playerTeam, room.getEngine().getPlayerPosition(playerId)),
+                      source);
+        
+        addReply(replies, room.getGameAddress(), joined);
+    }
+    
+    /**
+     * Handle a single received message.
+     * @param listener The listener the message came in on
+     * @param message The message to handle
+     * @param replies Any messages to send in reply are added here, by the group to send them to
+     */
+    protected void handleMessage(UDPListener listener, Message message, java.util.Map<InetSocketAddress, List<Message>> replies)
     {
         try
         {
-            Message message = MessageAnalyser.getMessageFromArray(packet.getData(), new InetSocketAddress(packet.getAddress(), packet.getPort()));
-            
             // Ignore the message if it is sent by the server
             if (message.isMyMessage())
             	return;
+            
+            GameRoom room = findRoom(message);
         
             switch(message.getMessageType())
             {
+                case TYPE_LOGIN_REQUEST:
+                    handleNewPlayer(((LoginRequestMessage)message).getUserName(), (byte)0, message.getSource(), replies);
+                    break;
+                    
                 case TYPE_PLAYER_JOIN:
                     PlayerJoinMessage pj = (PlayerJoinMessage) message;
-                    pj.setAck(true);
-                    pj.setStartTime(gameStartTime);
-                    pj.setAddress(gameAddress);
                     
                     // Processing a new player?
-                    if(pj.getPlayerId() == -1)
+                    if(pj.getPlayerId() == (char)-1)
                     {
-                        pj.setPlayerId(engine.processPlayerJoin(pj));
-                        logger.info("Added Player " + pj.getPlayerName() + " with ID " + pj.getPlayerId());
-                        
-                        // Send a message via the Server
-                        SendMessage(listener,
-                                    pj,
-                                    listener.getIPAddress(),
-                                    listener.getPort());
+                        handleNewPlayer(pj.getPlayerName(), pj.getPlayerTeam(), pj.getSource(), replies);
+                        break;
                     }
+                    
                     // Asking for information about an existing user
-                    else
+                    String playerName = room == null ? null : room.getEngine().getPlayerName(pj.getPlayerId());
+                    // Asking for information about a user who does not exist
+                    if(playerName == null)
                     {
-                        String playerName = engine.getPlayerName(pj.getPlayerId());
-                        // Asking for information about a user who does not exist
-                        if(playerName == null)
-                        {
-                            // Send a message that this player should be removed
-                            SendMessage(listener,
-                                new PlayerLeaveMessage(pj.getPlayerId()),
-                                listener.getIPAddress(),
-                                listener.getPort());
-                            logger.info("Unknown player. Remove from game");
-                        }
-                        else {
-                            pj.setName(playerName);
-                            logger.log(Level.INFO,"Notified Players About " + pj.getPlayerName());
-                            SendMessage(listener,
-                                    pj,
-                                    listener.getIPAddress(),
-                                    listener.getPort());
-                        }
+                        // Send a message that this player should be removed
+                        addReply(replies, room == null ? new InetSocketAddress(listener.getIPAddress(), listener.getPort()) : room.getGameAddress(),
+                                 new PlayerLeaveMessage(pj.getPlayerId()));
+                        logger.info("Unknown player. Remove from game");
                     }
+                    else {
+                        logger.log(Level.INFO,"Notified Players About " + playerName);
+                        addReply(replies, room.getGameAddress(), new PlayerJoinMessage(pj.getPlayerId(), playerName, pj.getPlayerTeam()));
+                    }
+                    break;
+                    
+                case TYPE_SERVER_INFO_REQUEST:
+                    // Server browser probe, answer it with the cached bytes of the room it would join
+                    SendDatagrams(listener, chooseRoom().getResponses().getServerInfo(), message.getSource());
                     break;
                     
                 case TYPE_PLAYER_LEAVE:
                 	// Send a message to all players that a player has left
-                    engine.processPlayerLeave((PlayerLeaveMessage)message);
+                    if(room != null)
+                    {
+                        room.getEngine().processPlayerLeave((PlayerLeaveMessage)message);
+                        roomsByPlayer.remove(message.getSource());
+                        sendPolicy.forgetBundles(message.getSource());
+                    }
+                    break;
+                    
+                case TYPE_PLAYER_MOTION:
+                case TYPE_PLAYER_MOTION_COMPACT:
+                case TYPE_PROJECTILE_LAUNCH:
+                case TYPE_SNAPSHOT_ACK:
+                    if(room == null)
+                    {
+                        message.release();
+                        break;
+                    }
+                    // Only clients new enough to unpack bundles send compact motion
+                    InetSocketAddress source = message.getSource();
+                    if(message.getMessageType() == TYPE_PLAYER_MOTION_COMPACT && !sendPolicy.canBundle(source.getAddress(), source.getPort()))
+                        sendPolicy.allowBundles(source);
+                    // The room's engine applies these on its next tick, and releases them
+                    room.getEngine().propose(message);
                     break;
             }
         }
@@ -111,7 +299,23 @@ public class ServerConnection extends ExtasysUDPServer implements IUDPServer, Co
     }
       
     /**
-     * Sends a Sphereority message via a UDPListener
+     * Send one player their snapshot of their room's authoritative state, bundled with any deaths and respawns.
+     * It goes straight to the address they joined from, which is where their login response went.
+     */
+    public void statePublished(int tick, InetSocketAddress recipient, List<Message> messages)
+    {
+        try
+        {
+            SendMessages(serverListener, messages, recipient.getAddress(), recipient.getPort());
+        }
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+      
+    /**
+     * Sends a Sphereority message via a UDPListener, in fragments if it's too big for one datagram
      * @param listener
      * @param message
      * @param address
@@ -119,9 +323,59 @@ public class ServerConnection extends ExtasysUDPServer implements IUDPServer, Co
      */
     protected void SendMessage(UDPListener listener, Message message, 
                                 InetAddress address, int port) throws Exception{
-        byte[] msg = message.getMessageBytes();
-        DatagramPacket p = new DatagramPacket(msg,0,msg.length,address,port);
-        listener.SendData(p);
+        for (byte[] msg : MessageFragments.split(message.getMessageBytes(), MessageBundle.MAX_BUNDLE_SIZE)) {
+            DatagramPacket p = new DatagramPacket(msg,0,msg.length,address,port);
+            listener.SendData(p);
+        }
+    }
+    
+    /**
+     * Sends already-encoded datagrams via a UDPListener, without copying them
+     * @param listener
+     * @param datagrams
+     * @param destination
+     */
+    protected void SendDatagrams(UDPListener listener, List<byte[]> datagrams, InetSocketAddress destination) {
+        for (byte[] msg : datagrams)
+            listener.SendData(new DatagramPacket(msg,0,msg.length,destination.getAddress(),destination.getPort()));
+    }
+    
+    /**
+     * Sends several Sphereority messages via a UDPListener, bundling as many
+     * as will fit into each datagram if the destination can unpack them.
+     * @param listener
+     * @param messages
+     * @param address
+     * @param port
+     */
+    protected void SendMessages(UDPListener listener, List<Message> messages,
+                                InetAddress address, int port) throws Exception{
+        if (!sendPolicy.canBundle(address, port)) {
+            for (Message message : messages)
+                SendMessage(listener, message, address, port);
+            return;
+        }
+        
+        MessageBundle bundle = new MessageBundle();
+        for (Message message : messages) {
+            if (bundle.add(message))
+                continue;
+            
+            // The bundle is full, so send it and start another
+            SendBundle(listener, bundle, address, port);
+            if (!bundle.add(message))
+                // Too big to bundle at all, send it on its own
+                SendMessage(listener, message, address, port);
+        }
+        SendBundle(listener, bundle, address, port);
+    }
+    
+    private void SendBundle(UDPListener listener, MessageBundle bundle,
+                            InetAddress address, int port) {
+        byte[] msg = bundle.getMessageBytes();
+        if (msg != null)
+            listener.SendData(new DatagramPacket(msg,0,msg.length,address,port));
+        bundle.clear();
     }
     
     /**
@@ -1,125 +1,604 @@
 package server;
 
 import common.Constants;
+import common.Map;
+import common.Position;
+import common.Projectile;
+import common.SpawnPoint;
 import common.messages.*;
 
 import java.net.InetSocketAddress;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-class ServerGameEngine implements Constants {
+/**
+ * Keeps track of who is playing, and runs the authoritative simulation of the game.
+ * Clients' motion and shots are only proposals: they're queued as they arrive and
+ * applied on the next tick, which the RoomScheduler runs and which publishes the result to a StateListener.
+ * Each GameRoom has its own engine, so players, ids and projectiles are all per room.
+ */
+class ServerGameEngine implements Constants, MessageConstants {
 	public static Logger logger = Logger.getLogger(SERVER_LOGGER_NAME);
 
-    private Queue<Character> avaliableUserIDs;
-    private Vector<PlayerInfo> playerInfo;
+    /**
+     * Length of one simulation step in milliseconds, the same as the client's frame timer
+     */
+    public static final int TICK_LENGTH = TIMER_TICK;
+    
+    /**
+     * The most steps run back to back to catch up after a stall, before the rest are skipped
+     */
+    public static final int MAX_CATCH_UP_TICKS = 5;
+    
+    /**
+     * How long a dead player waits before respawning, in seconds
+     */
+    public static final float RESPAWN_DELAY = 3;
+    
+    /**
+     * How far from its owner a projectile may start, beyond the end of the owner's aim
+     */
+    public static final float LAUNCH_TOLERANCE = 0.5f;
+    
+    /**
+     * How far past the edge of the screen a player is sent updates for, in tiles,
+     * so things don't pop into view between publishes
+     */
+    public static final float INTEREST_MARGIN = 2;
+    
+    /**
+     * The area around a player they're sent updates for, by default what ClientViewArea
+     * shows at 50 pixels per tile, plus the margin on each side
+     */
+    public static final float DEFAULT_INTEREST_WIDTH = GAME_WINDOW_WIDTH / 50f + 2 * INTEREST_MARGIN;
+    public static final float DEFAULT_INTEREST_HEIGHT = GAME_WINDOW_HEIGHT / 50f + 2 * INTEREST_MARGIN;
+    
+    /**
+     * The number of ticks between snapshots, 20 a second at the default tick length
+     */
+    public static final int SNAPSHOT_INTERVAL = 2;
+
+    private Map map;
+    private int nextSpawnPoint;
+    
+    /**
+     * The players, only changed while holding this engine's lock but looked up without it
+     */
+    private PlayerRegistry players;
+    
+    /**
+     * The projectiles in flight by id, so snapshots can say which ones are new and which are gone
+     */
+    private LinkedHashMap<Character, Projectile> projectiles;
+    private char nextProjectileId;
+    
+    /**
+     * Motion, shots and acknowledgements from the network threads, waiting for the next tick
+     */
+    private ConcurrentLinkedQueue<Message> proposals;
+    
+    /**
+     * Deaths and respawns since the last publish, which every player is told about
+     */
+    private ArrayList<Message> events;
+    
+    /**
+     * Where the players are, to find who can see what
+     */
+    private InterestGrid interestGrid;
+    private float interestWidth, interestHeight, interestRadius;
+    
+    private int tick;
+    private char snapshotSequence;
+    private int publishInterval;
+    
+    /**
+     * When the next tick is due, in System.nanoTime(), only touched by runDueTicks
+     */
+    private long nextTick;
+    private boolean ticking;
+    
+    /**
+     * Goes up every time something that the login and server info responses describe changes
+     */
+    private int stateVersion;
     
-    private final byte INIT = 1;
     private final byte MAX_PLAYERS = 64;
     
     public ServerGameEngine (long gamestarttime){
-        avaliableUserIDs = new LinkedList<Character>();
-        // Populate the set with the avaliable userIds
-        for(char i = INIT; i <= MAX_PLAYERS; i++)
-            avaliableUserIDs.offer(i);
-        
-    	playerInfo = new Vector<PlayerInfo>();
+    	map = new Map();
+    	nextSpawnPoint = 0;
+    	stateVersion = 0;
+    	
+    	players = new PlayerRegistry(MAX_PLAYERS);
+    	projectiles = new LinkedHashMap<Character, Projectile>();
+    	nextProjectileId = 0;
+    	proposals = new ConcurrentLinkedQueue<Message>();
+    	events = new ArrayList<Message>();
+    	interestGrid = new InterestGrid(map);
+    	interestWidth = DEFAULT_INTEREST_WIDTH;
+    	interestHeight = DEFAULT_INTEREST_HEIGHT;
+    	interestRadius = 0;
+    	tick = 0;
+    	snapshotSequence = 0;
+    	publishInterval = SNAPSHOT_INTERVAL;
+    	ticking = false;
     }
     
     /**
-     * Processes a PlayerJoin message.
-     * @param message The message for login.
-     * @return The id that is assigned to the player.
+     * Add a player to the game.
+     * @param playerName The name they asked for.
+     * @param address The address they joined from, which everything they send has to come from.
+     * @return The id that is assigned to the player, or (char)-2 if the game is full or the name is taken.
      */
-    public synchronized char processPlayerJoin(PlayerJoinMessage message) {
-        char playerId = message.getPlayerId();
-        
+    public synchronized char processPlayerJoin(String playerName, InetSocketAddress address) {
         // Don't process if we are out of avaliable user IDs
-        if(avaliableUserIDs.size() == 0 || nameInUse(message.getPlayerName())) {
-            playerId = (char)-2;
-        }
-        else {
-            playerId = avaliableUserIDs.poll();
-            playerInfo.add(new PlayerInfo(playerId,
-                                          message.getSource(),
-                                          message.getPlayerName()));
-            logger.log(Level.INFO, message.getPlayerName() + " has joined the game with ID " + playerId);
-            logger.log(Level.INFO,"Avaliable Player IDs: " + avaliableUserIDs.size());
-        }
+        if(players.isFull() || players.nameInUse(playerName))
+            return (char)-2;
+        
+        char playerId = players.allocateId();
+        ServerPlayer player = new ServerPlayer(playerId, playerName, address,
+                                               getSpawnPosition(), getGameTime());
+        players.add(player);
+        interestGrid.update(player);
+        stateVersion ++;
+        logger.log(Level.INFO, playerName + " has joined the game with ID " + (int)playerId);
+        logger.log(Level.INFO,"Avaliable Player IDs: " + (MAX_PLAYERS - players.size()));
         return playerId;
     }
     
     /**
-     * Processes a PlayerJoin message.
+     * Processes a PlayerLeave message.
      * @param message The message for logout.
      */
     public synchronized void processPlayerLeave(PlayerLeaveMessage message) {
-        char playerId = message.getPlayerId();
-        for(int i = 0; i < playerInfo.size() ; i++) {
-            if(playerInfo.get(i).getPlayerId() == playerId) {
-                PlayerInfo info = playerInfo.remove(i);
-                avaliableUserIDs.offer(playerId);
-                logger.log(Level.INFO,info.getName() + " has left the game");
-                logger.log(Level.INFO,"Avaliable Player IDs: " + avaliableUserIDs.size());
-                break;
+        ServerPlayer player = players.remove(message.getPlayerId());
+        if(player == null)
+            return;
+        
+        interestGrid.remove(player);
+        player.dispose();
+        stateVersion ++;
+        logger.log(Level.INFO,player.getPlayerName() + " has left the game");
+        logger.log(Level.INFO,"Avaliable Player IDs: " + (MAX_PLAYERS - players.size()));
+    }
+    
+    /**
+     * Change the map that's being played.
+     * @param map The new map.
+     */
+    public synchronized void setMap(Map map) {
+        this.map = map;
+        nextSpawnPoint = 0;
+        projectiles.clear();
+        // Everybody starts again on the new map
+        interestGrid.resize(map);
+        for(ServerPlayer player : players) {
+            player.setInterestCell(-1);
+            player.respawn(getSpawnPosition(), getGameTime());
+            interestGrid.update(player);
+        }
+        stateVersion ++;
+        logger.log(Level.INFO,"Map changed to " + map.getName());
+    }
+    
+    public synchronized Map getMap() {
+        return map;
+    }
+    
+    /**
+     * Get the version of the game state that responses are built from.
+     * It changes when a player joins or leaves or the map changes.
+     * @return The current state version.
+     */
+    public synchronized int getStateVersion() {
+        return stateVersion;
+    }
+
+    /**
+     * Check if every player id is taken, so nobody else can join.
+     */
+    public boolean isFull() {
+        return players.isFull();
+    }
+    
+    /**
+     * Pick where a new player starts, going round the map's spawn points.
+     * @return The starting position.
+     */
+    public synchronized Position getSpawnPosition() {
+        Vector<SpawnPoint> spawnPoints = map.getSpawnPoints();
+        if(spawnPoints.isEmpty())
+            return new Position(map.getWidth() / 2f, map.getHeight() / 2f);
+        
+        nextSpawnPoint = (nextSpawnPoint + 1) % spawnPoints.size();
+        return spawnPoints.get(nextSpawnPoint).getPosition();
+    }
+    
+    /**
+     * Get where the simulation has a player right now.
+     * @param playerId The player's id.
+     * @return A copy of the player's position, or null if there's no such player.
+     */
+    public synchronized Position getPlayerPosition(char playerId) {
+        ServerPlayer player = players.get(playerId);
+        return player == null ? null : new Position(player.getPosition());
+    }
+    
+    /**
+     * Get the simulation's game time, in seconds since it started.
+     */
+    public synchronized float getGameTime() {
+        return tick * TICK_LENGTH / 1000f;
+    }
+    
+    /**
+     * Change how often the simulation publishes the game state.
+     * @param ticks The number of ticks between publishes.
+     */
+    public synchronized void setPublishInterval(int ticks) {
+        publishInterval = Math.max(1, ticks);
+    }
+    
+    /**
+     * Send each player updates about what's in a rectangle centred on them.
+     * @param width The width of the rectangle, in tiles.
+     * @param height The height of the rectangle, in tiles.
+     */
+    public synchronized void setInterestArea(float width, float height) {
+        interestWidth = width;
+        interestHeight = height;
+        interestRadius = 0;
+    }
+    
+    /**
+     * Send each player updates about what's within a distance of them, instead of in a rectangle.
+     * @param radius The distance, in tiles.
+     */
+    public synchronized void setInterestRadius(float radius) {
+        interestWidth = interestHeight = 2 * radius;
+        interestRadius = radius;
+    }
+    
+    /**
+     * Queue a client's motion, shot or snapshot acknowledgement to be applied on the next tick.
+     * Takes PlayerMotionMessage, CompactMotionMessage, ProjectileLaunchMessage and SnapshotAckMessage,
+     * and ignores anything else.
+     * The engine owns the message from now on, and releases it when it's done with it.
+     * @param message The proposed motion or shot.
+     */
+    public void propose(Message message) {
+        proposals.offer(message);
+    }
+    
+    /**
+     * Run every tick that has come due, publishing as they go. If ticks are late the missed ones
+     * are run back to back, so game time keeps up with real time, up to MAX_CATCH_UP_TICKS.
+     * The RoomScheduler calls this from its pool, never from two threads at once.
+     * @param now The current System.nanoTime().
+     * @param listener Where to publish the game state.
+     */
+    void runDueTicks(long now, StateListener listener) {
+        final long tickNanos = TICK_LENGTH * 1000000L;
+        if(!ticking) {
+            nextTick = now;
+            ticking = true;
+        }
+        
+        // After a long stall, give up on the ticks we can't catch up on
+        if(now - nextTick > MAX_CATCH_UP_TICKS * tickNanos)
+            nextTick = now - MAX_CATCH_UP_TICKS * tickNanos;
+        
+        while(nextTick <= now) {
+            List<Delivery> deliveries = step();
+            nextTick += tickNanos;
+            if(deliveries != null)
+                publish(listener, deliveries);
+        }
+    }
+    
+    /**
+     * Hand published state to the listener, outside the engine's lock.
+     */
+    private void publish(StateListener listener, List<Delivery> deliveries) {
+        try {
+            for(Delivery delivery : deliveries)
+                listener.statePublished(tick, delivery.address, delivery.messages);
+        }
+        catch(Exception ex) {
+            logger.log(Level.WARNING, "Publishing tick " + tick + " failed", ex);
+        }
+    }
+    
+    /**
+     * Run one tick of the simulation.
+     * @return What to send to whom, or null if this isn't a publishing tick.
+     */
+    synchronized List<Delivery> step() {
+        float dTime = TICK_LENGTH / 1000f;
+        tick ++;
+        float time = getGameTime();
+        
+        applyProposals(time);
+        
+        for(ServerPlayer player : players) {
+            if(player.isRespawnDue(time)) {
+                player.respawn(getSpawnPosition(), time);
+                events.add(new PlayerRespawnMessage(player.getPlayerID(), new Position(player.getPosition())));
             }
+            else
+                player.step(dTime, time, map);
+            interestGrid.update(player);
         }
+        
+        moveProjectiles(dTime, time);
+        
+        if(tick % publishInterval != 0 || players.isEmpty())
+            return null;
+        
+        // Every player gets one snapshot of what they can see, with the deaths and respawns alongside
+        snapshotSequence ++;
+        List<Delivery> deliveries = new ArrayList<Delivery>(players.size());
+        List<ServerPlayer> visible = new ArrayList<ServerPlayer>();
+        char[] visibleProjectiles = new char[projectiles.size()];
+        for(ServerPlayer recipient : players) {
+            visible.clear();
+            float x = recipient.getX(), y = recipient.getY();
+            interestGrid.query(x - interestWidth / 2, y - interestHeight / 2,
+                               x + interestWidth / 2, y + interestHeight / 2, visible);
+            Collections.sort(visible, BY_PLAYER_ID);
+            
+            SnapshotState state = new SnapshotState(snapshotSequence, time, visible.size(), visibleProjectiles.length);
+            for(ServerPlayer player : visible) {
+                // Players always see themselves, to keep up with their own health
+                if(player != recipient && (!player.isAlive() || !isInterested(recipient, player.getX(), player.getY())))
+                    continue;
+                state.addPlayer(player.getPlayerID(), player.getPosition(), player.getVelocity(),
+                                player.getAim(), player.getHealth());
+            }
+            
+            int count = 0;
+            for(java.util.Map.Entry<Character, Projectile> entry : projectiles.entrySet()) {
+                Projectile projectile = entry.getValue();
+                if(isInterested(recipient, projectile.getX(), projectile.getY()))
+                    visibleProjectiles[count ++] = entry.getKey();
+            }
+            // Ids are handed out in order, but may have wrapped round
+            Arrays.sort(visibleProjectiles, 0, count);
+            for(int i = 0; i < count; i++) {
+                Projectile projectile = projectiles.get(visibleProjectiles[i]);
+                state.addProjectile(visibleProjectiles[i], projectile.getOwner(), projectile.getStartPosition(),
+                                    projectile.getDirection(), projectile.getStartTime());
+            }
+            
+            Delivery delivery = new Delivery(recipient.getAddress());
+            delivery.messages.add(new SnapshotMessage(state, recipient.getSnapshotBaseline()));
+            delivery.messages.addAll(events);
+            deliveries.add(delivery);
+            recipient.snapshotSent(state);
+        }
+        events.clear();
+        return deliveries;
     }
     
-    public String getPlayerName(char playerId) {
-        for(PlayerInfo player : playerInfo) {
-            if(player.getPlayerId() == playerId)
-                return player.getName();
+    /**
+     * Check if a point is in the area a player is sent updates for.
+     */
+    private boolean isInterested(ServerPlayer recipient, float x, float y) {
+        float dx = x - recipient.getX(), dy = y - recipient.getY();
+        if(interestRadius > 0)
+            return dx*dx + dy*dy <= interestRadius * interestRadius;
+        return Math.abs(dx) <= interestWidth / 2 && Math.abs(dy) <= interestHeight / 2;
+    }
+    
+    /**
+     * Hand everything queued since the last tick to the players it came from.
+     */
+    private void applyProposals(float time) {
+        Message message;
+        while((message = proposals.poll()) != null) {
+            ServerPlayer player = null;
+            if(message instanceof MessagePlayerId)
+                player = players.get(((MessagePlayerId)message).getPlayerId());
+            // Only take a player's input from the address they joined from, so nobody can move them for them
+            if(player != null && !player.getAddress().equals(message.getSource())) {
+                if(logger.isLoggable(Level.FINE))
+                    logger.log(Level.FINE, "Dropped a message for " + player.getPlayerName() + " from " + message.getSource());
+                message.release();
+                continue;
+            }
+            switch(message.getMessageType()) {
+                case TYPE_PLAYER_MOTION:
+                    if(player != null)
+                        player.propose((PlayerMotionMessage)message);
+                    else
+                        message.release();
+                    break;
+                    
+                case TYPE_PLAYER_MOTION_COMPACT:
+                    CompactMotionMessage compact = (CompactMotionMessage)message;
+                    if(player != null) {
+                        PlayerMotionMessage motion = player.getMotionCodec().expand(compact);
+                        if(motion != null)
+                            player.propose(motion);
+                    }
+                    // The codec keeps keyframes, so only deltas are finished with
+                    if(player == null || compact.isDelta())
+                        compact.release();
+                    break;
+                    
+                case TYPE_PROJECTILE_LAUNCH:
+                    if(player != null)
+                        launchProjectile(player, (ProjectileLaunchMessage)message, time);
+                    break;
+                    
+                case TYPE_SNAPSHOT_ACK:
+                    if(player != null)
+                        player.acknowledgeSnapshot(((SnapshotAckMessage)message).getSequence());
+                    break;
+                    
+                default:
+                    message.release();
+            }
         }
-        return null;
     }
     
-    public InetSocketAddress getAddress(byte playerId) {
-        for(PlayerInfo player : playerInfo) {
-            if(player.getPlayerId() == playerId)
-                return player.getAddress();
+    /**
+     * Fire a projectile for a player, if they've reloaded.
+     * The origin is pulled back to the player if it's too far away to have come from them.
+     */
+    private void launchProjectile(ServerPlayer player, ProjectileLaunchMessage message, float time) {
+        if(!player.tryFire(time))
+            return;
+        
+        Position origin = new Position(message.getOrigin());
+        Position offset = origin.subtract(player.getPosition());
+        if(offset.getMagnitude() > PLAYER_AIM_LENGTH + LAUNCH_TOLERANCE)
+            origin = new Position(player.getPosition());
+        
+        // Projectiles fly at a fixed speed, so only the direction is taken from the client
+        Position direction = new Position(message.getDirection());
+        float length = direction.getMagnitude();
+        if(length == 0)
+            return;
+        direction.scale(PLAYER_AIM_LENGTH / length);
+        
+        projectiles.put(nextProjectileId ++, new Projectile(origin, direction, time, time, player.getPlayerID(), player.getTeam()));
+    }
+    
+    /**
+     * Move every projectile, dropping those that hit a wall, a player or fly for too long.
+     */
+    private void moveProjectiles(float dTime, float time) {
+        Iterator<Projectile> i = projectiles.values().iterator();
+        while(i.hasNext()) {
+            Projectile projectile = i.next();
+            projectile.animate(dTime, time);
+            
+            float x = projectile.getX(), y = projectile.getY();
+            if(time - projectile.getStartTime() > PROJECTILE_LIFETIME ||
+               x < 0 || y < 0 || x >= map.getWidth() || y >= map.getHeight() ||
+               map.isWall((int)x, (int)y)) {
+                i.remove();
+                continue;
+            }
+            
+            for(ServerPlayer player : players) {
+                if(hits(projectile, player)) {
+                    hitPlayer(player, projectile, time);
+                    i.remove();
+                    break;
+                }
+            }
         }
-        return null;
     }
     
-    public boolean nameInUse(String name) {
-        for(PlayerInfo player : playerInfo) {
-            if(player.getName().equals(name))
-                return true;
+    /**
+     * Check if a projectile overlaps a player it's allowed to hurt.
+     */
+    private static boolean hits(Projectile projectile, ServerPlayer player) {
+        if(!player.isAlive() || player.getPlayerID() == projectile.getOwner())
+            return false;
+        int team = projectile.getTeam();
+        if((team == TEAM_A || team == TEAM_B) && team == player.getTeam())
+            return false;
+        
+        float reachX = 0.5f * (projectile.getWidth() + player.getWidth());
+        float reachY = 0.5f * (projectile.getHeight() + player.getHeight());
+        return Math.abs(projectile.getX() - player.getX()) < reachX &&
+               Math.abs(projectile.getY() - player.getY()) < reachY;
+    }
+    
+    private void hitPlayer(ServerPlayer player, Projectile projectile, float time) {
+        boolean killed = player.damage(projectile.getDamage(), projectile.getOwner());
+        if(killed) {
+            player.kill(time + RESPAWN_DELAY);
+            events.add(new PlayerDeathMessage(player.getPlayerID(), projectile.getOwner()));
+            logger.log(Level.FINE, player.getPlayerName() + " was killed by " + (int)projectile.getOwner());
         }
-        return false;
     }
-}
-
-class PlayerInfo implements Comparable {
-    private char playerId;
-    private InetSocketAddress address;
-    private String name;
     
-    public PlayerInfo(char playerId, InetSocketAddress address, String name) {
-        this.playerId = playerId;
-        this.address = address;
-        this.name = name;
+    /**
+     * Build a server info response for the current game state.
+     * @return The response.
+     */
+    public synchronized ServerInfoResponseMessage makeServerInfoResponse() {
+        String[] names = new String[players.size()];
+        byte[] teams = new byte[names.length];
+        int i = 0;
+        for(ServerPlayer player : players)
+            names[i ++] = player.getPlayerName();
+        
+        return new ServerInfoResponseMessage((byte)0, (char)names.length, names, teams,
+                                             map.getName(), map.getData());
     }
     
-    public int compareTo(Object o) {
-        if(o instanceof PlayerInfo)
-            return new Character(playerId).compareTo(((PlayerInfo )o).getPlayerId());
-        if(o instanceof Byte)
-            return new Character(playerId).compareTo((Character)o);
-        return 0;
+    /**
+     * Build a login response for the current game state.
+     * @param playerId The id of the player logging in.
+     * @param playerTeam The team of the player logging in.
+     * @param initialPosition Where the player logging in starts.
+     * @return The response.
+     */
+    public synchronized LoginResponseMessage makeLoginResponse(char playerId, byte playerTeam, Position initialPosition) {
+        String[] names = new String[players.size()];
+        char[] ids = new char[names.length];
+        byte[] teams = new byte[names.length];
+        int i = 0;
+        for(ServerPlayer player : players) {
+            names[i] = player.getPlayerName();
+            ids[i ++] = player.getPlayerID();
+        }
+        
+        return new LoginResponseMessage(playerId, playerTeam, map.getName(), map.getData(),
+                                        (char)names.length, names, ids, teams,
+                                        initialPosition, 0);
     }
     
-    public char getPlayerId() {
-        return playerId;
+    /**
+     * Look up a player's name, without waiting for the tick thread.
+     * @return The name, or null if there's no such player.
+     */
+    public String getPlayerName(char playerId) {
+        ServerPlayer player = players.get(playerId);
+        return player == null ? null : player.getPlayerName();
     }
     
-    public InetSocketAddress getAddress() {
-        return address;
+    /**
+     * Look up the address a player joined from, without waiting for the tick thread.
+     * @return The address, or null if there's no such player.
+     */
+    public InetSocketAddress getAddress(char playerId) {
+        ServerPlayer player = players.get(playerId);
+        return player == null ? null : player.getAddress();
     }
     
-    public String getName() {
-        return name;
+    public boolean nameInUse(String name) {
+        return players.nameInUse(name);
+    }
+    
+    /**
+     * Puts players in order of id, the order snapshots list them in
+     */
+    private static final Comparator<ServerPlayer> BY_PLAYER_ID = new Comparator<ServerPlayer>() {
+        public int compare(ServerPlayer a, ServerPlayer b) {
+            return a.getPlayerID() - b.getPlayerID();
+        }
+    };
+    
+    /**
+     * The messages one player is sent in a publish
+     */
+    static class Delivery {
+        final InetSocketAddress address;
+        final List<Message> messages;
+        
+        Delivery(InetSocketAddress address) {
+            this.address = address;
+            this.messages = new ArrayList<Message>();
+        }
     }
 }
@@ -0,0 +1,312 @@
+package server;
+
+import common.Map;
+import common.Player;
+import common.Position;
+import common.messages.MotionCodec;
+import common.messages.PlayerMotionMessage;
+import common.messages.SnapshotState;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The server's copy of a player, moved by the tick thread.
+ * It's also the server's record of who the player is and where they joined from.
+ * Motion sent by the client is only a proposal: it's applied on the next tick,
+ * limited to how far the player could really have gone since the last one it accepted.
+ */
+class ServerPlayer extends Player {
+    private InetSocketAddress address;
+    private MotionCodec motionCodec;
+    private PlayerMotionMessage proposal;
+    private float lastProposalTime;
+    private float lastMoveTime;
+    private float lastShotTime;
+    private float respawnTime;
+    private char lastAttacker;
+    private int interestCell;
+    private int registryIndex;
+    
+    /**
+     * The states sent in recent snapshots, by sequence number, and the newest one the client acknowledged
+     */
+    private SnapshotState[] sentSnapshots;
+    private SnapshotState acknowledged;
+
+    public ServerPlayer(char playerId, String name, InetSocketAddress address, Position start, float currentTime) {
+        super(playerId, name);
+        this.address = address;
+        width = height = PLAYER_SIZE;
+        setPosition(start);
+        motionCodec = new MotionCodec();
+        proposal = null;
+        lastProposalTime = Float.NEGATIVE_INFINITY;
+        lastMoveTime = currentTime;
+        lastShotTime = -RELOAD_TIME;
+        respawnTime = -1;
+        lastAttacker = playerId;
+        interestCell = -1;
+        registryIndex = -1;
+        sentSnapshots = new SnapshotState[SnapshotState.HISTORY];
+        acknowledged = null;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the codec that expands this player's compact motion messages.
+     */
+    public MotionCodec getMotionCodec() {
+        return motionCodec;
+    }
+
+    /**
+     * Keep a motion message to apply on the next tick, replacing any older one.
+     * Motion older than the last one applied is dropped, so a reordered packet can't move the player back in time.
+     * This player owns the message from now on and releases it when it's done with it.
+     * @param motion The proposed motion.
+     */
+    public void propose(PlayerMotionMessage motion) {
+        float newest = proposal != null ? proposal.getTime() : lastProposalTime;
+        if(!alive || motion.getTime() < newest) {
+            // Dead players don't move, and a late packet is older than one we already have
+            motion.release();
+            return;
+        }
+        if(proposal != null)
+            proposal.release();
+        proposal = motion;
+    }
+
+    /**
+     * Move this player one tick, from its latest proposal if there is one.
+     * @param dTime The length of the tick in seconds.
+     * @param currentTime The game time at the end of the tick.
+     * @param map The map to keep the player out of the walls of.
+     * @return True if the proposal had to be cut short or the player hit a wall.
+     */
+    public boolean step(float dTime, float currentTime, Map map) {
+        if(!alive)
+            return false;
+
+        float oldX = position.getX(), oldY = position.getY();
+        boolean corrected = false;
+
+        if(proposal != null) {
+            corrected = applyProposal(currentTime);
+            proposal.release();
+            proposal = null;
+        }
+        else {
+            animate(dTime, currentTime);
+        }
+
+        return collideWithWalls(map, oldX, oldY) || corrected;
+    }
+
+    /**
+     * Take the position, velocity and aim from the proposal, within what the rules allow.
+     * @return True if the position had to be pulled back.
+     */
+    private boolean applyProposal(float currentTime) {
+        float dx = proposal.getPosition().getX() - position.getX();
+        float dy = proposal.getPosition().getY() - position.getY();
+        float distance = speedOf(dx, dy);
+        float allowed = MAXIMUM_SPEED * (currentTime - lastMoveTime) + MOVE_TOLERANCE;
+        boolean corrected = false;
+
+        if(distance > allowed) {
+            dx *= allowed / distance;
+            dy *= allowed / distance;
+            corrected = true;
+        }
+        moveBy(dx, dy);
+        lastProposalTime = proposal.getTime();
+        lastMoveTime = currentTime;
+        curTime = currentTime;
+
+        velocity.setPosition(proposal.getVelocity().getX(), proposal.getVelocity().getY());
+        checkSpeed();
+
+        Position proposedAim = proposal.getAim();
+        float length = proposedAim.getMagnitude();
+        if(length > 0) {
+            aim.setPosition(proposedAim.getX(), proposedAim.getY());
+            aim.scale(PLAYER_AIM_LENGTH / length);
+        }
+
+        return corrected;
+    }
+
+    /**
+     * Undo the part of this tick's move that ends inside a wall, one axis at a time so we slide along it.
+     * @return True if there was a wall in the way.
+     */
+    private boolean collideWithWalls(Map map, float oldX, float oldY) {
+        float x = position.getX(), y = position.getY();
+        boolean hit = false;
+
+        if(hitsWall(map, x, oldY)) {
+            x = oldX;
+            velocity.bounceX();
+            hit = true;
+        }
+        if(hitsWall(map, x, y)) {
+            y = oldY;
+            velocity.bounceY();
+            hit = true;
+        }
+
+        setPosition(x, y);
+        if(hit)
+            collision(null);
+        return hit;
+    }
+
+    /**
+     * Check if this player would overlap a wall, or the edge of the map, if it were at (x, y).
+     */
+    private boolean hitsWall(Map map, float x, float y) {
+        float r = 0.5f * width;
+        if(x - r < 0 || y - r < 0 || x + r > map.getWidth() || y + r > map.getHeight())
+            return true;
+
+        return map.isWall((int)(x - r), (int)(y - r)) || map.isWall((int)(x + r), (int)(y - r)) ||
+               map.isWall((int)(x - r), (int)(y + r)) || map.isWall((int)(x + r), (int)(y + r));
+    }
+
+    /**
+     * Check if this player has reloaded, and if so start reloading again.
+     * @param currentTime The current game time.
+     * @return True if the player may fire now.
+     */
+    public boolean tryFire(float currentTime) {
+        if(!alive || currentTime - lastShotTime < RELOAD_TIME)
+            return false;
+        lastShotTime = currentTime;
+        fire();
+        return true;
+    }
+
+    /**
+     * Take damage from a projectile.
+     * @param damage How much health to lose.
+     * @param attacker The player who fired the projectile.
+     * @return True if that killed this player.
+     */
+    public boolean damage(int damage, char attacker) {
+        health = Math.max(0, health - damage);
+        lastAttacker = attacker;
+        return health == 0;
+    }
+
+    /**
+     * Kill this player, to come back to life at a later time.
+     * @param respawnTime The game time to respawn at.
+     */
+    public void kill(float respawnTime) {
+        kill();
+        this.respawnTime = respawnTime;
+        if(proposal != null) {
+            proposal.release();
+            proposal = null;
+        }
+    }
+
+    /**
+     * Check if a dead player is due to respawn.
+     */
+    public boolean isRespawnDue(float currentTime) {
+        return !alive && currentTime >= respawnTime;
+    }
+
+    /**
+     * Bring this player back to life with full health.
+     * @param start Where to come back.
+     * @param currentTime The current game time.
+     */
+    public void respawn(Position start, float currentTime) {
+        alive = true;
+        health = DEFAULT_ACTOR_HEALTH;
+        setPosition(start);
+        velocity.setPosition(0, 0);
+        lastMoveTime = currentTime;
+        respawnTime = -1;
+    }
+
+    public char getLastAttacker() {
+        return lastAttacker;
+    }
+    
+    /**
+     * Get the InterestGrid cell this player was last filed under, or -1 if it isn't in the grid.
+     */
+    public int getInterestCell() {
+        return interestCell;
+    }
+    
+    public void setInterestCell(int cell) {
+        interestCell = cell;
+    }
+    
+    /**
+     * Get where this player is in its PlayerRegistry's list of everybody, or -1 if it isn't in one.
+     */
+    public int getRegistryIndex() {
+        return registryIndex;
+    }
+    
+    public void setRegistryIndex(int index) {
+        registryIndex = index;
+    }
+
+    /**
+     * Get where this player is aiming.
+     */
+    public Position getAim() {
+        return aim;
+    }
+    
+    /**
+     * Remember a state sent to this player, in case they acknowledge it.
+     */
+    public void snapshotSent(SnapshotState state) {
+        sentSnapshots[state.getSequence() % SnapshotState.HISTORY] = state;
+    }
+    
+    /**
+     * Note that the client got a snapshot, so later ones can be sent as changes from it.
+     * Acknowledgements for snapshots older than the newest one acknowledged, or no longer kept, are ignored.
+     * @param sequence The snapshot's sequence number.
+     */
+    public void acknowledgeSnapshot(char sequence) {
+        SnapshotState state = sentSnapshots[sequence % SnapshotState.HISTORY];
+        if(state == null || state.getSequence() != sequence)
+            return;
+        if(acknowledged == null || (short)(sequence - acknowledged.getSequence()) > 0)
+            acknowledged = state;
+    }
+    
+    /**
+     * Get the state to send the next snapshot as changes from.
+     * @return The newest acknowledged state, or null to send everything if there isn't one
+     *         or it's so old the client may not have kept it.
+     */
+    public SnapshotState getSnapshotBaseline() {
+        if(acknowledged != null && sentSnapshots[acknowledged.getSequence() % SnapshotState.HISTORY] != acknowledged)
+            acknowledged = null;
+        return acknowledged;
+    }
+    
+    /**
+     * Forget any proposal still waiting, when the player leaves.
+     */
+    public void dispose() {
+        if(proposal != null) {
+            proposal.release();
+            proposal = null;
+        }
+    }
+}
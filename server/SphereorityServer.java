@@ -1,9 +1,14 @@
 package server;
 
 import common.Constants;
+import common.Map;
 import java.net.InetAddress;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
@@ -11,6 +16,11 @@ import java.util.logging.Logger;
 
 class SphereorityServer implements Constants {
 	public static Logger logger = Logger.getLogger(SERVER_LOGGER_NAME);
+	
+	/**
+	 * How many rooms to host, unless a number is given after the log level
+	 */
+	public static final int DEFAULT_ROOMS = 4;
 
 	public static void main (String [] args){
 	    initialiseLogger(args);
@@ -18,26 +28,97 @@ class SphereorityServer implements Constants {
 	    // Report the current log level to the log file
 	    logger.log(logger.getLevel(), "Log Level set to: " +  logger.getLevel());
 
+	    int roomCount = parseRoomCount(args);
+	    if(roomCount < 0) {
+	        System.err.println("Usage: java server/SphereorityServer [log level] [rooms, 1 to " + GameRoom.MAX_ROOMS + "]");
+	        logger.log(Level.SEVERE, "Not a number of rooms this server can host: " + args[1]);
+	        System.exit(1);
+	    }
+
 	    try {
 	    	long starttime = System.currentTimeMillis();
-	        ServerGameEngine engine = new ServerGameEngine(starttime);
-	        ServerConnection connection = new ServerConnection(InetAddress.getByName(SERVER_ADDRESS),
-	                                                           SERVER_PORT,
-	                                                           engine, starttime);
+	    	String[] maps = findMaps();
+	    	
+	    	// Every room plays its own map, going round the ones we have
+	    	List<GameRoom> rooms = new ArrayList<GameRoom>();
+	    	for(int i = 0; i < roomCount; i++) {
+	    	    Map map = maps.length == 0 ? new Map() : new Map(maps[i % maps.length]);
+	    	    rooms.add(new GameRoom(i, map, starttime));
+	    	}
+	    	
+	        final ServerConnection connection = new ServerConnection(InetAddress.getByName(SERVER_ADDRESS),
+	                                                                 SERVER_PORT,
+	                                                                 rooms);
 	        connection.Start();
+	        
+	        // Run the games themselves, sharing a thread per processor and publishing through the connection
+	        final RoomScheduler scheduler = new RoomScheduler(Runtime.getRuntime().availableProcessors());
+	        for(GameRoom room : rooms)
+	            scheduler.add(room);
+	        scheduler.start(connection);
+	        
+	        // The scheduler's thread keeps us running, until we're told to stop
+	        Runtime.getRuntime().addShutdownHook(new Thread("Sphereority shutdown") {
+	            public void run() {
+	                scheduler.stop();
+	                connection.Dispose();
+	            }
+	        });
 	        // System.out.println("Server Started: Waiting for connections");
-			    logger.log(Level.INFO, "Server Started: Waiting for connections");
-
-	        while(true) {
-//	            Thread.yield();
-	        	try { Thread.sleep(100); }
-	        	catch (InterruptedException er) { }
-	        }
+			    logger.log(Level.INFO, "Server Started with " + roomCount + " rooms: Waiting for connections");
 	    }
 	    catch (Exception e){
 	        e.printStackTrace();
 	    }
 	}
+	
+	/**
+	 * Read how many rooms to host from the command line, after the log level.
+	 * Every room needs its own multicast group and port, see GameRoom.groupAddress(), so there can be at most GameRoom.MAX_ROOMS.
+	 * @return The number of rooms, DEFAULT_ROOMS if none was given, or -1 if it isn't a number of rooms we can host.
+	 */
+	public static int parseRoomCount(String[] args) {
+	    if(args.length < 2)
+	        return DEFAULT_ROOMS;
+
+	    int roomCount;
+	    try {
+	        roomCount = Integer.parseInt(args[1].trim());
+	    }
+	    catch(NumberFormatException e) {
+	        return -1;
+	    }
+	    if(roomCount < 1 || roomCount > GameRoom.MAX_ROOMS)
+	        return -1;
+
+	    // The last room's group has to still be a multicast address
+	    try {
+	        if(!GameRoom.groupAddress(roomCount - 1).getAddress().isMulticastAddress())
+	            return -1;
+	    }
+	    catch(IOException e) {
+	        return -1;
+	    }
+	    return roomCount;
+	}
+
+	/**
+	 * Find the names of the maps in the maps directory.
+	 * @return The names, without the extension, in alphabetical order.
+	 */
+	public static String[] findMaps() {
+	    File[] files = new File("maps").listFiles();
+	    List<String> names = new ArrayList<String>();
+	    if(files != null) {
+	        for(File file : files) {
+	            String name = file.getName();
+	            if(file.isFile() && name.endsWith(".map"))
+	                names.add(name.substring(0, name.length() - ".map".length()));
+	        }
+	    }
+	    Collections.sort(names);
+	    return names.toArray(new String[names.size()]);
+	}
 
 	/*
 	 * Allow the logger level to be set as a command-line paramater.
@@ -0,0 +1,20 @@
+package server;
+
+import common.messages.Message;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Receives the authoritative game state each room's ServerGameEngine publishes as it ticks.
+ */
+interface StateListener {
+    /**
+     * Called on the RoomScheduler's pool for each player, every time an engine publishes.
+     * Different rooms may publish at the same time.
+     * @param tick The number of the tick that was just simulated.
+     * @param recipient The address of the player to send to.
+     * @param messages The player's snapshot, then any deaths and respawns since the last publish.
+     */
+    void statePublished(int tick, InetSocketAddress recipient, List<Message> messages);
+}
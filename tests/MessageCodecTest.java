@@ -0,0 +1,497 @@
+package tests;
+
+import client.ClientExtaSysConnection;
+import common.Position;
+import common.messages.*;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Round trips and edge cases for the messages that carry the game's state:
+ *   compact motion, motion between old and new versions, bundles, fragments, snapshots,
+ *   cached login responses, and the deaths and respawns the client has to let through.
+ * Run it from the top of the tree:
+ * $ javac tests/MessageCodecTest.java
+ * $ java tests/MessageCodecTest
+ * Every failed check is printed, and the exit status is 1 if there were any.
+ */
+public class MessageCodecTest implements MessageConstants
+{
+	private static final InetSocketAddress SOURCE = new InetSocketAddress("127.0.0.1", 4567);
+	private static final InetSocketAddress OTHER_SOURCE = new InetSocketAddress("127.0.0.2", 4567);
+
+	private static int checks = 0;
+	private static int failures = 0;
+
+	public static void main(String[] args)
+	{
+		checkCompactMotion();
+		checkMotionCodec();
+		checkMixedVersions();
+		checkBundles();
+		checkFragments();
+		checkSnapshots();
+		checkLoginResponse();
+		checkDeathAndRespawn();
+
+		System.out.printf("%d checks, %d failed\n", checks, failures);
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	private static void check(boolean passed, String what)
+	{
+		checks ++;
+		if (!passed)
+		{
+			failures ++;
+			System.out.println("FAILED: " + what);
+		}
+	}
+
+	private static void checkClose(float expected, float actual, float tolerance, String what)
+	{
+		check(Math.abs(expected - actual) <= tolerance, what + ": expected " + expected + ", got " + actual);
+	}
+
+	private static Message decode(byte[] bytes)
+	{
+		return MessageAnalyser.getMessageFromArray(bytes, SOURCE);
+	}
+
+	private static PlayerMotionMessage motion(int id, float time, float x, float y)
+	{
+		return PlayerMotionMessage.obtain((char)id, time, x, y, 1.5f, -2f, 0f, 0.4f);
+	}
+
+	/**
+	 * Keyframes and deltas survive being encoded, to within their quantization,
+	 *   and deltas that can't be encoded are refused
+	 */
+	private static void checkCompactMotion()
+	{
+		// Times are seconds of game time, so check well into a game
+		float start = 3600.125f;
+		PlayerMotionMessage first = motion(7, start, 12.3f, 45.6f);
+		CompactMotionMessage keyframe = CompactMotionMessage.createKeyframe(first, 130);
+		check(keyframe.getSequence() == (130 & CompactMotionMessage.SEQUENCE_MASK), "keyframe sequence wraps at 7 bits");
+
+		CompactMotionMessage decodedKeyframe = (CompactMotionMessage)decode(keyframe.getMessageBytes());
+		check(decodedKeyframe != null && !decodedKeyframe.isDelta(), "keyframe decodes as a keyframe");
+		PlayerMotionMessage expanded = decodedKeyframe.toMotionMessage(null);
+		check(expanded.getPlayerId() == 7, "keyframe keeps the player id");
+		check(expanded.getTime() == start, "keyframe keeps the exact time");
+		checkClose(12.3f, expanded.getPosition().getX(), 0.5f / MOTION_POSITION_SCALE, "keyframe x");
+		checkClose(45.6f, expanded.getPosition().getY(), 0.5f / MOTION_POSITION_SCALE, "keyframe y");
+		checkClose(1.5f, expanded.getVelocity().getX(), 0.5f / MOTION_VELOCITY_SCALE, "keyframe velocity x");
+		checkClose(-2f, expanded.getVelocity().getY(), 0.5f / MOTION_VELOCITY_SCALE, "keyframe velocity y");
+		checkClose((float)Math.PI / 2, (float)Math.atan2(expanded.getAim().getY(), expanded.getAim().getX()),
+		           (float)Math.PI / 256, "keyframe aim");
+
+		PlayerMotionMessage later = motion(7, start + 0.51f, 13.1f, 44.9f);
+		CompactMotionMessage delta = CompactMotionMessage.createDelta(keyframe, later);
+		check(delta != null, "a small move encodes as a delta");
+		CompactMotionMessage decodedDelta = (CompactMotionMessage)decode(delta.getMessageBytes());
+		check(decodedDelta.isDelta() && decodedDelta.getSequence() == keyframe.getSequence(), "delta names its keyframe");
+		expanded = decodedDelta.toMotionMessage(decodedKeyframe);
+		checkClose(start + 0.51f, expanded.getTime(), MOTION_TIME_STEP / 2, "delta time");
+		checkClose(13.1f, expanded.getPosition().getX(), 0.5f / MOTION_POSITION_SCALE, "delta x");
+		checkClose(44.9f, expanded.getPosition().getY(), 0.5f / MOTION_POSITION_SCALE, "delta y");
+
+		// A delta holds a signed byte of position steps, and an unsigned byte of time steps
+		float reach = (float)Byte.MAX_VALUE / MOTION_POSITION_SCALE;
+		check(CompactMotionMessage.createDelta(keyframe, motion(7, start + 0.1f, 12.3f + reach + 0.5f, 45.6f)) == null,
+		      "a delta too far right is refused");
+		check(CompactMotionMessage.createDelta(keyframe, motion(7, start + 0.1f, 12.3f, 45.6f - reach - 0.5f)) == null,
+		      "a delta too far up is refused");
+		check(CompactMotionMessage.createDelta(keyframe, motion(7, start + 256 * MOTION_TIME_STEP, 12.3f, 45.6f)) == null,
+		      "a delta too long after its keyframe is refused");
+		check(CompactMotionMessage.createDelta(keyframe, motion(7, start - 1, 12.3f, 45.6f)) == null,
+		      "a delta from before its keyframe is refused");
+
+		// Positions off the map are clamped rather than wrapped
+		CompactMotionMessage clamped = CompactMotionMessage.createKeyframe(motion(7, start, -3f, 5000f), 0);
+		expanded = ((CompactMotionMessage)decode(clamped.getMessageBytes())).toMotionMessage(null);
+		check(expanded.getPosition().getX() == 0, "negative positions clamp to 0");
+		checkClose(0xffff / (float)MOTION_POSITION_SCALE, expanded.getPosition().getY(), 0, "large positions clamp to the top");
+	}
+
+	/**
+	 * The codec sends keyframes often enough, and a receiver that missed one drops deltas until the next
+	 */
+	private static void checkMotionCodec()
+	{
+		MotionCodec sender = new MotionCodec();
+		MotionCodec receiver = new MotionCodec();
+
+		CompactMotionMessage first = sender.compress(motion(3, 10, 5, 5));
+		check(first != null && !first.isDelta(), "the codec starts with a keyframe");
+		int keyframes = 1;
+		for (int i=1; i < MotionCodec.KEYFRAME_INTERVAL * 2; i++)
+		{
+			CompactMotionMessage next = sender.compress(motion(3, 10 + i * 0.05f, 5 + i * 0.01f, 5));
+			if (!next.isDelta())
+				keyframes ++;
+		}
+		check(keyframes == 2, "a keyframe every KEYFRAME_INTERVAL updates, got " + keyframes + " in " + MotionCodec.KEYFRAME_INTERVAL * 2);
+
+		CompactMotionMessage far = sender.compress(motion(3, 11, 50, 50));
+		check(far != null && !far.isDelta(), "a move too big for a delta sends a keyframe");
+
+		CompactMotionMessage delta = sender.compress(motion(3, 11.05f, 50.1f, 50));
+		check(delta.isDelta(), "the next small move is a delta");
+		check(receiver.expand((CompactMotionMessage)decode(delta.getMessageBytes())) == null,
+		      "a delta against a missed keyframe is dropped");
+
+		PlayerMotionMessage expanded = receiver.expand((CompactMotionMessage)decode(far.getMessageBytes()));
+		check(expanded != null && expanded.getPlayerId() == 3, "a keyframe always expands");
+		expanded = receiver.expand((CompactMotionMessage)decode(delta.getMessageBytes()));
+		check(expanded != null, "a delta expands once its keyframe has arrived");
+		checkClose(50.1f, expanded.getPosition().getX(), 0.5f / MOTION_POSITION_SCALE, "expanded delta x");
+
+		check(sender.compress(motion(CompactMotionMessage.MAX_PLAYER_ID + 1, 12, 1, 1)) == null,
+		      "ids too big for a compact message aren't compressed");
+	}
+
+	/**
+	 * Receivers from before compact motion get every update in a form they can read,
+	 *   and once a receiver has shown it reads compact motion it can expand every update it's sent
+	 */
+	private static void checkMixedVersions()
+	{
+		// All an old receiver can read of motion is the full message, and it can't unpack bundles
+		MessageFilter oldReceiver = new MessageFilter(TYPE_PLAYER_MOTION);
+		MotionCodec sender = new MotionCodec();
+		int updates = MotionCodec.KEYFRAME_INTERVAL * 2;
+		int read = 0;
+		for (int i=0; i < updates; i++)
+		{
+			PlayerMotionMessage motion = motion(3, 20 + i * 0.5f, 5 + i * 0.1f, 5);
+			byte[] bytes = sender.encode(motion, false).getMessageBytes();
+			Message decoded = oldReceiver.Accept(bytes, 0, bytes.length) ? decode(bytes) : null;
+			if (decoded instanceof PlayerMotionMessage && ((PlayerMotionMessage)decoded).getTime() == motion.getTime())
+				read ++;
+		}
+		check(read == updates, "an old receiver reads every update, got " + read + " of " + updates);
+
+		// The same sender switches to compact motion part way through, for a new receiver
+		MotionCodec receiver = new MotionCodec();
+		int expanded = 0;
+		for (int i=0; i < updates; i++)
+		{
+			Message encoded = sender.encode(motion(3, 40 + i * 0.05f, 6 + i * 0.01f, 5), true);
+			PlayerMotionMessage motion = receiver.expand((CompactMotionMessage)decode(encoded.getMessageBytes()));
+			if (motion != null && Math.abs(motion.getPosition().getX() - (6 + i * 0.01f)) <= 0.5f / MOTION_POSITION_SCALE)
+				expanded ++;
+		}
+		check(expanded == updates, "a new receiver expands every update after the switch, got " + expanded + " of " + updates);
+
+		// Ids too big for compact motion go in full even to a new receiver
+		check(sender.encode(motion(CompactMotionMessage.MAX_PLAYER_ID + 1, 50, 1, 1), true) instanceof PlayerMotionMessage,
+		      "motion that can't be compressed goes in full");
+
+		// And the server only bundles for a client once it has sent compact motion
+		MessageSendPolicy policy = new MessageSendPolicy();
+		check(!policy.canBundle(SOURCE.getAddress(), SOURCE.getPort()), "an old client isn't sent bundles");
+		policy.allowBundles(SOURCE);
+		check(policy.canBundle(SOURCE.getAddress(), SOURCE.getPort()), "a new client is sent bundles");
+		check(!policy.canBundle(OTHER_SOURCE.getAddress(), OTHER_SOURCE.getPort()), "other clients still aren't");
+	}
+
+	/**
+	 * Bundles unpack into the messages put in them, and damaged ones give up at the damage
+	 */
+	private static void checkBundles()
+	{
+		MessageBundle bundle = new MessageBundle();
+		check(bundle.getMessageBytes() == null, "an empty bundle has nothing to send");
+
+		PlayerJoinMessage join = new PlayerJoinMessage((char)5, "Somebody", (byte)1);
+		check(bundle.add(join), "a join fits in a bundle");
+		byte[] single = bundle.getMessageBytes();
+		check(Arrays.equals(single, join.getMessageBytes()), "a bundle of one is sent as the message alone");
+
+		check(bundle.add(new PlayerLeaveMessage((char)6)), "a leave fits in a bundle");
+		check(bundle.add(motion(7, 1, 2, 3)), "a motion fits in a bundle");
+		byte[] bytes = bundle.getMessageBytes();
+		check(bytes[1] == TYPE_MESSAGE_BUNDLE, "a bundle of several is a bundle");
+
+		List<Message> messages = MessageAnalyser.getMessagesFromArray(bytes, 0, bytes.length, SOURCE);
+		check(messages.size() == 3, "a bundle unpacks into all its messages, got " + messages.size());
+		check(messages.get(0) instanceof PlayerJoinMessage && ((PlayerJoinMessage)messages.get(0)).getPlayerName().equals("Somebody"),
+		      "the join comes out first and whole");
+		check(messages.get(1) instanceof PlayerLeaveMessage && ((PlayerLeaveMessage)messages.get(1)).getPlayerId() == 6,
+		      "the leave comes out second");
+		check(messages.get(2) instanceof PlayerMotionMessage && ((PlayerMotionMessage)messages.get(2)).getPosition().getY() == 3,
+		      "the motion comes out third");
+
+		// Datagrams can come in the middle of a bigger array
+		byte[] padded = new byte[bytes.length + 10];
+		System.arraycopy(bytes, 0, padded, 7, bytes.length);
+		check(MessageAnalyser.getMessagesFromArray(padded, 7, bytes.length, SOURCE).size() == 3, "a bundle unpacks from an offset");
+
+		// Cut off part way through the last message
+		long malformed = MessageAnalyser.getMalformedMessageCount();
+		messages = MessageAnalyser.getMessagesFromArray(bytes, 0, bytes.length - 3, SOURCE);
+		check(messages.size() == 2, "a truncated bundle keeps the messages before the damage, got " + messages.size());
+		check(MessageAnalyser.getMalformedMessageCount() > malformed, "a truncated bundle is counted as malformed");
+
+		// A small bundle refuses what doesn't fit, and is left as it was
+		MessageBundle small = new MessageBundle(40);
+		int added = 0;
+		while (small.add(new PlayerLeaveMessage((char)added)))
+			added ++;
+		check(added > 1 && small.getCount() == added, "a full bundle refuses more and keeps its count");
+		bytes = small.getMessageBytes();
+		check(bytes.length <= 40, "a bundle never grows past its size");
+		check(MessageAnalyser.getMessagesFromArray(bytes, 0, bytes.length, SOURCE).size() == added,
+		      "a full bundle still unpacks whole");
+
+		small.clear();
+		check(small.isEmpty() && small.getMessageBytes() == null, "a cleared bundle is empty");
+	}
+
+	/**
+	 * Messages split into fragments come back together whatever order the pieces arrive in
+	 */
+	private static void checkFragments()
+	{
+		// The map is packed, so it's the list of players that makes this too big for one datagram
+		LoginResponseMessage big = loginResponse(16, 400);
+		byte[] whole = big.getMessageBytes();
+		List<byte[]> pieces = MessageFragments.split(whole, MessageBundle.MAX_BUNDLE_SIZE);
+		check(pieces.size() == (whole.length + MessageBundle.MAX_BUNDLE_SIZE - MessageFragments.FRAGMENT_HEADER_SIZE - 1)
+		                       / (MessageBundle.MAX_BUNDLE_SIZE - MessageFragments.FRAGMENT_HEADER_SIZE),
+		      "a big message is split into as few pieces as fit");
+		for (byte[] piece : pieces)
+			check(piece.length <= MessageBundle.MAX_BUNDLE_SIZE && piece[1] == TYPE_MESSAGE_FRAGMENT, "every piece fits a datagram");
+
+		List<byte[]> small = MessageFragments.split(new PlayerLeaveMessage((char)1).getMessageBytes(), MessageBundle.MAX_BUNDLE_SIZE);
+		check(small.size() == 1 && small.get(0)[1] == TYPE_PLAYER_LEAVE, "a message that fits isn't split");
+
+		// Backwards, with a repeat of the first piece
+		FragmentAssembler assembler = new FragmentAssembler();
+		List<byte[]> backwards = new java.util.ArrayList<byte[]>(pieces);
+		Collections.reverse(backwards);
+		backwards.add(1, backwards.get(0));
+		List<Message> received = Collections.emptyList();
+		int completed = 0;
+		for (byte[] piece : backwards)
+		{
+			received = MessageAnalyser.getMessagesFromArray(piece, 0, piece.length, SOURCE, assembler);
+			completed += received.size();
+		}
+		check(completed == 1, "pieces in any order, some twice, make one message, got " + completed);
+		check(received.size() == 1 && Arrays.equals(received.get(0).getMessageBytes(), whole), "the message comes back exactly");
+
+		// Two senders' pieces are kept apart
+		completed = 0;
+		for (byte[] piece : pieces)
+		{
+			completed += MessageAnalyser.getMessagesFromArray(piece, 0, piece.length, SOURCE, assembler).size();
+			completed += MessageAnalyser.getMessagesFromArray(piece, 0, piece.length, OTHER_SOURCE, assembler).size();
+		}
+		check(completed == 2, "interleaved senders each get their message, got " + completed);
+
+		// A missing piece means no message, and without an assembler pieces are dropped
+		completed = 0;
+		for (byte[] piece : pieces.subList(1, pieces.size()))
+			completed += MessageAnalyser.getMessagesFromArray(piece, 0, piece.length, SOURCE, assembler).size();
+		check(completed == 0, "a message missing a piece never turns up");
+		byte[] piece = pieces.get(0);
+		check(MessageAnalyser.getMessagesFromArray(piece, 0, piece.length, SOURCE).isEmpty(), "pieces are dropped without an assembler");
+
+		try
+		{
+			MessageFragments.split(new byte[MessageFragments.MAX_FRAGMENTS + 1], MessageFragments.FRAGMENT_HEADER_SIZE + 1);
+			check(false, "a message needing too many pieces is refused");
+		}
+		catch (IllegalArgumentException er)
+		{
+			check(true, "a message needing too many pieces is refused");
+		}
+	}
+
+	/**
+	 * Snapshots rebuild the state they were encoded from, both whole and as changes from a baseline
+	 */
+	private static void checkSnapshots()
+	{
+		SnapshotState first = new SnapshotState((char)1, 100.5f, 3, 1);
+		first.addPlayer((char)1, new Position(3, 4), new Position(1, 0), new Position(0, 1), 100);
+		first.addPlayer((char)2, new Position(10.25f, 11.5f), new Position(-2, 2), new Position(-1, 0), 80);
+		first.addPlayer((char)3, new Position(20, 20), new Position(0, 0), new Position(1, 1), 60);
+		first.addProjectile((char)10, (char)1, new Position(3.5f, 4), new Position(0, 1), 100.25f);
+
+		SnapshotMessage full = (SnapshotMessage)decode(new SnapshotMessage(first, null).getMessageBytes());
+		check(full.isFull() && full.getBaselineSequence() == full.getSequence(), "a snapshot without a baseline is full");
+		check(full.getPlayerEntryCount() == 3, "a full snapshot lists everybody");
+		SnapshotState rebuilt = full.apply(null);
+		check(sameState(first, rebuilt), "a full snapshot rebuilds its state");
+
+		// Player 1 moves, 2 stays put, 3 leaves view and 4 arrives; projectile 10 hits and 11 is fired
+		SnapshotState second = new SnapshotState((char)2, 100.55f, 3, 1);
+		second.addPlayer((char)1, new Position(3.5f, 4), new Position(1, 0), new Position(0, 1), 100);
+		second.addPlayer((char)2, new Position(10.25f, 11.5f), new Position(-2, 2), new Position(-1, 0), 80);
+		second.addPlayer((char)4, new Position(30, 2), new Position(0, -1), new Position(0, -1), 90);
+		second.addProjectile((char)11, (char)2, new Position(10, 11), new Position(-1, -1), 100.5f);
+
+		SnapshotMessage delta = (SnapshotMessage)decode(new SnapshotMessage(second, first).getMessageBytes());
+		check(!delta.isFull() && delta.getBaselineSequence() == 1, "a snapshot names its baseline");
+		check(delta.getPlayerEntryCount() == 3, "only changed players are listed, got " + delta.getPlayerEntryCount());
+		for (int i=0; i < delta.getPlayerEntryCount(); i++)
+		{
+			char id = delta.getPlayerEntryId(i);
+			int changes = delta.getPlayerEntryChanges(i);
+			check(id != 2, "an unchanged player isn't listed");
+			if (id == 1)
+				check(changes == SnapshotMessage.PLAYER_POSITION, "a player who only moved lists only position, got " + changes);
+			else if (id == 3)
+				check(changes == SnapshotMessage.PLAYER_REMOVED, "a player gone from view is marked removed");
+			else if (id == 4)
+				check(changes == SnapshotMessage.PLAYER_ALL, "a new player is sent whole, got " + changes);
+		}
+		check(Arrays.equals(delta.getNewProjectileIds(), new char[] {11}), "only the new projectile is sent");
+		check(sameState(second, delta.apply(rebuilt)), "a delta snapshot rebuilds its state from the baseline");
+
+		try
+		{
+			delta.apply(second);
+			check(false, "a delta refuses the wrong baseline");
+		}
+		catch (IllegalArgumentException er)
+		{
+			check(true, "a delta refuses the wrong baseline");
+		}
+		try
+		{
+			delta.apply(null);
+			check(false, "a delta refuses no baseline");
+		}
+		catch (IllegalArgumentException er)
+		{
+			check(true, "a delta refuses no baseline");
+		}
+
+		// Nothing changed at all
+		SnapshotMessage same = (SnapshotMessage)decode(new SnapshotMessage(second, second).getMessageBytes());
+		check(same.getPlayerEntryCount() == 0 && same.getNewProjectileIds().length == 0, "an unchanged state sends no entries");
+	}
+
+	private static boolean sameState(SnapshotState a, SnapshotState b)
+	{
+		if (a.getSequence() != b.getSequence() || a.getTime() != b.getTime()
+		    || a.getPlayerCount() != b.getPlayerCount() || a.getProjectileCount() != b.getProjectileCount())
+			return false;
+
+		for (int i=0; i < a.getPlayerCount(); i++)
+		{
+			if (a.getPlayerId(i) != b.getPlayerId(i) || a.getHealth(i) != b.getHealth(i)
+			    || !samePosition(a.getPosition(i), b.getPosition(i)) || !samePosition(a.getVelocity(i), b.getVelocity(i))
+			    || !samePosition(a.getAim(i, 1), b.getAim(i, 1)))
+				return false;
+		}
+		for (int i=0; i < a.getProjectileCount(); i++)
+		{
+			if (a.getProjectileId(i) != b.getProjectileId(i) || a.getOwner(i) != b.getOwner(i)
+			    || a.getLaunchTime(i) != b.getLaunchTime(i) || !samePosition(a.getOrigin(i), b.getOrigin(i))
+			    || !samePosition(a.getDirection(i, 1), b.getDirection(i, 1)))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean samePosition(Position a, Position b)
+	{
+		return a.getX() == b.getX() && a.getY() == b.getY();
+	}
+
+	/**
+	 * Patching a cached login response gives the same message as encoding it for the player from scratch
+	 */
+	private static void checkLoginResponse()
+	{
+		for (int players : new int[] {0, 1, 5})
+		{
+			byte[] cached = loginResponse(8, players).getMessageBytes();
+			LoginResponseMessage.setPlayerFields(cached, (char)9, (byte)1, new Position(5.5f, 6.25f));
+
+			LoginResponseMessage patched = (LoginResponseMessage)decode(cached);
+			check(patched != null, "a patched login response still decodes, with " + players + " players");
+			check(patched.getPlayerId() == 9 && patched.getPlayerTeam() == 1, "the new player's id and team are patched in");
+			check(patched.getInitialPosition().getX() == 5.5f && patched.getInitialPosition().getY() == 6.25f,
+			      "the new player's position is patched in");
+
+			LoginResponseMessage fresh = loginResponse(8, players, (char)9, (byte)1, new Position(5.5f, 6.25f));
+			check(Arrays.equals(cached, fresh.getMessageBytes()), "patching matches encoding from scratch, with " + players + " players");
+			check(patched.getNumPlayers() == players && Arrays.equals(patched.getPlayerIds(), fresh.getPlayerIds())
+			      && Arrays.equals(patched.getPlayerNames(), fresh.getPlayerNames()) && patched.getMapName().equals("Test map"),
+			      "the shared fields are left alone");
+		}
+	}
+
+	/**
+	 * Deaths and respawns the server sends alongside a snapshot get past the client's filter and decode,
+	 *   whether they come bundled or one to a datagram
+	 */
+	private static void checkDeathAndRespawn()
+	{
+		MessageFilter filter = ClientExtaSysConnection.createMessageFilter();
+		SnapshotState state = new SnapshotState((char)1, 50, 1, 0);
+		state.addPlayer((char)4, new Position(7, 8), new Position(0, 0), new Position(0, 1), 0);
+		PlayerDeathMessage death = new PlayerDeathMessage((char)4, (char)9);
+		PlayerRespawnMessage respawn = new PlayerRespawnMessage((char)4, new Position(2.5f, 3.25f));
+
+		for (Message message : new Message[] {death, respawn})
+		{
+			byte[] bytes = message.getMessageBytes();
+			check(filter.Accept(bytes, 0, bytes.length), "the client's filter lets a " + message.getClass().getSimpleName() + " through");
+		}
+
+		MessageBundle bundle = new MessageBundle();
+		bundle.add(new SnapshotMessage(state, null));
+		bundle.add(death);
+		bundle.add(respawn);
+		byte[] bytes = bundle.getMessageBytes();
+		check(filter.Accept(bytes, 0, bytes.length), "the client's filter lets a snapshot with events through");
+
+		List<Message> messages = MessageAnalyser.getMessagesFromArray(bytes, 0, bytes.length, SOURCE);
+		check(messages.size() == 3, "a snapshot with events unpacks into all of them, got " + messages.size());
+		PlayerDeathMessage decodedDeath = (PlayerDeathMessage)messages.get(1);
+		check(decodedDeath.getDeadPlayerId() == 4 && decodedDeath.getKillingPlayerId() == 9, "a death says who died and who killed them");
+		PlayerRespawnMessage decodedRespawn = (PlayerRespawnMessage)messages.get(2);
+		check(decodedRespawn.getPlayerId() == 4 && samePosition(decodedRespawn.getNewPosition(), new Position(2.5f, 3.25f)),
+		      "a respawn says who came back and where");
+		check(filter.getTotalDropCount() == 0, "nothing the server sends with a snapshot is dropped");
+	}
+
+	private static LoginResponseMessage loginResponse(int mapSize, int players)
+	{
+		return loginResponse(mapSize, players, (char)1, (byte)0, new Position(1, 2));
+	}
+
+	private static LoginResponseMessage loginResponse(int mapSize, int players, char playerId, byte team, Position position)
+	{
+		StringBuilder map = new StringBuilder();
+		for (int y=0; y < mapSize; y++)
+		{
+			for (int x=0; x < mapSize; x++)
+				map.append(x == 0 || y == 0 || (x * 7 + y * 3) % 11 == 0 ? '#' : '.');
+			map.append('\n');
+		}
+
+		String[] names = new String[players];
+		char[] ids = new char[players];
+		byte[] teams = new byte[players];
+		for (int i=0; i < players; i++)
+		{
+			names[i] = "Player" + i;
+			ids[i] = (char)(i + 20);
+			teams[i] = (byte)(i % 2);
+		}
+		return new LoginResponseMessage(playerId, team, "Test map", map.toString(), (char)players, names, ids, teams, position, 42.5f);
+	}
+}